@@ -12,11 +12,8 @@ public class ProcessesResult {
         return results;
     }
 
-<<<<<<< HEAD
     public Integer getTotalCount() {
         return totalCount;
     }
 
-=======
->>>>>>> branch 'master' of https://github.com/mhelmstetter/mongo-util.git
 }
@@ -4,6 +4,7 @@ import java.util.HashSet;
 import java.util.Set;
 
 import com.mongodb.model.Namespace;
+import com.mongodb.util.NamespaceFilter;
 
 public class DiffOptions {
     
@@ -12,6 +13,7 @@ public class DiffOptions {
     private String sourceMongoUri;
     private String destMongoUri;
     private String[] shardMap;
+    private NamespaceFilter namespaceFilter = new NamespaceFilter();
 
 
     public int getThreads() {
@@ -53,6 +55,14 @@ public class DiffOptions {
 	public void setShardMap(String[] shardMap) {
 		this.shardMap = shardMap;
 	}
+
+	public NamespaceFilter getNamespaceFilter() {
+		return namespaceFilter;
+	}
+
+	public void setNamespaceFilter(NamespaceFilter namespaceFilter) {
+		this.namespaceFilter = namespaceFilter;
+	}
     
 
 
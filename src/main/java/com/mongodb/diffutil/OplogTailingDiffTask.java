@@ -1,5 +1,6 @@
 package com.mongodb.diffutil;
 
+import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.in;
 import static com.mongodb.client.model.Filters.ne;
 
@@ -19,6 +20,8 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
 import org.bson.Document;
 import org.bson.RawBsonDocument;
 import org.bson.conversions.Bson;
@@ -33,6 +36,7 @@ import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.model.Namespace;
 import com.mongodb.model.OplogSummary;
+import com.mongodb.util.NamespaceFilter;
 import com.mongodb.model.ShardTimestamp;
 import com.mongodb.oplog.OplogUtil;
 import com.mongodb.shardsync.ShardClient;
@@ -65,6 +69,8 @@ public class OplogTailingDiffTask implements Callable<OplogTailingDiffTaskResult
     
     Map<Namespace, Set<Object>> namespaceBuffers = new HashMap<>();
     
+    private NamespaceFilter namespaceFilter = new NamespaceFilter();
+    
     public OplogTailingDiffTask(String sourceShardId, String destShardId, ShardClient sourceClient, ShardClient destClient, int threads, int queueSize) {
         this.sourceShardId = sourceShardId;
         this.destShardId = destShardId;
@@ -182,6 +188,10 @@ public class OplogTailingDiffTask implements Callable<OplogTailingDiffTaskResult
         
         //Bson query = and(gte("ts", shardTimestamp.getTimestamp()), ne("op", "n"));
         Bson query = ne("op", "n");
+        if (! namespaceFilter.isEmpty()) {
+        	// filtered on the server, except command entries which are checked below
+        	query = and(query, namespaceFilter.toOplogQuery());
+        }
         long start = System.currentTimeMillis();
         long totalCount = 0;
         long buffersCount = 0;
@@ -193,22 +203,27 @@ public class OplogTailingDiffTask implements Callable<OplogTailingDiffTaskResult
                 RawBsonDocument doc = cursor.next();
                 totalCount++;
                 
-                OplogSummary oplogSummary = OplogUtil.getOplogSummaryFromOplogEntry(doc);
-                if (oplogSummary.getId() != null) {
-                	Set<Object> buffer = getBuffer(oplogSummary.getNs());
-                	buffer.add(oplogSummary.getId());
-                	buffersCount++;
-                	
-                	if (buffersCount >= batchSize) {
+                if (! namespaceFilter.isEmpty() && ! namespaceFilter.matchesOplogEntry(doc)) {
+                	continue;
+                }
+                for (RawBsonDocument op : getOps(doc)) {
+                	OplogSummary oplogSummary = OplogUtil.getOplogSummaryFromOplogEntry(op);
+                	if (oplogSummary.getId() != null) {
+                		Set<Object> buffer = getBuffer(oplogSummary.getNs());
+                		buffer.add(oplogSummary.getId());
+                		buffersCount++;
                 		
-                		//DiffTask diffTask = new DiffTask(Collections.unmodifiableSet(buffer), sourceShardId, oplogSummary.getNs(), sourceMongoClient, destMongoClient, taskCount);
-                		//futures.add(pool.submit(diffTask));
-                		DiffResult diffResult = diff(buffer, sourceShardId, oplogSummary.getNs(), sourceMongoClient, destMongoClient);
-                		result.addDiffResult(diffResult);
-                        taskCount++;
-                        buffersCount = 0;
-                        buffer = new HashSet<>(batchSize);
-                        //buffer.clear();
+                		if (buffersCount >= batchSize) {
+                			
+                			//DiffTask diffTask = new DiffTask(Collections.unmodifiableSet(buffer), sourceShardId, oplogSummary.getNs(), sourceMongoClient, destMongoClient, taskCount);
+                			//futures.add(pool.submit(diffTask));
+                			DiffResult diffResult = diff(buffer, sourceShardId, oplogSummary.getNs(), sourceMongoClient, destMongoClient);
+                			result.addDiffResult(diffResult);
+                			taskCount++;
+                			buffersCount = 0;
+                			buffer = new HashSet<>(batchSize);
+                			//buffer.clear();
+                		}
                 	}
                 }
             }
@@ -246,6 +261,27 @@ public class OplogTailingDiffTask implements Callable<OplogTailingDiffTaskResult
     }
 
 
+	public void setNamespaceFilter(NamespaceFilter namespaceFilter) {
+		this.namespaceFilter = namespaceFilter;
+	}
+
+	/**
+	 * The entry itself, or for a transaction (applyOps) its operations that pass the filter.
+	 */
+	private List<RawBsonDocument> getOps(RawBsonDocument doc) {
+		BsonDocument o = doc.getDocument("o", null);
+		if (!"c".equals(doc.getString("op").getValue()) || o == null || !o.containsKey("applyOps")) {
+			return Collections.singletonList(doc);
+		}
+		List<RawBsonDocument> ops = new LinkedList<>();
+		for (BsonValue op : o.getArray("applyOps")) {
+			if (namespaceFilter.isEmpty() || namespaceFilter.matchesOplogEntry(op.asDocument())) {
+				ops.add((RawBsonDocument) op.asDocument());
+			}
+		}
+		return ops;
+	}
+
 	private Set<Object> getBuffer(Namespace ns) {
 		Set<Object> buffer = namespaceBuffers.get(ns);
 		if (buffer == null) {
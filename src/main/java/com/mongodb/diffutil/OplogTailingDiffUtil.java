@@ -29,6 +29,7 @@ import org.slf4j.LoggerFactory;
 
 import com.mongodb.model.Shard;
 import com.mongodb.shardsync.ShardClient;
+import com.mongodb.util.NamespaceFilter;
 
 
 public class OplogTailingDiffUtil {
@@ -73,16 +74,14 @@ public class OplogTailingDiffUtil {
 			
 			sourceShardClient = new ShardClient("source", diffOptions.getSourceMongoUri(), sourceToDestShardMap.keySet());
 			destShardClient = new ShardClient("dest", diffOptions.getDestMongoUri(), sourceToDestShardMap.values());
-			sourceShardClient.init();
-			destShardClient.init();
+			ShardClient.initAll(sourceShardClient, destShardClient);
 			
 		} else {
 			logger.debug("Default 1:1 shard mapping");
 			
 			sourceShardClient = new ShardClient("source", diffOptions.getSourceMongoUri());
 			destShardClient = new ShardClient("dest", diffOptions.getDestMongoUri());
-			sourceShardClient.init();
-			destShardClient.init();
+			ShardClient.initAll(sourceShardClient, destShardClient);
 			
 			logger.debug("Source shard count: " + sourceShardClient.getShardsMap().size());
 			// default, just match up the shards 1:1
@@ -108,6 +107,7 @@ public class OplogTailingDiffUtil {
         	String destShardId = sourceToDestShardMap.get(sourceShardId);
         	
         	OplogTailingDiffTask task = new OplogTailingDiffTask(sourceShardId, destShardId, sourceShardClient, destShardClient, diffOptions.getThreads(), diffOptions.getQueueSize());
+        	task.setNamespaceFilter(diffOptions.getNamespaceFilter());
         	futures.add(executor.submit(task));
             
         	//tasks.add(new OplogTailingDiffTask(sourceShardId, destShardId, sourceShardClient, destShardClient, diffOptions.getThreads(), diffOptions.getQueueSize()));
@@ -189,6 +189,8 @@ public class OplogTailingDiffUtil {
         options.addOption(OptionBuilder.withArgName("destination cluster mongo uri").hasArg().withLongOpt("destination").create("d"));
         options.addOption(OptionBuilder.withArgName("Configuration properties file").hasArgs().withLongOpt("config")
                 .isRequired(false).create("c"));
+        options.addOption(OptionBuilder.withArgName("Namespace filter: db, db.coll, wildcard pattern or !exclude").hasArgs()
+                .withLongOpt("filter").create("f"));
         
         CommandLineParser parser = new GnuParser();
 
@@ -225,6 +227,9 @@ public class OplogTailingDiffUtil {
         DiffOptions options = new DiffOptions();
         options.setSourceMongoUri(sourceUri);
         options.setDestMongoUri(destUri);
+        if (line.hasOption("f")) {
+            options.setNamespaceFilter(new NamespaceFilter(line.getOptionValues("f")));
+        }
         
         
         
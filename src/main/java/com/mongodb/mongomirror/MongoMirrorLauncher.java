@@ -0,0 +1,300 @@
+package com.mongodb.mongomirror;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoDatabase;
+
+/**
+ * Starts mongomirror processes in waves instead of all at once. Before each wave the source
+ * shards of the runners in that wave are sampled and the wave is only admitted when each of them is
+ * below the load thresholds:
+ * <ul>
+ * <li>WiredTiger dirty ratio and cache fill (serverStatus wiredTiger.cache); a cache is normally
+ * kept around the 80% eviction target, so only the fill above that counts</li>
+ * <li>queued readers (serverStatus globalLock.currentQueue.readers)</li>
+ * <li>average disk latency per io, from the systemMetrics in getDiagnosticData (Linux only,
+ * skipped where unavailable)</li>
+ * </ul>
+ * numParallelCollections for each runner is scaled by the headroom left on its own source shard.
+ * A wave that has waited maxWaitMillis for its shards is started anyway, with the minimum
+ * numParallelCollections on an overloaded shard.
+ */
+public class MongoMirrorLauncher {
+
+	private static Logger logger = LoggerFactory.getLogger(MongoMirrorLauncher.class);
+
+	private final static int DEFAULT_PARALLEL_COLLECTIONS = 4;
+	private final static long CHECK_INTERVAL_MILLIS = 10000;
+	// WiredTiger eviction_trigger, application threads start evicting above this fill
+	private final static double EVICTION_TRIGGER = 0.80;
+
+	// source shard clients by runner id (source shard id)
+	private final Map<String, MongoClient> sourceClients;
+	private final Map<String, MongoMirrorRunner> pending = new LinkedHashMap<String, MongoMirrorRunner>();
+	// last getDiagnosticData disk totals by shard, for latency deltas
+	private final Map<String, long[]> lastDiskTotals = new HashMap<String, long[]>();
+
+	private int waveSize = 1;
+	private long settleMillis = 60000;
+	private long maxWaitMillis = 30 * 60 * 1000;
+	private int maxParallelCollections = DEFAULT_PARALLEL_COLLECTIONS;
+
+	private double maxCacheFill = 0.95;
+	private double maxCacheDirty = 0.10;
+	private int maxReadQueue = 10;
+	private double maxDiskLatencyMillis = 20.0;
+
+	public static class SourceLoad {
+		private Double cacheFill;
+		private Double cacheDirty;
+		private Integer readQueue;
+		private Double diskLatencyMillis;
+
+		@Override
+		public String toString() {
+			return String.format("cache fill: %s, dirty: %s, read queue: %s, disk latency: %s",
+					cacheFill == null ? "?" : String.format("%.1f%%", cacheFill * 100),
+					cacheDirty == null ? "?" : String.format("%.1f%%", cacheDirty * 100),
+					readQueue == null ? "?" : readQueue,
+					diskLatencyMillis == null ? "?" : String.format("%.1fms", diskLatencyMillis));
+		}
+	}
+
+	public MongoMirrorLauncher(Map<String, MongoClient> sourceClients) {
+		this.sourceClients = sourceClients;
+	}
+
+	public void add(MongoMirrorRunner runner) {
+		pending.put(runner.getId(), runner);
+	}
+
+	/**
+	 * Start all added runners, blocking until the last wave has been started.
+	 */
+	public void launch(boolean dryRun) throws IOException, InterruptedException {
+		logger.debug(String.format("Staged mongomirror launch: %s runners, waveSize: %s, settle: %sms", pending.size(),
+				waveSize, settleMillis));
+		// prime the disk counters so the first check has a latency
+		sampleAll();
+		int wave = 0;
+		long waitStart = System.currentTimeMillis();
+		while (!pending.isEmpty()) {
+			List<MongoMirrorRunner> nextWave = getNextWave();
+			// only the shards the next wave reads from, the shards already running are expected to be busy
+			Map<String, SourceLoad> loads = sample(nextWave);
+			String overloaded = getOverloaded(loads);
+			if (overloaded != null && !dryRun) {
+				long waited = System.currentTimeMillis() - waitStart;
+				if (waited < maxWaitMillis) {
+					logger.debug(String.format("Waiting to start next wave, %s pending: %s", pending.size(), overloaded));
+					Thread.sleep(CHECK_INTERVAL_MILLIS);
+					continue;
+				}
+				logger.warn(String.format("Starting next wave after waiting %s seconds, source still overloaded: %s",
+						waited / 1000, overloaded));
+			}
+
+			wave++;
+			for (MongoMirrorRunner runner : nextWave) {
+				pending.remove(runner.getId());
+				SourceLoad load = loads.get(runner.getId());
+				int parallel = getParallelCollections(load);
+				logger.debug(String.format("Wave %s: starting %s, numParallelCollections: %s, source %s", wave,
+						runner.getId(), parallel, load));
+				runner.setNumParallelCollections(String.valueOf(parallel));
+				runner.execute(dryRun);
+			}
+			if (!pending.isEmpty() && !dryRun) {
+				// give the new initial syncs time to show up in the source metrics
+				Thread.sleep(settleMillis);
+			}
+			waitStart = System.currentTimeMillis();
+		}
+		logger.debug(String.format("Staged mongomirror launch complete, %s waves", wave));
+	}
+
+	private List<MongoMirrorRunner> getNextWave() {
+		List<MongoMirrorRunner> nextWave = new ArrayList<MongoMirrorRunner>(waveSize);
+		for (Iterator<MongoMirrorRunner> i = pending.values().iterator(); i.hasNext() && nextWave.size() < waveSize;) {
+			nextWave.add(i.next());
+		}
+		return nextWave;
+	}
+
+	private String getOverloaded(Map<String, SourceLoad> loads) {
+		for (Map.Entry<String, SourceLoad> entry : loads.entrySet()) {
+			if (getHeadroom(entry.getValue()) <= 0.0) {
+				return String.format("%s %s", entry.getKey(), entry.getValue());
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 1.0 for an idle shard, 0.0 (or less) once any metric reaches its threshold.
+	 */
+	double getHeadroom(SourceLoad load) {
+		if (load == null) {
+			return 1.0;
+		}
+		double headroom = 1.0;
+		if (load.cacheFill != null) {
+			double overTrigger = Math.max(0.0, load.cacheFill - EVICTION_TRIGGER);
+			headroom = Math.min(headroom, 1.0 - overTrigger / (maxCacheFill - EVICTION_TRIGGER));
+		}
+		if (load.cacheDirty != null) {
+			headroom = Math.min(headroom, 1.0 - load.cacheDirty / maxCacheDirty);
+		}
+		if (load.readQueue != null) {
+			headroom = Math.min(headroom, 1.0 - (double) load.readQueue / maxReadQueue);
+		}
+		if (load.diskLatencyMillis != null) {
+			headroom = Math.min(headroom, 1.0 - load.diskLatencyMillis / maxDiskLatencyMillis);
+		}
+		return headroom;
+	}
+
+	int getParallelCollections(SourceLoad load) {
+		double headroom = Math.max(0.0, getHeadroom(load));
+		return Math.max(1, (int) Math.ceil(maxParallelCollections * headroom));
+	}
+
+	private Map<String, SourceLoad> sample(List<MongoMirrorRunner> runners) {
+		Map<String, SourceLoad> loads = new LinkedHashMap<String, SourceLoad>();
+		for (MongoMirrorRunner runner : runners) {
+			MongoClient client = sourceClients.get(runner.getId());
+			if (client != null) {
+				loads.put(runner.getId(), sample(runner.getId(), client));
+			}
+		}
+		return loads;
+	}
+
+	private Map<String, SourceLoad> sampleAll() {
+		Map<String, SourceLoad> loads = new LinkedHashMap<String, SourceLoad>();
+		for (Map.Entry<String, MongoClient> entry : sourceClients.entrySet()) {
+			loads.put(entry.getKey(), sample(entry.getKey(), entry.getValue()));
+		}
+		return loads;
+	}
+
+	private SourceLoad sample(String shardId, MongoClient client) {
+		SourceLoad load = new SourceLoad();
+		MongoDatabase admin = client.getDatabase("admin");
+		try {
+			Document serverStatus = admin.runCommand(new Document("serverStatus", 1));
+			Document wiredTiger = (Document) serverStatus.get("wiredTiger");
+			if (wiredTiger != null) {
+				Document cache = (Document) wiredTiger.get("cache");
+				double max = getNumber(cache, "maximum bytes configured");
+				if (max > 0) {
+					load.cacheFill = getNumber(cache, "bytes currently in the cache") / max;
+					load.cacheDirty = getNumber(cache, "tracked dirty bytes in the cache") / max;
+				}
+			}
+			Document globalLock = (Document) serverStatus.get("globalLock");
+			if (globalLock != null && globalLock.get("currentQueue") != null) {
+				load.readQueue = (int) getNumber((Document) globalLock.get("currentQueue"), "readers");
+			}
+		} catch (MongoException me) {
+			logger.warn(String.format("%s - serverStatus failed: %s", shardId, me.getMessage()));
+		}
+		load.diskLatencyMillis = sampleDiskLatency(shardId, admin);
+		return load;
+	}
+
+	/**
+	 * Average ms per disk io since the previous sample, summed over all disks, or null when
+	 * getDiagnosticData has no disk metrics (not Linux, or not permitted).
+	 */
+	private Double sampleDiskLatency(String shardId, MongoDatabase admin) {
+		long[] totals;
+		try {
+			Document result = admin.runCommand(new Document("getDiagnosticData", 1));
+			Document data = (Document) result.get("data");
+			Document systemMetrics = data == null ? null : (Document) data.get("systemMetrics");
+			Document disks = systemMetrics == null ? null : (Document) systemMetrics.get("disks");
+			if (disks == null) {
+				return null;
+			}
+			totals = new long[2];
+			for (Object disk : disks.values()) {
+				Document d = (Document) disk;
+				totals[0] += (long) (getNumber(d, "reads") + getNumber(d, "writes"));
+				totals[1] += (long) (getNumber(d, "read_time_ms") + getNumber(d, "write_time_ms"));
+			}
+		} catch (MongoException me) {
+			logger.trace(String.format("%s - getDiagnosticData failed: %s", shardId, me.getMessage()));
+			return null;
+		}
+		long[] last = lastDiskTotals.put(shardId, totals);
+		if (last == null) {
+			return null;
+		}
+		long ios = totals[0] - last[0];
+		if (ios <= 0) {
+			return 0.0;
+		}
+		return (double) (totals[1] - last[1]) / ios;
+	}
+
+	private static double getNumber(Document doc, String key) {
+		Object value = doc.get(key);
+		return value instanceof Number ? ((Number) value).doubleValue() : 0.0;
+	}
+
+	public void setWaveSize(int waveSize) {
+		this.waveSize = waveSize;
+	}
+
+	public void setSettleMillis(long settleMillis) {
+		this.settleMillis = settleMillis;
+	}
+
+	/**
+	 * Longest a wave waits for its source shards to drop below the thresholds before it is started anyway.
+	 */
+	public void setMaxWaitMillis(long maxWaitMillis) {
+		this.maxWaitMillis = maxWaitMillis;
+	}
+
+	/**
+	 * numParallelCollections for a runner on an idle source shard.
+	 */
+	public void setMaxParallelCollections(int maxParallelCollections) {
+		this.maxParallelCollections = maxParallelCollections;
+	}
+
+	public void setMaxCacheFill(double maxCacheFill) {
+		if (maxCacheFill <= EVICTION_TRIGGER || maxCacheFill > 1.0) {
+			throw new IllegalArgumentException(String.format("max cache fill must be above %.0f%% and at most 100%%",
+					EVICTION_TRIGGER * 100));
+		}
+		this.maxCacheFill = maxCacheFill;
+	}
+
+	public void setMaxCacheDirty(double maxCacheDirty) {
+		this.maxCacheDirty = maxCacheDirty;
+	}
+
+	public void setMaxReadQueue(int maxReadQueue) {
+		this.maxReadQueue = maxReadQueue;
+	}
+
+	public void setMaxDiskLatencyMillis(double maxDiskLatencyMillis) {
+		this.maxDiskLatencyMillis = maxDiskLatencyMillis;
+	}
+
+}
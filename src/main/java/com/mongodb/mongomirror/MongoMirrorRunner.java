@@ -19,6 +19,9 @@ import org.slf4j.LoggerFactory;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.mongodb.model.Namespace;
 import com.mongodb.util.HttpUtils;
 
@@ -129,24 +132,12 @@ public class MongoMirrorRunner {
     	executor.execute(cmdLine, executeResultHandler);
     }
     
-    @SuppressWarnings("rawtypes")
     public MongoMirrorStatus checkStatus() {
         String statusStr = null;
         MongoMirrorStatus status = null;
         try {
-            statusStr = httpUtils.doGetAsString(String.format("http://localhost:%s", httpStatusPort));
-            if (statusStr.contains("\"stage\":\"initial sync\"")) {
-                if (statusStr.contains("\"applying oplog entries\"")) {
-                    status = gson.fromJson(statusStr, MongoMirrorStatusOplogSync.class);
-                } else {
-                    status = gson.fromJson(statusStr, MongoMirrorStatusInitialSync.class);
-                }
-                
-            } else if (statusStr.contains("\"stage\":\"oplog sync\"")) {
-                status = gson.fromJson(statusStr, MongoMirrorStatusOplogSync.class);
-            } else {
-                status = gson.fromJson(statusStr, MongoMirrorStatus.class);
-            }
+            statusStr = httpUtils.doGetAsString(getStatusUrl());
+            status = parseStatus(gson, statusStr);
         } catch (IOException e) {
             logger.error(statusStr);
             logger.error("Error checking mongomirror status: " + e.getMessage());
@@ -157,6 +148,34 @@ public class MongoMirrorRunner {
         return status;
     }
     
+    /**
+     * Parse the http status json into the status class for its stage / phase. The json is parsed
+     * once and the stage and phase read as fields.
+     */
+    public static MongoMirrorStatus parseStatus(Gson gson, String statusStr) {
+        JsonObject json = new JsonParser().parse(statusStr).getAsJsonObject();
+        String stage = getString(json, "stage");
+        String phase = getString(json, "phase");
+        if (MongoMirrorStatusInitialSync.INITIAL_SYNC.equals(stage)) {
+            if (MongoMirrorStatusOplogSync.PHASE_APPLYING_OPLOG.equals(phase)) {
+                return gson.fromJson(json, MongoMirrorStatusOplogSync.class);
+            }
+            return gson.fromJson(json, MongoMirrorStatusInitialSync.class);
+        } else if (MongoMirrorStatusOplogSync.OPLOG_SYNC.equals(stage)) {
+            return gson.fromJson(json, MongoMirrorStatusOplogSync.class);
+        }
+        return gson.fromJson(json, MongoMirrorStatus.class);
+    }
+    
+    private static String getString(JsonObject json, String name) {
+        JsonElement element = json.get(name);
+        return element == null || element.isJsonNull() ? null : element.getAsString();
+    }
+    
+    public String getStatusUrl() {
+        return String.format("http://localhost:%s", httpStatusPort);
+    }
+    
     private void addArg(String argName) {
         cmdLine.addArgument("--" + argName);
     }
@@ -330,6 +349,10 @@ public class MongoMirrorRunner {
         return id;
     }
 
+    public Integer getHttpStatusPort() {
+        return httpStatusPort;
+    }
+
 	public void setOplogPath(String oplogPath) {
 		this.oplogPath = oplogPath;
 	}
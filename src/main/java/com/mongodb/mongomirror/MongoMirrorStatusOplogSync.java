@@ -5,6 +5,10 @@ import java.util.concurrent.TimeUnit;
 
 public class MongoMirrorStatusOplogSync extends MongoMirrorStatus {
     
+    public final static String OPLOG_SYNC = "oplog sync";
+    // initial sync stage, but already applying oplog entries
+    public final static String PHASE_APPLYING_OPLOG = "applying oplog entries";
+    
     private OplogSyncDetails details;
 
     public OplogSyncDetails getDetails() {
@@ -0,0 +1,374 @@
+package com.mongodb.mongomirror;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.mongodb.util.ByteSizesUtil;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Polls the http status of all mongomirror processes concurrently and asynchronously, over one
+ * pooled http client, and keeps a short time series per mongomirror (stage, phase, copied bytes,
+ * lag). A poll never waits for a slow mongomirror; a mongomirror whose previous request is still
+ * outstanding is skipped until it answers.
+ *
+ * From the series: copy throughput, an ETA to cutover (initial sync bytes remaining at the current
+ * rate, then oplog lag at its current rate of decrease) and whether the whole cluster is ready for
+ * cutover, i.e. every mongomirror is in oplog sync with lag at or below readyLagSeconds.
+ */
+public class MongoMirrorTelemetry {
+
+	private static Logger logger = LoggerFactory.getLogger(MongoMirrorTelemetry.class);
+
+	private final static int MAX_SAMPLES = 720;
+	private final static long RATE_WINDOW_MILLIS = 5 * 60 * 1000;
+	// a sample older than this many poll intervals means mongomirror stopped answering
+	private final static int STALE_POLLS = 3;
+
+	private final OkHttpClient httpClient;
+	private final Gson gson = new GsonBuilder().create();
+	private final ScheduledExecutorService scheduler;
+	private final long pollIntervalMillis;
+	private final Map<String, Series> series = new LinkedHashMap<String, Series>();
+
+	private long readyLagSeconds = 10;
+
+	public static class Sample {
+		private final long time;
+		private final String stage;
+		private final String phase;
+		private final String errorMessage;
+		private final long copiedBytes;
+		private final long totalBytes;
+		private final Long lagSeconds;
+
+		Sample(long time, MongoMirrorStatus status) {
+			this.time = time;
+			this.stage = status.getStage();
+			this.phase = status.getPhase();
+			this.errorMessage = status.getErrorMessage();
+			if (status.isInitialSync()) {
+				MongoMirrorStatusInitialSync st = (MongoMirrorStatusInitialSync) status;
+				copiedBytes = st.getCopiedBytes();
+				totalBytes = st.getTotalBytes();
+			} else {
+				copiedBytes = 0;
+				totalBytes = 0;
+			}
+			if (status.isOplogSync() && ((MongoMirrorStatusOplogSync) status).getDetails() != null) {
+				lagSeconds = ((MongoMirrorStatusOplogSync) status).getDetails().getLag().getSeconds();
+			} else {
+				lagSeconds = null;
+			}
+		}
+
+		public long getTime() {
+			return time;
+		}
+
+		public String getStage() {
+			return stage;
+		}
+
+		public String getPhase() {
+			return phase;
+		}
+
+		public String getErrorMessage() {
+			return errorMessage;
+		}
+
+		public long getCopiedBytes() {
+			return copiedBytes;
+		}
+
+		public long getTotalBytes() {
+			return totalBytes;
+		}
+
+		public Long getLagSeconds() {
+			return lagSeconds;
+		}
+
+		public boolean isCopying() {
+			return totalBytes > 0 && !MongoMirrorStatusInitialSync.PHASE_COPYING_INDEXES.equals(phase);
+		}
+	}
+
+	private static class Series {
+		private final String id;
+		private final Request request;
+		private final AtomicBoolean inFlight = new AtomicBoolean();
+		private final AtomicLong errors = new AtomicLong();
+		private final Deque<Sample> samples = new ArrayDeque<Sample>();
+
+		Series(String id, String url) {
+			this.id = id;
+			this.request = new Request.Builder().url(url).build();
+		}
+
+		synchronized void add(Sample sample) {
+			samples.addLast(sample);
+			if (samples.size() > MAX_SAMPLES) {
+				samples.removeFirst();
+			}
+		}
+
+		synchronized Sample latest() {
+			return samples.peekLast();
+		}
+
+		synchronized List<Sample> getSamples() {
+			return new ArrayList<Sample>(samples);
+		}
+
+		/**
+		 * Copy rate in bytes/sec over the recent window, null when unknown.
+		 */
+		synchronized Double getCopyRate() {
+			Sample last = samples.peekLast();
+			if (last == null || !last.isCopying()) {
+				return null;
+			}
+			Sample first = null;
+			for (Iterator<Sample> i = samples.descendingIterator(); i.hasNext();) {
+				Sample s = i.next();
+				if (!s.isCopying() || last.time - s.time > RATE_WINDOW_MILLIS) {
+					break;
+				}
+				first = s;
+			}
+			if (first == null || first == last || last.copiedBytes < first.copiedBytes) {
+				return null;
+			}
+			return (last.copiedBytes - first.copiedBytes) / ((last.time - first.time) / 1000.0);
+		}
+
+		/**
+		 * Change in lag, seconds of lag per second, over the recent window. Negative while
+		 * catching up, null when unknown.
+		 */
+		synchronized Double getLagSlope() {
+			Sample last = samples.peekLast();
+			if (last == null || last.lagSeconds == null) {
+				return null;
+			}
+			Sample first = null;
+			for (Iterator<Sample> i = samples.descendingIterator(); i.hasNext();) {
+				Sample s = i.next();
+				if (s.lagSeconds == null || last.time - s.time > RATE_WINDOW_MILLIS) {
+					break;
+				}
+				first = s;
+			}
+			if (first == null || first == last) {
+				return null;
+			}
+			return (last.lagSeconds - first.lagSeconds) / ((last.time - first.time) / 1000.0);
+		}
+	}
+
+	public MongoMirrorTelemetry(Collection<MongoMirrorRunner> runners, long pollIntervalMillis) {
+		this.pollIntervalMillis = pollIntervalMillis;
+		for (MongoMirrorRunner runner : runners) {
+			series.put(runner.getId(), new Series(runner.getId(), runner.getStatusUrl()));
+		}
+		// every mongomirror is on localhost, so the per-host limit has to allow all of them
+		int maxRequests = Math.max(1, runners.size());
+		Dispatcher dispatcher = new Dispatcher();
+		dispatcher.setMaxRequests(maxRequests);
+		dispatcher.setMaxRequestsPerHost(maxRequests);
+		httpClient = new OkHttpClient.Builder()
+				.dispatcher(dispatcher)
+				.connectionPool(new ConnectionPool(maxRequests, 5, TimeUnit.MINUTES))
+				.connectTimeout(2, TimeUnit.SECONDS)
+				.readTimeout(Math.max(pollIntervalMillis, 5000), TimeUnit.MILLISECONDS)
+				.build();
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "mongomirror-telemetry");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	public void start() {
+		scheduler.scheduleWithFixedDelay(this::poll, 0, pollIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public void stop() {
+		scheduler.shutdownNow();
+		httpClient.dispatcher().executorService().shutdown();
+		httpClient.connectionPool().evictAll();
+	}
+
+	private void poll() {
+		for (final Series s : series.values()) {
+			if (!s.inFlight.compareAndSet(false, true)) {
+				logger.trace(String.format("%s - previous status request still outstanding", s.id));
+				continue;
+			}
+			httpClient.newCall(s.request).enqueue(new Callback() {
+				@Override
+				public void onFailure(Call call, IOException e) {
+					s.errors.incrementAndGet();
+					s.inFlight.set(false);
+					logger.trace(String.format("%s - status request failed: %s", s.id, e.getMessage()));
+				}
+
+				@Override
+				public void onResponse(Call call, Response response) {
+					try (ResponseBody body = response.body()) {
+						if (!response.isSuccessful()) {
+							s.errors.incrementAndGet();
+							return;
+						}
+						MongoMirrorStatus status = MongoMirrorRunner.parseStatus(gson, body.string());
+						s.add(new Sample(System.currentTimeMillis(), status));
+					} catch (IOException | RuntimeException e) {
+						s.errors.incrementAndGet();
+						logger.warn(String.format("%s - error reading mongomirror status: %s", s.id, e.getMessage()));
+					} finally {
+						s.inFlight.set(false);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Seconds until this mongomirror is ready for cutover, 0 when ready, null when unknown,
+	 * including when the latest sample is stale.
+	 */
+	private Long getSecondsToCutover(Series s) {
+		Sample last = s.latest();
+		if (last == null || last.errorMessage != null || isStale(last)) {
+			return null;
+		}
+		if (last.lagSeconds != null && MongoMirrorStatusOplogSync.OPLOG_SYNC.equals(last.stage)) {
+			if (last.lagSeconds <= readyLagSeconds) {
+				return 0L;
+			}
+			Double slope = s.getLagSlope();
+			if (slope == null || slope >= 0) {
+				return null;
+			}
+			return (long) ((last.lagSeconds - readyLagSeconds) / -slope);
+		}
+		if (last.isCopying()) {
+			Double rate = s.getCopyRate();
+			if (rate == null || rate <= 0) {
+				return null;
+			}
+			return (long) ((last.totalBytes - last.copiedBytes) / rate);
+		}
+		return null;
+	}
+
+	private boolean isStale(Sample sample) {
+		return System.currentTimeMillis() - sample.time > STALE_POLLS * pollIntervalMillis;
+	}
+
+	public boolean isReadyForCutover() {
+		for (Series s : series.values()) {
+			Long eta = getSecondsToCutover(s);
+			if (eta == null || eta > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public List<Sample> getSamples(String id) {
+		Series s = series.get(id);
+		return s == null ? null : s.getSamples();
+	}
+
+	public void logReport() {
+		long copied = 0;
+		long total = 0;
+		double rate = 0;
+		int ready = 0;
+		long maxEta = 0;
+		boolean etaKnown = true;
+
+		for (Series s : series.values()) {
+			Sample last = s.latest();
+			if (last == null) {
+				logger.debug(String.format("%-15s - no status yet, errors: %s", s.id, s.errors.get()));
+				etaKnown = false;
+				continue;
+			}
+			Long eta = getSecondsToCutover(s);
+			if (eta == null) {
+				etaKnown = false;
+			} else {
+				maxEta = Math.max(maxEta, eta);
+				if (eta == 0) {
+					ready++;
+				}
+			}
+			String age = isStale(last) ? " (stale)" : "";
+
+			if (last.errorMessage != null) {
+				logger.error(String.format("%s - mongomirror error %s", s.id, last.errorMessage));
+			} else if (last.isCopying()) {
+				Double copyRate = s.getCopyRate();
+				copied += last.copiedBytes;
+				total += last.totalBytes;
+				rate += copyRate == null ? 0 : copyRate;
+				logger.debug(String.format("%-15s - %-18s %-22s %6.2f%% complete, %6.1f MB/s, eta: %s%s", s.id, last.stage,
+						last.phase, last.copiedBytes * 100.0 / last.totalBytes,
+						copyRate == null ? 0.0 : copyRate / (1024 * 1024), formatSeconds(eta), age));
+			} else if (last.lagSeconds != null) {
+				Double slope = s.getLagSlope();
+				logger.debug(String.format("%-15s - %-18s %-22s %6ss lag from source, %s, eta: %s%s", s.id, last.stage,
+						last.phase, last.lagSeconds, slope == null ? "lag trend unknown" : String.format("%+.2f s/s", slope),
+						formatSeconds(eta), age));
+			} else {
+				logger.debug(String.format("%-15s - %-18s %-22s%s", s.id, last.stage, last.phase, age));
+			}
+		}
+
+		logger.debug(String.format(
+				"mongomirror cluster: %s / %s ready for cutover (lag <= %ss), initial sync %.2f / %.2f GB copied at %.1f MB/s, eta to cutover: %s",
+				ready, series.size(), readyLagSeconds, ByteSizesUtil.bytesToGigabytes(copied),
+				ByteSizesUtil.bytesToGigabytes(total), rate / (1024 * 1024), etaKnown ? formatSeconds(maxEta) : "unknown"));
+	}
+
+	private static String formatSeconds(Long seconds) {
+		if (seconds == null) {
+			return "unknown";
+		}
+		return String.format("%dh %02dm %02ds", seconds / 3600, (seconds % 3600) / 60, seconds % 60);
+	}
+
+	public void setReadyLagSeconds(long readyLagSeconds) {
+		this.readyLagSeconds = readyLagSeconds;
+	}
+
+}
@@ -230,8 +230,7 @@ public abstract class AbstractMongoReplayUtil {
                     firstSeen = lastSeen;
                 }
                 
-                RawReplayTask rawTask = new RawReplayTask(monitor, mongoClient, replayOptions, raw);
-                futures.add(pool.submit(rawTask));
+                processRaw(raw);
 
                 count++;
 //                if ((count % 100000) == 0) {
@@ -253,6 +252,14 @@ public abstract class AbstractMongoReplayUtil {
         logger.debug(String.format("last event: %s", convertSeen(lastSeen)));
     }
     
+    /**
+     * Handle one recorded request, by default replay it on the pool.
+     */
+    protected void processRaw(BSONObject raw) {
+        RawReplayTask rawTask = new RawReplayTask(monitor, mongoClient, replayOptions, raw);
+        futures.add(pool.submit(rawTask));
+    }
+    
     @SuppressWarnings("static-access")
     protected static CommandLine initializeAndParseCommandLineOptions(String[] args) {
         Options options = new Options();
@@ -378,6 +385,14 @@ public abstract class AbstractMongoReplayUtil {
         this.removeUpdateFields = removeUpdateFields;
     }
 
+    protected ReplayOptions getReplayOptions() {
+        return replayOptions;
+    }
+
+    protected void setReplayOptions(ReplayOptions replayOptions) {
+        this.replayOptions = replayOptions;
+    }
+
     public void setLimit(int limit) {
         this.limit = limit;
     }
@@ -229,6 +229,11 @@ public class RawReplayTask implements Callable<ReplayResult> {
             return;
         }  else if (commandDoc.containsKey("aggregate")) {
             command = Command.AGGREGATE;
+            // {aggregate: 1} for database level pipelines
+            Object aggregate = commandDoc.get("aggregate");
+            if (aggregate instanceof String) {
+                collectionName = (String) aggregate;
+            }
             List<Document> stages = (List<Document>)commandDoc.get("pipeline");
             if (stages != null) {
                 for (Document stage : stages) {
@@ -274,6 +279,36 @@ public class RawReplayTask implements Callable<ReplayResult> {
         }
     }
 
+    /**
+     * Decode the request without executing it.
+     * 
+     * @return false if the request is not a command that would be replayed
+     */
+    public boolean parse() {
+        process();
+        return command != null && !ignore;
+    }
+
+    public Document getCommandDoc() {
+        return commandDoc;
+    }
+
+    public String getDatabaseName() {
+        return databaseName;
+    }
+
+    public String getCollectionName() {
+        return collectionName;
+    }
+
+    public Command getCommand() {
+        return command;
+    }
+
+    public String getQueryShape() {
+        return queryShape;
+    }
+
     @Override
     public ReplayResult call() {
         
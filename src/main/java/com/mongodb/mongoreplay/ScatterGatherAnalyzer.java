@@ -0,0 +1,363 @@
+package com.mongodb.mongoreplay;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.bson.BSONObject;
+import org.bson.Document;
+
+import com.mongodb.util.ShapeUtil;
+
+/**
+ * Reads mongoreplay recordings and, for each candidate shard key, classifies every
+ * find/aggregate/update/delete (plus count and findAndModify) by how mongos would route it:
+ * <ul>
+ * <li>targeted - equality on the whole shard key, one chunk</li>
+ * <li>multi-shard - the predicate bounds the leading shard key field ($in, a range, or an equality
+ * prefix of a compound key), only the shards owning that range</li>
+ * <li>broadcast - no usable constraint on the leading field (or a range on a hashed key), every
+ * shard</li>
+ * </ul>
+ * Results are weighted by how often each operation was recorded and reported per namespace,
+ * candidates ordered by broadcast share, with the most frequent broadcast query shapes.
+ *
+ * Candidates are given as <code>db.coll=field[,field...]</code> or <code>db.coll=field:hashed</code>,
+ * or without the namespace to apply to every namespace.
+ */
+public class ScatterGatherAnalyzer extends AbstractMongoReplayUtil {
+
+    private final static int TOP_SHAPES = 3;
+
+    enum Targeting {
+        TARGETED, MULTI, BROADCAST
+    }
+
+    // constraint strength on a single field, stronger constraints narrow an $and
+    private final static int NONE = 0;
+    private final static int RANGE = 1;
+    private final static int IN = 2;
+    private final static int EQ = 3;
+
+    static class CandidateKey {
+        private final String name;
+        private final String[] fields;
+        private final boolean hashed;
+
+        CandidateKey(String spec) {
+            this.name = spec;
+            this.hashed = spec.endsWith(":hashed");
+            String fieldList = hashed ? spec.substring(0, spec.length() - ":hashed".length()) : spec;
+            this.fields = fieldList.split(",");
+        }
+
+        Targeting classify(Document predicate) {
+            if (predicate == null || predicate.isEmpty()) {
+                return Targeting.BROADCAST;
+            }
+            Targeting result = classifyFields(predicate);
+            if (result == Targeting.BROADCAST && predicate.get("$or") instanceof List) {
+                // each branch is routed separately and the results merged
+                List<?> branches = (List<?>) predicate.get("$or");
+                result = branches.size() == 1 ? Targeting.TARGETED : Targeting.MULTI;
+                for (Object branch : branches) {
+                    Targeting t = classify((Document) branch);
+                    if (t == Targeting.BROADCAST) {
+                        return t;
+                    } else if (t == Targeting.MULTI) {
+                        result = t;
+                    }
+                }
+            }
+            return result;
+        }
+
+        private Targeting classifyFields(Document predicate) {
+            int leading = constraint(predicate, fields[0]);
+            if (leading == NONE) {
+                return Targeting.BROADCAST;
+            }
+            if (hashed) {
+                return leading == EQ ? Targeting.TARGETED : (leading == IN ? Targeting.MULTI : Targeting.BROADCAST);
+            }
+            if (leading != EQ) {
+                return Targeting.MULTI;
+            }
+            for (int i = 1; i < fields.length; i++) {
+                if (constraint(predicate, fields[i]) != EQ) {
+                    return Targeting.MULTI;
+                }
+            }
+            return Targeting.TARGETED;
+        }
+    }
+
+    /**
+     * The strongest constraint the predicate places on a (dotted) field.
+     */
+    static int constraint(Document predicate, String path) {
+        int result = NONE;
+        Object value = predicate.get(path);
+        if (value != null) {
+            result = valueConstraint(value);
+        } else {
+            // exact match on an embedded document, {a: {b: 1}} for a.b
+            int dot = path.indexOf('.');
+            if (dot > 0 && predicate.get(path.substring(0, dot)) instanceof Document) {
+                Document embedded = (Document) predicate.get(path.substring(0, dot));
+                if (!embedded.isEmpty() && !embedded.keySet().iterator().next().startsWith("$")) {
+                    result = embedded.containsKey(path.substring(dot + 1)) ? EQ
+                            : constraint(embedded, path.substring(dot + 1));
+                }
+            }
+        }
+        if (predicate.get("$and") instanceof List) {
+            for (Object child : (List<?>) predicate.get("$and")) {
+                result = Math.max(result, constraint((Document) child, path));
+            }
+        }
+        return result;
+    }
+
+    private static int valueConstraint(Object value) {
+        if (!(value instanceof Document)) {
+            return EQ;
+        }
+        Document doc = (Document) value;
+        if (doc.isEmpty() || !doc.keySet().iterator().next().startsWith("$")) {
+            // equality on an embedded document
+            return EQ;
+        }
+        if (doc.containsKey("$eq")) {
+            return EQ;
+        }
+        if (doc.get("$in") instanceof List) {
+            return ((List<?>) doc.get("$in")).size() == 1 ? EQ : IN;
+        }
+        if (doc.containsKey("$gt") || doc.containsKey("$gte") || doc.containsKey("$lt") || doc.containsKey("$lte")) {
+            return RANGE;
+        }
+        return NONE;
+    }
+
+    /**
+     * Predicates of the operation, one per statement for multi-statement writes.
+     */
+    @SuppressWarnings("unchecked")
+    static List<Document> getPredicates(Command command, Document commandDoc) {
+        List<Document> predicates = new ArrayList<Document>();
+        switch (command) {
+        case FIND:
+            predicates.add((Document) commandDoc.get("filter"));
+            break;
+        case COUNT:
+        case FIND_AND_MODIFY:
+            predicates.add((Document) commandDoc.get("query"));
+            break;
+        case UPDATE:
+            for (Document update : (List<Document>) commandDoc.get("updates")) {
+                predicates.add((Document) update.get("q"));
+            }
+            break;
+        case DELETE:
+            for (Document delete : (List<Document>) commandDoc.get("deletes")) {
+                predicates.add((Document) delete.get("q"));
+            }
+            break;
+        case AGGREGATE:
+            // leading $match stages are what mongos targets on
+            List<Document> matches = new ArrayList<Document>();
+            List<Document> pipeline = (List<Document>) commandDoc.get("pipeline");
+            if (pipeline != null) {
+                for (Document stage : pipeline) {
+                    if (!stage.containsKey("$match")) {
+                        break;
+                    }
+                    matches.add((Document) stage.get("$match"));
+                }
+            }
+            predicates.add(matches.isEmpty() ? null : (matches.size() == 1 ? matches.get(0) : new Document("$and", matches)));
+            break;
+        default:
+            break;
+        }
+        return predicates;
+    }
+
+    private static class Stats {
+        private final long[] counts = new long[Targeting.values().length];
+        private final Map<String, Long> broadcastShapes = new HashMap<String, Long>();
+
+        long total() {
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            return total;
+        }
+
+        double share(Targeting t) {
+            long total = total();
+            return total == 0 ? 0.0 : counts[t.ordinal()] * 100.0 / total;
+        }
+    }
+
+    // candidates by namespace, null for every namespace
+    private final Map<String, List<CandidateKey>> candidates = new HashMap<String, List<CandidateKey>>();
+    // namespace -> candidate -> stats
+    private final Map<String, Map<String, Stats>> results = new TreeMap<String, Map<String, Stats>>();
+    private long analyzed;
+
+    public ScatterGatherAnalyzer() {
+        ReplayOptions replayOptions = new ReplayOptions();
+        replayOptions.setReplayMode(ReplayMode.READ_WRITE);
+        setReplayOptions(replayOptions);
+    }
+
+    public void addCandidate(String spec) {
+        int eq = spec.indexOf('=');
+        String ns = eq < 0 ? null : spec.substring(0, eq);
+        List<CandidateKey> list = candidates.get(ns);
+        if (list == null) {
+            list = new ArrayList<CandidateKey>();
+            candidates.put(ns, list);
+        }
+        list.add(new CandidateKey(eq < 0 ? spec : spec.substring(eq + 1)));
+    }
+
+    @Override
+    protected void processRaw(BSONObject raw) {
+        RawReplayTask task = new RawReplayTask(null, null, getReplayOptions(), raw);
+        if (!task.parse() || task.getCollectionName() == null) {
+            return;
+        }
+        Command command = task.getCommand();
+        if (command == Command.INSERT) {
+            return;
+        }
+        String ns = task.getDatabaseName() + "." + task.getCollectionName();
+        List<CandidateKey> keys = new ArrayList<CandidateKey>();
+        if (candidates.containsKey(ns)) {
+            keys.addAll(candidates.get(ns));
+        }
+        if (candidates.containsKey(null)) {
+            keys.addAll(candidates.get(null));
+        }
+        if (keys.isEmpty()) {
+            return;
+        }
+        Map<String, Stats> nsResults = results.get(ns);
+        if (nsResults == null) {
+            nsResults = new TreeMap<String, Stats>();
+            results.put(ns, nsResults);
+        }
+        for (Document predicate : getPredicates(command, task.getCommandDoc())) {
+            analyzed++;
+            for (CandidateKey key : keys) {
+                Stats stats = nsResults.get(key.name);
+                if (stats == null) {
+                    stats = new Stats();
+                    nsResults.put(key.name, stats);
+                }
+                Targeting targeting = key.classify(predicate);
+                stats.counts[targeting.ordinal()]++;
+                if (targeting == Targeting.BROADCAST) {
+                    String shape = command.name() + " " + ShapeUtil.getShape(predicate);
+                    Long count = stats.broadcastShapes.get(shape);
+                    stats.broadcastShapes.put(shape, count == null ? 1 : count + 1);
+                }
+            }
+        }
+    }
+
+    public void execute() throws Exception {
+        for (String filename : fileNames) {
+            replayFile(filename);
+        }
+        logger.debug(String.format("%,d operations analyzed", analyzed));
+        logReport();
+    }
+
+    private void logReport() {
+        for (Map.Entry<String, Map<String, Stats>> nsEntry : results.entrySet()) {
+            List<Map.Entry<String, Stats>> ranked = new ArrayList<Map.Entry<String, Stats>>(nsEntry.getValue().entrySet());
+            Collections.sort(ranked, new Comparator<Map.Entry<String, Stats>>() {
+                @Override
+                public int compare(Map.Entry<String, Stats> e1, Map.Entry<String, Stats> e2) {
+                    return Double.compare(e1.getValue().share(Targeting.BROADCAST), e2.getValue().share(Targeting.BROADCAST));
+                }
+            });
+            for (Map.Entry<String, Stats> entry : ranked) {
+                Stats stats = entry.getValue();
+                logger.debug(String.format("%-40s %-30s ops: %,10d  targeted: %5.1f%%  multi-shard: %5.1f%%  broadcast: %5.1f%%",
+                        nsEntry.getKey(), entry.getKey(), stats.total(), stats.share(Targeting.TARGETED),
+                        stats.share(Targeting.MULTI), stats.share(Targeting.BROADCAST)));
+                List<Map.Entry<String, Long>> shapes = new ArrayList<Map.Entry<String, Long>>(stats.broadcastShapes.entrySet());
+                Collections.sort(shapes, new Comparator<Map.Entry<String, Long>>() {
+                    @Override
+                    public int compare(Map.Entry<String, Long> e1, Map.Entry<String, Long> e2) {
+                        return Long.compare(e2.getValue(), e1.getValue());
+                    }
+                });
+                for (Map.Entry<String, Long> shape : shapes.subList(0, Math.min(TOP_SHAPES, shapes.size()))) {
+                    logger.debug(String.format("    broadcast %,10d  %s", shape.getValue(), shape.getKey()));
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("static-access")
+    private static CommandLine parseCommandLine(String[] args) {
+        Options options = new Options();
+        options.addOption(new Option("help", "print this message"));
+        options.addOption(
+                OptionBuilder.withArgName("input mongoreplay bson file(s)").hasArgs().withLongOpt("files").isRequired().create("f"));
+        options.addOption(OptionBuilder.withArgName("candidate key: [db.coll=]field[,field...] or [db.coll=]field:hashed")
+                .hasArgs().withLongOpt("key").isRequired().create("k"));
+        options.addOption(OptionBuilder.withArgName("limit # operations").hasArg().withLongOpt("limit").create("l"));
+
+        CommandLineParser parser = new GnuParser();
+        CommandLine line = null;
+        try {
+            line = parser.parse(options, args);
+            if (line.hasOption("help")) {
+                printHelpAndExit(options);
+            }
+        } catch (org.apache.commons.cli.ParseException e) {
+            System.out.println(e.getMessage());
+            printHelpAndExit(options);
+        }
+        return line;
+    }
+
+    private static void printHelpAndExit(Options options) {
+        HelpFormatter formatter = new HelpFormatter();
+        formatter.printHelp("scatterGatherAnalyzer", options);
+        System.exit(-1);
+    }
+
+    public static void main(String args[]) throws Exception {
+        CommandLine line = parseCommandLine(args);
+        ScatterGatherAnalyzer analyzer = new ScatterGatherAnalyzer();
+        analyzer.fileNames = line.getOptionValues("f");
+        for (String key : line.getOptionValues("k")) {
+            analyzer.addCandidate(key);
+        }
+        if (line.hasOption("l")) {
+            analyzer.setLimit(Integer.parseInt(line.getOptionValue("l")));
+        }
+        analyzer.execute();
+    }
+
+}
@@ -2,6 +2,7 @@ package com.mongodb.mongosync;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
 
 import org.bson.BsonSerializationException;
 import org.bson.BsonValue;
@@ -10,14 +11,10 @@ import org.bson.RawBsonDocument;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.mongodb.MongoBulkWriteException;
-import com.mongodb.MongoException;
-import com.mongodb.bulk.BulkWriteResult;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
-import com.mongodb.client.model.BulkWriteOptions;
-import com.mongodb.client.model.WriteModel;
 import com.mongodb.model.Namespace;
+import com.mongodb.shardsync.MongosRouterPool;
 import com.mongodb.shardsync.ShardClient;
 
 public abstract class AbstractCollectionCloneWorker {
@@ -31,18 +28,24 @@ public abstract class AbstractCollectionCloneWorker {
     protected ShardClient sourceShardClient;
     protected ShardClient destShardClient;
     protected MongoSyncOptions options;
+    // set by acquireClients()
+    private MongosRouterPool.Lease sourceLease;
     protected MongoDatabase sourceDb;
-    protected MongoDatabase destDb;
     protected MongoCollection<RawBsonDocument> sourceCollection;
-    protected MongoCollection<RawBsonDocument> destCollection;
     
     protected List<RawBsonDocument> docsBuffer;
-    
-    List<WriteModel<RawBsonDocument>> writesBuffer;
+    protected long docsBufferBytes;
+    // byte size to cut the current batch at, from the controller when the batch was started
+    protected long batchTargetBytes;
     
     protected List<Document> hashesBuffer;
-    //protected InsertManyOptions insertManyOptions;
-    protected BulkWriteOptions bulkWriteOptions;
+    
+    // batches go to the writer threads through the queue, or to the async writer, or are written inline
+    protected BlockingQueue<CloneBatch> batchQueue;
+    protected AsyncCloneBatchWriter asyncWriter;
+    protected CloneMetrics metrics;
+    protected BatchSizeController batchSizeController;
+    private CloneBatchWriter inlineWriter;
     
     protected long successCount;
     protected long errorCount;
@@ -55,24 +58,35 @@ public abstract class AbstractCollectionCloneWorker {
         this.destShardClient = destShardClient;
         this.options = options;
         
-        sourceDb = sourceShardClient.getMongoClient().getDatabase(ns.getDatabaseName());
-        sourceCollection = sourceDb.getCollection(ns.getCollectionName(), RawBsonDocument.class);
-        
-        destDb = destShardClient.getMongoClient().getDatabase(ns.getDatabaseName());
-        destCollection = destDb.getCollection(ns.getCollectionName(), RawBsonDocument.class);
-        
-        docsBuffer = new ArrayList<RawBsonDocument>(options.getBatchSize());
-        writesBuffer = new ArrayList<>(options.getBatchSize());
+        docsBuffer = new ArrayList<RawBsonDocument>();
         
         hashesBuffer = new ArrayList<Document>(options.getBatchSize());
         
         shardCollection = sourceShardClient.getCollectionsMap().get(ns.getNamespace());
         
-        //insertManyOptions = new InsertManyOptions();
-        //insertManyOptions.ordered(false);
-        
-        bulkWriteOptions = new BulkWriteOptions();
-        bulkWriteOptions.ordered(false);
+        metrics = new CloneMetrics(null, 1, 0);
+        setBatchSizeController(BatchSizeController.fromOptions(options));
+    }
+    
+    /**
+     * Leases the source client, called when run() starts rather than in the constructor so
+     * workers still queued do not count as in flight on a mongos.
+     */
+    protected void acquireClients() {
+        sourceLease = sourceShardClient.leaseDataMongoClient();
+        sourceDb = sourceLease.getClient().getDatabase(ns.getDatabaseName());
+        sourceCollection = sourceDb.getCollection(ns.getCollectionName(), RawBsonDocument.class);
+    }
+    
+    protected void releaseClients() {
+        if (inlineWriter != null) {
+            inlineWriter.close();
+            inlineWriter = null;
+        }
+        if (sourceLease != null) {
+            sourceLease.close();
+            sourceLease = null;
+        }
     }
     
     protected static BsonValue getId(RawBsonDocument doc) {
@@ -85,48 +99,56 @@ public abstract class AbstractCollectionCloneWorker {
         return lastId;
     }
     
+    /**
+     * Hands the buffered documents to the writer threads or the async writer, or writes them inline
+     * when there is neither, and starts a new buffer. Unless written inline successCount and
+     * errorCount only cover documents handed off, write results are in the {@link CloneMetrics}.
+     */
     protected void doInsert() {
-        boolean retry = false;
+        CloneBatch batch = new CloneBatch(ns, docsBuffer, docsBufferBytes);
+        docsBuffer = new ArrayList<RawBsonDocument>(batch.size());
+        docsBufferBytes = 0;
+        batchTargetBytes = batchSizeController.getTargetBytes();
         
-        
-        try {
-            //destCollection.insertMany(buffer, insertManyOptions);
-            BulkWriteResult result = destCollection.bulkWrite(writesBuffer, bulkWriteOptions);
-            successCount += result.getInsertedCount();
-            errorCount += docsBuffer.size() - result.getInsertedCount();
-            //WriteModel<RawBsonDocument> first = buffer.get(0);
-            //first.
-            
-        } catch (MongoBulkWriteException bwe) {
-            logger.warn(String.format("%s - insertMany() error : %s", ns, bwe.getMessage()));
-            errorCount += bwe.getWriteErrors().size();
-        } catch (MongoException e) {
-            logger.warn(String.format("%s - insertMany() unexpected error: %s", ns, e.getMessage()));
-            //errorCount++;
-            retry = true;
-        }
-        
-        if (retry) {
-            //logger.debug(String.format("%s - Starting retry block, docsBuffer size: %s", ns, docsBuffer.size()));
-            
-            int pos = 0;
-            BsonValue prevId = null;
-            BsonValue id = null;
-            for (RawBsonDocument doc : docsBuffer) {
-                
-                try {
-                    id = getId(doc);
-                    destCollection.insertOne(doc);
-                    //logger.debug("inserted " + id);
-                    successCount++;
-                    prevId = id;
-                } catch (MongoException me) {
-                    logger.warn(String.format("%s - {_id: %s, prevId: %s, pos: %s} retry using insertOne() unexpected error: %s", ns, id, prevId, pos, me.getMessage()));
-                    errorCount++;
+        if (batchQueue != null || asyncWriter != null) {
+            try {
+                if (asyncWriter != null) {
+                    asyncWriter.write(batch);
+                } else {
+                    long start = System.nanoTime();
+                    batchQueue.put(batch);
+                    metrics.readerBlocked(System.nanoTime() - start);
                 }
-                pos++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
             }
+            successCount += batch.size();
+        } else {
+            if (inlineWriter == null) {
+                inlineWriter = new CloneBatchWriter(destShardClient, metrics, batchSizeController);
+            }
+            long inserted = inlineWriter.write(batch);
+            successCount += inserted;
+            errorCount += batch.size() - inserted;
         }
     }
+    
+    public void setBatchQueue(BlockingQueue<CloneBatch> batchQueue) {
+        this.batchQueue = batchQueue;
+    }
+    
+    public void setAsyncWriter(AsyncCloneBatchWriter asyncWriter) {
+        this.asyncWriter = asyncWriter;
+    }
+    
+    public void setMetrics(CloneMetrics metrics) {
+        this.metrics = metrics;
+    }
+    
+    public void setBatchSizeController(BatchSizeController batchSizeController) {
+        this.batchSizeController = batchSizeController;
+        this.batchTargetBytes = batchSizeController.getTargetBytes();
+    }
 
 }
\ No newline at end of file
@@ -0,0 +1,171 @@
+package com.mongodb.mongosync;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.async.SingleResultCallback;
+import com.mongodb.async.client.MongoClient;
+import com.mongodb.async.client.MongoClients;
+import com.mongodb.async.client.MongoCollection;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.model.Namespace;
+import com.mongodb.shardsync.ShardClient;
+
+/**
+ * Clone writer on the async driver. Readers hand batches to {@link #write(CloneBatch)}, which
+ * returns as soon as the bulkWrite is issued, and a completion callback records the result. At
+ * most maxInFlight writes are outstanding (the connection pool is sized to match) and readers
+ * block on the window when it is full, the same backpressure the batch queue gives the writer
+ * threads, without a thread parked on every write in flight.
+ *
+ * A batch failing with an unexpected (non write) error is handed to a {@link CloneBatchWriter}
+ * on a single retry thread, which retries the bulk insert and falls back to one insert at a time.
+ */
+public class AsyncCloneBatchWriter {
+
+    protected static final Logger logger = LoggerFactory.getLogger(AsyncCloneBatchWriter.class);
+
+    private final MongoClient client;
+    private final int maxInFlight;
+    private final Semaphore window;
+    private final CloneMetrics metrics;
+    private final BatchSizeController batchSizeController;
+    private final BulkWriteOptions bulkWriteOptions = new BulkWriteOptions().ordered(false);
+    private final ConcurrentMap<Namespace, MongoCollection<RawBsonDocument>> collections = new ConcurrentHashMap<>();
+
+    private final CloneBatchWriter retryWriter;
+    private final ExecutorService retryExecutor = Executors.newSingleThreadExecutor();
+
+    public AsyncCloneBatchWriter(String destMongoUri, ShardClient destShardClient, final int maxInFlight, CloneMetrics metrics,
+            BatchSizeController batchSizeController) {
+        MongoClientSettings settings = MongoClientSettings.builder()
+                .applyConnectionString(new ConnectionString(destMongoUri))
+                .applyToConnectionPoolSettings(builder -> builder.maxSize(maxInFlight))
+                .build();
+        this.client = MongoClients.create(settings);
+        this.maxInFlight = maxInFlight;
+        this.window = new Semaphore(maxInFlight);
+        this.metrics = metrics;
+        this.batchSizeController = batchSizeController;
+        this.retryWriter = new CloneBatchWriter(destShardClient, metrics, batchSizeController);
+    }
+
+    private MongoCollection<RawBsonDocument> getCollection(Namespace ns) {
+        MongoCollection<RawBsonDocument> collection = collections.get(ns);
+        if (collection == null) {
+            collection = client.getDatabase(ns.getDatabaseName()).getCollection(ns.getCollectionName(), RawBsonDocument.class);
+            collections.putIfAbsent(ns, collection);
+        }
+        return collection;
+    }
+
+    /**
+     * Issues an unordered bulk insert of the batch, blocking only while maxInFlight writes are
+     * already outstanding.
+     */
+    public void write(final CloneBatch batch) throws InterruptedException {
+        long waitStart = System.nanoTime();
+        window.acquire();
+        metrics.readerBlocked(System.nanoTime() - waitStart);
+
+        final Namespace ns = batch.getNamespace();
+        final long start = System.nanoTime();
+        try {
+            List<WriteModel<RawBsonDocument>> writes = new ArrayList<>(batch.size());
+            for (RawBsonDocument doc : batch.getDocs()) {
+                writes.add(new InsertOneModel<RawBsonDocument>(doc));
+            }
+            getCollection(ns).bulkWrite(writes, bulkWriteOptions, new SingleResultCallback<BulkWriteResult>() {
+                @Override
+                public void onResult(BulkWriteResult result, Throwable t) {
+                    // the retry thread releases the permit of a batch handed to it
+                    boolean retrying = false;
+                    try {
+                        long nanos = System.nanoTime() - start;
+                        if (t == null) {
+                            batchSizeController.onBatchWritten(batch.getBytes(), nanos, false);
+                            complete(batch, result.getInsertedCount());
+                        } else if (t instanceof MongoBulkWriteException) {
+                            logger.warn(String.format("%s - insertMany() error : %s", ns, t.getMessage()));
+                            batchSizeController.onBatchWritten(batch.getBytes(), nanos, false);
+                            complete(batch, batch.size() - ((MongoBulkWriteException) t).getWriteErrors().size());
+                        } else {
+                            logger.warn(String.format("%s - insertMany() unexpected error: %s", ns, t.getMessage()));
+                            batchSizeController.onBatchWritten(batch.getBytes(), nanos, true);
+                            retry(batch);
+                            retrying = true;
+                        }
+                    } catch (RuntimeException e) {
+                        logger.error(String.format("%s - error completing batch of %s docs", ns, batch.size()), e);
+                    } finally {
+                        if (!retrying) {
+                            window.release();
+                        }
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            // the write was never issued, so the callback will not release the permit
+            window.release();
+            throw e;
+        }
+    }
+
+    private void complete(CloneBatch batch, long inserted) {
+        metrics.written(inserted, batch.getBytes(), batch.size() - inserted);
+    }
+
+    // off the driver's callback thread, the sync writer blocks; it records its own metrics
+    private void retry(final CloneBatch batch) {
+        retryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    retryWriter.write(batch);
+                } catch (RuntimeException e) {
+                    logger.error(String.format("%s - retry of batch of %s docs failed", batch.getNamespace(), batch.size()), e);
+                    metrics.written(0, batch.getBytes(), batch.size());
+                } finally {
+                    window.release();
+                }
+            }
+        });
+    }
+
+    public int getInFlight() {
+        return maxInFlight - window.availablePermits();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Waits for all outstanding writes, including retries, then closes the client.
+     */
+    public void close() throws InterruptedException {
+        window.acquire(maxInFlight);
+        window.release(maxInFlight);
+        retryExecutor.shutdown();
+        retryExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        retryWriter.close();
+        client.close();
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.mongodb.mongosync;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Target size in bytes of clone insert batches, adjusted from the observed bulkWrite latency
+ * and errors. Shared by all readers (which cut batches at the target) and writers (which report
+ * each write).
+ * <ul>
+ * <li>a failed write halves the target</li>
+ * <li>a write slower than the latency target shrinks it</li>
+ * <li>otherwise every {@link #WINDOW} batches the write throughput of the window is compared
+ * with the previous one (hill climbing): the target keeps growing unless throughput drops, and
+ * only keeps shrinking while that clearly improves throughput, so it settles on the largest
+ * batches that do not cost throughput or latency</li>
+ * </ul>
+ * The target stays between minBytes and maxBytes, the latter should leave room under the 48 MB
+ * maximum message size.
+ */
+public class BatchSizeController {
+
+    protected static final Logger logger = LoggerFactory.getLogger(BatchSizeController.class);
+
+    public final static long MAX_MESSAGE_BYTES = 48000000;
+
+    private final static long MB = 1024 * 1024;
+    private final static long MIN_BATCH_BYTES = 256 * 1024;
+
+    final static int WINDOW = 8;
+    private final static double GROW = 1.25;
+    private final static double SHRINK = 0.8;
+    // throughput changes smaller than this are treated as noise
+    private final static double TOLERANCE = 0.05;
+
+    private final long minBytes;
+    private final long maxBytes;
+    private final long latencyTargetNanos;
+
+    private long targetBytes;
+    private boolean growing = true;
+    private double lastThroughput;
+
+    private int windowBatches;
+    private long windowBytes;
+    private long windowNanos;
+
+    public BatchSizeController(long initialBytes, long minBytes, long maxBytes, long latencyTargetMillis) {
+        if (minBytes <= 0 || minBytes > maxBytes) {
+            throw new IllegalArgumentException("batch size bounds must satisfy 0 < min <= max");
+        }
+        this.minBytes = minBytes;
+        this.maxBytes = maxBytes;
+        this.latencyTargetNanos = TimeUnit.MILLISECONDS.toNanos(latencyTargetMillis);
+        this.targetBytes = clamp(initialBytes);
+    }
+
+    public static BatchSizeController fromOptions(MongoSyncOptions options) {
+        long maxBytes = Math.min(options.getMaxBatchMb() * MB, MAX_MESSAGE_BYTES);
+        return new BatchSizeController(options.getInitialBatchMb() * MB, Math.min(MIN_BATCH_BYTES, maxBytes), maxBytes,
+                options.getBatchLatencyTargetMs());
+    }
+
+    public synchronized long getTargetBytes() {
+        return targetBytes;
+    }
+
+    /**
+     * @param bytes  size of the batch written
+     * @param nanos  duration of the write
+     * @param failed the write failed for a reason other than document level write errors
+     */
+    public synchronized void onBatchWritten(long bytes, long nanos, boolean failed) {
+        if (failed || nanos > latencyTargetNanos) {
+            long previous = targetBytes;
+            targetBytes = clamp(failed ? targetBytes / 2 : (long) (targetBytes * SHRINK));
+            // grow again from here after a full window, which ends up just under the latency target
+            growing = true;
+            lastThroughput = 0;
+            resetWindow();
+            logger.debug(String.format("batch %s in %s ms, target batch size %,d -> %,d bytes", failed ? "failed" : "slow",
+                    TimeUnit.NANOSECONDS.toMillis(nanos), previous, targetBytes));
+            return;
+        }
+
+        windowBatches++;
+        windowBytes += bytes;
+        windowNanos += nanos;
+        if (windowBatches < WINDOW) {
+            return;
+        }
+        double throughput = windowBytes / (double) Math.max(1, windowNanos);
+        if (lastThroughput > 0) {
+            if (growing) {
+                growing = throughput >= lastThroughput * (1 - TOLERANCE);
+            } else {
+                growing = throughput < lastThroughput * (1 + TOLERANCE);
+            }
+        }
+        lastThroughput = throughput;
+        targetBytes = clamp((long) (targetBytes * (growing ? GROW : SHRINK)));
+        resetWindow();
+    }
+
+    private void resetWindow() {
+        windowBatches = 0;
+        windowBytes = 0;
+        windowNanos = 0;
+    }
+
+    private long clamp(long bytes) {
+        return Math.max(minBytes, Math.min(maxBytes, bytes));
+    }
+
+}
@@ -0,0 +1,44 @@
+package com.mongodb.mongosync;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.bson.RawBsonDocument;
+
+import com.mongodb.model.Namespace;
+
+/**
+ * A batch of source documents handed from a clone reader to the writers.
+ */
+public class CloneBatch {
+    
+    // tells a writer to exit, one per writer
+    final static CloneBatch POISON = new CloneBatch(null, Collections.<RawBsonDocument>emptyList(), 0);
+    
+    private final Namespace ns;
+    private final List<RawBsonDocument> docs;
+    private final long bytes;
+    
+    public CloneBatch(Namespace ns, List<RawBsonDocument> docs, long bytes) {
+        this.ns = ns;
+        this.docs = docs;
+        this.bytes = bytes;
+    }
+
+    public Namespace getNamespace() {
+        return ns;
+    }
+
+    public List<RawBsonDocument> getDocs() {
+        return docs;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+    
+    public int size() {
+        return docs.size();
+    }
+
+}
@@ -0,0 +1,146 @@
+package com.mongodb.mongosync;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.model.Namespace;
+import com.mongodb.shardsync.MongosRouterPool;
+import com.mongodb.shardsync.ShardClient;
+
+/**
+ * Inserts clone batches into the destination. Either run as a writer thread draining the batch
+ * queue filled by the clone readers, or called inline by a reader when there are no writer threads.
+ */
+public class CloneBatchWriter implements Runnable {
+
+    protected static final Logger logger = LoggerFactory.getLogger(CloneBatchWriter.class);
+
+    private final BlockingQueue<CloneBatch> queue;
+    private final MongosRouterPool.Lease destLease;
+    private final MongoClient destClient;
+    private final CloneMetrics metrics;
+    private final BatchSizeController batchSizeController;
+    private final BulkWriteOptions bulkWriteOptions = new BulkWriteOptions().ordered(false);
+    private final Map<Namespace, MongoCollection<RawBsonDocument>> collections = new HashMap<>();
+
+    public CloneBatchWriter(ShardClient destShardClient, CloneMetrics metrics, BatchSizeController batchSizeController) {
+        this(null, destShardClient, metrics, batchSizeController);
+    }
+
+    public CloneBatchWriter(BlockingQueue<CloneBatch> queue, ShardClient destShardClient, CloneMetrics metrics,
+            BatchSizeController batchSizeController) {
+        this.queue = queue;
+        this.destLease = destShardClient.leaseDataMongoClient();
+        this.destClient = destLease.getClient();
+        this.metrics = metrics;
+        this.batchSizeController = batchSizeController;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                long start = System.nanoTime();
+                CloneBatch batch = queue.take();
+                metrics.writerIdle(System.nanoTime() - start);
+                if (batch == CloneBatch.POISON) {
+                    break;
+                }
+                try {
+                    write(batch);
+                } catch (Throwable t) {
+                    // keep draining, a dead writer would leave the readers blocked on a full queue
+                    logger.error(String.format("%s - error writing batch of %s docs", batch.getNamespace(), batch.size()), t);
+                    metrics.written(0, batch.getBytes(), batch.size());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Releases the destination client, see {@link ShardClient#leaseDataMongoClient()}.
+     */
+    public void close() {
+        destLease.close();
+    }
+
+    private MongoCollection<RawBsonDocument> getCollection(Namespace ns) {
+        MongoCollection<RawBsonDocument> collection = collections.get(ns);
+        if (collection == null) {
+            collection = destClient.getDatabase(ns.getDatabaseName()).getCollection(ns.getCollectionName(), RawBsonDocument.class);
+            collections.put(ns, collection);
+        }
+        return collection;
+    }
+
+    /**
+     * Unordered bulk insert of the batch, falling back to one insert at a time after an
+     * unexpected (non write) error.
+     *
+     * @return the number of documents inserted
+     */
+    public long write(CloneBatch batch) {
+        Namespace ns = batch.getNamespace();
+        MongoCollection<RawBsonDocument> destCollection = getCollection(ns);
+        List<WriteModel<RawBsonDocument>> writes = new ArrayList<>(batch.size());
+        for (RawBsonDocument doc : batch.getDocs()) {
+            writes.add(new InsertOneModel<RawBsonDocument>(doc));
+        }
+
+        long successCount = 0;
+        boolean retry = false;
+        long start = System.nanoTime();
+        try {
+            BulkWriteResult result = destCollection.bulkWrite(writes, bulkWriteOptions);
+            successCount = result.getInsertedCount();
+        } catch (MongoBulkWriteException bwe) {
+            logger.warn(String.format("%s - insertMany() error : %s", ns, bwe.getMessage()));
+            successCount = batch.size() - bwe.getWriteErrors().size();
+        } catch (MongoException e) {
+            logger.warn(String.format("%s - insertMany() unexpected error: %s", ns, e.getMessage()));
+            retry = true;
+        }
+        // document level errors (e.g. duplicate keys) say nothing about the batch size
+        batchSizeController.onBatchWritten(batch.getBytes(), System.nanoTime() - start, retry);
+
+        if (retry) {
+            int pos = 0;
+            BsonValue prevId = null;
+            BsonValue id = null;
+            for (RawBsonDocument doc : batch.getDocs()) {
+                try {
+                    id = AbstractCollectionCloneWorker.getId(doc);
+                    destCollection.insertOne(doc);
+                    successCount++;
+                    prevId = id;
+                } catch (MongoException me) {
+                    logger.warn(String.format("%s - {_id: %s, prevId: %s, pos: %s} retry using insertOne() unexpected error: %s", ns, id, prevId, pos, me.getMessage()));
+                }
+                pos++;
+            }
+        }
+        metrics.written(successCount, batch.getBytes(), batch.size() - successCount);
+        return successCount;
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.mongodb.mongosync;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Throughput of the clone reader and writer stages. Besides MB/s for each side it tracks how long
+ * readers were blocked on a full queue and writers waited on an empty one: readers blocked most of
+ * the time means the destination is the bottleneck, idle writers mean the source is.
+ */
+public class CloneMetrics {
+
+    protected static final Logger logger = LoggerFactory.getLogger(CloneMetrics.class);
+
+    private final static double MB = 1024.0 * 1024.0;
+
+    private final BlockingQueue<CloneBatch> queue;
+    private final int readerThreads;
+    private final int writerThreads;
+    private BatchSizeController batchSizeController;
+    private AsyncCloneBatchWriter asyncWriter;
+
+    private final AtomicLong readDocs = new AtomicLong();
+    private final AtomicLong readBytes = new AtomicLong();
+    private final AtomicLong writtenDocs = new AtomicLong();
+    private final AtomicLong writtenBytes = new AtomicLong();
+    private final AtomicLong writeErrors = new AtomicLong();
+    private final AtomicLong readerBlockedNanos = new AtomicLong();
+    private final AtomicLong writerIdleNanos = new AtomicLong();
+
+    // values at the previous report
+    private long lastReport = System.nanoTime();
+    private long lastReadBytes;
+    private long lastWrittenBytes;
+    private long lastReaderBlocked;
+    private long lastWriterIdle;
+
+    /**
+     * @param queue the batch queue, null when readers write inline
+     */
+    public CloneMetrics(BlockingQueue<CloneBatch> queue, int readerThreads, int writerThreads) {
+        this.queue = queue;
+        this.readerThreads = readerThreads;
+        this.writerThreads = writerThreads;
+    }
+
+    public void setBatchSizeController(BatchSizeController batchSizeController) {
+        this.batchSizeController = batchSizeController;
+    }
+
+    public void setAsyncWriter(AsyncCloneBatchWriter asyncWriter) {
+        this.asyncWriter = asyncWriter;
+    }
+
+    public void read(long docs, long bytes) {
+        readDocs.addAndGet(docs);
+        readBytes.addAndGet(bytes);
+    }
+
+    public void written(long docs, long bytes, long errors) {
+        writtenDocs.addAndGet(docs);
+        writtenBytes.addAndGet(bytes);
+        writeErrors.addAndGet(errors);
+    }
+
+    public void readerBlocked(long nanos) {
+        readerBlockedNanos.addAndGet(nanos);
+    }
+
+    public void writerIdle(long nanos) {
+        writerIdleNanos.addAndGet(nanos);
+    }
+
+    public synchronized void logStatus() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1, now - lastReport) / (double) TimeUnit.SECONDS.toNanos(1);
+        long read = readBytes.get();
+        long written = writtenBytes.get();
+        long blocked = readerBlockedNanos.get();
+        long idle = writerIdleNanos.get();
+
+        String queueStatus = "";
+        double intervalNanos = seconds * TimeUnit.SECONDS.toNanos(1);
+        if (asyncWriter != null) {
+            queueStatus = String.format(", in flight: %s/%s writes, readers blocked: %.0f%%",
+                    asyncWriter.getInFlight(), asyncWriter.getMaxInFlight(),
+                    100.0 * (blocked - lastReaderBlocked) / (intervalNanos * readerThreads));
+        } else if (queue != null) {
+            queueStatus = String.format(", queue: %s/%s batches, readers blocked: %.0f%%, writers idle: %.0f%%",
+                    queue.size(), queue.size() + queue.remainingCapacity(),
+                    100.0 * (blocked - lastReaderBlocked) / (intervalNanos * readerThreads),
+                    100.0 * (idle - lastWriterIdle) / (intervalNanos * Math.max(1, writerThreads)));
+        }
+        String batchStatus = "";
+        if (batchSizeController != null) {
+            batchStatus = String.format(", batch target: %.1f MB", batchSizeController.getTargetBytes() / MB);
+        }
+        // thread counts, to compare the async writer with the writer threads
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        logger.debug(String.format("clone - read: %.1f MB/s (%,d docs), write: %.1f MB/s (%,d docs, %,d errors)%s%s, threads: %s (peak %s)",
+                (read - lastReadBytes) / MB / seconds, readDocs.get(),
+                (written - lastWrittenBytes) / MB / seconds, writtenDocs.get(), writeErrors.get(), queueStatus, batchStatus,
+                threads.getThreadCount(), threads.getPeakThreadCount()));
+
+        lastReport = now;
+        lastReadBytes = read;
+        lastWrittenBytes = written;
+        lastReaderBlocked = blocked;
+        lastWriterIdle = idle;
+    }
+
+}
@@ -1,19 +1,53 @@
 package com.mongodb.mongosync;
 
+import org.bson.BsonDocument;
 import org.bson.BsonValue;
 import org.bson.Document;
 import org.bson.RawBsonDocument;
 
+import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCursor;
-import com.mongodb.client.model.InsertOneModel;
 import com.mongodb.model.Namespace;
 import com.mongodb.shardsync.ShardClient;
 
 public class CollectionCloneWorker extends AbstractCollectionCloneWorker implements Runnable {
     
+    // _id range [minId, maxId) when the collection is cloned in partitions, null for unbounded
+    private final BsonValue minId;
+    private final BsonValue maxId;
+    
+    private Number total;
+    private long lastProgressLog;
     
     public CollectionCloneWorker(Namespace ns, ShardClient sourceShardClient, ShardClient destShardClient, MongoSyncOptions options) {
+        this(ns, sourceShardClient, destShardClient, options, null, null);
+    }
+    
+    public CollectionCloneWorker(Namespace ns, ShardClient sourceShardClient, ShardClient destShardClient, MongoSyncOptions options,
+            BsonValue minId, BsonValue maxId) {
         super(ns, sourceShardClient, destShardClient, options);
+        this.minId = minId;
+        this.maxId = maxId;
+    }
+    
+    private void flush() {
+        metrics.read(docsBuffer.size(), docsBufferBytes);
+        doInsert();
+        
+        long current = System.currentTimeMillis();
+        long delta = (current - lastProgressLog) / 1000;
+        if (delta >= 30) {
+            logger.debug(String.format("%s - cloned %s / %s documents, errorCount: %s", getRangeString(), successCount, total, errorCount));
+            lastProgressLog = current;
+        }
+    }
+    
+    private boolean isPartition() {
+        return minId != null || maxId != null;
+    }
+    
+    private String getRangeString() {
+        return isPartition() ? String.format("%s [%s, %s)", ns, minId, maxId) : ns.getNamespace();
     }
     
 //    private List<Document> splitVector(String namespace) {
@@ -34,38 +68,43 @@ public class CollectionCloneWorker extends AbstractCollectionCloneWorker impleme
         MongoCursor<RawBsonDocument> cursor = null;
         
         long start = System.currentTimeMillis();
-        long last = start;
+        lastProgressLog = start;
         successCount = 0;
         errorCount = 0;
         try {
+            acquireClients();
             //cursor = sourceCollection.find().noCursorTimeout(true).iterator();
-            cursor = sourceCollection.find().noCursorTimeout(true).hint(new Document("_id", 1)).iterator();
-            Number total = ShardClient.getFastCollectionCount(sourceDb, sourceCollection);
-            logger.debug(String.format("%s - count: %s documents", ns, total));
+            // min/max are _id index bounds, unlike $gte/$lt they are not limited to one type bracket
+            FindIterable<RawBsonDocument> find = sourceCollection.find().noCursorTimeout(true).hint(new Document("_id", 1));
+            if (minId != null) {
+                find.min(new BsonDocument("_id", minId));
+            }
+            if (maxId != null) {
+                find.max(new BsonDocument("_id", maxId));
+            }
+            cursor = find.iterator();
+            // a full count per partition would scan the collection once per range
+            total = isPartition() ? null : ShardClient.getFastCollectionCount(sourceDb, sourceCollection);
+            logger.debug(String.format("%s - count: %s documents", getRangeString(), total));
             while (cursor.hasNext()) {
                 RawBsonDocument doc = cursor.next();
                 BsonValue id = getId(doc);
                 // don't even bother inserting if we couldn't get the _id from the doc
                 if (id != null) {
-                    writesBuffer.add(new InsertOneModel<RawBsonDocument>(doc));
+                    int docBytes = doc.getByteBuffer().remaining();
+                    // cut the batch before it goes over the byte target rather than after
+                    if (!docsBuffer.isEmpty() && docsBufferBytes + docBytes > batchTargetBytes) {
+                        flush();
+                    }
                     docsBuffer.add(doc);
+                    docsBufferBytes += docBytes;
                 } else {
                     logger.warn(String.format("%s - skipping insert, no _id could be read, lastId: %s", ns, lastId));
                     errorCount++;
                 }
                 
-                if (docsBuffer.size() >= options.getBatchSize()) {
-                    doInsert();
-                    
-                    writesBuffer.clear();
-                    docsBuffer.clear();
-                    
-                    long current = System.currentTimeMillis();
-                    long delta = (current - last) / 1000;
-                    if (delta >= 30) {
-                        logger.debug(String.format("%s - cloned %s / %s documents, errorCount: %s", ns, successCount, total, errorCount));
-                        last = current;
-                    }
+                if (docsBuffer.size() >= options.getMaxBatchDocs()) {
+                    flush();
                 }
                 
                 lastId = id;
@@ -73,21 +112,19 @@ public class CollectionCloneWorker extends AbstractCollectionCloneWorker impleme
             }
             // flush any remaining from the buffer
             if (docsBuffer.size() > 0) {
-                doInsert();
-                writesBuffer.clear();
-                docsBuffer.clear();
+                flush();
             }
             
         } finally {
             if (cursor != null) {
                 cursor.close();
             }
-            
+            releaseClients();
         }
         long end = System.currentTimeMillis();
         Double dur = (end - start)/1000.0;
-        logger.debug(String.format("%s - cloned %s documents, errorCount: %s", ns, successCount, errorCount));
-        logger.debug(String.format("Done cloning %s, %s documents in %f seconds", ns, successCount, dur));
+        logger.debug(String.format("%s - cloned %s documents, errorCount: %s", getRangeString(), successCount, errorCount));
+        logger.debug(String.format("Done cloning %s, %s documents in %f seconds", getRangeString(), successCount, dur));
     }
     
 
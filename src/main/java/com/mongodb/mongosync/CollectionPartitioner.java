@@ -0,0 +1,167 @@
+package com.mongodb.mongosync;
+
+import static com.mongodb.client.model.Filters.eq;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.bson.BsonDocument;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.model.Namespace;
+import com.mongodb.shardsync.MongosRouterPool;
+import com.mongodb.shardsync.ShardClient;
+import com.mongodb.util.bson.BsonValueComparator;
+
+/**
+ * Splits a collection into _id ranges of roughly partitionSizeBytes that can be cloned
+ * independently. Split points come from, in order of preference:
+ * <ul>
+ * <li>the chunk bounds, when the collection is sharded on {_id: 1}</li>
+ * <li>splitVector on each shard (or the replica set), merged</li>
+ * <li>quantiles of a $sample of _ids</li>
+ * </ul>
+ * Ranges are meant to be read with min()/max() index bounds on the _id index rather than a
+ * $gte/$lt filter, which would only match _ids of the same type as the bounds.
+ */
+public class CollectionPartitioner {
+
+    protected static final Logger logger = LoggerFactory.getLogger(CollectionPartitioner.class);
+
+    private final static BsonValueComparator comparator = new BsonValueComparator();
+
+    private final static int SAMPLES_PER_PARTITION = 10;
+
+    private final ShardClient sourceShardClient;
+    private final long partitionSizeBytes;
+
+    public CollectionPartitioner(ShardClient sourceShardClient, long partitionSizeBytes) {
+        this.sourceShardClient = sourceShardClient;
+        this.partitionSizeBytes = partitionSizeBytes;
+    }
+
+    /**
+     * Uncompressed data size from collStats, 0 if it could not be read.
+     */
+    public long getCollectionSize(Namespace ns) {
+        try {
+            Document stats = sourceShardClient.getMongoClient().getDatabase(ns.getDatabaseName())
+                    .runCommand(new Document("collStats", ns.getCollectionName()));
+            return ((Number) stats.get("size")).longValue();
+        } catch (MongoException e) {
+            logger.warn(String.format("%s - collStats failed: %s", ns, e.getMessage()));
+            return 0;
+        }
+    }
+
+    /**
+     * Sorted, distinct _id split points, empty when the collection is small enough to be cloned
+     * as a single range.
+     */
+    public List<BsonValue> getSplitPoints(Namespace ns, long size) {
+        if (partitionSizeBytes <= 0 || size < 2 * partitionSizeBytes) {
+            return Collections.emptyList();
+        }
+        int partitions = (int) Math.min(Integer.MAX_VALUE, size / partitionSizeBytes);
+        String source = "chunks";
+        List<BsonValue> points = getChunkSplitPoints(ns, partitions);
+        if (points.isEmpty()) {
+            source = "splitVector";
+            points = getSplitVectorPoints(ns);
+        }
+        if (points.isEmpty()) {
+            source = "$sample";
+            points = getSampleSplitPoints(ns, partitions);
+        }
+        Collections.sort(points, comparator);
+        List<BsonValue> distinct = new ArrayList<BsonValue>(points.size());
+        for (BsonValue point : points) {
+            if (distinct.isEmpty() || comparator.compare(distinct.get(distinct.size() - 1), point) != 0) {
+                distinct.add(point);
+            }
+        }
+        logger.debug(String.format("%s - %s split points from %s, size: %,d bytes", ns, distinct.size(), source, size));
+        return distinct;
+    }
+
+    private List<BsonValue> getChunkSplitPoints(Namespace ns, int partitions) {
+        List<BsonValue> points = new ArrayList<BsonValue>();
+        Document shardCollection = sourceShardClient.getCollectionsMap().get(ns.getNamespace());
+        if (shardCollection == null) {
+            return points;
+        }
+        Document key = (Document) shardCollection.get("key");
+        if (key.size() != 1 || !(key.get("_id") instanceof Number)) {
+            return points;
+        }
+        List<RawBsonDocument> chunks = new ArrayList<RawBsonDocument>();
+        sourceShardClient.getChunksCollectionRaw().find(eq("ns", ns.getNamespace())).sort(Sorts.ascending("min"))
+                .into(chunks);
+        // coalesce adjacent chunks, there are usually far more chunks than partitions needed
+        int step = Math.max(1, chunks.size() / Math.max(1, partitions));
+        for (int i = step; i < chunks.size(); i += step) {
+            BsonValue min = chunks.get(i).getDocument("min").get("_id");
+            if (min.getBsonType() != BsonType.MIN_KEY && min.getBsonType() != BsonType.MAX_KEY) {
+                points.add(min);
+            }
+        }
+        return points;
+    }
+
+    private List<BsonValue> getSplitVectorPoints(Namespace ns) {
+        List<BsonValue> points = new ArrayList<BsonValue>();
+        Collection<MongoClient> clients = sourceShardClient.getShardMongoClients().values();
+        if (clients.isEmpty() && !sourceShardClient.isMongos()) {
+            clients = Arrays.asList(sourceShardClient.getMongoClient());
+        }
+        Document splitVectorCmd = new Document("splitVector", ns.getNamespace());
+        splitVectorCmd.append("keyPattern", new Document("_id", 1));
+        splitVectorCmd.append("maxChunkSizeBytes", partitionSizeBytes);
+        for (MongoClient client : clients) {
+            try {
+                // each shard splits its own data, the union of the points still partitions the whole range
+                BsonDocument result = client.getDatabase("admin").runCommand(splitVectorCmd, BsonDocument.class);
+                for (BsonValue splitKey : result.getArray("splitKeys")) {
+                    points.add(splitKey.asDocument().get("_id"));
+                }
+            } catch (MongoException e) {
+                // collection not on this shard, or not authorized
+                logger.debug(String.format("%s - splitVector failed: %s", ns, e.getMessage()));
+            }
+        }
+        return points;
+    }
+
+    private List<BsonValue> getSampleSplitPoints(Namespace ns, int partitions) {
+        List<Document> pipeline = new ArrayList<Document>();
+        pipeline.add(new Document("$sample", new Document("size", partitions * SAMPLES_PER_PARTITION)));
+        pipeline.add(new Document("$project", new Document("_id", 1)));
+        List<BsonValue> ids = new ArrayList<BsonValue>();
+        try (MongosRouterPool.Lease lease = sourceShardClient.leaseDataMongoClient()) {
+            MongoCollection<RawBsonDocument> collection = lease.getClient()
+                    .getDatabase(ns.getDatabaseName()).getCollection(ns.getCollectionName(), RawBsonDocument.class);
+            for (RawBsonDocument doc : collection.aggregate(pipeline).allowDiskUse(true)) {
+                ids.add(doc.get("_id"));
+            }
+        }
+        Collections.sort(ids, comparator);
+        List<BsonValue> points = new ArrayList<BsonValue>();
+        for (int i = SAMPLES_PER_PARTITION; i < ids.size(); i += SAMPLES_PER_PARTITION) {
+            points.add(ids.get(i));
+        }
+        return points;
+    }
+
+}
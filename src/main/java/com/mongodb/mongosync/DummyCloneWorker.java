@@ -29,6 +29,7 @@ public class DummyCloneWorker extends AbstractCollectionCloneWorker implements R
         successCount = 0;
         errorCount = 0;
         try {
+            acquireClients();
             cursor = sourceCollection.find().noCursorTimeout(true).hint(new Document("_id", 1)).iterator();
             //Number total = ShardClient.getFastCollectionCount(sourceDb, sourceCollection);
             logger.debug(String.format("%s - starting", ns));
@@ -67,7 +68,7 @@ public class DummyCloneWorker extends AbstractCollectionCloneWorker implements R
             if (cursor != null) {
                 cursor.close();
             }
-            
+            releaseClients();
         }
         long end = System.currentTimeMillis();
         Double dur = (end - start)/1000.0;
@@ -3,14 +3,22 @@ package com.mongodb.mongosync;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -19,6 +27,7 @@ import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
+import org.bson.BsonValue;
 import org.bson.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,6 +36,8 @@ import com.mongodb.client.MongoIterable;
 import com.mongodb.model.Namespace;
 import com.mongodb.model.Shard;
 import com.mongodb.model.ShardTimestamp;
+import com.mongodb.shardsync.MongosRouterPool;
+import com.mongodb.shardsync.OplogWindowAnalyzer;
 import com.mongodb.shardsync.ShardClient;
 
 
@@ -35,6 +46,16 @@ public class MongoSync {
     protected static final Logger logger = LoggerFactory.getLogger(MongoSync.class);
     
     private final static String DROP_DEST_DBS = "dropDestDbs";
+    private final static String PARTITION_SIZE_MB = "partitionSizeMb";
+    private final static String WRITER_THREADS = "writerThreads";
+    private final static String QUEUE_SIZE = "queueSize";
+    private final static String MAX_BATCH_DOCS = "maxBatchDocs";
+    private final static String INITIAL_BATCH_MB = "initialBatchMb";
+    private final static String MAX_BATCH_MB = "maxBatchMb";
+    private final static String BATCH_LATENCY_TARGET_MS = "batchLatencyTargetMs";
+    private final static String ASYNC_WRITER = "asyncWriter";
+    private final static String MAX_IN_FLIGHT = "maxInFlight";
+    private final static String ROUTER_POLICY = "routerPolicy";
     
     private MongoSyncOptions mongoSyncOptions;
     
@@ -44,20 +65,31 @@ public class MongoSync {
     private Set<String> databasesBlacklist = new HashSet<>(Arrays.asList("system", "local", "config", "admin"));
     
     private ExecutorService initialSyncExecutor;
+    private BlockingQueue<CloneBatch> batchQueue;
+    private CloneMetrics cloneMetrics;
+    private BatchSizeController batchSizeController;
+    private AsyncCloneBatchWriter asyncWriter;
     
-    private void initialize() {
+    private void initialize() throws InterruptedException {
         sourceShardClient = new ShardClient("source", mongoSyncOptions.getSourceMongoUri());
-        sourceShardClient.init();
-        sourceShardClient.populateShardMongoClients();
-        
         destShardClient = new ShardClient("dest", mongoSyncOptions.getDestMongoUri());
-        destShardClient.init();
+        ShardClient.initAll(sourceShardClient, destShardClient);
+        sourceShardClient.populateShardMongoClients();
         destShardClient.populateShardMongoClients();
         
-        
+        MongosRouterPool.Policy routerPolicy = mongoSyncOptions.getRouterPolicy();
+        if (routerPolicy != null) {
+            sourceShardClient.enableRouterPool(routerPolicy);
+            destShardClient.enableRouterPool(routerPolicy);
+        }
         
         populateCollectionsToMigrate();
         sourceShardClient.populateCollectionsMap(mongoSyncOptions.getNamespacesToMigrate());
+        
+        // pre-flight, flag source shards whose oplog is expected to roll over before initialSync() completes
+        OplogWindowAnalyzer oplogWindowAnalyzer = new OplogWindowAnalyzer(sourceShardClient);
+        oplogWindowAnalyzer.analyze();
+        oplogWindowAnalyzer.logReport();
     }
     
     // TODO - currently only does entire databases
@@ -105,14 +137,102 @@ public class MongoSync {
         }
     }
     
-    private void cloneCollection(Namespace ns) {
-        Runnable worker = new DummyCloneWorker(ns, sourceShardClient, destShardClient, mongoSyncOptions);
+    private void cloneCollection(Namespace ns, List<BsonValue> splitPoints) {
+        BsonValue min = null;
+        for (BsonValue max : splitPoints) {
+            cloneRange(ns, min, max);
+            min = max;
+        }
+        cloneRange(ns, min, null);
+    }
+    
+    private void cloneRange(Namespace ns, BsonValue min, BsonValue max) {
+        CollectionCloneWorker worker = new CollectionCloneWorker(ns, sourceShardClient, destShardClient, mongoSyncOptions, min, max);
+        worker.setBatchQueue(batchQueue);
+        worker.setMetrics(cloneMetrics);
+        worker.setBatchSizeController(batchSizeController);
+        worker.setAsyncWriter(asyncWriter);
         initialSyncExecutor.execute(worker);
-        
     }
     
-    private void initialSync() {
+    private void initialSync() throws InterruptedException {
         initialSyncExecutor = Executors.newFixedThreadPool(mongoSyncOptions.getThreads());
+        
+        // readers (initialSyncExecutor) and writers are separate stages, the bounded queue between
+        // them (or the async writer's in-flight window) blocks the readers when the destination falls behind
+        boolean async = mongoSyncOptions.isAsyncWriter();
+        int writerThreads = async ? 0 : mongoSyncOptions.getWriterThreads();
+        ExecutorService writerExecutor = null;
+        if (writerThreads > 0) {
+            batchQueue = new ArrayBlockingQueue<>(mongoSyncOptions.getQueueSize());
+            writerExecutor = Executors.newFixedThreadPool(writerThreads);
+        }
+        cloneMetrics = new CloneMetrics(batchQueue, mongoSyncOptions.getThreads(), writerThreads);
+        batchSizeController = BatchSizeController.fromOptions(mongoSyncOptions);
+        cloneMetrics.setBatchSizeController(batchSizeController);
+        if (async) {
+            asyncWriter = new AsyncCloneBatchWriter(mongoSyncOptions.getDestMongoUri(), destShardClient,
+                    mongoSyncOptions.getMaxInFlight(), cloneMetrics, batchSizeController);
+            cloneMetrics.setAsyncWriter(asyncWriter);
+        }
+        for (int i = 0; i < writerThreads; i++) {
+            writerExecutor.execute(new CloneBatchWriter(batchQueue, destShardClient, cloneMetrics, batchSizeController));
+        }
+        ScheduledExecutorService statusReporter = Executors.newSingleThreadScheduledExecutor();
+        statusReporter.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                cloneMetrics.logStatus();
+                logRouterStatus();
+            }
+        }, 30, 30, TimeUnit.SECONDS);
+        
+        List<Namespace> namespacesToClone = getNamespacesToClone();
+        
+        CollectionPartitioner partitioner = new CollectionPartitioner(sourceShardClient, 
+                mongoSyncOptions.getPartitionSizeMb() * 1024L * 1024L);
+        final Map<Namespace, Long> sizes = new HashMap<>();
+        for (Namespace ns : namespacesToClone) {
+            sizes.put(ns, partitioner.getCollectionSize(ns));
+        }
+        // largest first, so the long running work starts early and the small collections fill in at the end
+        Collections.sort(namespacesToClone, new Comparator<Namespace>() {
+            @Override
+            public int compare(Namespace n1, Namespace n2) {
+                return Long.compare(sizes.get(n2), sizes.get(n1));
+            }
+        });
+        for (Namespace ns : namespacesToClone) {
+            cloneCollection(ns, partitioner.getSplitPoints(ns, sizes.get(ns)));
+        }
+
+        initialSyncExecutor.shutdown();
+        initialSyncExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        if (writerExecutor != null) {
+            for (int i = 0; i < writerThreads; i++) {
+                batchQueue.put(CloneBatch.POISON);
+            }
+            writerExecutor.shutdown();
+            writerExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        if (asyncWriter != null) {
+            asyncWriter.close();
+        }
+        statusReporter.shutdown();
+        cloneMetrics.logStatus();
+        logger.debug("Initial sync complete");
+    }
+    
+    private void logRouterStatus() {
+        for (ShardClient client : new ShardClient[] {sourceShardClient, destShardClient}) {
+            if (client.getRouterPool() != null) {
+                client.getRouterPool().logStatus();
+            }
+        }
+    }
+    
+    private List<Namespace> getNamespacesToClone() {
+        List<Namespace> namespacesToClone = new ArrayList<>();
         Set<String> namespaces = mongoSyncOptions.getNamespacesToMigrate();
         if (namespaces.isEmpty()) {
             
@@ -125,21 +245,17 @@ public class MongoSync {
                         if (collectionName.equals("system.profile") || collectionName.equals("system.indexes")) {
                             continue;
                         }
-                        cloneCollection(new Namespace(dbName, collectionName));
+                        namespacesToClone.add(new Namespace(dbName, collectionName));
                     }
                 }
             }
             
         } else {
             for (String ns : namespaces) {
-                cloneCollection(new Namespace(ns));
+                namespacesToClone.add(new Namespace(ns));
             }
         }
-
-        initialSyncExecutor.shutdown();
-        while (!initialSyncExecutor.isTerminated()) {
-        }
-        logger.debug("Initial sync complete");
+        return namespacesToClone;
     }
     
     private void tailOplogs() {
@@ -156,7 +272,7 @@ public class MongoSync {
         logger.debug("Finished all threads");
     }
     
-    private void execute() {
+    private void execute() throws InterruptedException {
         
         initialSync();
         
@@ -192,6 +308,26 @@ public class MongoSync {
                 .isRequired(false).create("f"));
         options.addOption(OptionBuilder.withArgName("Drop destination databases, but preserve config metadata")
                 .withLongOpt(DROP_DEST_DBS).create(DROP_DEST_DBS));
+        options.addOption(OptionBuilder.withArgName("Partition size (MB) for cloning large collections in parallel, 0 to disable")
+                .hasArg().withLongOpt(PARTITION_SIZE_MB).create(PARTITION_SIZE_MB));
+        options.addOption(OptionBuilder.withArgName("# destination writer threads, 0 to write from the reader threads")
+                .hasArg().withLongOpt(WRITER_THREADS).create(WRITER_THREADS));
+        options.addOption(OptionBuilder.withArgName("reader to writer queue capacity (batches)")
+                .hasArg().withLongOpt(QUEUE_SIZE).create(QUEUE_SIZE));
+        options.addOption(OptionBuilder.withArgName("maximum documents per clone batch")
+                .hasArg().withLongOpt(MAX_BATCH_DOCS).create(MAX_BATCH_DOCS));
+        options.addOption(OptionBuilder.withArgName("initial clone batch size (MB), adjusted from write latency")
+                .hasArg().withLongOpt(INITIAL_BATCH_MB).create(INITIAL_BATCH_MB));
+        options.addOption(OptionBuilder.withArgName("maximum clone batch size (MB)")
+                .hasArg().withLongOpt(MAX_BATCH_MB).create(MAX_BATCH_MB));
+        options.addOption(OptionBuilder.withArgName("clone batches slower than this (ms) shrink the batch size")
+                .hasArg().withLongOpt(BATCH_LATENCY_TARGET_MS).create(BATCH_LATENCY_TARGET_MS));
+        options.addOption(OptionBuilder.withArgName("Write clone batches with the async driver instead of writer threads")
+                .withLongOpt(ASYNC_WRITER).create(ASYNC_WRITER));
+        options.addOption(OptionBuilder.withArgName("maximum async clone writes in flight")
+                .hasArg().withLongOpt(MAX_IN_FLIGHT).create(MAX_IN_FLIGHT));
+        options.addOption(OptionBuilder.withArgName("Spread clone reads and writes over all mongos: none (default), latency or outstanding")
+                .hasArg().withLongOpt(ROUTER_POLICY).create(ROUTER_POLICY));
         
         CommandLineParser parser = new GnuParser();
         CommandLine line = null;
@@ -228,6 +364,33 @@ public class MongoSync {
         
         mongoSyncOptions.setNamespaceFilters(line.getOptionValues("f"));
         mongoSyncOptions.setDropDestDbs(line.hasOption(DROP_DEST_DBS));
+        if (line.hasOption(PARTITION_SIZE_MB)) {
+            mongoSyncOptions.setPartitionSizeMb(Integer.parseInt(line.getOptionValue(PARTITION_SIZE_MB)));
+        }
+        if (line.hasOption(WRITER_THREADS)) {
+            mongoSyncOptions.setWriterThreads(Integer.parseInt(line.getOptionValue(WRITER_THREADS)));
+        }
+        if (line.hasOption(QUEUE_SIZE)) {
+            mongoSyncOptions.setQueueSize(Integer.parseInt(line.getOptionValue(QUEUE_SIZE)));
+        }
+        if (line.hasOption(MAX_BATCH_DOCS)) {
+            mongoSyncOptions.setMaxBatchDocs(Integer.parseInt(line.getOptionValue(MAX_BATCH_DOCS)));
+        }
+        if (line.hasOption(INITIAL_BATCH_MB)) {
+            mongoSyncOptions.setInitialBatchMb(Integer.parseInt(line.getOptionValue(INITIAL_BATCH_MB)));
+        }
+        if (line.hasOption(MAX_BATCH_MB)) {
+            mongoSyncOptions.setMaxBatchMb(Integer.parseInt(line.getOptionValue(MAX_BATCH_MB)));
+        }
+        if (line.hasOption(BATCH_LATENCY_TARGET_MS)) {
+            mongoSyncOptions.setBatchLatencyTargetMs(Integer.parseInt(line.getOptionValue(BATCH_LATENCY_TARGET_MS)));
+        }
+        mongoSyncOptions.setAsyncWriter(line.hasOption(ASYNC_WRITER));
+        if (line.hasOption(MAX_IN_FLIGHT)) {
+            mongoSyncOptions.setMaxInFlight(Integer.parseInt(line.getOptionValue(MAX_IN_FLIGHT)));
+        }
+        mongoSyncOptions.setRouterPolicy(MongosRouterPool.parsePolicy(
+                line.getOptionValue(ROUTER_POLICY, MongosRouterPool.DEFAULT_POLICY)));
         
     }
     
@@ -4,11 +4,28 @@ import java.util.HashSet;
 import java.util.Set;
 
 import com.mongodb.model.Namespace;
+import com.mongodb.shardsync.MongosRouterPool;
 
 public class MongoSyncOptions {
     
     private int threads = 4;
     private int batchSize = 500;
+    // clone batches are cut at a byte size adjusted by BatchSizeController, capped at maxBatchDocs
+    private int maxBatchDocs = 100000;
+    private int initialBatchMb = 4;
+    private int maxBatchMb = 40;
+    private int batchLatencyTargetMs = 2000;
+    // collections larger than twice this are cloned in _id range partitions, 0 to disable
+    private int partitionSizeMb = 512;
+    // threads inserting into the destination, 0 to write inline from the reader threads
+    private int writerThreads = 4;
+    // capacity of the reader to writer queue in batches, 0 for twice the writer threads
+    private int queueSize = 0;
+    // write clone batches with the async driver instead of writer threads, at most maxInFlight at a time
+    private boolean asyncWriter = false;
+    private int maxInFlight = 16;
+    // spread clone reads and writes over all mongos, null to use only the connection string client
+    private MongosRouterPool.Policy routerPolicy;
     private String sourceMongoUri;
     private String destMongoUri;
     private boolean dropDestDbs;
@@ -87,6 +104,86 @@ public class MongoSyncOptions {
         this.batchSize = batchSize;
     }
 
+    public int getMaxBatchDocs() {
+        return maxBatchDocs;
+    }
+
+    public void setMaxBatchDocs(int maxBatchDocs) {
+        this.maxBatchDocs = maxBatchDocs;
+    }
+
+    public int getInitialBatchMb() {
+        return initialBatchMb;
+    }
+
+    public void setInitialBatchMb(int initialBatchMb) {
+        this.initialBatchMb = initialBatchMb;
+    }
+
+    public int getMaxBatchMb() {
+        return maxBatchMb;
+    }
+
+    public void setMaxBatchMb(int maxBatchMb) {
+        this.maxBatchMb = maxBatchMb;
+    }
+
+    public int getBatchLatencyTargetMs() {
+        return batchLatencyTargetMs;
+    }
+
+    public void setBatchLatencyTargetMs(int batchLatencyTargetMs) {
+        this.batchLatencyTargetMs = batchLatencyTargetMs;
+    }
+
+    public int getPartitionSizeMb() {
+        return partitionSizeMb;
+    }
+
+    public void setPartitionSizeMb(int partitionSizeMb) {
+        this.partitionSizeMb = partitionSizeMb;
+    }
+
+    public int getWriterThreads() {
+        return writerThreads;
+    }
+
+    public void setWriterThreads(int writerThreads) {
+        this.writerThreads = writerThreads;
+    }
+
+    public int getQueueSize() {
+        return queueSize > 0 ? queueSize : 2 * writerThreads;
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public boolean isAsyncWriter() {
+        return asyncWriter;
+    }
+
+    public void setAsyncWriter(boolean asyncWriter) {
+        this.asyncWriter = asyncWriter;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    public MongosRouterPool.Policy getRouterPolicy() {
+        return routerPolicy;
+    }
+
+    public void setRouterPolicy(MongosRouterPool.Policy routerPolicy) {
+        this.routerPolicy = routerPolicy;
+    }
+
     public Set<String> getNamespacesToMigrate() {
         return namespacesToMigrate;
     }
@@ -22,7 +22,10 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.lang3.StringUtils;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
 import org.bson.BsonTimestamp;
+import org.bson.BsonValue;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 import org.slf4j.Logger;
@@ -34,6 +37,7 @@ import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.shardsync.ShardClient;
+import com.mongodb.util.NamespaceFilter;
 
 /**
  * 
@@ -53,6 +57,7 @@ public class OplogApplier {
 	private final static String SOURCE_SHARD = "sourceShard";
 	private final static String DEST_SHARD = "destShard";
 	private final static String TIMESTAMP = "ts";
+	private final static String FILTER = "filter";
 
 	private String sourceClusterUri;
 	private String destClusterUri;
@@ -61,6 +66,8 @@ public class OplogApplier {
 	
 	private BsonTimestamp timestamp;
 
+	private NamespaceFilter namespaceFilter = new NamespaceFilter();
+
 	private ShardClient sourceShardClient;
 	private ShardClient destShardClient;
 
@@ -74,8 +81,7 @@ public class OplogApplier {
 		sourceShardClient = new ShardClient("source", sourceClusterUri, sourceToDestShardMap.keySet());
 		destShardClient = new ShardClient("dest", destClusterUri, sourceToDestShardMap.values());
 
-		sourceShardClient.init();
-		destShardClient.init();
+		ShardClient.initAll(sourceShardClient, destShardClient);
 		sourceShardClient.populateShardMongoClients();
 		destShardClient.populateShardMongoClients();
 
@@ -83,12 +89,15 @@ public class OplogApplier {
 		MongoClient destClient = destShardClient.getShardMongoClient(destShardId);
 		
 		MongoDatabase local = sourceClient.getDatabase("local");
-        MongoCollection<Document> oplog = local.getCollection("oplog.rs", Document.class);
+        MongoCollection<BsonDocument> oplog = local.getCollection("oplog.rs", BsonDocument.class);
         
-        List<Document> opsList = new ArrayList<>(1);
+        List<BsonDocument> opsList = new ArrayList<>(1);
         
-        MongoCursor<Document> cursor = null;
+        MongoCursor<BsonDocument> cursor = null;
         Bson query = and(gte("ts", timestamp), ne("op", "n"));
+        if (!namespaceFilter.isEmpty()) {
+        	query = and(query, namespaceFilter.toOplogQuery());
+        }
         long start = System.currentTimeMillis();
         long count = 0;
         long errorCount = 0;
@@ -96,11 +105,14 @@ public class OplogApplier {
             //cursor = oplog.find(query).noCursorTimeout(true).cursorType(CursorType.TailableAwait).iterator();
         	cursor = oplog.find(query).noCursorTimeout(true).iterator();
             while (cursor.hasNext()) {
-                Document doc = cursor.next();
-                String ns = doc.getString("ns");
+                BsonDocument doc = cursor.next();
+                String ns = doc.getString("ns").getValue();
                 if (ns.startsWith("config.")) {
                 	continue;
                 }
+                if (!namespaceFilter.isEmpty() && !filterOplogEntry(doc)) {
+                	continue;
+                }
                 String dbName = StringUtils.substringBefore(ns, ".");
                 doc.remove("ui");
                 //logger.debug("applying: " + doc);
@@ -132,6 +144,31 @@ public class OplogApplier {
     }
         
 
+	/**
+	 * Client side part of the namespace filter, for the command entries the oplog query lets
+	 * through. Operations of a transaction (applyOps) on other namespaces are dropped.
+	 * 
+	 * @return false when nothing in the entry should be applied
+	 */
+	private boolean filterOplogEntry(BsonDocument doc) {
+		if (!namespaceFilter.matchesOplogEntry(doc)) {
+			return false;
+		}
+		BsonDocument o = doc.getDocument("o", null);
+		if (o == null || !o.containsKey("applyOps")) {
+			return true;
+		}
+		BsonArray ops = new BsonArray();
+		for (BsonValue op : o.getArray("applyOps")) {
+			if (namespaceFilter.matchesOplogEntry(op.asDocument())) {
+				op.asDocument().remove("ui");
+				ops.add(op);
+			}
+		}
+		o.put("applyOps", ops);
+		return true;
+	}
+
 	@SuppressWarnings("static-access")
 	private static CommandLine initializeAndParseCommandLineOptions(String[] args) {
 		options = new Options();
@@ -144,6 +181,8 @@ public class OplogApplier {
 				OptionBuilder.withArgName("dest shard id").hasArg().withLongOpt(DEST_SHARD).isRequired().create("d"));
 		options.addOption(
 				OptionBuilder.withArgName("oplog timestamp <time>,<increment>").hasArg().withLongOpt(TIMESTAMP).isRequired().create());
+		options.addOption(
+				OptionBuilder.withArgName("Namespace filter: db, db.coll, wildcard pattern or !exclude").hasArgs().withLongOpt(FILTER).create("f"));
 
 		CommandLineParser parser = new GnuParser();
 		try {
@@ -205,6 +244,9 @@ public class OplogApplier {
 		int time = Integer.parseInt(tsParts[0]);
 		int inc = Integer.parseInt(tsParts[1]);
 		oplog.setTimestamp(new BsonTimestamp(time, inc));
+		if (line.hasOption("f")) {
+			oplog.setNamespaceFilter(new NamespaceFilter(line.getOptionValues("f")));
+		}
 
 		if (oplog.getSourceClusterUri() == null || oplog.getDestClusterUri() == null) {
 			System.out.println("source and dest options required");
@@ -238,6 +280,10 @@ public class OplogApplier {
 		this.destShardId = destShardId;
 	}
 
+	public void setNamespaceFilter(NamespaceFilter namespaceFilter) {
+		this.namespaceFilter = namespaceFilter;
+	}
+
 
 	public void setTimestamp(BsonTimestamp timestamp) {
 		this.timestamp = timestamp;
@@ -4,6 +4,8 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
 import org.bson.RawBsonDocument;
 
 import com.mongodb.model.Namespace;
@@ -52,4 +54,52 @@ public class OplogUtil {
 		return o2.get("_id");
 	}
 
+	/**
+	 * Value of a (dotted) field written by an insert or update, or null when the entry does not
+	 * say. For updates the value comes from o2 (which includes the shard key on sharded
+	 * collections), a replacement document, $set or the $v:2 diff format.
+	 */
+	public static BsonValue getFieldValue(RawBsonDocument oplogEntry, String path) {
+		OplogOpType opType = OplogOpType.fromCode(oplogEntry.getString("op").getValue());
+		BsonDocument o = oplogEntry.getDocument("o");
+		if (opType == OplogOpType.INSERT) {
+			return getPath(o, path);
+		} else if (opType != OplogOpType.UPDATE) {
+			return null;
+		}
+		BsonValue value = oplogEntry.containsKey("o2") ? getPath(oplogEntry.getDocument("o2"), path) : null;
+		if (value != null) {
+			return value;
+		}
+		BsonDocument set;
+		if (o.containsKey("$set")) {
+			set = o.getDocument("$set");
+		} else if (o.containsKey("diff")) {
+			BsonDocument diff = o.getDocument("diff");
+			set = diff.containsKey("u") ? diff.getDocument("u") : (diff.containsKey("i") ? diff.getDocument("i") : null);
+		} else if (!o.isEmpty() && !o.getFirstKey().startsWith("$")) {
+			// replacement
+			return getPath(o, path);
+		} else {
+			return null;
+		}
+		if (set == null) {
+			return null;
+		}
+		value = set.get(path);
+		return value != null ? value : getPath(set, path);
+	}
+
+	private static BsonValue getPath(BsonDocument doc, String path) {
+		int dot = path.indexOf('.');
+		if (dot < 0) {
+			return doc.get(path);
+		}
+		BsonValue parent = doc.get(path.substring(0, dot));
+		if (parent == null || !parent.isDocument()) {
+			return null;
+		}
+		return getPath(parent.asDocument(), path.substring(dot + 1));
+	}
+
 }
@@ -0,0 +1,523 @@
+package com.mongodb.oplog;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.lt;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.bson.BsonDocument;
+import org.bson.BsonInt64;
+import org.bson.BsonMaxKey;
+import org.bson.BsonMinKey;
+import org.bson.BsonNull;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.shardsync.ChunkRouter;
+import com.mongodb.shardsync.ShardClient;
+import com.mongodb.util.HyperLogLog;
+import com.mongodb.util.bson.BsonHasher;
+import com.mongodb.util.bson.BsonValueComparator;
+
+/**
+ * Ranks shard key candidates for a collection by how well they would have spread the writes
+ * in a recent window of the source oplog.
+ *
+ * Candidates are comma separated fields, e.g. <code>customerId</code> or
+ * <code>customerId,orderDate</code>, or a single <code>field:hashed</code>. Insert and update
+ * entries for the namespace are streamed from every source shard (or the replica set), and for
+ * each candidate:
+ * <ul>
+ * <li>cardinality, HyperLogLog over the hashed key</li>
+ * <li>frequency skew, the most frequent keys (Space-Saving heavy hitters)</li>
+ * <li>monotonicity, the fraction of consecutive writes (per source oplog) with an increasing key</li>
+ * <li>the write distribution: chunks are split from the keys seen in the first half of the window
+ * (evenly over the hash space for hashed keys) and spread round robin over N shards, then the
+ * writes of the second half are routed to them with {@link ChunkRouter}</li>
+ * </ul>
+ * Candidates are ranked by the busiest simulated shard's write share relative to an even share.
+ * A monotonic key sends all new writes to the last chunk and ranks badly, as it would in practice.
+ */
+public class ShardKeyAnalyzer {
+
+	private static Logger logger = LoggerFactory.getLogger(ShardKeyAnalyzer.class);
+
+	private final static BsonValueComparator comparator = new BsonValueComparator();
+
+	private static Options options;
+	private static CommandLine line;
+
+	private final static String SOURCE_URI = "source";
+	private final static String NAMESPACE = "ns";
+	private final static String KEY = "key";
+	private final static String WINDOW_SECONDS = "windowSeconds";
+	private final static String SHARDS = "shards";
+	private final static String CHUNKS_PER_SHARD = "chunksPerShard";
+
+	private final static int SAMPLE_SIZE = 10000;
+	private final static int HEAVY_HITTERS = 100;
+
+	private String sourceClusterUri;
+	private String namespace;
+	private long windowSeconds = 3600;
+	private int shards = 4;
+	private int chunksPerShard = 16;
+	private final List<Candidate> candidates = new ArrayList<Candidate>();
+
+	private final Random random = new Random();
+
+	private static class Counter {
+		private final BsonDocument key;
+		private long count;
+		// over-count inherited from the evicted counter
+		private long error;
+
+		Counter(BsonDocument key, long count, long error) {
+			this.key = key;
+			this.count = count;
+			this.error = error;
+		}
+	}
+
+	/**
+	 * Space-Saving top-k: at most capacity counters, a new key replaces the smallest counter and
+	 * inherits its count as error. Any key more frequent than writes / capacity is guaranteed to
+	 * be tracked.
+	 */
+	private static class HeavyHitters {
+		private final int capacity;
+		private final Map<Long, Counter> counters = new HashMap<Long, Counter>();
+
+		HeavyHitters(int capacity) {
+			this.capacity = capacity;
+		}
+
+		void add(long hash, BsonDocument key) {
+			Counter counter = counters.get(hash);
+			if (counter != null) {
+				counter.count++;
+				return;
+			}
+			if (counters.size() < capacity) {
+				counters.put(hash, new Counter(key, 1, 0));
+				return;
+			}
+			Map.Entry<Long, Counter> min = null;
+			for (Map.Entry<Long, Counter> entry : counters.entrySet()) {
+				if (min == null || entry.getValue().count < min.getValue().count) {
+					min = entry;
+				}
+			}
+			counters.remove(min.getKey());
+			counters.put(hash, new Counter(key, min.getValue().count + 1, min.getValue().count));
+		}
+
+		List<Counter> top(int n) {
+			List<Counter> result = new ArrayList<Counter>(counters.values());
+			Collections.sort(result, new Comparator<Counter>() {
+				@Override
+				public int compare(Counter c1, Counter c2) {
+					return Long.compare(c2.count, c1.count);
+				}
+			});
+			return result.subList(0, Math.min(n, result.size()));
+		}
+	}
+
+	private class Candidate {
+		private final String name;
+		private final String[] fields;
+		private final boolean hashed;
+
+		private final HyperLogLog cardinality = new HyperLogLog();
+		private final HeavyHitters heavyHitters = new HeavyHitters(HEAVY_HITTERS);
+		private long writes;
+		private long missing;
+		private long increasing;
+		private long comparisons;
+		private BsonDocument previous;
+
+		// first half of the window: reservoir sample of keys for the chunk split points
+		private final List<BsonDocument> sample = new ArrayList<BsonDocument>();
+		private long sampled;
+		// second half: writes routed to the simulated shards
+		private ChunkRouter router;
+		private final Map<String, Long> shardWrites = new TreeMap<String, Long>();
+		private long routedWrites;
+
+		Candidate(String spec) {
+			this.name = spec;
+			this.hashed = spec.endsWith(":hashed");
+			String fieldList = hashed ? spec.substring(0, spec.length() - ":hashed".length()) : spec;
+			this.fields = fieldList.split(",");
+			if (hashed && fields.length > 1) {
+				throw new IllegalArgumentException("hashed candidates must be a single field: " + spec);
+			}
+		}
+
+		/**
+		 * @return the candidate key of the entry, null when none of the fields are present (e.g.
+		 *         an update only setting other fields), rather than an all null key
+		 */
+		BsonDocument getKey(RawBsonDocument entry) {
+			BsonDocument key = new BsonDocument();
+			boolean found = false;
+			for (String field : fields) {
+				BsonValue value = OplogUtil.getFieldValue(entry, field);
+				if (value == null) {
+					value = BsonNull.VALUE;
+				} else {
+					found = true;
+				}
+				key.append(field, value);
+			}
+			if (!found) {
+				missing++;
+				return null;
+			}
+			return key;
+		}
+
+		void add(BsonDocument key, boolean training) {
+			writes++;
+			long hash = BsonHasher.hash64(key);
+			cardinality.add(hash);
+			heavyHitters.add(hash, key);
+			if (previous != null) {
+				comparisons++;
+				if (comparator.compareDocs(key, previous) > 0) {
+					increasing++;
+				}
+			}
+			previous = key;
+
+			if (training) {
+				sampled++;
+				if (sample.size() < SAMPLE_SIZE) {
+					sample.add(key);
+				} else {
+					long i = (long) (random.nextDouble() * sampled);
+					if (i < SAMPLE_SIZE) {
+						sample.set((int) i, key);
+					}
+				}
+			} else {
+				BsonDocument shardKey = hashed ? new BsonDocument(fields[0], BsonHasher.hashedKey(key.get(fields[0]))) : key;
+				String shard = router.getShardForKey(shardKey);
+				Long count = shardWrites.get(shard);
+				shardWrites.put(shard, count == null ? 1 : count + 1);
+				routedWrites++;
+			}
+		}
+
+		void buildChunks() {
+			int numChunks = shards * chunksPerShard;
+			List<BsonValue[]> bounds = new ArrayList<BsonValue[]>();
+			if (hashed) {
+				long step = 2 * (Long.MAX_VALUE / numChunks);
+				for (int i = 1; i < numChunks; i++) {
+					bounds.add(new BsonValue[] { new BsonInt64(Long.MIN_VALUE + i * step) });
+				}
+			} else {
+				Collections.sort(sample, new Comparator<BsonDocument>() {
+					@Override
+					public int compare(BsonDocument d1, BsonDocument d2) {
+						return comparator.compareDocs(d1, d2);
+					}
+				});
+				BsonDocument last = null;
+				for (int i = 1; i < numChunks && !sample.isEmpty(); i++) {
+					BsonDocument splitPoint = sample.get((int) ((long) i * sample.size() / numChunks));
+					// a chunk cannot be split below a single key value
+					if (last == null || comparator.compareDocs(splitPoint, last) > 0) {
+						bounds.add(splitPoint.values().toArray(new BsonValue[0]));
+						last = splitPoint;
+					}
+				}
+			}
+			List<BsonDocument> chunks = new ArrayList<BsonDocument>();
+			BsonDocument min = bound(new BsonMinKey());
+			for (int i = 0; i <= bounds.size(); i++) {
+				BsonDocument max = i < bounds.size() ? bound(bounds.get(i)) : bound(new BsonMaxKey());
+				chunks.add(new BsonDocument("min", min).append("max", max)
+						.append("shard", new BsonString("shard" + (i % shards))));
+				min = max;
+			}
+			router = new ChunkRouter(namespace, getShardKeyPattern(), chunks);
+		}
+
+		private BsonDocument bound(BsonValue... values) {
+			BsonDocument bound = new BsonDocument();
+			for (int i = 0; i < fields.length; i++) {
+				bound.append(fields[i], values.length == 1 ? values[0] : values[i]);
+			}
+			return bound;
+		}
+
+		private BsonDocument getShardKeyPattern() {
+			BsonDocument pattern = new BsonDocument();
+			for (String field : fields) {
+				pattern.append(field, hashed ? new BsonString("hashed") : new BsonInt64(1));
+			}
+			return pattern;
+		}
+
+		double getIncreasingRatio() {
+			return comparisons == 0 ? 0.5 : (double) increasing / comparisons;
+		}
+
+		/**
+		 * Busiest shard's writes relative to an even share, 1.0 is perfect, shards is worst.
+		 */
+		double getImbalance() {
+			if (routedWrites == 0) {
+				return shards;
+			}
+			long max = 0;
+			for (Long count : shardWrites.values()) {
+				max = Math.max(max, count);
+			}
+			return max * (double) shards / routedWrites;
+		}
+	}
+
+	public void run() throws IOException {
+		ShardClient sourceShardClient = new ShardClient("source", sourceClusterUri);
+		sourceShardClient.init();
+		Map<String, MongoClient> oplogClients = new LinkedHashMap<String, MongoClient>();
+		if (sourceShardClient.isMongos()) {
+			sourceShardClient.populateShardMongoClients();
+			oplogClients.putAll(sourceShardClient.getShardMongoClients());
+		} else {
+			oplogClients.put("rs", sourceShardClient.getMongoClient());
+		}
+
+		// one window ending at the oldest of the latest entries, so every shard covers it fully
+		int end = Integer.MAX_VALUE;
+		for (MongoClient client : oplogClients.values()) {
+			Document latest = client.getDatabase("local").getCollection("oplog.rs").find()
+					.sort(new Document("$natural", -1)).first();
+			end = Math.min(end, ((BsonTimestamp) latest.get("ts")).getTime());
+		}
+		int start = end - (int) windowSeconds;
+		int mid = start + (int) (windowSeconds / 2);
+		logger.debug(String.format("Analyzing %s writes from %s to %s on %s, candidates: %s", namespace, start, end,
+				oplogClients.keySet(), candidates.size()));
+
+		long count = scan(oplogClients, start, mid, true);
+		for (Candidate candidate : candidates) {
+			candidate.buildChunks();
+		}
+		count += scan(oplogClients, mid, end, false);
+		logger.debug(String.format("Scanned %s oplog entries", count));
+		logReport();
+	}
+
+	private long scan(Map<String, MongoClient> oplogClients, int from, int to, boolean training) {
+		Bson query = and(gte("ts", new BsonTimestamp(from, 0)), lt("ts", new BsonTimestamp(to, 0)),
+				eq("ns", namespace), in("op", "i", "u"));
+		long count = 0;
+		for (Map.Entry<String, MongoClient> entry : oplogClients.entrySet()) {
+			for (Candidate candidate : candidates) {
+				// monotonicity is only meaningful within one oplog
+				candidate.previous = null;
+			}
+			try (MongoCursor<RawBsonDocument> cursor = entry.getValue().getDatabase("local")
+					.getCollection("oplog.rs", RawBsonDocument.class).find(query).iterator()) {
+				while (cursor.hasNext()) {
+					RawBsonDocument oplogEntry = cursor.next();
+					for (Candidate candidate : candidates) {
+						BsonDocument key = candidate.getKey(oplogEntry);
+						if (key != null) {
+							candidate.add(key, training);
+						}
+					}
+					count++;
+					if (count % 100000 == 0) {
+						logger.debug(String.format("%s - scanned %s oplog entries", entry.getKey(), count));
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	private void logReport() {
+		List<Candidate> ranked = new ArrayList<Candidate>(candidates);
+		Collections.sort(ranked, new Comparator<Candidate>() {
+			@Override
+			public int compare(Candidate c1, Candidate c2) {
+				int result = Double.compare(c1.getImbalance(), c2.getImbalance());
+				return result != 0 ? result : Long.compare(c2.cardinality.estimate(), c1.cardinality.estimate());
+			}
+		});
+		int rank = 1;
+		for (Candidate c : ranked) {
+			List<Counter> top = c.heavyHitters.top(3);
+			// guaranteed count, a Space-Saving count includes the error inherited on eviction
+			double topShare = top.isEmpty() || c.writes == 0 ? 0.0 : (double) (top.get(0).count - top.get(0).error) / c.writes;
+			double increasingRatio = c.getIncreasingRatio();
+			logger.debug(String.format(
+					"#%s %-30s imbalance: %.2fx, cardinality: ~%,d, writes: %,d (%.1f%% missing key), top key share: %.2f%%, increasing: %.1f%%",
+					rank++, c.name, c.getImbalance(), c.cardinality.estimate(), c.writes,
+					c.writes + c.missing == 0 ? 0.0 : c.missing * 100.0 / (c.writes + c.missing), topShare * 100, increasingRatio * 100));
+			logger.debug(String.format("    simulated writes by shard: %s", c.shardWrites));
+			for (Counter counter : top) {
+				logger.debug(String.format("    %,d writes (+/- %,d): %s", counter.count, counter.error, counter.key.toJson()));
+			}
+			if (c.cardinality.estimate() < shards * chunksPerShard) {
+				logger.warn(String.format("%s - low cardinality, at most %s chunks", c.name, c.cardinality.estimate()));
+			}
+			if (topShare > 1.0 / (shards * chunksPerShard)) {
+				logger.warn(String.format("%s - most frequent key takes %.1f%% of writes, expect jumbo chunks", c.name,
+						topShare * 100));
+			}
+			if (!c.hashed && (increasingRatio > 0.9 || increasingRatio < 0.1)) {
+				logger.warn(String.format("%s - monotonic key, inserts concentrate on one chunk", c.name));
+			}
+		}
+	}
+
+	@SuppressWarnings("static-access")
+	private static CommandLine initializeAndParseCommandLineOptions(String[] args) {
+		options = new Options();
+		options.addOption(new Option("help", "print this message"));
+		options.addOption(OptionBuilder.withArgName("Configuration properties file").hasArgs().withLongOpt("config")
+				.isRequired(false).create("c"));
+		options.addOption(OptionBuilder.withArgName("namespace to analyze").hasArg().withLongOpt(NAMESPACE)
+				.isRequired().create("n"));
+		options.addOption(OptionBuilder.withArgName("candidate key: field[,field...] or field:hashed").hasArgs()
+				.withLongOpt(KEY).isRequired().create("k"));
+		options.addOption(OptionBuilder.withArgName("oplog window to analyze, seconds (default 3600)").hasArg()
+				.withLongOpt(WINDOW_SECONDS).create());
+		options.addOption(OptionBuilder.withArgName("number of dest shards to simulate (default 4)").hasArg()
+				.withLongOpt(SHARDS).create());
+		options.addOption(OptionBuilder.withArgName("simulated chunks per shard (default 16)").hasArg()
+				.withLongOpt(CHUNKS_PER_SHARD).create());
+
+		CommandLineParser parser = new GnuParser();
+		try {
+			line = parser.parse(options, args);
+			if (line.hasOption("help")) {
+				printHelpAndExit();
+			}
+		} catch (org.apache.commons.cli.ParseException e) {
+			System.out.println(e.getMessage());
+			printHelpAndExit();
+		} catch (Exception e) {
+			e.printStackTrace();
+			printHelpAndExit();
+		}
+
+		return line;
+	}
+
+	private static Properties readProperties() {
+		Properties prop = new Properties();
+		File propsFile = null;
+		if (line.hasOption("c")) {
+			propsFile = new File(line.getOptionValue("c"));
+		} else {
+			propsFile = new File("shard-sync.properties");
+			if (!propsFile.exists()) {
+				logger.warn("Default config file shard-sync.properties not found, using command line options only");
+				return prop;
+			}
+		}
+
+		try (InputStream input = new FileInputStream(propsFile)) {
+			prop.load(input);
+		} catch (IOException ioe) {
+			logger.error("Error loading properties file: " + propsFile, ioe);
+		}
+		return prop;
+	}
+
+	private static void printHelpAndExit() {
+		HelpFormatter formatter = new HelpFormatter();
+		formatter.printHelp("shardKeyAnalyzer", options);
+		System.exit(-1);
+	}
+
+	public static void main(String[] args) throws Exception {
+		initializeAndParseCommandLineOptions(args);
+		Properties configFileProps = readProperties();
+
+		ShardKeyAnalyzer analyzer = new ShardKeyAnalyzer();
+		analyzer.setSourceClusterUri(configFileProps.getProperty(SOURCE_URI));
+		analyzer.setNamespace(line.getOptionValue(NAMESPACE));
+		for (String key : line.getOptionValues(KEY)) {
+			analyzer.addCandidate(key);
+		}
+		if (line.hasOption(WINDOW_SECONDS)) {
+			analyzer.setWindowSeconds(Long.parseLong(line.getOptionValue(WINDOW_SECONDS)));
+		}
+		if (line.hasOption(SHARDS)) {
+			analyzer.setShards(Integer.parseInt(line.getOptionValue(SHARDS)));
+		}
+		if (line.hasOption(CHUNKS_PER_SHARD)) {
+			analyzer.setChunksPerShard(Integer.parseInt(line.getOptionValue(CHUNKS_PER_SHARD)));
+		}
+		if (analyzer.sourceClusterUri == null) {
+			System.out.println("source option required");
+			printHelpAndExit();
+		}
+		analyzer.run();
+	}
+
+	public void setSourceClusterUri(String sourceClusterUri) {
+		this.sourceClusterUri = sourceClusterUri;
+	}
+
+	public void setNamespace(String namespace) {
+		this.namespace = namespace;
+	}
+
+	public void addCandidate(String spec) {
+		candidates.add(new Candidate(spec));
+	}
+
+	public void setWindowSeconds(long windowSeconds) {
+		this.windowSeconds = windowSeconds;
+	}
+
+	public void setShards(int shards) {
+		this.shards = shards;
+	}
+
+	public void setChunksPerShard(int chunksPerShard) {
+		this.chunksPerShard = chunksPerShard;
+	}
+
+}
@@ -0,0 +1,269 @@
+package com.mongodb.shardsync;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.model.Namespace;
+import com.mongodb.util.bson.BsonValueComparator;
+
+/**
+ * Pre-pass over the source chunks that merges runs of adjacent, under-sized chunks that live on
+ * the same shard into a single range, so that the dest is created with fewer chunks (fewer splits,
+ * inserts and moveChunks, and less for the dest balancer to clean up afterwards).
+ *
+ * Chunk sizes are estimated with the dataSize command (estimate: true) against the source mongos,
+ * or read from a cache file written by a previous run. Jumbo chunks and zone boundaries are never
+ * merged across.
+ */
+public class ChunkConsolidator {
+
+	private static Logger logger = LoggerFactory.getLogger(ChunkConsolidator.class);
+
+	private final static BsonValueComparator comparator = new BsonValueComparator();
+	private final static BsonDocumentCodec bsonCodec = new BsonDocumentCodec();
+
+	private final ShardClient sourceShardClient;
+	private final long maxMergedBytes;
+
+	private File cacheFile;
+	private Map<String, Long> sizeCache = new HashMap<String, Long>();
+	private Map<String, List<BsonDocument>> zoneBoundaries = new HashMap<String, List<BsonDocument>>();
+
+	private long dataSizeCalls;
+	private long cacheHits;
+
+	// current run of chunks being merged
+	private RawBsonDocument runFirst;
+	private RawBsonDocument runLast;
+	private long runBytes;
+	private int runCount;
+
+	private long sourceChunkCount;
+	private long mergedChunkCount;
+	private long mergedBytes;
+	private Map<String, List<RawBsonDocument>> result;
+
+	/**
+	 * @param maxMergedBytes chunks smaller than this are candidates for merging, and a merged
+	 *                       range never grows beyond this size
+	 */
+	public ChunkConsolidator(ShardClient sourceShardClient, long maxMergedBytes) {
+		this.sourceShardClient = sourceShardClient;
+		this.maxMergedBytes = maxMergedBytes;
+	}
+
+	public void setCacheFile(File cacheFile) {
+		this.cacheFile = cacheFile;
+	}
+
+	/**
+	 * @param sourceChunks source chunks sorted by ns, min
+	 * @return consolidated chunks by namespace, in the same order
+	 */
+	public Map<String, List<RawBsonDocument>> consolidate(Iterable<RawBsonDocument> sourceChunks) throws IOException {
+		logger.debug(String.format("consolidate started, maxMergedBytes: %s", maxMergedBytes));
+		long start = System.currentTimeMillis();
+		loadCache();
+		loadZoneBoundaries();
+		sourceShardClient.populateCollectionsMap();
+
+		result = new LinkedHashMap<String, List<RawBsonDocument>>();
+		for (RawBsonDocument chunk : sourceChunks) {
+			sourceChunkCount++;
+			if (sourceChunkCount % 10000 == 0) {
+				logger.debug(String.format("consolidate - %s chunks read, dataSize calls: %s, cache hits: %s",
+						sourceChunkCount, dataSizeCalls, cacheHits));
+			}
+			long size = getChunkSize(chunk);
+			if (canMerge(chunk, size)) {
+				runLast = chunk;
+				runBytes += size;
+				runCount++;
+			} else {
+				flushRun();
+				runFirst = chunk;
+				runLast = chunk;
+				runBytes = size;
+				runCount = 1;
+			}
+		}
+		flushRun();
+		saveCache();
+
+		long consolidatedCount = 0;
+		for (List<RawBsonDocument> chunks : result.values()) {
+			consolidatedCount += chunks.size();
+		}
+		long saved = sourceChunkCount - consolidatedCount;
+		logger.debug(String.format(
+				"consolidate complete in %s seconds, chunks: %s ==> %s (%s fewer, %.1f%%), %s merged ranges covering %s source chunks and %,d bytes, dataSize calls: %s, cache hits: %s",
+				(System.currentTimeMillis() - start) / 1000, sourceChunkCount, consolidatedCount, saved,
+				sourceChunkCount == 0 ? 0.0 : saved * 100.0 / sourceChunkCount, mergedChunkCount, mergedChunkCount + saved,
+				mergedBytes, dataSizeCalls, cacheHits));
+		logger.debug(String.format("consolidate saves %s split/insert commands on the dest", saved));
+		return result;
+	}
+
+	private boolean canMerge(RawBsonDocument chunk, long size) {
+		if (runFirst == null) {
+			return false;
+		}
+		String ns = chunk.getString("ns").getValue();
+		if (!ns.equals(runFirst.getString("ns").getValue())) {
+			return false;
+		}
+		if (!chunk.getString("shard").equals(runFirst.getString("shard"))) {
+			return false;
+		}
+		if (isJumbo(chunk) || isJumbo(runLast) || size >= maxMergedBytes
+				|| runBytes >= maxMergedBytes || runBytes + size > maxMergedBytes) {
+			return false;
+		}
+		BsonDocument min = chunk.getDocument("min");
+		if (comparator.compareDocs(runLast.getDocument("max"), min) != 0) {
+			return false;
+		}
+		List<BsonDocument> boundaries = zoneBoundaries.get(ns);
+		if (boundaries != null) {
+			for (BsonDocument boundary : boundaries) {
+				if (comparator.compareDocs(boundary, min) == 0) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private void flushRun() {
+		if (runFirst == null) {
+			return;
+		}
+		String ns = runFirst.getString("ns").getValue();
+		List<RawBsonDocument> chunks = result.get(ns);
+		if (chunks == null) {
+			chunks = new ArrayList<RawBsonDocument>();
+			result.put(ns, chunks);
+		}
+		if (runCount == 1) {
+			chunks.add(runFirst);
+		} else {
+			BsonDocument merged = new BsonDocument();
+			for (Map.Entry<String, BsonValue> entry : runFirst.entrySet()) {
+				merged.put(entry.getKey(), entry.getValue());
+			}
+			merged.put("max", runLast.get("max"));
+			chunks.add(new RawBsonDocument(merged, bsonCodec));
+			mergedChunkCount++;
+			mergedBytes += runBytes;
+		}
+		runFirst = null;
+	}
+
+	private static boolean isJumbo(RawBsonDocument chunk) {
+		return chunk.containsKey("jumbo") && chunk.getBoolean("jumbo").getValue();
+	}
+
+	private static String getCacheKey(RawBsonDocument chunk) {
+		return String.format("%s_%s_%s", chunk.getString("ns").getValue(), chunk.getDocument("min").toJson(),
+				chunk.getDocument("max").toJson());
+	}
+
+	private long getChunkSize(RawBsonDocument chunk) {
+		if (isJumbo(chunk)) {
+			return Long.MAX_VALUE;
+		}
+		String key = getCacheKey(chunk);
+		Long size = sizeCache.get(key);
+		if (size != null) {
+			cacheHits++;
+			return size;
+		}
+		String nsStr = chunk.getString("ns").getValue();
+		Namespace ns = new Namespace(nsStr);
+		Document collection = sourceShardClient.getCollectionsMap().get(nsStr);
+		if (collection == null) {
+			return Long.MAX_VALUE;
+		}
+		Document dataSizeCommand = new Document("dataSize", nsStr);
+		dataSizeCommand.append("keyPattern", collection.get("key"));
+		dataSizeCommand.append("min", chunk.get("min"));
+		dataSizeCommand.append("max", chunk.get("max"));
+		dataSizeCommand.append("estimate", true);
+		dataSizeCalls++;
+		try {
+			Document result = sourceShardClient.getMongoClient().getDatabase(ns.getDatabaseName())
+					.runCommand(dataSizeCommand);
+			size = ((Number) result.get("size")).longValue();
+		} catch (MongoCommandException mce) {
+			// unknown size, leave the chunk as-is
+			logger.warn(String.format("dataSize failed for %s: %s", nsStr, mce.getErrorMessage()));
+			return Long.MAX_VALUE;
+		}
+		sizeCache.put(key, size);
+		return size;
+	}
+
+	private void loadZoneBoundaries() {
+		MongoCollection<RawBsonDocument> tags = sourceShardClient.getConfigDb().getCollection("tags",
+				RawBsonDocument.class);
+		for (RawBsonDocument tag : tags.find()) {
+			String ns = tag.getString("ns").getValue();
+			List<BsonDocument> boundaries = zoneBoundaries.get(ns);
+			if (boundaries == null) {
+				boundaries = new ArrayList<BsonDocument>();
+				zoneBoundaries.put(ns, boundaries);
+			}
+			boundaries.add(tag.getDocument("min"));
+			boundaries.add(tag.getDocument("max"));
+		}
+	}
+
+	private void loadCache() throws IOException {
+		if (cacheFile == null || !cacheFile.exists()) {
+			return;
+		}
+		try (BufferedReader reader = new BufferedReader(new FileReader(cacheFile))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.trim().isEmpty()) {
+					continue;
+				}
+				Document entry = Document.parse(line);
+				sizeCache.put(entry.getString("_id"), ((Number) entry.get("size")).longValue());
+			}
+		}
+		logger.debug(String.format("Loaded %s chunk size estimates from %s", sizeCache.size(), cacheFile));
+	}
+
+	private void saveCache() throws IOException {
+		if (cacheFile == null || dataSizeCalls == 0) {
+			return;
+		}
+		try (PrintWriter writer = new PrintWriter(new FileWriter(cacheFile))) {
+			for (Map.Entry<String, Long> entry : sizeCache.entrySet()) {
+				writer.println(new Document("_id", entry.getKey()).append("size", entry.getValue()).toJson());
+			}
+		}
+		logger.debug(String.format("Saved %s chunk size estimates to %s", sizeCache.size(), cacheFile));
+	}
+
+}
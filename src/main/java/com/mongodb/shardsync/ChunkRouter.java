@@ -0,0 +1,179 @@
+package com.mongodb.shardsync;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.BsonDocument;
+import org.bson.BsonNull;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+
+import com.mongodb.util.bson.BsonHasher;
+import com.mongodb.util.bson.BsonValueComparator;
+
+/**
+ * Maps documents of one sharded collection to the shard owning them, from the collection's
+ * shard key and its config.chunks entries. Hashed shard key fields are hashed client side with
+ * {@link BsonHasher}, so this works for hashed collections as well.
+ *
+ * Chunks are kept sorted by min and a document goes to the chunk with the greatest min that is
+ * <= its shard key. For the common single field hashed key the bounds are also kept as a long[],
+ * so a lookup is a hash plus a primitive binary search.
+ */
+public class ChunkRouter {
+
+	private final static BsonValueComparator comparator = new BsonValueComparator();
+
+	private final String ns;
+	private final String[] keyFields;
+	private final boolean[] hashed;
+	private final BsonDocument[] mins;
+	private final String[] shards;
+	// single hashed field only, mins as longs with MinKey as Long.MIN_VALUE
+	private final long[] hashedMins;
+
+	/**
+	 * @param shardKey the key document from config.collections, e.g. {_id: "hashed"}
+	 * @param chunks   config.chunks documents for the collection (min, max, shard)
+	 */
+	public ChunkRouter(String ns, BsonDocument shardKey, List<? extends BsonDocument> chunks) {
+		if (chunks.isEmpty()) {
+			throw new IllegalArgumentException("No chunks for " + ns);
+		}
+		this.ns = ns;
+		keyFields = new String[shardKey.size()];
+		hashed = new boolean[shardKey.size()];
+		int i = 0;
+		for (Map.Entry<String, BsonValue> entry : shardKey.entrySet()) {
+			keyFields[i] = entry.getKey();
+			hashed[i] = entry.getValue().isString() && entry.getValue().asString().getValue().equals("hashed");
+			i++;
+		}
+
+		List<BsonDocument> sorted = new ArrayList<BsonDocument>(chunks);
+		Collections.sort(sorted, new Comparator<BsonDocument>() {
+			@Override
+			public int compare(BsonDocument c1, BsonDocument c2) {
+				return comparator.compareDocs(c1.getDocument("min"), c2.getDocument("min"));
+			}
+		});
+		mins = new BsonDocument[sorted.size()];
+		shards = new String[sorted.size()];
+		for (i = 0; i < sorted.size(); i++) {
+			mins[i] = sorted.get(i).getDocument("min");
+			shards[i] = sorted.get(i).getString("shard").getValue();
+		}
+		hashedMins = keyFields.length == 1 && hashed[0] ? toLongs(mins) : null;
+	}
+
+	private static long[] toLongs(BsonDocument[] mins) {
+		long[] result = new long[mins.length];
+		for (int i = 0; i < mins.length; i++) {
+			BsonValue min = mins[i].values().iterator().next();
+			if (min.isInt64() || min.isInt32()) {
+				result[i] = min.asNumber().longValue();
+			} else if (i == 0 && min.getBsonType() == BsonType.MIN_KEY) {
+				result[i] = Long.MIN_VALUE;
+			} else {
+				return null;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The shard key of doc as stored in the index, i.e. with hashed fields hashed. A missing
+	 * field is null, as on the server.
+	 */
+	public BsonDocument getShardKey(BsonDocument doc) {
+		BsonDocument key = new BsonDocument();
+		for (int i = 0; i < keyFields.length; i++) {
+			BsonValue value = getValue(doc, keyFields[i]);
+			key.append(keyFields[i], hashed[i] ? BsonHasher.hashedKey(value) : value);
+		}
+		return key;
+	}
+
+	public String getShard(BsonDocument doc) {
+		if (hashedMins != null) {
+			return getShardForHash(BsonHasher.hash64(getValue(doc, keyFields[0])));
+		}
+		return getShardForKey(getShardKey(doc));
+	}
+
+	/**
+	 * @param key a shard key as returned by {@link #getShardKey(BsonDocument)}
+	 */
+	public String getShardForKey(BsonDocument key) {
+		int low = 0;
+		int high = mins.length - 1;
+		int found = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (comparator.compareDocs(mins[mid], key) <= 0) {
+				found = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return found < 0 ? null : shards[found];
+	}
+
+	private String getShardForHash(long hash) {
+		int low = 0;
+		int high = hashedMins.length - 1;
+		int found = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (hashedMins[mid] <= hash) {
+				found = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return found < 0 ? null : shards[found];
+	}
+
+	private static BsonValue getValue(BsonDocument doc, String path) {
+		BsonValue value = doc;
+		int start = 0;
+		while (true) {
+			int dot = path.indexOf('.', start);
+			String field = dot < 0 ? path.substring(start) : path.substring(start, dot);
+			value = value.asDocument().get(field);
+			if (value == null) {
+				return BsonNull.VALUE;
+			}
+			if (dot < 0) {
+				return value;
+			}
+			if (!value.isDocument()) {
+				return BsonNull.VALUE;
+			}
+			start = dot + 1;
+		}
+	}
+
+	public boolean isHashed() {
+		for (boolean h : hashed) {
+			if (h) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public String getNamespace() {
+		return ns;
+	}
+
+	public int getChunkCount() {
+		return mins.length;
+	}
+
+}
@@ -1,6 +1,12 @@
 package com.mongodb.shardsync;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.bson.Document;
 import org.slf4j.Logger;
@@ -9,66 +15,114 @@ import org.slf4j.LoggerFactory;
 import com.mongodb.MongoException;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.model.Namespace;
 
 public class CleanupOrphaned {
-    
+
     private static Logger logger = LoggerFactory.getLogger(CleanupOrphaned.class);
-    
+
+    private final static long DEFAULT_INITIAL_SLEEP_MILLIS = 100;
+
     private ShardClient shardClient;
-    
+
+    // orphan counts by shard and namespace from ShardClient.findOrphans() (-1 if unknown), when set only those are cleaned
+    private Map<String, Map<Namespace, Long>> targets;
+
+    private int threads = 4;
+
     public CleanupOrphaned(ShardClient shardClient) {
         this.shardClient = shardClient;
     }
-    
-    public void cleanupOrphans(Long cleanupOrphansSleepMillis) {
+
+    public void setTargets(Map<String, Map<Namespace, Long>> targets) {
+        this.targets = targets;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Cleanup runs on up to threads shards at once. The pause between cleanupOrphaned batches is
+     * adapted per shard from its replication lag and write queue, starting at cleanupOrphansSleepMillis.
+     */
+    public void cleanupOrphans(Long cleanupOrphansSleepMillis) throws InterruptedException {
+        final long initialSleep = cleanupOrphansSleepMillis != null ? cleanupOrphansSleepMillis : DEFAULT_INITIAL_SLEEP_MILLIS;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
         for (Map.Entry<String, MongoClient> entry : shardClient.getShardMongoClients().entrySet()) {
-            MongoClient client = entry.getValue();
-            cleanupOrphans(client, entry.getKey(), cleanupOrphansSleepMillis);
+            final MongoClient client = entry.getValue();
+            final String name = entry.getKey();
+            if (targets != null && !targets.containsKey(name)) {
+                logger.debug(String.format("cleanupOrphans: %s - no orphans, skipping", name));
+                continue;
+            }
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    cleanupOrphans(client, name, initialSleep);
+                }
+            }));
+        }
+        executor.shutdown();
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                logger.error("cleanup orphaned error", e.getCause());
+            }
         }
         logger.debug("cleanupOrphans complete");
     }
-    
-    private void cleanupOrphans(MongoClient client, String name, Long cleanupOrphansSleepMillis) {
+
+    private void cleanupOrphans(MongoClient client, String name, long initialSleepMillis) {
+        ReplicationLagThrottle throttle = new ReplicationLagThrottle(name, client, initialSleepMillis);
+        long batches = 0;
+        long start = System.currentTimeMillis();
         try {
             MongoDatabase db = client.getDatabase("admin");
             for (Document coll : shardClient.getCollectionsMap().values()) {
-                
+
                 if (coll.get("_id").equals("config.system.sessions")) {
                     continue;
                 }
-                
+                if (targets != null && !targets.get(name).containsKey(new Namespace((String)coll.get("_id")))) {
+                    continue;
+                }
+
                 Document command = new Document("cleanupOrphaned", (String)coll.get("_id"));
                 command.append("secondaryThrottle", true);
                 command.append("writeConcern", new Document("w", "majority"));
-                
+
                 Document result = null;
                 Document nextKey = null;
-                
+
                 logger.debug(String.format("cleanupOrphans: %s - %s", name, coll.get("_id")));
                 do {
                     if (nextKey != null) {
                         command.append("startingFromKey", nextKey);
                     }
                     result = db.runCommand(command);
+                    batches++;
                     Double ok = result.getDouble("ok");
                     if (! ok.equals(1.0)) {
                         logger.warn("Cleanup failed: " + result);
                     }
                     nextKey = (Document)result.get("stoppedAtKey");
-                    
-                    if (cleanupOrphansSleepMillis != null) {
-                        try {
-                            Thread.sleep(cleanupOrphansSleepMillis);
-                        } catch (InterruptedException e) {
-                        }
-                    }
-                    
+
+                    throttle.pause();
+
                 } while(nextKey != null);
-                
+
             }
         } catch (MongoException me) {
-            logger.error("cleanup orphaned error", me);
+            logger.error(String.format("cleanup orphaned error on %s", name), me);
+        } catch (InterruptedException e) {
+            logger.warn(String.format("cleanupOrphans: %s - interrupted", name));
+            Thread.currentThread().interrupt();
         }
+        logger.debug(String.format("cleanupOrphans: %s - complete, %s batches in %s seconds, final sleep: %sms", name, batches,
+                (System.currentTimeMillis() - start) / 1000, throttle.getSleepMillis()));
     }
 
 }
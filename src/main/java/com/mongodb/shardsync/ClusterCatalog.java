@@ -0,0 +1,420 @@
+package com.mongodb.shardsync;
+
+import static com.mongodb.client.model.Filters.gt;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bson.BsonArray;
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.model.IndexSpec;
+import com.mongodb.model.Namespace;
+
+/**
+ * Databases, collections (listCollections info, including options and UUID) and index specs for
+ * one mongos or shard, loaded with a pool of threads and optionally saved to a local cache file.
+ *
+ * When the cache file exists, only what changed since it was written is re-read: collections whose
+ * UUID changed, new collections, namespaces named in config.changelog since the last load, and all
+ * collections of a database whose dbStats index count changed. Everything else is reused from the
+ * cache, so listIndexes is not run against every collection on every start.
+ */
+public class ClusterCatalog {
+
+	private static Logger logger = LoggerFactory.getLogger(ClusterCatalog.class);
+
+	private final static JsonWriterSettings jsonSettings = JsonWriterSettings.builder().outputMode(JsonMode.EXTENDED).build();
+	private final static Set<String> excludedDatabases = new HashSet<String>(Arrays.asList("admin", "config", "local"));
+
+	private final String name;
+	private final MongoClient client;
+	// used for config.changelog, may be null
+	private final MongoDatabase configDb;
+
+	private int threads = 8;
+	private File cacheFile;
+	private boolean loaded;
+
+	private Set<String> databaseNames = new TreeSet<String>();
+	// dbStats "indexes" per database as of the last load
+	private Map<String, Long> databaseIndexCounts = new TreeMap<String, Long>();
+	private Map<Namespace, CollectionEntry> collections = new ConcurrentSkipListMap<Namespace, CollectionEntry>();
+	private Date changelogTime;
+
+	private final AtomicLong listIndexesCalls = new AtomicLong();
+	private final AtomicLong reused = new AtomicLong();
+
+	public static class CollectionEntry {
+		private final Namespace ns;
+		private final RawBsonDocument info;
+		private final List<RawBsonDocument> indexes;
+
+		CollectionEntry(Namespace ns, RawBsonDocument info, List<RawBsonDocument> indexes) {
+			this.ns = ns;
+			this.info = info;
+			this.indexes = indexes;
+		}
+
+		public Namespace getNamespace() {
+			return ns;
+		}
+
+		public boolean isView() {
+			return info.containsKey("type") && info.getString("type").getValue().equals("view");
+		}
+
+		public BsonDocument getOptions() {
+			return info.getDocument("options", new BsonDocument());
+		}
+
+		public BsonValue getUuid() {
+			return info.getDocument("info", new BsonDocument()).get("uuid");
+		}
+
+		public List<RawBsonDocument> getIndexes() {
+			return indexes;
+		}
+
+		public Set<IndexSpec> getIndexSpecs() {
+			Set<IndexSpec> specs = new HashSet<IndexSpec>();
+			for (RawBsonDocument index : indexes) {
+				specs.add(IndexSpec.fromDocument(index));
+			}
+			return specs;
+		}
+
+		BsonDocument toBson() {
+			BsonArray indexArray = new BsonArray();
+			indexArray.addAll(indexes);
+			return new BsonDocument("ns", new BsonString(ns.getNamespace())).append("info", info).append("indexes", indexArray);
+		}
+
+		static CollectionEntry fromBson(RawBsonDocument doc) {
+			List<RawBsonDocument> indexes = new ArrayList<RawBsonDocument>();
+			for (BsonValue index : doc.getArray("indexes")) {
+				indexes.add((RawBsonDocument) index);
+			}
+			return new CollectionEntry(new Namespace(doc.getString("ns").getValue()), (RawBsonDocument) doc.get("info"), indexes);
+		}
+	}
+
+	public ClusterCatalog(String name, MongoClient client, MongoDatabase configDb) {
+		this.name = name;
+		this.client = client;
+		this.configDb = configDb;
+	}
+
+	public synchronized void ensureLoaded() throws IOException, InterruptedException {
+		if (!loaded) {
+			load();
+		}
+	}
+
+	/**
+	 * Load the catalog, incrementally from the cache file when there is one, and save it back.
+	 */
+	public synchronized void load() throws IOException, InterruptedException {
+		long start = System.currentTimeMillis();
+		listIndexesCalls.set(0);
+		reused.set(0);
+
+		boolean cached = loadCache();
+		// read before listing anything, so that changes made while loading are seen next time
+		Date latestChangelogTime = getLatestChangelogTime();
+		Set<String> changed = Collections.emptySet();
+		if (cached) {
+			changed = getChangedSince(changelogTime);
+			if (changed == null) {
+				logger.debug(String.format("%s catalog: changelog does not go back to %s, full reload", name, changelogTime));
+				cached = false;
+				databaseIndexCounts.clear();
+				collections.clear();
+				changed = Collections.emptySet();
+			}
+		}
+
+		List<String> dbNames = new ArrayList<String>();
+		for (String dbName : client.listDatabaseNames()) {
+			if (!excludedDatabases.contains(dbName)) {
+				dbNames.add(dbName);
+			}
+		}
+
+		// databases are listed on one pool and listIndexes runs on another; database tasks only
+		// submit index tasks and never wait for them
+		final Map<Namespace, CollectionEntry> previous = collections;
+		final Map<Namespace, CollectionEntry> current = new ConcurrentSkipListMap<Namespace, CollectionEntry>();
+		final Map<String, Long> indexCounts = new ConcurrentHashMap<String, Long>();
+		final Set<String> changedNamespaces = changed;
+		ExecutorService databaseExecutor = Executors.newFixedThreadPool(threads);
+		final ExecutorService indexExecutor = Executors.newFixedThreadPool(threads);
+		Map<String, Future<List<Future<CollectionEntry>>>> databaseFutures = new TreeMap<String, Future<List<Future<CollectionEntry>>>>();
+		for (final String dbName : dbNames) {
+			databaseFutures.put(dbName, databaseExecutor.submit(new Callable<List<Future<CollectionEntry>>>() {
+				@Override
+				public List<Future<CollectionEntry>> call() throws Exception {
+					return loadDatabase(dbName, changedNamespaces, previous, current, indexCounts, indexExecutor);
+				}
+			}));
+		}
+		databaseExecutor.shutdown();
+
+		try {
+			for (Map.Entry<String, Future<List<Future<CollectionEntry>>>> entry : databaseFutures.entrySet()) {
+				List<Future<CollectionEntry>> indexFutures;
+				try {
+					indexFutures = entry.getValue().get();
+				} catch (ExecutionException e) {
+					throw new RuntimeException(String.format("%s catalog: error loading database %s", name, entry.getKey()), e.getCause());
+				}
+				for (Future<CollectionEntry> indexFuture : indexFutures) {
+					try {
+						CollectionEntry collectionEntry = indexFuture.get();
+						current.put(collectionEntry.getNamespace(), collectionEntry);
+					} catch (ExecutionException e) {
+						throw new RuntimeException(String.format("%s catalog: listIndexes failed in %s", name, entry.getKey()), e.getCause());
+					}
+				}
+			}
+		} finally {
+			indexExecutor.shutdown();
+		}
+
+		databaseNames = new TreeSet<String>(dbNames);
+		databaseIndexCounts = new TreeMap<String, Long>(indexCounts);
+		collections = current;
+		changelogTime = latestChangelogTime;
+		loaded = true;
+		saveCache();
+
+		logger.debug(String.format("%s catalog loaded in %s ms, %s databases, %s collections, listIndexes calls: %s, reused from cache: %s",
+				name, System.currentTimeMillis() - start, databaseNames.size(), collections.size(), listIndexesCalls.get(), reused.get()));
+	}
+
+	private List<Future<CollectionEntry>> loadDatabase(String dbName, Set<String> changedNamespaces,
+			Map<Namespace, CollectionEntry> previous, Map<Namespace, CollectionEntry> current, Map<String, Long> indexCounts,
+			ExecutorService indexExecutor) {
+		final MongoDatabase db = client.getDatabase(dbName);
+
+		// an index build or drop doesn't change the collection UUID, the dbStats index count
+		// is the cheap signal that something in this database needs listIndexes again
+		Long indexCount = getIndexCount(db);
+		if (indexCount != null) {
+			indexCounts.put(dbName, indexCount);
+		}
+		boolean databaseChanged = indexCount == null || !indexCount.equals(databaseIndexCounts.get(dbName))
+				|| changedNamespaces.contains(dbName);
+
+		List<Future<CollectionEntry>> futures = new ArrayList<Future<CollectionEntry>>();
+		for (final RawBsonDocument info : db.listCollections(RawBsonDocument.class)) {
+			String collectionName = info.getString("name").getValue();
+			if (collectionName.startsWith("system.")) {
+				continue;
+			}
+			final Namespace ns = new Namespace(dbName, collectionName);
+			CollectionEntry previousEntry = previous.get(ns);
+			CollectionEntry entry = new CollectionEntry(ns, info, Collections.<RawBsonDocument>emptyList());
+
+			if (entry.isView()) {
+				current.put(ns, entry);
+			} else if (!databaseChanged && previousEntry != null && !changedNamespaces.contains(ns.getNamespace())
+					&& Objects.equals(previousEntry.getUuid(), entry.getUuid())) {
+				current.put(ns, new CollectionEntry(ns, info, previousEntry.getIndexes()));
+				reused.incrementAndGet();
+			} else {
+				futures.add(indexExecutor.submit(new Callable<CollectionEntry>() {
+					@Override
+					public CollectionEntry call() throws Exception {
+						List<RawBsonDocument> indexes = new ArrayList<RawBsonDocument>();
+						db.getCollection(ns.getCollectionName(), RawBsonDocument.class).listIndexes(RawBsonDocument.class).into(indexes);
+						listIndexesCalls.incrementAndGet();
+						return new CollectionEntry(ns, info, indexes);
+					}
+				}));
+			}
+		}
+		return futures;
+	}
+
+	private Long getIndexCount(MongoDatabase db) {
+		try {
+			Document dbStats = db.runCommand(new Document("dbStats", 1));
+			Number indexes = (Number) dbStats.get("indexes");
+			return indexes == null ? null : indexes.longValue();
+		} catch (MongoException me) {
+			logger.warn(String.format("%s catalog: dbStats failed for %s: %s", name, db.getName(), me.getMessage()));
+			return null;
+		}
+	}
+
+	private Date getLatestChangelogTime() {
+		if (configDb == null) {
+			return null;
+		}
+		try {
+			Document latest = configDb.getCollection("changelog").find().sort(Sorts.descending("time")).limit(1).first();
+			return latest == null ? null : latest.getDate("time");
+		} catch (MongoException me) {
+			logger.warn(String.format("%s catalog: unable to read config.changelog: %s", name, me.getMessage()));
+			return null;
+		}
+	}
+
+	/**
+	 * @return namespaces and database names (dropDatabase) in config.changelog after since, or
+	 *         null when the capped changelog no longer reaches back that far
+	 */
+	private Set<String> getChangedSince(Date since) {
+		Set<String> changed = new HashSet<String>();
+		if (configDb == null || since == null) {
+			return changed;
+		}
+		try {
+			MongoCollection<Document> changelog = configDb.getCollection("changelog");
+			Document oldest = changelog.find().sort(Sorts.ascending("time")).limit(1).first();
+			if (oldest != null && oldest.getDate("time").after(since)) {
+				return null;
+			}
+			for (Document entry : changelog.find(gt("time", since))) {
+				String ns = entry.getString("ns");
+				if (ns != null && !ns.isEmpty()) {
+					changed.add(ns);
+				}
+			}
+		} catch (MongoException me) {
+			logger.warn(String.format("%s catalog: unable to read config.changelog: %s", name, me.getMessage()));
+		}
+		logger.debug(String.format("%s catalog: %s namespaces changed since %s", name, changed.size(), since));
+		return changed;
+	}
+
+	private boolean loadCache() throws IOException {
+		if (cacheFile == null || !cacheFile.exists()) {
+			return false;
+		}
+		databaseIndexCounts.clear();
+		collections.clear();
+		try (BufferedReader reader = new BufferedReader(new FileReader(cacheFile))) {
+			String line = reader.readLine();
+			if (line == null) {
+				return false;
+			}
+			RawBsonDocument header = RawBsonDocument.parse(line);
+			if (header.containsKey("changelogTime")) {
+				changelogTime = new Date(header.getDateTime("changelogTime").getValue());
+			}
+			for (Map.Entry<String, BsonValue> entry : header.getDocument("databases").entrySet()) {
+				databaseIndexCounts.put(entry.getKey(), entry.getValue().asNumber().longValue());
+			}
+			while ((line = reader.readLine()) != null) {
+				if (line.trim().isEmpty()) {
+					continue;
+				}
+				CollectionEntry entry = CollectionEntry.fromBson(RawBsonDocument.parse(line));
+				collections.put(entry.getNamespace(), entry);
+			}
+		}
+		logger.debug(String.format("%s catalog: %s databases, %s collections read from %s", name, databaseIndexCounts.size(),
+				collections.size(), cacheFile));
+		return true;
+	}
+
+	private void saveCache() throws IOException {
+		if (cacheFile == null) {
+			return;
+		}
+		BsonDocument databases = new BsonDocument();
+		for (Map.Entry<String, Long> entry : databaseIndexCounts.entrySet()) {
+			databases.append(entry.getKey(), new BsonInt64(entry.getValue()));
+		}
+		BsonDocument header = new BsonDocument("name", new BsonString(name)).append("databases", databases);
+		if (changelogTime != null) {
+			header.append("changelogTime", new BsonDateTime(changelogTime.getTime()));
+		}
+		File tmp = new File(cacheFile.getPath() + ".tmp");
+		try (PrintWriter writer = new PrintWriter(new FileWriter(tmp))) {
+			writer.println(header.toJson(jsonSettings));
+			for (CollectionEntry entry : collections.values()) {
+				writer.println(entry.toBson().toJson(jsonSettings));
+			}
+		}
+		if (!tmp.renameTo(cacheFile)) {
+			cacheFile.delete();
+			if (!tmp.renameTo(cacheFile)) {
+				throw new IOException("Unable to write catalog cache " + cacheFile);
+			}
+		}
+		logger.debug(String.format("%s catalog: saved %s collections to %s", name, collections.size(), cacheFile));
+	}
+
+	public Set<String> getDatabaseNames() {
+		return databaseNames;
+	}
+
+	public List<String> getCollectionNames(String dbName) {
+		List<String> names = new ArrayList<String>();
+		for (Namespace ns : collections.keySet()) {
+			if (ns.getDatabaseName().equals(dbName)) {
+				names.add(ns.getCollectionName());
+			}
+		}
+		return names;
+	}
+
+	public Collection<CollectionEntry> getCollections() {
+		return collections.values();
+	}
+
+	public CollectionEntry getCollection(Namespace ns) {
+		return collections.get(ns);
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public void setCacheFile(File cacheFile) {
+		this.cacheFile = cacheFile;
+	}
+
+}
@@ -0,0 +1,13 @@
+package com.mongodb.shardsync;
+
+/**
+ * How collection counts are obtained for compareCounts.
+ * ACCURATE - $group count pipeline through mongos (orphans excluded)
+ * ESTIMATED - collection metadata count (estimatedDocumentCount), fast but may include orphans
+ * SHARDS - count on each shard directly and sum, avoids the mongos pipeline but includes orphans
+ */
+public enum CountMode {
+
+	ACCURATE, ESTIMATED, SHARDS;
+
+}
@@ -0,0 +1,148 @@
+package com.mongodb.shardsync;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoCommandException;
+
+/**
+ * Runs destination DDL (enableSharding, movePrimary, shardCollection) for many databases
+ * concurrently. Work is submitted as one group per database; the commands within a group run
+ * in order on a single thread, so a database is always set up before its collections are sharded,
+ * while different databases proceed in parallel up to the configured number of threads.
+ */
+public class DdlExecutor {
+
+	private static Logger logger = LoggerFactory.getLogger(DdlExecutor.class);
+
+	// LockTimeout, LockBusy, ConflictingOperationInProgress, LockStateChangeFailed
+	private final static Set<Integer> RETRYABLE_CODES = new HashSet<Integer>(Arrays.asList(24, 46, 117, 133));
+
+	private final static int MAX_RETRIES = 10;
+	private final static long RETRY_SLEEP_MILLIS = 500;
+
+	private final AtomicLong retryCount = new AtomicLong();
+	private final ExecutorService executor;
+	private final List<Future<?>> futures = new ArrayList<Future<?>>();
+	private final AtomicInteger submittedGroups = new AtomicInteger();
+	private final AtomicInteger completedGroups = new AtomicInteger();
+	private final AtomicInteger failedGroups = new AtomicInteger();
+
+	private volatile long lastReport = System.currentTimeMillis();
+	private final long start = System.currentTimeMillis();
+
+	public DdlExecutor(int threads) {
+		this.executor = Executors.newFixedThreadPool(threads);
+	}
+
+	public void submit(final String groupName, final Runnable group) {
+		submittedGroups.incrementAndGet();
+		futures.add(executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					group.run();
+				} catch (RuntimeException e) {
+					failedGroups.incrementAndGet();
+					logger.error(String.format("DDL for %s failed: %s", groupName, e.getMessage()));
+					throw e;
+				} finally {
+					int completed = completedGroups.incrementAndGet();
+					reportProgress(completed);
+				}
+			}
+		}));
+	}
+
+	private void reportProgress(int completed) {
+		long now = System.currentTimeMillis();
+		if (now - lastReport >= 10000) {
+			lastReport = now;
+			logger.debug(String.format("DDL progress: %s / %s databases complete, failed: %s, retries: %s, elapsed: %s seconds",
+					completed, submittedGroups.get(), failedGroups.get(), retryCount.get(), (now - start) / 1000));
+		}
+	}
+
+	/**
+	 * Wait for all submitted groups, then rethrow the first failure so that, as with the serial code
+	 * path, setup does not go on to the chunks after failed DDL. All groups are waited for first so
+	 * that one bad database does not hide the outcome of the others (each failure is logged).
+	 */
+	public void awaitCompletion() throws InterruptedException {
+		executor.shutdown();
+		Throwable firstFailure = null;
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (ExecutionException e) {
+				// logged in the task
+				if (firstFailure == null) {
+					firstFailure = e.getCause();
+				}
+			}
+		}
+		logger.debug(String.format("DDL complete: %s databases, failed: %s, retries: %s, %s seconds", futures.size(),
+				failedGroups.get(), retryCount.get(), (System.currentTimeMillis() - start) / 1000));
+		if (firstFailure != null) {
+			logger.error(String.format("DDL failed for %s of %s databases", failedGroups.get(), futures.size()));
+			if (firstFailure instanceof RuntimeException) {
+				throw (RuntimeException) firstFailure;
+			}
+			throw new RuntimeException(firstFailure);
+		}
+	}
+
+	/**
+	 * {@link #adminCommandWithRetry(ShardClient, Document)}, with the retries counted in this
+	 * executor's progress reports.
+	 */
+	public Document adminCommand(ShardClient client, Document command) {
+		return adminCommandWithRetry(client, command, retryCount);
+	}
+
+	/**
+	 * Run an admin command, retrying when it fails because of metadata lock contention, which is
+	 * expected when many DDL operations hit the config server at the same time.
+	 */
+	public static Document adminCommandWithRetry(ShardClient client, Document command) {
+		return adminCommandWithRetry(client, command, null);
+	}
+
+	private static Document adminCommandWithRetry(ShardClient client, Document command, AtomicLong retryCount) {
+		int attempt = 0;
+		while (true) {
+			try {
+				return client.adminCommand(command);
+			} catch (MongoCommandException mce) {
+				if (!RETRYABLE_CODES.contains(mce.getCode()) || ++attempt > MAX_RETRIES) {
+					throw mce;
+				}
+				if (retryCount != null) {
+					retryCount.incrementAndGet();
+				}
+				logger.debug(String.format("%s failed with %s (%s), retry %s", command.keySet().iterator().next(),
+						mce.getErrorCodeName(), mce.getCode(), attempt));
+				try {
+					Thread.sleep(RETRY_SLEEP_MILLIS * attempt);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw mce;
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,282 @@
+package com.mongodb.shardsync;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt64;
+import org.bson.BsonMaxKey;
+import org.bson.BsonMinKey;
+import org.bson.BsonString;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Offline "dry run" of the metadata migration done by ShardConfigSync. Reads exported
+ * config.chunks (and optionally config.collections) snapshot files, one JSON document per line
+ * as written by mongoexport, and reports the commands that a migration would send without
+ * connecting to any cluster.
+ *
+ * Only per-namespace counters are kept, chunks are never held in memory, so snapshots with
+ * millions of chunks can be planned.
+ */
+public class MetadataMigrationSimulator {
+
+	private static Logger logger = LoggerFactory.getLogger(MetadataMigrationSimulator.class);
+
+	private final static String CONFIG_SERVER = "config";
+
+	// per operation cost estimates, used to predict wall time
+	private long splitMillis = 50;
+	private long moveChunkMillis = 1500;
+	private long upsertMillis = 2;
+	private long shardCollectionMillis = 500;
+
+	private boolean nonPrivilegedMode;
+
+	private Map<String, String> sourceToDestShardMap = new HashMap<String, String>();
+
+	private Set<String> droppedNamespaces = new HashSet<String>();
+	// null unless a collections file was loaded, then chunks of any other namespace are skipped
+	private Set<String> collectionNamespaces;
+
+	private Map<String, NamespacePlan> namespacePlans = new TreeMap<String, NamespacePlan>();
+
+	private long chunkCount;
+	private long skippedChunkCount;
+
+	private static class NamespacePlan {
+		long chunks;
+		long maxKeyChunks;
+		Map<String, Long> destShardChunks = new HashMap<String, Long>();
+	}
+
+	public MetadataMigrationSimulator(String[] shardMap) {
+		if (shardMap != null) {
+			for (String mapping : shardMap) {
+				String[] mappings = mapping.split("\\|");
+				sourceToDestShardMap.put(mappings[0], mappings[1]);
+			}
+		}
+	}
+
+	public void loadCollections(File collectionsFile) throws IOException {
+		if (collectionNamespaces == null) {
+			collectionNamespaces = new HashSet<String>();
+		}
+		try (BufferedReader reader = new BufferedReader(new FileReader(collectionsFile))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.trim().isEmpty()) {
+					continue;
+				}
+				RawBsonDocument coll = RawBsonDocument.parse(line);
+				String ns = coll.getString("_id").getValue();
+				if (coll.containsKey("dropped") && coll.getBoolean("dropped").getValue()) {
+					droppedNamespaces.add(ns);
+				} else {
+					collectionNamespaces.add(ns);
+				}
+			}
+		}
+		logger.debug(String.format("loadCollections complete, %s collections, %s dropped", collectionNamespaces.size(),
+				droppedNamespaces.size()));
+	}
+
+	public void loadChunks(File chunksFile) throws IOException {
+		long start = System.currentTimeMillis();
+		try (BufferedReader reader = new BufferedReader(new FileReader(chunksFile))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.trim().isEmpty()) {
+					continue;
+				}
+				addChunk(RawBsonDocument.parse(line));
+			}
+		}
+		long dur = System.currentTimeMillis() - start;
+		logger.debug(String.format("loadChunks complete, %s chunks, %s namespaces in %s ms, %s chunks skipped (dropped or not in collections file)",
+				chunkCount, namespacePlans.size(), dur, skippedChunkCount));
+	}
+
+	private void addChunk(BsonDocument chunk) {
+		String ns = chunk.getString("ns").getValue();
+		if (droppedNamespaces.contains(ns) || (collectionNamespaces != null && !collectionNamespaces.contains(ns))) {
+			skippedChunkCount++;
+			return;
+		}
+		String destShard = mapShard(chunk.getString("shard").getValue());
+
+		NamespacePlan plan = namespacePlans.get(ns);
+		if (plan == null) {
+			plan = new NamespacePlan();
+			namespacePlans.put(ns, plan);
+		}
+		plan.chunks++;
+		if (isMaxKeyChunk(chunk.getDocument("max"))) {
+			plan.maxKeyChunks++;
+		}
+		Long c = plan.destShardChunks.get(destShard);
+		plan.destShardChunks.put(destShard, c == null ? 1L : c + 1);
+		chunkCount++;
+	}
+
+	private String mapShard(String sourceShard) {
+		if (sourceToDestShardMap.isEmpty()) {
+			return sourceShard;
+		}
+		String mapped = sourceToDestShardMap.get(sourceShard);
+		if (mapped == null) {
+			throw new IllegalArgumentException("No destination shard mapping found for source shard: " + sourceShard);
+		}
+		return mapped;
+	}
+
+	private static boolean isMaxKeyChunk(BsonDocument max) {
+		for (BsonValue v : max.values()) {
+			if (v.getBsonType().equals(BsonType.MAX_KEY)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Mirrors the command pattern of migrateMetadata(): shardCollection per namespace, then either
+	 * a split per chunk (nonPrivileged) or an upsert into config.chunks per chunk, then the moveChunks.
+	 *
+	 * Since the dest primary shard is unknown offline, the initial chunk of each collection is assumed
+	 * to land on the dest shard that owns the most chunks of that namespace (the best case).
+	 */
+	public void report() {
+		long shardCollections = 0;
+		long splits = 0;
+		long upserts = 0;
+		long moveChunks = 0;
+
+		Map<String, Long> commandsPerShard = new TreeMap<String, Long>();
+		Map<String, Long> moveChunksPerShard = new TreeMap<String, Long>();
+
+		for (Map.Entry<String, NamespacePlan> entry : namespacePlans.entrySet()) {
+			NamespacePlan plan = entry.getValue();
+			shardCollections++;
+			increment(commandsPerShard, CONFIG_SERVER, 1);
+
+			String initialShard = null;
+			long initialShardChunks = -1;
+			for (Map.Entry<String, Long> shardEntry : plan.destShardChunks.entrySet()) {
+				if (shardEntry.getValue() > initialShardChunks) {
+					initialShard = shardEntry.getKey();
+					initialShardChunks = shardEntry.getValue();
+				}
+			}
+
+			if (nonPrivilegedMode) {
+				// a split for every chunk boundary, all executed against the initial shard
+				long nsSplits = plan.chunks - plan.maxKeyChunks;
+				splits += nsSplits;
+				increment(commandsPerShard, initialShard, nsSplits);
+
+				// every chunk that does not belong on the initial shard needs its own moveChunk
+				for (Map.Entry<String, Long> shardEntry : plan.destShardChunks.entrySet()) {
+					if (!shardEntry.getKey().equals(initialShard)) {
+						moveChunks += shardEntry.getValue();
+						increment(commandsPerShard, shardEntry.getKey(), shardEntry.getValue());
+						increment(moveChunksPerShard, shardEntry.getKey(), shardEntry.getValue());
+					}
+				}
+			} else {
+				upserts += plan.chunks;
+				increment(commandsPerShard, CONFIG_SERVER, plan.chunks);
+
+				// 1 chunk per ns per shard is intentionally misplaced, see createDestChunksUsingInsert()
+				if (plan.destShardChunks.size() > 1) {
+					for (String shard : plan.destShardChunks.keySet()) {
+						moveChunks++;
+						increment(commandsPerShard, shard, 1);
+						increment(moveChunksPerShard, shard, 1);
+					}
+				}
+			}
+		}
+
+		long estimatedMillis = shardCollections * shardCollectionMillis + splits * splitMillis
+				+ upserts * upsertMillis + moveChunks * moveChunkMillis;
+
+		logger.debug(String.format("Simulated migration (%s mode) for %s namespaces, %s chunks",
+				nonPrivilegedMode ? "nonPrivileged" : "privileged", namespacePlans.size(), chunkCount));
+		logger.debug(String.format("shardCollection: %s, splits: %s, upserts: %s, moveChunks: %s", shardCollections,
+				splits, upserts, moveChunks));
+		for (Map.Entry<String, Long> entry : commandsPerShard.entrySet()) {
+			Long moves = moveChunksPerShard.get(entry.getKey());
+			logger.debug(String.format("%-20s commands: %10s, moveChunk recipient: %10s", entry.getKey(),
+					entry.getValue(), moves == null ? 0 : moves));
+		}
+		logger.debug(String.format("Estimated wall time: %.1f minutes (split: %sms, moveChunk: %sms, upsert: %sms, shardCollection: %sms)",
+				estimatedMillis / 60000.0, splitMillis, moveChunkMillis, upsertMillis, shardCollectionMillis));
+	}
+
+	private static void increment(Map<String, Long> map, String key, long delta) {
+		Long c = map.get(key);
+		map.put(key, c == null ? delta : c + delta);
+	}
+
+	/**
+	 * Run the planner against a synthetic chunk map, to measure planner throughput at 1M+ chunks.
+	 */
+	public void benchmark(int numChunks, int numNamespaces, int numShards) {
+		long start = System.currentTimeMillis();
+		int chunksPerNs = Math.max(1, numChunks / numNamespaces);
+		for (int n = 0; n < numNamespaces; n++) {
+			String ns = "bench" + (n % 100) + ".c" + n;
+			for (int i = 0; i < chunksPerNs; i++) {
+				BsonDocument chunk = new BsonDocument("ns", new BsonString(ns));
+				chunk.append("min", new BsonDocument("x", i == 0 ? new BsonMinKey() : new BsonInt64(i)));
+				chunk.append("max", new BsonDocument("x", i == chunksPerNs - 1 ? new BsonMaxKey() : new BsonInt64(i + 1)));
+				String shard = "shard" + (i % numShards);
+				chunk.append("shard", new BsonString(shard));
+				if (!sourceToDestShardMap.isEmpty() && !sourceToDestShardMap.containsKey(shard)) {
+					sourceToDestShardMap.put(shard, shard);
+				}
+				addChunk(chunk);
+			}
+		}
+		long loaded = System.currentTimeMillis();
+		report();
+		long end = System.currentTimeMillis();
+		double seconds = Math.max(1, loaded - start) / 1000.0;
+		logger.debug(String.format("benchmark: %s chunks planned in %s ms (%.0f chunks/sec), report: %s ms", chunkCount,
+				loaded - start, chunkCount / seconds, end - loaded));
+	}
+
+	public void setNonPrivilegedMode(boolean nonPrivilegedMode) {
+		this.nonPrivilegedMode = nonPrivilegedMode;
+	}
+
+	public void setSplitMillis(long splitMillis) {
+		this.splitMillis = splitMillis;
+	}
+
+	public void setMoveChunkMillis(long moveChunkMillis) {
+		this.moveChunkMillis = moveChunkMillis;
+	}
+
+	public void setUpsertMillis(long upsertMillis) {
+		this.upsertMillis = upsertMillis;
+	}
+
+	public void setShardCollectionMillis(long shardCollectionMillis) {
+		this.shardCollectionMillis = shardCollectionMillis;
+	}
+
+}
@@ -0,0 +1,322 @@
+package com.mongodb.shardsync;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoException;
+import com.mongodb.MongoNodeIsRecoveringException;
+import com.mongodb.MongoNotPrimaryException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.MongoTimeoutException;
+import com.mongodb.client.MongoClient;
+
+/**
+ * Spreads data-path operations (counts, clone reads/writes) over all discovered mongos instead of
+ * only the connection string client. Every router is pinged periodically to keep a smoothed RTT.
+ * Operations, and clients leased for a longer unit of work, count as in flight on their router:
+ * <ul>
+ * <li>LEAST_LATENCY: the router with the fewest in flight among those within
+ * {@link #LATENCY_WINDOW_MILLIS} of the lowest RTT, like the driver's localThresholdMS</li>
+ * <li>LEAST_OUTSTANDING: the router with the fewest in flight, ties to the lowest RTT</li>
+ * </ul>
+ * A router is ejected after consecutive network errors, timeouts or not master errors, or when its
+ * RTT is far above the best router's, and is reinstated once it pings normally again. The last
+ * healthy router is never ejected. Other errors (command or write errors) are the operation's
+ * and are rethrown without a retry.
+ */
+public class MongosRouterPool {
+
+	private static Logger logger = LoggerFactory.getLogger(MongosRouterPool.class);
+
+	public enum Policy {
+		LEAST_LATENCY, LEAST_OUTSTANDING;
+	}
+
+	/**
+	 * The routerPolicy option value used by both tools when none is given, the pool is off.
+	 */
+	public final static String DEFAULT_POLICY = "none";
+
+	/**
+	 * Parses a routerPolicy option value: none, latency or outstanding. Returns null for none.
+	 */
+	public static Policy parsePolicy(String value) {
+		if (value == null || value.equalsIgnoreCase("none")) {
+			return null;
+		} else if (value.equalsIgnoreCase("latency")) {
+			return Policy.LEAST_LATENCY;
+		} else if (value.equalsIgnoreCase("outstanding")) {
+			return Policy.LEAST_OUTSTANDING;
+		}
+		throw new IllegalArgumentException(String.format("Unknown routerPolicy '%s', expected none, latency or outstanding", value));
+	}
+
+	private final static long PING_INTERVAL_MILLIS = 5000;
+	private final static double RTT_ALPHA = 0.3;
+	private final static int MAX_CONSECUTIVE_FAILURES = 3;
+	private final static double SLOW_FACTOR = 4.0;
+	private final static double SLOW_FLOOR_MILLIS = 20.0;
+	private final static long MIN_EJECT_MILLIS = 30000;
+	private final static int MAX_ATTEMPTS = 3;
+	final static double LATENCY_WINDOW_MILLIS = 15.0;
+
+	private final String name;
+	private final Policy policy;
+	private final List<Router> routers = new ArrayList<>();
+	private final ScheduledExecutorService pinger;
+	// rotates the tie break between equally loaded routers
+	private final AtomicInteger nextRouter = new AtomicInteger();
+
+	public static class Router {
+		private final String hostPort;
+		private final MongoClient client;
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private volatile double rttMillis = -1;
+		private final AtomicInteger consecutiveFailures = new AtomicInteger();
+		private volatile long ejectedAt;
+		private final AtomicLong operations = new AtomicLong();
+
+		Router(String hostPort, MongoClient client) {
+			this.hostPort = hostPort;
+			this.client = client;
+		}
+
+		public MongoClient getClient() {
+			return client;
+		}
+
+		public String getHostPort() {
+			return hostPort;
+		}
+
+		boolean isEjected() {
+			return ejectedAt > 0;
+		}
+
+		// never pinged successfully sorts last
+		double getRtt() {
+			return rttMillis < 0 ? Double.MAX_VALUE : rttMillis;
+		}
+	}
+
+	/**
+	 * A client held for a unit of work (e.g. a collection clone), counted as in flight on its
+	 * router until closed.
+	 */
+	public static class Lease implements AutoCloseable {
+		private final Router router;
+		private final MongoClient client;
+		private final AtomicBoolean closed = new AtomicBoolean();
+
+		private Lease(Router router, MongoClient client) {
+			this.router = router;
+			this.client = client;
+		}
+
+		/**
+		 * A lease of a client outside any pool, closing it does nothing.
+		 */
+		public static Lease unpooled(MongoClient client) {
+			return new Lease(null, client);
+		}
+
+		public MongoClient getClient() {
+			return client;
+		}
+
+		@Override
+		public void close() {
+			if (router != null && closed.compareAndSet(false, true)) {
+				router.inFlight.decrementAndGet();
+			}
+		}
+	}
+
+	public MongosRouterPool(String name, Map<String, MongoClient> mongosClients, Policy policy) {
+		this.name = name;
+		this.policy = policy;
+		for (Map.Entry<String, MongoClient> entry : mongosClients.entrySet()) {
+			routers.add(new Router(entry.getKey(), entry.getValue()));
+		}
+		pingAll();
+		pinger = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, name + "-router-pinger");
+			t.setDaemon(true);
+			return t;
+		});
+		pinger.scheduleWithFixedDelay(this::pingAll, PING_INTERVAL_MILLIS, PING_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+		logger.debug(String.format("%s router pool started, %s routers, policy: %s", name, routers.size(), policy));
+	}
+
+	/**
+	 * Run op on the selected router, retrying on another router if the router fails.
+	 */
+	public <T> T execute(Function<MongoClient, T> op) {
+		MongoException last = null;
+		for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+			Router router = select();
+			router.inFlight.incrementAndGet();
+			try {
+				T result = op.apply(router.client);
+				router.consecutiveFailures.set(0);
+				router.operations.incrementAndGet();
+				return result;
+			} catch (MongoException me) {
+				if (!isRouterFailure(me)) {
+					// e.g. a command or write error, it would fail the same way on any router
+					throw me;
+				}
+				last = me;
+				onFailure(router, me);
+			} finally {
+				router.inFlight.decrementAndGet();
+			}
+		}
+		throw last;
+	}
+
+	/**
+	 * The currently preferred router's client, counted as in flight until the lease is closed,
+	 * for callers that hold a client for a longer unit of work (e.g. a collection clone).
+	 */
+	public Lease lease() {
+		Router router = select();
+		router.inFlight.incrementAndGet();
+		router.operations.incrementAndGet();
+		return new Lease(router, router.client);
+	}
+
+	Router select() {
+		List<Router> candidates = new ArrayList<>(routers.size());
+		double bestRtt = Double.MAX_VALUE;
+		for (Router router : routers) {
+			if (!router.isEjected()) {
+				candidates.add(router);
+				bestRtt = Math.min(bestRtt, router.getRtt());
+			}
+		}
+		if (candidates.isEmpty()) {
+			// everything ejected, use whatever answered most recently
+			Router best = routers.get(0);
+			for (Router router : routers) {
+				if (router.consecutiveFailures.get() < best.consecutiveFailures.get()) {
+					best = router;
+				}
+			}
+			return best;
+		}
+		int n = candidates.size();
+		int start = (nextRouter.getAndIncrement() & Integer.MAX_VALUE) % n;
+		Router best = null;
+		for (int i = 0; i < n; i++) {
+			Router router = candidates.get((start + i) % n);
+			if (policy == Policy.LEAST_LATENCY && router.getRtt() > bestRtt + LATENCY_WINDOW_MILLIS) {
+				continue;
+			}
+			if (best == null || compare(router, best) < 0) {
+				best = router;
+			}
+		}
+		return best;
+	}
+
+	// fewest in flight first; LEAST_OUTSTANDING breaks ties on RTT, LEAST_LATENCY (all within the
+	// window already) keeps the rotating order
+	private int compare(Router r1, Router r2) {
+		int c = Integer.compare(r1.inFlight.get(), r2.inFlight.get());
+		if (c != 0 || policy == Policy.LEAST_LATENCY) {
+			return c;
+		}
+		return Double.compare(r1.getRtt(), r2.getRtt());
+	}
+
+	// the router or the connection to it is the problem, not the operation
+	static boolean isRouterFailure(MongoException me) {
+		return me instanceof MongoSocketException || me instanceof MongoTimeoutException
+				|| me instanceof MongoNotPrimaryException || me instanceof MongoNodeIsRecoveringException;
+	}
+
+	private void onFailure(Router router, MongoException me) {
+		int failures = router.consecutiveFailures.incrementAndGet();
+		logger.warn(String.format("%s router %s failed (%s consecutive): %s", name, router.hostPort,
+				failures, me.getMessage()));
+		if (failures >= MAX_CONSECUTIVE_FAILURES) {
+			eject(router, "failures");
+		}
+	}
+
+	private synchronized void eject(Router router, String reason) {
+		if (router.isEjected()) {
+			return;
+		}
+		int healthy = 0;
+		for (Router r : routers) {
+			if (!r.isEjected()) {
+				healthy++;
+			}
+		}
+		if (healthy <= 1) {
+			return;
+		}
+		router.ejectedAt = System.currentTimeMillis();
+		logger.warn(String.format("%s router %s ejected (%s), rtt: %.1fms", name, router.hostPort, reason, router.rttMillis));
+	}
+
+	private void pingAll() {
+		for (Router router : routers) {
+			long start = System.nanoTime();
+			try {
+				router.client.getDatabase("admin").runCommand(new Document("ping", 1));
+				double rtt = (System.nanoTime() - start) / 1000000.0;
+				router.rttMillis = router.rttMillis < 0 ? rtt : RTT_ALPHA * rtt + (1 - RTT_ALPHA) * router.rttMillis;
+				router.consecutiveFailures.set(0);
+			} catch (MongoException me) {
+				onFailure(router, me);
+			}
+		}
+
+		double bestRtt = Double.MAX_VALUE;
+		for (Router router : routers) {
+			if (!router.isEjected() && router.rttMillis >= 0) {
+				bestRtt = Math.min(bestRtt, router.rttMillis);
+			}
+		}
+		double slowThreshold = Math.max(SLOW_FLOOR_MILLIS, bestRtt * SLOW_FACTOR);
+		long now = System.currentTimeMillis();
+		for (Router router : routers) {
+			if (router.isEjected()) {
+				if (now - router.ejectedAt >= MIN_EJECT_MILLIS && router.consecutiveFailures.get() == 0
+						&& router.rttMillis < slowThreshold) {
+					router.ejectedAt = 0;
+					logger.debug(String.format("%s router %s reinstated, rtt: %.1fms", name, router.hostPort, router.rttMillis));
+				}
+			} else if (router.rttMillis > slowThreshold) {
+				eject(router, "slow");
+			}
+		}
+	}
+
+	public void logStatus() {
+		for (Router router : routers) {
+			logger.debug(String.format("%s router %-30s rtt: %6.1fms, inFlight: %s, operations: %s%s", name, router.hostPort,
+					router.rttMillis, router.inFlight.get(), router.operations.get(), router.isEjected() ? ", EJECTED" : ""));
+		}
+	}
+
+	public void close() {
+		pinger.shutdownNow();
+	}
+
+}
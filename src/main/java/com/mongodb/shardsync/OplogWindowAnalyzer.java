@@ -0,0 +1,269 @@
+package com.mongodb.shardsync;
+
+import static com.mongodb.client.model.Filters.gte;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.util.ByteSizesUtil;
+
+/**
+ * Pre-flight check that each source shard's oplog window outlasts an initial sync of that shard.
+ *
+ * Per shard:
+ * <ul>
+ * <li>the current oplog window (first to latest entry) and oplog size (collStats)</li>
+ * <li>the oplog write rate: the larger of the average over the window and the rate over the most
+ * recent minute, so a recent burst is not averaged away</li>
+ * <li>the projected window once the oplog is full, maxSize / write rate</li>
+ * <li>the read throughput of a single cursor scanning the shard's collections for a few seconds,
+ * and from it and the shard's dataSize the estimated copy duration</li>
+ * </ul>
+ * A shard is at risk when the projected window is shorter than the copy duration times the safety
+ * factor, i.e. the oplog would roll over before the sync could start applying it. mongomirror
+ * copies with several parallel cursors, so the single cursor estimate is on the conservative side.
+ */
+public class OplogWindowAnalyzer {
+
+	private static Logger logger = LoggerFactory.getLogger(OplogWindowAnalyzer.class);
+
+	private final static long RECENT_RATE_SECONDS = 60;
+	// an oplog this close to maxSize is already truncating its oldest entries
+	private final static double FULL_RATIO = 0.95;
+
+	private final ShardClient shardClient;
+	private final Map<String, ShardWindow> windows = new LinkedHashMap<String, ShardWindow>();
+
+	private long readSampleMillis = 10000;
+	private double safetyFactor = 1.5;
+
+	public static class ShardWindow {
+		private String shardId;
+		private long windowSeconds;
+		private long usedBytes;
+		private long maxBytes;
+		private double writeBytesPerHour;
+		private long dataSize;
+		private Double readBytesPerSec;
+
+		public double getWindowHours() {
+			return windowSeconds / 3600.0;
+		}
+
+		/**
+		 * Window once the oplog has grown to maxSize at the current write rate, null when there
+		 * are no writes. An oplog that is not full yet keeps its oldest entry until it is, so the
+		 * window can only grow until then; a full one shrinks to maxSize / rate right away when
+		 * the recent rate is above the average.
+		 */
+		public Double getProjectedWindowHours() {
+			if (writeBytesPerHour <= 0) {
+				return null;
+			}
+			double projected = maxBytes / writeBytesPerHour;
+			if (usedBytes >= maxBytes * FULL_RATIO) {
+				return projected;
+			}
+			return Math.max(getWindowHours(), projected);
+		}
+
+		public Double getCopyHours() {
+			if (dataSize == 0) {
+				return 0.0;
+			}
+			if (readBytesPerSec == null || readBytesPerSec <= 0) {
+				return null;
+			}
+			return dataSize / readBytesPerSec / 3600.0;
+		}
+
+		public String getShardId() {
+			return shardId;
+		}
+
+		public double getWriteBytesPerHour() {
+			return writeBytesPerHour;
+		}
+
+		public long getDataSize() {
+			return dataSize;
+		}
+
+		public Double getReadBytesPerSec() {
+			return readBytesPerSec;
+		}
+	}
+
+	public OplogWindowAnalyzer(ShardClient shardClient) {
+		this.shardClient = shardClient;
+	}
+
+	public Map<String, ShardWindow> analyze() throws InterruptedException {
+		shardClient.populateShardMongoClients();
+		Map<String, Long> dataSizes = shardClient.getShardDataSizes();
+
+		// all shards are sampled concurrently, as they are copied concurrently
+		Map<String, Future<ShardWindow>> futures = new LinkedHashMap<String, Future<ShardWindow>>();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, dataSizes.size()));
+		try {
+			for (final Map.Entry<String, Long> entry : dataSizes.entrySet()) {
+				futures.put(entry.getKey(), executor.submit(new Callable<ShardWindow>() {
+					@Override
+					public ShardWindow call() throws Exception {
+						return analyzeShard(entry.getKey(), entry.getValue());
+					}
+				}));
+			}
+			for (Map.Entry<String, Future<ShardWindow>> entry : futures.entrySet()) {
+				try {
+					windows.put(entry.getKey(), entry.getValue().get());
+				} catch (ExecutionException e) {
+					logger.error(String.format("%s - oplog window analysis failed", entry.getKey()), e.getCause());
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+		return windows;
+	}
+
+	private ShardWindow analyzeShard(String shardId, long dataSize) {
+		ShardWindow w = new ShardWindow();
+		w.shardId = shardId;
+		w.dataSize = dataSize;
+
+		Document stats = shardClient.getOplogStats(shardId);
+		w.usedBytes = ((Number) stats.get("size")).longValue();
+		w.maxBytes = ((Number) stats.get("maxSize")).longValue();
+
+		BsonTimestamp first = (BsonTimestamp) shardClient.getFirstOplogEntry(shardId).get("ts");
+		BsonTimestamp latest = (BsonTimestamp) shardClient.getLatestOplogEntry(shardId).get("ts");
+		w.windowSeconds = latest.getTime() - first.getTime();
+
+		double averageRate = w.windowSeconds > 0 ? w.usedBytes * 3600.0 / w.windowSeconds : 0.0;
+		long recentBytes = getOplogBytesSince(shardId, new BsonTimestamp(latest.getTime() - (int) RECENT_RATE_SECONDS, 0));
+		double recentRate = recentBytes * 3600.0 / RECENT_RATE_SECONDS;
+		w.writeBytesPerHour = Math.max(averageRate, recentRate);
+
+		w.readBytesPerSec = sampleReadThroughput(shardId);
+		return w;
+	}
+
+	private long getOplogBytesSince(String shardId, BsonTimestamp ts) {
+		MongoClient client = shardClient.getShardMongoClient(shardId);
+		long bytes = 0;
+		for (RawBsonDocument doc : client.getDatabase("local").getCollection("oplog.rs", RawBsonDocument.class)
+				.find(gte("ts", ts))) {
+			bytes += doc.getByteBuffer().remaining();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Bytes/sec read by one cursor scanning the shard's user collections for readSampleMillis,
+	 * null when nothing could be read.
+	 */
+	private Double sampleReadThroughput(String shardId) {
+		MongoClient client = shardClient.getShardMongoClient(shardId);
+		long start = System.currentTimeMillis();
+		long deadline = start + readSampleMillis;
+		long bytes = 0;
+		try {
+			for (String dbName : client.listDatabaseNames()) {
+				if (dbName.equals("admin") || dbName.equals("config") || dbName.equals("local")) {
+					continue;
+				}
+				MongoDatabase db = client.getDatabase(dbName);
+				for (String collName : db.listCollectionNames()) {
+					if (collName.startsWith("system.")) {
+						continue;
+					}
+					try (MongoCursor<RawBsonDocument> cursor = db.getCollection(collName, RawBsonDocument.class).find()
+							.batchSize(1000).iterator()) {
+						while (cursor.hasNext()) {
+							bytes += cursor.next().getByteBuffer().remaining();
+							if (System.currentTimeMillis() >= deadline) {
+								return bytes * 1000.0 / (System.currentTimeMillis() - start);
+							}
+						}
+					}
+				}
+			}
+		} catch (MongoException me) {
+			logger.warn(String.format("%s - read throughput sample failed: %s", shardId, me.getMessage()));
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		if (bytes == 0 || elapsed == 0) {
+			return null;
+		}
+		return bytes * 1000.0 / elapsed;
+	}
+
+	public boolean isAtRisk(ShardWindow w) {
+		Double copyHours = w.getCopyHours();
+		Double windowHours = w.getProjectedWindowHours();
+		if (copyHours == null || windowHours == null) {
+			return false;
+		}
+		return windowHours < copyHours * safetyFactor;
+	}
+
+	public List<String> getAtRiskShards() {
+		List<String> result = new ArrayList<String>();
+		for (ShardWindow w : windows.values()) {
+			if (isAtRisk(w)) {
+				result.add(w.shardId);
+			}
+		}
+		return result;
+	}
+
+	public void logReport() {
+		for (ShardWindow w : windows.values()) {
+			Double projected = w.getProjectedWindowHours();
+			Double copyHours = w.getCopyHours();
+			logger.debug(String.format(
+					"%-15s - oplog window: %.1fh (projected %s), oplog %.2f / %.2f GB, writes %.2f GB/h, data %.2f GB, read %s, est. copy %s",
+					w.shardId, w.getWindowHours(), projected == null ? "unbounded" : String.format("%.1fh", projected),
+					ByteSizesUtil.bytesToGigabytes(w.usedBytes), ByteSizesUtil.bytesToGigabytes(w.maxBytes),
+					ByteSizesUtil.bytesToGigabytes((long) w.writeBytesPerHour), ByteSizesUtil.bytesToGigabytes(w.dataSize),
+					w.readBytesPerSec == null ? "unknown" : String.format("%.1f MB/s", w.readBytesPerSec / (1024 * 1024)),
+					copyHours == null ? "unknown" : String.format("%.1fh", copyHours)));
+			if (isAtRisk(w)) {
+				logger.warn(String.format(
+						"%s - oplog window %.1fh is less than %.1fx the estimated copy time %.1fh, oplog would roll over before the sync catches up, increase the oplog size to at least %.2f GB",
+						w.shardId, projected, safetyFactor, copyHours,
+						ByteSizesUtil.bytesToGigabytes((long) (w.writeBytesPerHour * copyHours * safetyFactor))));
+			}
+		}
+		List<String> atRisk = getAtRiskShards();
+		logger.debug(String.format("Oplog window check: %s of %s shards at risk %s", atRisk.size(), windows.size(),
+				atRisk.isEmpty() ? "" : atRisk));
+	}
+
+	public void setReadSampleMillis(long readSampleMillis) {
+		this.readSampleMillis = readSampleMillis;
+	}
+
+	public void setSafetyFactor(double safetyFactor) {
+		this.safetyFactor = safetyFactor;
+	}
+
+}
@@ -0,0 +1,117 @@
+package com.mongodb.shardsync;
+
+import java.util.Date;
+import java.util.List;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoDatabase;
+
+/**
+ * Adaptive pause between write-heavy operations against one replica set (shard). Before each
+ * operation the secondary replication lag (replSetGetStatus) and the queued writers
+ * (serverStatus globalLock.currentQueue) are sampled: the pause is halved while both are low and
+ * doubled when either grows past its limit.
+ */
+public class ReplicationLagThrottle {
+
+    private static Logger logger = LoggerFactory.getLogger(ReplicationLagThrottle.class);
+
+    private final static long LOW_LAG_MILLIS = 2000;
+    private final static long HIGH_LAG_MILLIS = 10000;
+    private final static int LOW_QUEUE = 5;
+    private final static int HIGH_QUEUE = 50;
+
+    private final static long MIN_SLEEP_MILLIS = 0;
+    private final static long MAX_SLEEP_MILLIS = 30000;
+
+    private final String name;
+    private final MongoDatabase admin;
+
+    private long sleepMillis;
+    private long lastLagMillis;
+    private int lastQueuedWriters;
+
+    public ReplicationLagThrottle(String name, MongoClient client, long initialSleepMillis) {
+        this.name = name;
+        this.admin = client.getDatabase("admin");
+        this.sleepMillis = initialSleepMillis;
+    }
+
+    /**
+     * Sample lag and write queue, adjust the pause and sleep for it.
+     */
+    public void pause() throws InterruptedException {
+        try {
+            lastLagMillis = getReplicationLagMillis();
+            lastQueuedWriters = getQueuedWriters();
+        } catch (MongoException me) {
+            // can't measure, be conservative
+            logger.warn(String.format("%s - unable to read replication lag: %s", name, me.getMessage()));
+            lastLagMillis = HIGH_LAG_MILLIS;
+        }
+
+        long previous = sleepMillis;
+        if (lastLagMillis >= HIGH_LAG_MILLIS || lastQueuedWriters >= HIGH_QUEUE) {
+            sleepMillis = Math.min(MAX_SLEEP_MILLIS, Math.max(100, sleepMillis * 2));
+        } else if (lastLagMillis < LOW_LAG_MILLIS && lastQueuedWriters < LOW_QUEUE) {
+            sleepMillis = Math.max(MIN_SLEEP_MILLIS, sleepMillis / 2);
+        }
+        if (sleepMillis != previous) {
+            logger.debug(String.format("%s - lag: %sms, queued writers: %s, sleep %sms ==> %sms", name, lastLagMillis,
+                    lastQueuedWriters, previous, sleepMillis));
+        }
+        if (sleepMillis > 0) {
+            Thread.sleep(sleepMillis);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private long getReplicationLagMillis() {
+        Document status = admin.runCommand(new Document("replSetGetStatus", 1));
+        List<Document> members = (List<Document>) status.get("members");
+        Date primaryOptime = null;
+        Date oldestSecondaryOptime = null;
+        for (Document member : members) {
+            String state = member.getString("stateStr");
+            Date optime = member.getDate("optimeDate");
+            if ("PRIMARY".equals(state)) {
+                primaryOptime = optime;
+            } else if ("SECONDARY".equals(state) && optime != null) {
+                if (oldestSecondaryOptime == null || optime.before(oldestSecondaryOptime)) {
+                    oldestSecondaryOptime = optime;
+                }
+            }
+        }
+        if (primaryOptime == null || oldestSecondaryOptime == null) {
+            return 0;
+        }
+        return Math.max(0, primaryOptime.getTime() - oldestSecondaryOptime.getTime());
+    }
+
+    private int getQueuedWriters() {
+        Document serverStatus = admin.runCommand(new Document("serverStatus", 1));
+        Document globalLock = (Document) serverStatus.get("globalLock");
+        if (globalLock == null) {
+            return 0;
+        }
+        Document currentQueue = (Document) globalLock.get("currentQueue");
+        if (currentQueue == null) {
+            return 0;
+        }
+        return ((Number) currentQueue.get("writers")).intValue();
+    }
+
+    public long getSleepMillis() {
+        return sleepMillis;
+    }
+
+    public long getLastLagMillis() {
+        return lastLagMillis;
+    }
+
+}
@@ -9,15 +9,25 @@ import static com.mongodb.client.model.Projections.include;
 import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
 import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.StringUtils;
 import org.bson.BsonDocument;
@@ -65,6 +75,8 @@ public class ShardClient {
 
     private static final String MONGODB_SRV_PREFIX = "mongodb+srv://";
 
+    private final static int MAX_SHARD_THREADS = 32;
+    
     private final static List<Document> countPipeline = new ArrayList<Document>();
     static {
         countPipeline.add(Document.parse("{ $group: { _id: null, count: { $sum: 1 } } }"));
@@ -109,6 +121,17 @@ public class ShardClient {
     private String rsPattern;
     private String csrsUri;
     
+    private final static int CONNECT_TIMEOUT_MILLIS = 10000;
+    
+    private ShardClientOptions clientOptions = new ShardClientOptions();
+    private MongosRouterPool routerPool;
+    
+    // catalog cache files are written here when set
+    private File catalogDir;
+    private int catalogThreads = 8;
+    private Map<String, ClusterCatalog> catalogs = new HashMap<String, ClusterCatalog>();
+    private Document compressionBaseline;
+    
     public ShardClient(String name, String clusterUri, Collection<String> shardIdFilter) {
     	
     	this.patternedUri = clusterUri.contains("%s");
@@ -139,14 +162,16 @@ public class ShardClient {
     	if (csrsUri != null) {
     		logger.debug(name + " csrsUri: " + csrsUri);
     		this.csrsConnectionString = new ConnectionString(csrsUri);
-    		this.csrsMongoClientSettings = MongoClientSettings.builder()
-                    .applyConnectionString(csrsConnectionString)
-                    .build();
+    		MongoClientSettings.Builder csrsBuilder = MongoClientSettings.builder()
+                    .applyConnectionString(csrsConnectionString);
+    		clientOptions.apply(csrsBuilder);
+    		this.csrsMongoClientSettings = csrsBuilder.build();
     		this.csrsMongoClient = MongoClients.create(csrsMongoClientSettings);
     	}
-    	mongoClientSettings = MongoClientSettings.builder()
-                .applyConnectionString(connectionString)
-                .build();
+    	MongoClientSettings.Builder settingsBuilder = MongoClientSettings.builder()
+                .applyConnectionString(connectionString);
+    	clientOptions.apply(settingsBuilder);
+    	mongoClientSettings = settingsBuilder.build();
          
         mongoClient = MongoClients.create(mongoClientSettings);
         
@@ -171,6 +196,11 @@ public class ShardClient {
         version = destBuildInfo.getString("version");
         versionArray = (List<Integer>) destBuildInfo.get("versionArray");
         logger.debug(String.format("%s : MongoDB version: %s, mongos: %s", name, version, mongos));
+        
+        if (!mongoClientSettings.getCompressorList().isEmpty()) {
+        	compressionBaseline = getCompressionStats();
+        	logger.debug(String.format("%s : wire compressors: %s", name, mongoClientSettings.getCompressorList()));
+        }
 
         populateMongosList();
     }
@@ -242,24 +272,8 @@ public class ShardClient {
             
             for (String hostPort : srvHosts) {
                 logger.debug("populateMongosList() mongos srvHost: " + hostPort);
-                
-                String host = StringUtils.substringBefore(hostPort, ":");
-                Integer port = Integer.parseInt(StringUtils.substringAfter(hostPort, ":"));
-                
-                MongoClientSettings.Builder settingsBuilder = MongoClientSettings.builder();
-                settingsBuilder.applyToClusterSettings(builder ->
-                        builder.hosts(Arrays.asList(new ServerAddress(host, port))));
-                if (connectionString.getSslEnabled() != null) {
-                    settingsBuilder.applyToSslSettings(builder -> builder.enabled(connectionString.getSslEnabled()));
-                }
-                if (connectionString.getCredential() != null) {
-                    settingsBuilder.credential(connectionString.getCredential());
-                }
-                MongoClientSettings settings = settingsBuilder.build();
-
-                MongoClient mongoClient = MongoClients.create(settings);
-                mongosMongoClients.put(hostPort, mongoClient);
             }
+            mongosMongoClients.putAll(createAndProbeClients(srvHosts, false));
             
         } else {
             MongoCollection<Mongos> mongosColl = configDb.getCollection("mongos", Mongos.class);
@@ -271,28 +285,12 @@ public class ShardClient {
                 limit = 5;
             }
             mongosColl.find().sort(Sorts.ascending("ping")).limit(limit).into(mongosList);
+            List<String> hostPorts = new ArrayList<>();
             for (Mongos mongos : mongosList) {
-                
-                //logger.debug(name + " mongos: " + mongos.getId());
-                
-                String hostPort = mongos.getId();
-                String host = StringUtils.substringBefore(hostPort, ":");
-                Integer port = Integer.parseInt(StringUtils.substringAfter(hostPort, ":"));
-                
-                MongoClientSettings.Builder settingsBuilder = MongoClientSettings.builder();
-                settingsBuilder.applyToClusterSettings(builder ->
-                        builder.hosts(Arrays.asList(new ServerAddress(host, port))));
-                if (connectionString.getSslEnabled() != null) {
-                    settingsBuilder.applyToSslSettings(builder -> builder.enabled(connectionString.getSslEnabled()));
-                }
-                if (connectionString.getCredential() != null) {
-                    settingsBuilder.credential(connectionString.getCredential());
-                }
-                MongoClientSettings settings = settingsBuilder.build();
-                
-                MongoClient mongoClient = MongoClients.create(settings);
-                mongosMongoClients.put(mongos.getId(), mongoClient);
+                hostPorts.add(mongos.getId());
             }
+            // unreachable (dead) mongos entries are dropped by the probe
+            mongosMongoClients.putAll(createAndProbeClients(hostPorts, false));
                
         }
         
@@ -335,45 +333,197 @@ public class ShardClient {
     	
     	if (shardMongoClients.size() > 0) {
     		logger.debug("populateShardMongoClients already complete, skipping");
+    		return;
     	}
+    	long start = System.currentTimeMillis();
 
+    	Map<String, String> shardSeeds = new LinkedHashMap<>();
         for (Shard shard : shardsMap.values()) {
             String shardHost = shard.getHost();
             String seeds = StringUtils.substringAfter(shardHost, "/");
-            
             logger.debug(name + " " + shard.getId() + " populateShardMongoClients() seeds: " + seeds);
-            
-            String[] seedHosts = seeds.split(",");
-            
-            List<ServerAddress> serverAddressList = new ArrayList<>();
-            for (String seed : seedHosts) {
-                String host = StringUtils.substringBefore(seed, ":");
-                Integer port = Integer.parseInt(StringUtils.substringAfter(seed, ":"));
-                
-                serverAddressList.add(new ServerAddress(host, port));
-            }
-            
-            MongoClientSettings.Builder settingsBuilder = MongoClientSettings.builder();
-            settingsBuilder.applyToClusterSettings(builder -> builder.hosts(serverAddressList));
-            if (connectionString.getSslEnabled() != null) {
-                settingsBuilder.applyToSslSettings(builder -> builder.enabled(connectionString.getSslEnabled()));
-            }
-            if (connectionString.getCredential() != null) {
-                settingsBuilder.credential(connectionString.getCredential());
-            }
-            MongoClientSettings settings = settingsBuilder.build();
-            MongoClient mongoClient = MongoClients.create(settings);
-            
-            //logger.debug(String.format("%s isMaster started: %s", name, shardHost));
-            Document isMasterResult = mongoClient.getDatabase("admin").runCommand(new Document("isMaster", 1));
-            if (logger.isTraceEnabled()) {
-                logger.trace(name + " isMaster complete, cluster: " + mongoClient.getClusterDescription());
-            } else {
-                //logger.debug(String.format("%s isMaster complete: %s", name, shardHost));
-            }
-            
-            shardMongoClients.put(shard.getId(), mongoClient);
+            shardSeeds.put(shard.getId(), seeds);
+        }
+        
+        // shard clients are created and probed concurrently, startup time should not grow with the shard count
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(shardSeeds.size(), MAX_SHARD_THREADS)));
+        Map<String, Future<MongoClient>> futures = new LinkedHashMap<>();
+        for (final Map.Entry<String, String> entry : shardSeeds.entrySet()) {
+        	futures.put(entry.getKey(), executor.submit(new Callable<MongoClient>() {
+				@Override
+				public MongoClient call() throws Exception {
+					return createAndProbeClient(entry.getValue());
+				}
+        	}));
+        }
+        executor.shutdown();
+        // only publish once every shard is reachable, a partial map would be treated as complete by the next call
+        Map<String, MongoClient> clients = new TreeMap<String, MongoClient>();
+        RuntimeException failure = null;
+        for (Map.Entry<String, Future<MongoClient>> entry : futures.entrySet()) {
+        	try {
+        		clients.put(entry.getKey(), entry.getValue().get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				if (failure == null) {
+					failure = new RuntimeException(e);
+				}
+				break;
+			} catch (ExecutionException e) {
+				logger.error(String.format("%s - unable to connect to shard %s: %s", name, entry.getKey(), e.getCause().getMessage()));
+				if (failure == null) {
+					failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+				}
+			}
+        }
+        if (failure != null) {
+        	closeCreatedClients(clients, futures);
+        	throw failure;
+        }
+        shardMongoClients.putAll(clients);
+        logger.debug(String.format("%s populateShardMongoClients complete, %s shards in %s ms", name, shardMongoClients.size(), 
+        		System.currentTimeMillis() - start));
+    }
+    
+    /**
+     * Closes the clients of a failed populateShardMongoClients(), including ones from probes that
+     * were still running when the failure was seen.
+     */
+    private void closeCreatedClients(Map<String, MongoClient> clients, Map<String, Future<MongoClient>> futures) {
+    	for (Map.Entry<String, Future<MongoClient>> entry : futures.entrySet()) {
+    		if (clients.containsKey(entry.getKey())) {
+    			continue;
+    		}
+    		if (entry.getValue().cancel(false)) {
+    			continue;
+    		}
+    		try {
+    			clients.put(entry.getKey(), entry.getValue().get());
+    		} catch (InterruptedException e) {
+    			Thread.currentThread().interrupt();
+    			break;
+    		} catch (ExecutionException | CancellationException e) {
+    			// probe failed, createAndProbeClient() already closed its client
+    		}
+    	}
+    	for (MongoClient client : clients.values()) {
+    		client.close();
+    	}
+    }
+    
+    /**
+     * Settings for a direct connection to the given hosts, using the credentials, ssl and timeouts
+     * of the cluster connection string.
+     */
+    private MongoClientSettings.Builder getDirectSettingsBuilder(List<ServerAddress> serverAddressList) {
+        MongoClientSettings.Builder settingsBuilder = MongoClientSettings.builder();
+        settingsBuilder.applyToClusterSettings(builder -> builder.hosts(serverAddressList)
+        		.serverSelectionTimeout(clientOptions.getConnectTimeoutMillis() != null ? clientOptions.getConnectTimeoutMillis() : CONNECT_TIMEOUT_MILLIS, 
+    				TimeUnit.MILLISECONDS));
+        settingsBuilder.applyToSocketSettings(builder -> builder.connectTimeout(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+        		.applyConnectionString(connectionString));
+        settingsBuilder.applyToConnectionPoolSettings(builder -> builder.applyConnectionString(connectionString));
+        if (!connectionString.getCompressorList().isEmpty()) {
+        	settingsBuilder.compressorList(connectionString.getCompressorList());
+        }
+        if (connectionString.getSslEnabled() != null) {
+            settingsBuilder.applyToSslSettings(builder -> builder.enabled(connectionString.getSslEnabled()));
+        }
+        if (connectionString.getCredential() != null) {
+            settingsBuilder.credential(connectionString.getCredential());
         }
+        clientOptions.apply(settingsBuilder);
+        return settingsBuilder;
+    }
+    
+    private static List<ServerAddress> parseSeeds(String seeds) {
+    	List<ServerAddress> serverAddressList = new ArrayList<>();
+        for (String seed : seeds.split(",")) {
+            String host = StringUtils.substringBefore(seed, ":");
+            Integer port = Integer.parseInt(StringUtils.substringAfter(seed, ":"));
+            serverAddressList.add(new ServerAddress(host, port));
+        }
+        return serverAddressList;
+    }
+    
+    private MongoClient createAndProbeClient(String seeds) {
+    	MongoClient client = MongoClients.create(getDirectSettingsBuilder(parseSeeds(seeds)).build());
+    	try {
+    		client.getDatabase("admin").runCommand(new Document("isMaster", 1));
+    	} catch (RuntimeException e) {
+    		client.close();
+    		throw e;
+    	}
+        if (logger.isTraceEnabled()) {
+            logger.trace(name + " isMaster complete, cluster: " + client.getClusterDescription());
+        }
+        return client;
+    }
+    
+    /**
+     * Create a client per host and probe them concurrently. Hosts that do not respond within the
+     * connect timeout are logged and left out unless required is set.
+     */
+    private Map<String, MongoClient> createAndProbeClients(List<String> hostPorts, boolean required) {
+    	Map<String, MongoClient> result = new TreeMap<>();
+    	if (hostPorts.isEmpty()) {
+    		return result;
+    	}
+    	ExecutorService executor = Executors.newFixedThreadPool(Math.min(hostPorts.size(), MAX_SHARD_THREADS));
+    	Map<String, Future<MongoClient>> futures = new LinkedHashMap<>();
+    	for (final String hostPort : hostPorts) {
+    		futures.put(hostPort, executor.submit(new Callable<MongoClient>() {
+				@Override
+				public MongoClient call() throws Exception {
+					return createAndProbeClient(hostPort);
+				}
+    		}));
+    	}
+    	executor.shutdown();
+    	for (Map.Entry<String, Future<MongoClient>> entry : futures.entrySet()) {
+    		try {
+				result.put(entry.getKey(), entry.getValue().get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				if (required) {
+					throw new RuntimeException(e.getCause());
+				}
+				logger.warn(String.format("%s - %s not reachable, skipping: %s", name, entry.getKey(), e.getCause().getMessage()));
+			}
+    	}
+    	return result;
+    }
+    
+    /**
+     * init() several clients concurrently, e.g. source and dest.
+     */
+    public static void initAll(ShardClient... clients) {
+    	ExecutorService executor = Executors.newFixedThreadPool(clients.length);
+    	List<Future<?>> futures = new ArrayList<>();
+    	for (final ShardClient client : clients) {
+    		futures.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					client.init();
+				}
+    		}));
+    	}
+    	executor.shutdown();
+    	for (Future<?> future : futures) {
+    		try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw new RuntimeException(e.getCause());
+			}
+    	}
     }
     
     public Document getLatestOplogEntry(String shardId) {
@@ -383,6 +533,20 @@ public class ShardClient {
         return doc;
     }
 
+    public Document getFirstOplogEntry(String shardId) {
+        MongoClient client = shardMongoClients.get(shardId);
+        MongoCollection<Document> coll = client.getDatabase("local").getCollection("oplog.rs");
+        return coll.find().projection(include("ts")).sort(eq("$natural", 1)).first();
+    }
+    
+    /**
+     * collStats of local.oplog.rs, size is the bytes currently used and maxSize the configured cap.
+     */
+    public Document getOplogStats(String shardId) {
+        MongoClient client = shardMongoClients.get(shardId);
+        return client.getDatabase("local").runCommand(new Document("collStats", "oplog.rs"));
+    }
+
     public ShardTimestamp populateLatestOplogTimestamp(String shardId) {
         MongoClient client = shardMongoClients.get(shardId);
         MongoCollection<Document> coll = client.getDatabase("local").getCollection("oplog.rs");
@@ -465,6 +629,12 @@ public class ShardClient {
     }
     
     public Number getCollectionCount(String dbName, String collectionName) {
+    	if (routerPool != null) {
+    		return routerPool.execute(client -> {
+    			MongoDatabase db = client.getDatabase(dbName);
+    			return getCollectionCount(db, db.getCollection(collectionName, RawBsonDocument.class));
+    		});
+    	}
     	MongoDatabase db = mongoClient.getDatabase(dbName);
         return getCollectionCount(db, db.getCollection(collectionName, RawBsonDocument.class));
     }
@@ -473,6 +643,107 @@ public class ShardClient {
         return getCollectionCount(db, db.getCollection(collectionName, RawBsonDocument.class));
     }
     
+    /**
+     * Count from collection metadata, no collection scan.
+     */
+    public Number getEstimatedCollectionCount(String dbName, String collectionName) {
+    	if (routerPool != null) {
+    		return routerPool.execute(client -> client.getDatabase(dbName).getCollection(collectionName).estimatedDocumentCount());
+    	}
+    	return mongoClient.getDatabase(dbName).getCollection(collectionName).estimatedDocumentCount();
+    }
+    
+    /**
+     * Sum of the counts taken directly on each shard, the shards are counted concurrently. For a
+     * sharded collection each shard only counts the chunk ranges it owns, so orphans are not
+     * counted. Requires populateShardMongoClients().
+     */
+    public Number getShardsCollectionCount(String dbName, String collectionName) {
+    	if (shardMongoClients.isEmpty()) {
+    		return getCollectionCount(dbName, collectionName);
+    	}
+    	final Namespace ns = new Namespace(dbName, collectionName);
+    	Document coll = collectionsMap.get(ns.getNamespace());
+    	if (coll == null) {
+    		// collectionsMap may only hold a subset of the namespaces
+    		coll = configDb.getCollection("collections").find(and(eq("_id", ns.getNamespace()), eq("dropped", false))).first();
+    	}
+    	final Document key = coll == null ? null : (Document) coll.get("key");
+    	List<RawBsonDocument> chunks = new ArrayList<>();
+    	if (key != null) {
+    		getChunksCollectionRaw().find(eq("ns", ns.getNamespace())).sort(Sorts.ascending("min")).into(chunks);
+    	}
+    	
+    	ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(shardMongoClients.size(), MAX_SHARD_THREADS)));
+    	List<Future<Long>> futures = new ArrayList<>();
+    	for (final String shardId : shardMongoClients.keySet()) {
+    		if (chunks.isEmpty()) {
+    			futures.add(executor.submit(new Callable<Long>() {
+    				@Override
+    				public Long call() throws Exception {
+    					return getShardMongoClient(shardId).getDatabase(dbName).getCollection(collectionName).countDocuments();
+    				}
+    			}));
+    		} else {
+    			final List<BsonDocument[]> ranges = getShardRanges(chunks, shardId, true);
+    			if (ranges.isEmpty()) {
+    				continue;
+    			}
+    			futures.add(executor.submit(new Callable<Long>() {
+    				@Override
+    				public Long call() throws Exception {
+    					return countRanges(shardId, ns, key, ranges);
+    				}
+    			}));
+    		}
+    	}
+    	executor.shutdown();
+    	
+    	long total = 0;
+    	try {
+    		for (Future<Long> future : futures) {
+    			total += future.get();
+    		}
+    	} catch (InterruptedException e) {
+    		executor.shutdownNow();
+    		Thread.currentThread().interrupt();
+    		throw new RuntimeException(e);
+    	} catch (ExecutionException e) {
+    		executor.shutdownNow();
+    		if (e.getCause() instanceof RuntimeException) {
+    			throw (RuntimeException) e.getCause();
+    		}
+    		throw new RuntimeException(e.getCause());
+    	}
+    	return total;
+    }
+    
+    /**
+     * Total dataSize (dbStats) of all user databases on each shard, queried directly on the shards.
+     */
+    public Map<String, Long> getShardDataSizes() {
+    	if (shardMongoClients.isEmpty()) {
+    		populateShardMongoClients();
+    	}
+    	Map<String, Long> sizes = new TreeMap<String, Long>();
+    	for (Map.Entry<String, MongoClient> entry : shardMongoClients.entrySet()) {
+    		long total = 0;
+    		for (String dbName : entry.getValue().listDatabaseNames()) {
+    			if (dbName.equals("admin") || dbName.equals("config") || dbName.equals("local")) {
+    				continue;
+    			}
+    			Document dbStats = entry.getValue().getDatabase(dbName).runCommand(new Document("dbStats", 1));
+    			Number dataSize = (Number)dbStats.get("dataSize");
+    			if (dataSize != null) {
+    				total += dataSize.longValue();
+    			}
+    		}
+    		logger.debug(String.format("%s - shard %s dataSize: %s", name, entry.getKey(), total));
+    		sizes.put(entry.getKey(), total);
+    	}
+    	return sizes;
+    }
+
     public MongoCollection<Document> getShardsCollection() {
         return configDb.getCollection("shards");
     }
@@ -591,6 +862,95 @@ public class ShardClient {
         return collectionsMap;
     }
 
+    /**
+     * Router for documents of a sharded collection, from the current config.chunks.
+     */
+    public ChunkRouter getChunkRouter(String ns) {
+    	if (collectionsMap.isEmpty()) {
+    		populateCollectionsMap();
+    	}
+    	Document coll = collectionsMap.get(ns);
+    	if (coll == null) {
+    		throw new IllegalArgumentException(ns + " is not sharded");
+    	}
+    	BsonDocument key = ((Document) coll.get("key")).toBsonDocument(BsonDocument.class,
+    			MongoClientSettings.getDefaultCodecRegistry());
+    	List<RawBsonDocument> chunks = new ArrayList<>();
+    	getChunksCollectionRaw().find(eq("ns", ns)).into(chunks);
+    	return new ChunkRouter(ns, key, chunks);
+    }
+
+    /**
+     * Spread data-path operations over all discovered mongos. No-op with fewer than 2 mongos.
+     */
+    public void enableRouterPool(MongosRouterPool.Policy policy) {
+    	if (mongosMongoClients.size() < 2) {
+    		logger.debug(String.format("%s : %s mongos found, router pool not used", name, mongosMongoClients.size()));
+    		return;
+    	}
+    	routerPool = new MongosRouterPool(name, mongosMongoClients, policy);
+    }
+    
+    public MongosRouterPool getRouterPool() {
+    	return routerPool;
+    }
+    
+    /**
+     * Client for a data-path unit of work (e.g. cloning a collection), the preferred mongos from
+     * the router pool when enabled, otherwise the connection string client. Close the lease when
+     * the work is done, until then it counts as in flight on its mongos.
+     */
+    public MongosRouterPool.Lease leaseDataMongoClient() {
+    	if (routerPool != null) {
+    		return routerPool.lease();
+    	}
+    	return MongosRouterPool.Lease.unpooled(mongoClient);
+    }
+    
+    /**
+     * Catalog (databases, collections, index specs) as seen through the mongos.
+     */
+    public ClusterCatalog getCatalog() throws IOException, InterruptedException {
+    	return getCatalog("cluster", mongoClient);
+    }
+    
+    /**
+     * Catalog of a single shard, read with the direct shard connection.
+     */
+    public ClusterCatalog getShardCatalog(String shardId) throws IOException, InterruptedException {
+    	return getCatalog(shardId, getShardMongoClient(shardId));
+    }
+    
+    private ClusterCatalog getCatalog(String key, MongoClient client) throws IOException, InterruptedException {
+    	ClusterCatalog catalog;
+    	synchronized (catalogs) {
+    		catalog = catalogs.get(key);
+    		if (catalog == null) {
+    			catalog = new ClusterCatalog(name + "_" + key, client, configDb);
+    			catalog.setThreads(catalogThreads);
+    			if (catalogDir != null) {
+    				catalog.setCacheFile(new File(catalogDir, String.format("catalog_%s_%s.json", name, key)));
+    			}
+    			catalogs.put(key, catalog);
+    		}
+    	}
+    	// loaded outside the lock, so catalogs of different shards load concurrently
+    	catalog.ensureLoaded();
+    	return catalog;
+    }
+    
+    public boolean isCatalogCacheEnabled() {
+    	return catalogDir != null;
+    }
+    
+    public void setCatalogDir(File catalogDir) {
+    	this.catalogDir = catalogDir;
+    }
+    
+    public void setCatalogThreads(int catalogThreads) {
+    	this.catalogThreads = catalogThreads;
+    }
+    
     public MongoClient getMongoClient() {
         return mongoClient;
     }
@@ -651,50 +1011,76 @@ public class ShardClient {
     	settings.updateOne(eq("_id", "autosplit"), update);
     }
     
-    public void compareCollectionUuids() {
-    	logger.debug(String.format("%s - Starting compareCollectionUuids", name));
-		populateShardMongoClients();
+    /**
+     * Collection UUIDs by namespace, as seen by one shard.
+     */
+    private Map<Namespace, UUID> getCollectionUuids(MongoClient client) {
+    	Map<Namespace, UUID> result = new HashMap<>();
+		for (String databaseName : client.listDatabaseNames()) {
+			MongoDatabase db = client.getDatabase(databaseName);
 
-		List<String> dbNames = new ArrayList<>();
-		listDatabaseNames().into(dbNames);
+			if (databaseName.equals("admin") || databaseName.equals("config") || databaseName.contentEquals("local")) {
+				continue;
+			}
+
+			for (Document collectionInfo : db.listCollections()) {
+				String collectionName = (String)collectionInfo.get("name");
+				if (collectionName.endsWith(".create")) {
+					continue;
+				}
+				Namespace ns = new Namespace(databaseName, collectionName);
+				Document info = (Document) collectionInfo.get("info");
+				result.put(ns, (UUID) info.get("uuid"));
+			}
+		}
+		return result;
+    }
+    
+    public void compareCollectionUuids() throws InterruptedException {
+    	logger.debug(String.format("%s - Starting compareCollectionUuids", name));
+    	long start = System.currentTimeMillis();
+    	if (shardMongoClients.isEmpty()) {
+    		populateShardMongoClients();
+    	}
+		
+		// listCollections on all shards concurrently
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(shardMongoClients.size(), MAX_SHARD_THREADS)));
+		Map<String, Future<Map<Namespace, UUID>>> futures = new TreeMap<>();
+		for (final Map.Entry<String, MongoClient> entry : getShardMongoClients().entrySet()) {
+			futures.put(entry.getKey(), executor.submit(new Callable<Map<Namespace, UUID>>() {
+				@Override
+				public Map<Namespace, UUID> call() throws Exception {
+					return getCollectionUuids(entry.getValue());
+				}
+			}));
+		}
+		executor.shutdown();
 		
 		Map<Namespace, Map<UUID, List<String>>> collectionUuidMappings = new TreeMap<>();
-
-		for (Map.Entry<String, MongoClient> entry : getShardMongoClients().entrySet()) {
-			MongoClient client = entry.getValue();
+		int shardErrorCount = 0;
+		for (Map.Entry<String, Future<Map<Namespace, UUID>>> entry : futures.entrySet()) {
 			String shardName = entry.getKey();
-
-			for (String databaseName : client.listDatabaseNames()) {
-				MongoDatabase db = client.getDatabase(databaseName);
-
-				if (databaseName.equals("admin") || databaseName.equals("config") || databaseName.contentEquals("local")) {
-					continue;
+			Map<Namespace, UUID> shardUuids;
+			try {
+				shardUuids = entry.getValue().get();
+			} catch (ExecutionException e) {
+				logger.error(String.format("%s - listCollections failed on shard %s: %s", name, shardName, e.getCause().getMessage()));
+				shardErrorCount++;
+				continue;
+			}
+			for (Map.Entry<Namespace, UUID> nsEntry : shardUuids.entrySet()) {
+				Map<UUID, List<String>> uuidMapping = collectionUuidMappings.get(nsEntry.getKey());
+				if (uuidMapping == null) {
+					// almost always a single uuid, keep the table small
+					uuidMapping = new HashMap<>(2);
+					collectionUuidMappings.put(nsEntry.getKey(), uuidMapping);
 				}
-
-				for (Document collectionInfo : db.listCollections()) {
-					String collectionName = (String)collectionInfo.get("name");
-					if (collectionName.endsWith(".create")) {
-						continue;
-					}
-					Namespace ns = new Namespace(databaseName, collectionName);
-					Document info = (Document) collectionInfo.get("info");
-					UUID uuid = (UUID) info.get("uuid");
-					
-					Map<UUID, List<String>> uuidMapping = collectionUuidMappings.get(ns);
-					if (uuidMapping == null) {
-						uuidMapping = new TreeMap<>();
-					}
-					collectionUuidMappings.put(ns, uuidMapping);
-					
-					List<String> shardNames = uuidMapping.get(uuid);
-					if (shardNames == null) {
-						shardNames = new ArrayList<>();
-					}
-					uuidMapping.put(uuid, shardNames);
-					shardNames.add(shardName);
-					
-					//logger.debug(entry.getKey() + " db: " + databaseName + "." + collectionName + " " + uuid);
+				List<String> shardNames = uuidMapping.get(nsEntry.getValue());
+				if (shardNames == null) {
+					shardNames = new ArrayList<>();
+					uuidMapping.put(nsEntry.getValue(), shardNames);
 				}
+				shardNames.add(shardName);
 			}
 		}
 		
@@ -706,21 +1092,26 @@ public class ShardClient {
 			Map<UUID, List<String>> uuidMappings = mappingEntry.getValue();
 			if (uuidMappings.size() == 1) {
 				successCount++;
-				logger.debug(String.format("%s ==> %s", ns, uuidMappings));
+				if (logger.isTraceEnabled()) {
+					logger.trace(String.format("%s ==> %s", ns, uuidMappings));
+				}
 			} else {
 				failureCount++;
 				logger.error(String.format("%s ==> %s", ns, uuidMappings));
 			}
 		}
 		
-		if (failureCount == 0 && successCount > 0) {
-			logger.debug(String.format("%s - compareCollectionUuids complete: successCount: %s, failureCount: %s", name, successCount, failureCount));
+		long dur = System.currentTimeMillis() - start;
+		if (failureCount == 0 && shardErrorCount == 0 && successCount > 0) {
+			logger.debug(String.format("%s - compareCollectionUuids complete: successCount: %s, failureCount: %s, shards: %s, %s ms", 
+					name, successCount, failureCount, futures.size(), dur));
 		} else {
-			logger.error(String.format("%s - compareCollectionUuids complete: successCount: %s, failureCount: %s", name, successCount, failureCount));
+			logger.error(String.format("%s - compareCollectionUuids complete: successCount: %s, failureCount: %s, shards: %s, shardErrors: %s, %s ms", 
+					name, successCount, failureCount, futures.size(), shardErrorCount, dur));
 		}
 		
     }
-    
+
     public void createIndexes(String shardName, Namespace ns, Set<IndexSpec> sourceSpecs, boolean extendTtl) {
     	MongoClient client = getShardMongoClient(shardName);
     	MongoDatabase db = client.getDatabase(ns.getDatabaseName());
@@ -762,46 +1153,158 @@ public class ShardClient {
 		}
     }
     
-	public void findOrphans(boolean doMove) {
-
-		logger.debug("Starting findOrphans");
-
-		MongoCollection<RawBsonDocument> sourceChunksColl = getChunksCollectionRaw();
-		FindIterable<RawBsonDocument> sourceChunks = sourceChunksColl.find().noCursorTimeout(true)
-				.sort(Sorts.ascending("ns", "min"));
+    /**
+     * In progress index builds on the given shard, from currentOp.
+     */
+    @SuppressWarnings("unchecked")
+    public List<Document> getIndexBuildOps(String shardName) {
+    	MongoClient client = getShardMongoClient(shardName);
+    	Document currentOp = new Document("currentOp", 1);
+    	currentOp.append("$or", Arrays.asList(new Document("command.createIndexes", new Document("$exists", true)),
+    			new Document("msg", new Document("$regex", "^Index Build"))));
+    	Document result = client.getDatabase("admin").runCommand(currentOp);
+    	return (List<Document>) result.get("inprog");
+    }
+    
+	/**
+	 * Estimate orphans on every shard. For each sharded collection the chunk ownership map gives,
+	 * per shard, the complement ranges that the shard does not own; documents found in those ranges
+	 * directly on the shard are orphans. Ranges are counted with dataSize over the shard key index
+	 * (the same bounds chunk migration uses), which works for compound and hashed shard keys.
+	 * Shards are queried concurrently.
+	 *
+	 * @return orphan count by shard and namespace, only namespaces with orphans are included. The
+	 *         count is -1 (unknown) when the estimate failed, so a cleanup still covers the namespace.
+	 */
+	public Map<String, Map<Namespace, Long>> findOrphans() throws InterruptedException {
+
+		logger.debug(String.format("%s - Starting findOrphans", name));
+		long start = System.currentTimeMillis();
+		if (shardMongoClients.isEmpty()) {
+			populateShardMongoClients();
+		}
+		populateCollectionsMap();
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(shardMongoClients.size(), MAX_SHARD_THREADS)));
+		List<Future<Long>> futures = new ArrayList<>();
+		List<String> futureShards = new ArrayList<>();
+		List<Namespace> futureNamespaces = new ArrayList<>();
+
+		MongoCollection<RawBsonDocument> chunksColl = getChunksCollectionRaw();
+		for (Document coll : collectionsMap.values()) {
+			String nsStr = (String) coll.get("_id");
+			if (nsStr.startsWith("config.")) {
+				continue;
+			}
+			final Namespace ns = new Namespace(nsStr);
+			final Document key = (Document) coll.get("key");
 
-		String lastNs = null;
-		int currentCount = 0;
+			List<RawBsonDocument> chunks = new ArrayList<>();
+			chunksColl.find(eq("ns", nsStr)).sort(Sorts.ascending("min")).into(chunks);
+			if (chunks.isEmpty()) {
+				continue;
+			}
 
-		for (String shardId : shardsMap.keySet()) {
-			
-		}
-		for (RawBsonDocument sourceChunk : sourceChunks) {
-			String sourceNs = sourceChunk.getString("ns").getValue();
-
-			if (!sourceNs.equals(lastNs)) {
-				if (currentCount > 0) {
-					logger.debug(String.format("findOrphans - %s - complete, queried %s chunks", lastNs,
-							currentCount));
-					currentCount = 0;
+			for (final String shardId : shardMongoClients.keySet()) {
+				final List<BsonDocument[]> ranges = getShardRanges(chunks, shardId, false);
+				if (ranges.isEmpty()) {
+					continue;
 				}
-				logger.debug(String.format("findOrphans - %s - starting", sourceNs));
-			} else if (currentCount > 0 && currentCount % 10 == 0) {
-				logger.debug(String.format("findOrphans - %s - currentCount: %s chunks", sourceNs, currentCount));
+				futures.add(executor.submit(new Callable<Long>() {
+					@Override
+					public Long call() throws Exception {
+						return countRanges(shardId, ns, key, ranges);
+					}
+				}));
+				futureShards.add(shardId);
+				futureNamespaces.add(ns);
 			}
+		}
+		executor.shutdown();
 
-			RawBsonDocument sourceMin = (RawBsonDocument) sourceChunk.get("min");
-			RawBsonDocument sourceMax = (RawBsonDocument) sourceChunk.get("max");
-			String sourceShard = sourceChunk.getString("shard").getValue();
-			
-
-			currentCount++;
-			lastNs = sourceNs;
+		Map<String, Map<Namespace, Long>> orphans = new TreeMap<>();
+		long total = 0;
+		int unknown = 0;
+		for (int i = 0; i < futures.size(); i++) {
+			long count;
+			try {
+				count = futures.get(i).get();
+			} catch (ExecutionException e) {
+				logger.error(String.format("%s - findOrphans failed for %s on %s, orphan count unknown: %s", name,
+						futureNamespaces.get(i), futureShards.get(i), e.getCause().getMessage()));
+				count = -1;
+				unknown++;
+			}
+			if (count != 0) {
+				Map<Namespace, Long> shardOrphans = orphans.get(futureShards.get(i));
+				if (shardOrphans == null) {
+					shardOrphans = new TreeMap<>();
+					orphans.put(futureShards.get(i), shardOrphans);
+				}
+				shardOrphans.put(futureNamespaces.get(i), count);
+				if (count > 0) {
+					total += count;
+					logger.debug(String.format("%s - %s orphans on %s: %s", name, futureNamespaces.get(i), futureShards.get(i), count));
+				}
+			}
 		}
+		logger.debug(String.format("%s - findOrphans complete, %s orphans on %s shards, %s namespaces unknown, %s seconds", name,
+				total, orphans.size(), unknown, (System.currentTimeMillis() - start) / 1000));
+		return orphans;
+	}
 
-		
+	/**
+	 * @param chunks all chunks of one namespace, sorted by min
+	 * @param owned true for the ranges owned by shardId, false for the ranges it does not own
+	 * @return [min, max) ranges, merged where contiguous
+	 */
+	private static List<BsonDocument[]> getShardRanges(List<RawBsonDocument> chunks, String shardId, boolean owned) {
+		List<BsonDocument[]> ranges = new ArrayList<>();
+		BsonDocument rangeMin = null;
+		BsonDocument rangeMax = null;
+		for (RawBsonDocument chunk : chunks) {
+			boolean skip = chunk.getString("shard").getValue().equals(shardId) != owned;
+			if (skip) {
+				if (rangeMin != null) {
+					ranges.add(new BsonDocument[] { rangeMin, rangeMax });
+					rangeMin = null;
+				}
+			} else {
+				if (rangeMin == null) {
+					rangeMin = chunk.getDocument("min");
+				}
+				rangeMax = chunk.getDocument("max");
+			}
+		}
+		if (rangeMin != null) {
+			ranges.add(new BsonDocument[] { rangeMin, rangeMax });
+		}
+		return ranges;
 	}
 
+	private long countRanges(String shardId, Namespace ns, Document key, List<BsonDocument[]> ranges) {
+		MongoDatabase db = getShardMongoClient(shardId).getDatabase(ns.getDatabaseName());
+		long count = 0;
+		for (BsonDocument[] range : ranges) {
+			Document dataSize = new Document("dataSize", ns.getNamespace());
+			dataSize.append("keyPattern", key);
+			dataSize.append("min", range[0]);
+			dataSize.append("max", range[1]);
+			// estimate only skips fetching the documents, numObjects is still an exact key count
+			dataSize.append("estimate", true);
+			try {
+				Document result = db.runCommand(dataSize);
+				count += ((Number) result.get("numObjects")).longValue();
+			} catch (MongoCommandException mce) {
+				// NamespaceNotFound, the collection does not exist on this shard
+				if (mce.getCode() == 26) {
+					return 0;
+				}
+				throw mce;
+			}
+		}
+		return count;
+	}
 
     public ConnectionString getConnectionString() {
         return connectionString;
@@ -823,6 +1326,68 @@ public class ShardClient {
 		return tertiaryShardsMap;
 	}
 
+	public void setClientOptions(ShardClientOptions clientOptions) {
+		this.clientOptions = clientOptions;
+	}
+
+	/**
+	 * serverStatus network.compression of the server this client is connected to (the mongos).
+	 */
+	private Document getCompressionStats() {
+		try {
+			Document serverStatus = adminCommand(new Document("serverStatus", 1));
+			Document network = (Document) serverStatus.get("network");
+			return network == null ? null : (Document) network.get("compression");
+		} catch (MongoCommandException mce) {
+			logger.warn(String.format("%s : serverStatus failed: %s", name, mce.getErrorMessage()));
+			return null;
+		}
+	}
+
+	private static long getLong(Document doc, String path) {
+		Object value = doc;
+		for (String key : path.split("\\.")) {
+			if (!(value instanceof Document)) {
+				return 0;
+			}
+			value = ((Document) value).get(key);
+		}
+		return value instanceof Number ? ((Number) value).longValue() : 0;
+	}
+
+	/**
+	 * Log wire bytes saved by compression since init(), from the compression counters of the
+	 * connected mongos. These are server wide, so other clients of the same mongos are included.
+	 */
+	public void logCompressionReport() {
+		if (compressionBaseline == null) {
+			return;
+		}
+		Document current = getCompressionStats();
+		if (current == null) {
+			return;
+		}
+		long totalSaved = 0;
+		for (String compressor : current.keySet()) {
+			String outUncompressed = compressor + ".compressor.bytesIn";
+			String outCompressed = compressor + ".compressor.bytesOut";
+			String inCompressed = compressor + ".decompressor.bytesIn";
+			String inUncompressed = compressor + ".decompressor.bytesOut";
+			long sentRaw = getLong(current, outUncompressed) - getLong(compressionBaseline, outUncompressed);
+			long sentWire = getLong(current, outCompressed) - getLong(compressionBaseline, outCompressed);
+			long recvWire = getLong(current, inCompressed) - getLong(compressionBaseline, inCompressed);
+			long recvRaw = getLong(current, inUncompressed) - getLong(compressionBaseline, inUncompressed);
+			long saved = (sentRaw - sentWire) + (recvRaw - recvWire);
+			if (sentRaw + recvRaw == 0) {
+				continue;
+			}
+			totalSaved += saved;
+			logger.debug(String.format("%s : %s - sent %,d bytes as %,d, received %,d bytes as %,d, saved %,d bytes (%.1f%%)", name, compressor,
+					sentRaw, sentWire, recvRaw, recvWire, saved, saved * 100.0 / (sentRaw + recvRaw)));
+		}
+		logger.debug(String.format("%s : wire compression saved %,d bytes (mongos counters, includes other clients)", name, totalSaved));
+	}
+
 	public void setCsrsUri(String csrsUri) {
 		this.csrsUri = csrsUri;
 	}
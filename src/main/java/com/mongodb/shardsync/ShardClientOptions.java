@@ -0,0 +1,120 @@
+package com.mongodb.shardsync;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCompressor;
+
+/**
+ * Client tuning shared by every connection a ShardClient makes, the mongos connection as well as
+ * the direct shard and per-mongos connections. Unset values keep the connection string / driver
+ * defaults.
+ *
+ * Wire compressors are snappy, zlib and zstd (zstd needs zstd-jni on the classpath). Compression
+ * is only used when the server has the same compressor enabled.
+ */
+public class ShardClientOptions {
+
+	private List<String> compressors;
+	private Integer maxPoolSize;
+	private Integer minPoolSize;
+	private Integer maxWaitQueueSize;
+	private Long maxWaitTimeMillis;
+	private Integer socketTimeoutMillis;
+	private Integer connectTimeoutMillis;
+
+	public void apply(MongoClientSettings.Builder builder) {
+		if (compressors != null) {
+			List<MongoCompressor> compressorList = new ArrayList<>();
+			for (String compressor : compressors) {
+				compressorList.add(createCompressor(compressor));
+			}
+			builder.compressorList(compressorList);
+		}
+		builder.applyToConnectionPoolSettings(pool -> {
+			if (maxPoolSize != null) {
+				pool.maxSize(maxPoolSize);
+			}
+			if (minPoolSize != null) {
+				pool.minSize(minPoolSize);
+			}
+			if (maxWaitQueueSize != null) {
+				pool.maxWaitQueueSize(maxWaitQueueSize);
+			}
+			if (maxWaitTimeMillis != null) {
+				pool.maxWaitTime(maxWaitTimeMillis, TimeUnit.MILLISECONDS);
+			}
+		});
+		builder.applyToSocketSettings(socket -> {
+			if (socketTimeoutMillis != null) {
+				socket.readTimeout(socketTimeoutMillis, TimeUnit.MILLISECONDS);
+			}
+			if (connectTimeoutMillis != null) {
+				socket.connectTimeout(connectTimeoutMillis, TimeUnit.MILLISECONDS);
+			}
+		});
+	}
+
+	private static MongoCompressor createCompressor(String name) {
+		switch (name.trim().toLowerCase()) {
+		case "snappy":
+			return MongoCompressor.createSnappyCompressor();
+		case "zlib":
+			return MongoCompressor.createZlibCompressor();
+		case "zstd":
+			return MongoCompressor.createZstdCompressor();
+		default:
+			throw new IllegalArgumentException("Unsupported compressor: " + name);
+		}
+	}
+
+	public boolean isCompressionEnabled() {
+		return compressors != null && !compressors.isEmpty();
+	}
+
+	/**
+	 * @param compressors comma separated, in order of preference, e.g. zstd,snappy
+	 */
+	public void setCompressors(String compressors) {
+		if (compressors == null) {
+			this.compressors = null;
+			return;
+		}
+		this.compressors = new ArrayList<>();
+		for (String compressor : compressors.split(",")) {
+			createCompressor(compressor);
+			this.compressors.add(compressor.trim());
+		}
+	}
+
+	public void setMaxPoolSize(Integer maxPoolSize) {
+		this.maxPoolSize = maxPoolSize;
+	}
+
+	public void setMinPoolSize(Integer minPoolSize) {
+		this.minPoolSize = minPoolSize;
+	}
+
+	public void setMaxWaitQueueSize(Integer maxWaitQueueSize) {
+		this.maxWaitQueueSize = maxWaitQueueSize;
+	}
+
+	public void setMaxWaitTimeMillis(Long maxWaitTimeMillis) {
+		this.maxWaitTimeMillis = maxWaitTimeMillis;
+	}
+
+	public void setSocketTimeoutMillis(Integer socketTimeoutMillis) {
+		this.socketTimeoutMillis = socketTimeoutMillis;
+	}
+
+	public Integer getConnectTimeoutMillis() {
+		return connectTimeoutMillis;
+	}
+
+	public void setConnectTimeoutMillis(Integer connectTimeoutMillis) {
+		this.connectTimeoutMillis = connectTimeoutMillis;
+	}
+
+}
@@ -25,6 +25,12 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.collections.MapUtils;
 import org.apache.commons.exec.ExecuteException;
@@ -50,6 +56,7 @@ import com.mongodb.client.AggregateIterable;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.MongoIterable;
 import com.mongodb.client.model.Accumulators;
@@ -64,10 +71,11 @@ import com.mongodb.model.Namespace;
 import com.mongodb.model.Shard;
 import com.mongodb.model.ShardCollection;
 import com.mongodb.model.ShardTimestamp;
+import com.mongodb.mongomirror.MongoMirrorLauncher;
 import com.mongodb.mongomirror.MongoMirrorRunner;
-import com.mongodb.mongomirror.MongoMirrorStatus;
-import com.mongodb.mongomirror.MongoMirrorStatusInitialSync;
-import com.mongodb.mongomirror.MongoMirrorStatusOplogSync;
+import com.mongodb.mongomirror.MongoMirrorTelemetry;
+import com.mongodb.util.NamespaceFilter;
+import com.mongodb.util.bson.BsonValueComparator;
 
 import picocli.CommandLine.Command;
 
@@ -85,6 +93,13 @@ public class ShardConfigSync implements Callable<Integer> {
 	public final static int SECONDS_IN_YEAR = 31536000;
 
 	private final static Document LOCALE_SIMPLE = new Document("locale", "simple");
+	
+	private final static BsonValueComparator chunkComparator = new BsonValueComparator();
+	
+	private final static long MONGOMIRROR_POLL_MILLIS = 5000;
+	private final static long MONGOMIRROR_REPORT_MILLIS = 30000;
+	
+	private final static long INDEX_BUILD_REPORT_MILLIS = 30000;
 
 	private String sourceClusterUri;
 
@@ -102,6 +117,9 @@ public class ShardConfigSync implements Callable<Integer> {
 	private boolean dropDestDbsAndConfigMetadata;
 	private boolean nonPrivilegedMode = false;
 	private boolean doChunkCounts;
+	private int countThreads = 8;
+	private int indexBuildsPerShard = 2;
+	private CountMode countMode = CountMode.ACCURATE;
 	private boolean preserveUUIDs;
 	private String compressors;
 	private String oplogBasePath;
@@ -111,6 +129,21 @@ public class ShardConfigSync implements Callable<Integer> {
 	private Integer collStatsThreshold;
 	private boolean dryRun;
 	private boolean shardToRs;
+	private int ddlThreads = 1;
+	// set while setupDestinationShardingParallel() runs, so its DDL retries are counted
+	private volatile DdlExecutor ddlExecutor;
+	private ShardClientOptions clientOptions = new ShardClientOptions();
+	
+	// catalog cache files, see ClusterCatalog
+	private File catalogDir;
+	private int catalogThreads = 8;
+	
+	// null leaves data-path operations on the connection string mongos
+	private MongosRouterPool.Policy routerPolicy;
+	
+	private long consolidateChunksBytes;
+	private String consolidateChunksCacheFile;
+	private Map<String, List<RawBsonDocument>> consolidatedChunks;
 
 	private ShardClient sourceShardClient;
 	private ShardClient destShardClient;
@@ -124,14 +157,11 @@ public class ShardConfigSync implements Callable<Integer> {
 	private Map<String, Document> destDbInfoMap = new TreeMap<String, Document>();
 
 	private boolean filtered = false;
+	private NamespaceFilter namespaceFilter = new NamespaceFilter();
 
 	private Set<Namespace> includeNamespaces = new HashSet<Namespace>();
 	private Set<String> includeDatabases = new HashSet<String>();
 
-	// ugly, but we need a set of includeDatabases that we pass to mongomirror
-	// vs. the includes that we use elsewhere
-	private Set<String> includeDatabasesAll = new HashSet<String>();
-
 	private String[] shardMap;
 
 	private File mongomirrorBinary;
@@ -139,11 +169,20 @@ public class ShardConfigSync implements Callable<Integer> {
 	private long sleepMillis;
 
 	private String numParallelCollections;
+	
+	// staged mongomirror launch, see MongoMirrorLauncher, null starts all runners at once
+	private Integer mongomirrorWaveSize;
+	private Integer mongomirrorMaxReadQueue;
+	private Double mongomirrorMaxDiskLatencyMillis;
+	private Double mongomirrorMaxCacheDirty;
+	private Double mongomirrorMaxCacheFill;
+	private Integer mongomirrorMaxWaitMinutes;
 	private int mongoMirrorStartPort = 9001;
 
 	private String writeConcern;
 
 	private Long cleanupOrphansSleepMillis;
+	private int cleanupOrphansThreads = 4;
 
 	private String destVersion;
 	private List<Integer> destVersionArray;
@@ -192,9 +231,12 @@ public class ShardConfigSync implements Callable<Integer> {
 			sourceShardClient.setRsPattern(sourceRsPattern);
 			destShardClient.setRsPattern(destRsPattern);
 			destShardClient.setCsrsUri(destCsrsUri);
+			sourceShardClient.setClientOptions(clientOptions);
+			destShardClient.setClientOptions(clientOptions);
+			setCatalogOptions();
 			
-			sourceShardClient.init();
-			destShardClient.init();
+			ShardClient.initAll(sourceShardClient, destShardClient);
+			enableRouterPools();
 			
 		} else {
 			logger.debug("Default 1:1 shard mapping");
@@ -204,9 +246,12 @@ public class ShardConfigSync implements Callable<Integer> {
 			sourceShardClient.setRsPattern(sourceRsPattern);
 			destShardClient.setRsPattern(destRsPattern);
 			destShardClient.setCsrsUri(destCsrsUri);
+			sourceShardClient.setClientOptions(clientOptions);
+			destShardClient.setClientOptions(clientOptions);
+			setCatalogOptions();
 			
-			sourceShardClient.init();
-			destShardClient.init();
+			ShardClient.initAll(sourceShardClient, destShardClient);
+			enableRouterPools();
 			checkDestShardClientIsMongos();
 			
 			logger.debug("Source shard count: " + sourceShardClient.getShardsMap().size());
@@ -256,20 +301,59 @@ public class ShardConfigSync implements Callable<Integer> {
 		
 	}
 	
+	/**
+	 * Propose a size-aware shardMap. This runs instead of initializeShardMappings(), since the
+	 * default 1:1 mapping is not possible when the source and dest shard counts differ.
+	 */
+	public void optimizeShardMap(String outFile) throws IOException {
+		String source = sourceClusterUri == null ? sourceClusterPattern : sourceClusterUri;
+		String dest = destClusterUri == null ? destClusterPattern : destClusterUri;
+		sourceShardClient = new ShardClient("source", source, null);
+		destShardClient = new ShardClient("dest", dest, null);
+		sourceShardClient.setRsPattern(sourceRsPattern);
+		destShardClient.setRsPattern(destRsPattern);
+		sourceShardClient.setClientOptions(clientOptions);
+		destShardClient.setClientOptions(clientOptions);
+		ShardClient.initAll(sourceShardClient, destShardClient);
+
+		Map<String, Long> sourceSizes = sourceShardClient.getShardDataSizes();
+		Map<String, Long> destSizes = destShardClient.getShardDataSizes();
+
+		ShardMapOptimizer optimizer = new ShardMapOptimizer(sourceSizes, destSizes);
+		optimizer.optimize();
+		optimizer.logReport();
+
+		String property = optimizer.getShardMapProperty();
+		logger.debug("Proposed shardMap property: " + ShardConfigSyncApp.SHARD_MAP + "=" + property);
+		logger.debug("Proposed shardMap arguments: " + optimizer.getShardMapArgs());
+
+		if (outFile != null) {
+			try (BufferedWriter writer = new BufferedWriter(new FileWriter(new File(outFile)))) {
+				writer.write(ShardConfigSyncApp.SHARD_MAP + "=" + property);
+				writer.newLine();
+			}
+			logger.debug("shardMap written to " + outFile);
+		}
+	}
+	
 	private void checkDestShardClientIsMongos() {
 		if (!destShardClient.isMongos() && !shardToRs) {
 			throw new IllegalArgumentException("dest connection must be to a mongos router unless using shardToRs");
 		}
 	}
 
-	public void shardCollections() {
+	public void shardCollections() throws InterruptedException {
 		logger.debug("Starting shardCollections");
+		if (ddlThreads > 1) {
+			setupDestinationShardingParallel(false);
+			return;
+		}
 		sourceShardClient.populateCollectionsMap();
 		shardDestinationCollections();
 	}
 	
 	private boolean filterCheck(Namespace ns) {
-		if (filtered && !includeNamespaces.contains(ns) && !includeDatabases.contains(ns.getDatabaseName())) {
+		if (filtered && !namespaceFilter.matches(ns.getNamespace())) {
 			logger.trace("Namespace " + ns + " filtered, skipping");
 			return true;
 		}
@@ -279,88 +363,192 @@ public class ShardConfigSync implements Callable<Integer> {
 		return false;
 	}
 	
-	private Map<Namespace, Set<IndexSpec>> getIndexSpecs(MongoClient client, Set<String> filterSet) {
+	private Map<Namespace, Set<IndexSpec>> getIndexSpecs(ClusterCatalog catalog, Set<String> filterSet) {
 		Map<Namespace, Set<IndexSpec>> sourceIndexSpecs = new LinkedHashMap<>();
-		for (String dbName : client.listDatabaseNames()) {
-			MongoDatabase sourceDb = client.getDatabase(dbName);
-			for (String collectionName : sourceDb.listCollectionNames()) {
-				Namespace ns = new Namespace(dbName, collectionName);
-				if (filterCheck(ns) || ! filterSet.contains(ns.getNamespace())) {
-					continue;
-				}
-				
-				Set<IndexSpec> indexSpecs = new HashSet<>();
-				sourceIndexSpecs.put(ns, indexSpecs);
-				MongoCollection<RawBsonDocument> collection = sourceDb.getCollection(collectionName, RawBsonDocument.class);
-				for (RawBsonDocument sourceSpec : collection.listIndexes(RawBsonDocument.class)) {
-					indexSpecs.add(IndexSpec.fromDocument(sourceSpec));
-				}
+		for (ClusterCatalog.CollectionEntry collection : catalog.getCollections()) {
+			Namespace ns = collection.getNamespace();
+			if (filterCheck(ns) || ! filterSet.contains(ns.getNamespace())) {
+				continue;
 			}
+			sourceIndexSpecs.put(ns, collection.getIndexSpecs());
 		}
 		return sourceIndexSpecs;
 	}
 	
-	public void syncIndexesShards(boolean createMissing, boolean extendTtl) {
-		logger.debug(String.format("Starting syncIndexes: extendTtl: %s", extendTtl));
-		destShardClient.populateShardMongoClients();
+	/**
+	 * Read index specs from the catalog of every shard concurrently, keyed by shard name.
+	 */
+	private Map<String, Map<Namespace, Set<IndexSpec>>> getIndexSpecs(final ShardClient shardClient,
+			final Set<String> filterSet) throws InterruptedException {
+		Set<String> shardIds = shardClient.getShardMongoClients().keySet();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, shardIds.size()));
+		Map<String, Future<Map<Namespace, Set<IndexSpec>>>> futures = new LinkedHashMap<>();
+		for (final String shardId : shardIds) {
+			futures.put(shardId, executor.submit(new Callable<Map<Namespace, Set<IndexSpec>>>() {
+				@Override
+				public Map<Namespace, Set<IndexSpec>> call() throws Exception {
+					return getIndexSpecs(shardClient.getShardCatalog(shardId), filterSet);
+				}
+			}));
+		}
+		executor.shutdown();
+		Map<String, Map<Namespace, Set<IndexSpec>>> result = new LinkedHashMap<>();
+		for (Map.Entry<String, Future<Map<Namespace, Set<IndexSpec>>>> entry : futures.entrySet()) {
+			try {
+				result.put(entry.getKey(), entry.getValue().get());
+			} catch (ExecutionException e) {
+				throw new RuntimeException(String.format("listIndexes failed for shard %s", entry.getKey()), e.getCause());
+			}
+		}
+		return result;
+	}
+	
+	public void syncIndexesShards(boolean createMissing, boolean extendTtl) throws InterruptedException {
+		logger.debug(String.format("Starting syncIndexes: extendTtl: %s, indexBuildsPerShard: %s", extendTtl, indexBuildsPerShard));
+		long start = System.currentTimeMillis();
+		if (sourceShardClient.getShardMongoClients().isEmpty()) {
+			sourceShardClient.populateShardMongoClients();
+		}
+		if (destShardClient.getShardMongoClients().isEmpty()) {
+			destShardClient.populateShardMongoClients();
+		}
 		sourceShardClient.populateCollectionsMap();
 		
 		Map<String, Document> map = sourceShardClient.getCollectionsMap();
 		Set<String> filterSet = map.keySet();
 		
-		Map<Namespace, Set<IndexSpec>> sourceIndexSpecs = getIndexSpecs(sourceShardClient.getMongoClient(), filterSet);
-		Map<String, Map<Namespace, Set<IndexSpec>>> destShardsIndexSpecs = new HashMap<>();
+		// source specs are the union across all source shards, a sharded collection may be
+		// missing an index on some shards
+		Map<Namespace, Set<IndexSpec>> sourceIndexSpecs = new LinkedHashMap<>();
+		for (Map<Namespace, Set<IndexSpec>> shardSpecs : getIndexSpecs(sourceShardClient, filterSet).values()) {
+			for (Map.Entry<Namespace, Set<IndexSpec>> entry : shardSpecs.entrySet()) {
+				Set<IndexSpec> specs = sourceIndexSpecs.get(entry.getKey());
+				if (specs == null) {
+					specs = new HashSet<>();
+					sourceIndexSpecs.put(entry.getKey(), specs);
+				}
+				specs.addAll(entry.getValue());
+			}
+		}
 		
 		// TODO fix for shard to rs
-		for (Map.Entry<String, MongoClient> entry : destShardClient.getShardMongoClients().entrySet()) {
-			String shardName = entry.getKey();
-			MongoClient destClient = entry.getValue();
-			Map<Namespace, Set<IndexSpec>> destShardIndexSpecs = getIndexSpecs(destClient, filterSet);
-			destShardsIndexSpecs.put(shardName, destShardIndexSpecs);
-		}
+		Map<String, Map<Namespace, Set<IndexSpec>>> destShardsIndexSpecs = getIndexSpecs(destShardClient, filterSet);
+		logger.debug(String.format("syncIndexes: read index specs for %s namespaces in %s ms", sourceIndexSpecs.size(), 
+				System.currentTimeMillis() - start));
+		
+		// one pool per dest shard, so builds on different shards overlap but no single shard
+		// runs more than indexBuildsPerShard builds at a time
+		Map<String, ExecutorService> shardExecutors = new HashMap<>();
+		List<Future<?>> builds = new ArrayList<>();
 		
 		for (Map.Entry<Namespace, Set<IndexSpec>> sourceEntry : sourceIndexSpecs.entrySet()) {
-            Namespace ns = sourceEntry.getKey();
+            final Namespace ns = sourceEntry.getKey();
             Set<IndexSpec> sourceSpecs = sourceEntry.getValue();
             
         	for (Map.Entry<String, Map<Namespace, Set<IndexSpec>>> entry : destShardsIndexSpecs.entrySet()) {
-            	String shardName = entry.getKey();
+            	final String shardName = entry.getKey();
             	Map<Namespace, Set<IndexSpec>> shardIndexSpecsMap = entry.getValue();
             	Set<IndexSpec> destSpec = shardIndexSpecsMap.get(ns);
             	
             	if (destSpec == null || sourceSpecs == null) {
             		continue;
             	}
-            	Set<IndexSpec> diff = Sets.difference(sourceSpecs, destSpec);
+            	final Set<IndexSpec> diff = new HashSet<>(Sets.difference(sourceSpecs, destSpec));
             	
             	if (diff.isEmpty()) {
             		logger.debug(String.format("%s - all indexes match for shard %s, indexCount: %s", ns, shardName, sourceSpecs.size()));
-            	} else {
+            	} else if (createMissing) {
             		logger.debug(String.format("%s - missing dest indexes %s missing on shard %s, creating", ns, diff, shardName));
-            		destShardClient.createIndexes(shardName, ns, diff, extendTtl);
+            		ExecutorService executor = shardExecutors.get(shardName);
+            		if (executor == null) {
+            			executor = Executors.newFixedThreadPool(indexBuildsPerShard);
+            			shardExecutors.put(shardName, executor);
+            		}
+            		final boolean extend = extendTtl;
+            		builds.add(executor.submit(new Runnable() {
+						@Override
+						public void run() {
+							destShardClient.createIndexes(shardName, ns, diff, extend);
+						}
+            		}));
+            	} else {
+            		logger.debug(String.format("%s - missing dest indexes %s missing on shard %s", ns, diff, shardName));
             	}
-
             }
         }
+		for (ExecutorService executor : shardExecutors.values()) {
+			executor.shutdown();
+		}
+		
+		int complete = 0;
+		long lastReport = System.currentTimeMillis();
+		for (Future<?> build : builds) {
+			while (true) {
+				try {
+					build.get(INDEX_BUILD_REPORT_MILLIS, TimeUnit.MILLISECONDS);
+					complete++;
+					break;
+				} catch (ExecutionException e) {
+					logger.error("createIndexes failed", e.getCause());
+					complete++;
+					break;
+				} catch (TimeoutException e) {
+					// still building, fall through to report progress
+				}
+				if (System.currentTimeMillis() - lastReport >= INDEX_BUILD_REPORT_MILLIS) {
+					lastReport = System.currentTimeMillis();
+					logIndexBuildProgress(shardExecutors.keySet(), complete, builds.size());
+				}
+			}
+		}
+		logger.debug(String.format("syncIndexes complete, %s createIndexes on %s shards, %s seconds", builds.size(),
+				shardExecutors.size(), (System.currentTimeMillis() - start) / 1000));
 	}
 	
-	public void migrateMetadata() throws InterruptedException {
+	private void logIndexBuildProgress(Collection<String> shardNames, int complete, int total) {
+		logger.debug(String.format("syncIndexes progress: %s / %s createIndexes complete", complete, total));
+		for (String shardName : shardNames) {
+			try {
+				for (Document op : destShardClient.getIndexBuildOps(shardName)) {
+					Document progress = (Document) op.get("progress");
+					if (progress != null) {
+						logger.debug(String.format("  %s %s: %s (%s/%s)", shardName, op.get("ns"), op.get("msg"),
+								progress.get("done"), progress.get("total")));
+					} else {
+						logger.debug(String.format("  %s %s: %s", shardName, op.get("ns"), op.get("msg")));
+					}
+				}
+			} catch (MongoCommandException mce) {
+				logger.warn(String.format("currentOp failed on %s: %s", shardName, mce.getErrorMessage()));
+			}
+		}
+	}
+	
+	public void migrateMetadata() throws InterruptedException, IOException {
 		migrateMetadata(true, true);
 	}
 
-	public void migrateMetadata(boolean enableDestinationSharding, boolean compareAndMove) throws InterruptedException {
+	public void migrateMetadata(boolean enableDestinationSharding, boolean compareAndMove) throws InterruptedException, IOException {
 		logger.debug(String.format("Starting metadata sync/migration, %s: %s", 
 				ShardConfigSyncApp.NON_PRIVILEGED, nonPrivilegedMode));
 
 		stopBalancers();
 		// checkAutosplit();
 		
-		if (enableDestinationSharding) {
-			enableDestinationSharding();
-		}
+		if (ddlThreads > 1) {
+			setupDestinationShardingParallel(enableDestinationSharding);
+		} else {
+			if (enableDestinationSharding) {
+				enableDestinationSharding();
+			}
 
-		sourceShardClient.populateCollectionsMap();
-		shardDestinationCollections();
+			sourceShardClient.populateCollectionsMap();
+			shardDestinationCollections();
+		}
+		
+		if (consolidateChunksBytes > 0) {
+			consolidateChunks();
+		}
 
 		if (nonPrivilegedMode) {
 			createDestChunksUsingSplitCommand();
@@ -428,25 +616,10 @@ public class ShardConfigSync implements Callable<Integer> {
 		return count > 0;
 	}
 	
-	@SuppressWarnings({ "rawtypes", "unchecked" })
 	private Document getChunkQuery() {
-		Document chunkQuery = new Document();
-		if (includeNamespaces.size() > 0 || includeDatabases.size() > 0) {
-			List inList = new ArrayList();
-			List orList = new ArrayList();
-			// Document orDoc = new Document("$or", orList);
-			chunkQuery.append("$or", orList);
-			Document inDoc = new Document("ns", new Document("$in", inList));
-			orList.add(inDoc);
-			// orDoc.append("ns", inDoc);
-			for (Namespace includeNs : includeNamespaces) {
-				inList.add(includeNs.getNamespace());
-			}
-			for (String dbName : includeDatabases) {
-				orList.add(regex("ns", "^" + dbName + "\\."));
-			}
-		}
-		return chunkQuery;
+		Document filterQuery = namespaceFilter.toQuery("ns");
+		// wrapped so callers can still append their own "ns" condition
+		return filterQuery.isEmpty() ? filterQuery : new Document("$and", Arrays.asList(filterQuery));
 	}
 	
 	/**
@@ -469,8 +642,11 @@ public class ShardConfigSync implements Callable<Integer> {
 			chunkQuery.append("ns", nsFilter);
 		}
 		// logger.debug("chunkQuery: " + chunkQuery);
-		FindIterable<RawBsonDocument> sourceChunks = sourceChunksColl.find(chunkQuery).noCursorTimeout(true)
+		Iterable<RawBsonDocument> sourceChunks = sourceChunksColl.find(chunkQuery).noCursorTimeout(true)
 				.sort(Sorts.ascending("ns", "min"));
+		if (consolidatedChunks != null) {
+			sourceChunks = getConsolidatedChunks(nsFilter);
+		}
 
 		String lastNs = null;
 		int currentCount = 0;
@@ -628,10 +804,13 @@ public class ShardConfigSync implements Callable<Integer> {
 		Map<String, Document> collectionsMap = destShardClient.getCollectionsMap();
 		
 		
-		FindIterable<RawBsonDocument> sourceChunksIt = sourceChunksColl.find(chunkQuery)
-				.sort(Sorts.ascending("ns", "min"));
-		List<RawBsonDocument> sourceChunks = new ArrayList<>();
-		sourceChunksIt.into(sourceChunks);
+		List<RawBsonDocument> sourceChunks;
+		if (consolidatedChunks != null) {
+			sourceChunks = getConsolidatedChunks(null);
+		} else {
+			sourceChunks = new ArrayList<>();
+			sourceChunksColl.find(chunkQuery).sort(Sorts.ascending("ns", "min")).into(sourceChunks);
+		}
 
 		String lastNs = null;
 		int currentCount = 0;
@@ -700,6 +879,44 @@ public class ShardConfigSync implements Callable<Integer> {
 		logger.debug("createDestChunksUsingInsert complete");
 	}
 
+	/**
+	 * Merge adjacent under-sized source chunks on the same shard before the dest chunks are
+	 * created. The merged ranges replace the source chunks for the rest of migrateMetadata().
+	 */
+	private void consolidateChunks() throws IOException {
+		ChunkConsolidator consolidator = new ChunkConsolidator(sourceShardClient, consolidateChunksBytes);
+		if (consolidateChunksCacheFile != null) {
+			consolidator.setCacheFile(new File(consolidateChunksCacheFile));
+		}
+		Document chunkQuery = getChunkQuery();
+		FindIterable<RawBsonDocument> sourceChunks = sourceShardClient.getChunksCollectionRaw().find(chunkQuery)
+				.noCursorTimeout(true).sort(Sorts.ascending("ns", "min"));
+		consolidatedChunks = consolidator.consolidate(sourceChunks);
+	}
+	
+	private List<RawBsonDocument> getConsolidatedChunks(String nsFilter) {
+		List<RawBsonDocument> result = new ArrayList<>();
+		for (Map.Entry<String, List<RawBsonDocument>> entry : consolidatedChunks.entrySet()) {
+			if (nsFilter == null || nsFilter.equals(entry.getKey())) {
+				result.addAll(entry.getValue());
+			}
+		}
+		return result;
+	}
+	
+	private List<RawBsonDocument> getConsolidatedChunks(String ns, String shard) {
+		List<RawBsonDocument> result = new ArrayList<>();
+		List<RawBsonDocument> chunks = consolidatedChunks.get(ns);
+		if (chunks != null) {
+			for (RawBsonDocument chunk : chunks) {
+				if (chunk.getString("shard").getValue().equals(shard)) {
+					result.add(chunk);
+				}
+			}
+		}
+		return result;
+	}
+
 	public void compareChunks() {
 		compareAndMoveChunks(false);
 	}
@@ -748,6 +965,114 @@ public class ShardConfigSync implements Callable<Integer> {
 
 	}
 	
+	/**
+	 * Streaming alternative to compareChunks()/diffChunks(). Both config.chunks collections are read
+	 * sorted by (ns, min) and walked together as a merge join, so only the current source and dest
+	 * chunk are held in memory regardless of how many chunks the clusters have.
+	 */
+	public void compareChunksStreaming() {
+		logger.debug("Starting compareChunksStreaming");
+
+		Document chunkQuery = getChunkQuery();
+		MongoCursor<RawBsonDocument> sourceCursor = sourceShardClient.getChunksCollectionRaw().find(chunkQuery)
+				.noCursorTimeout(true).sort(Sorts.ascending("ns", "min")).batchSize(BATCH_SIZE).iterator();
+		MongoCursor<RawBsonDocument> destCursor = destShardClient.getChunksCollectionRaw().find(chunkQuery)
+				.noCursorTimeout(true).sort(Sorts.ascending("ns", "min")).batchSize(BATCH_SIZE).iterator();
+
+		long matchedCount = 0;
+		long sourceOnlyCount = 0;
+		long destOnlyCount = 0;
+		long boundaryMismatchCount = 0;
+		long wrongShardCount = 0;
+
+		try {
+			RawBsonDocument sourceChunk = nextChunk(sourceCursor);
+			RawBsonDocument destChunk = nextChunk(destCursor);
+
+			while (sourceChunk != null || destChunk != null) {
+				int cmp;
+				if (sourceChunk == null) {
+					cmp = 1;
+				} else if (destChunk == null) {
+					cmp = -1;
+				} else {
+					cmp = compareChunkPosition(sourceChunk, destChunk);
+				}
+
+				if (cmp < 0) {
+					logger.warn("Chunk only on source: " + getHashIdFromChunk(sourceChunk));
+					sourceOnlyCount++;
+					sourceChunk = nextChunk(sourceCursor);
+				} else if (cmp > 0) {
+					logger.warn("Chunk only on destination: " + getHashIdFromChunk(destChunk));
+					destOnlyCount++;
+					destChunk = nextChunk(destCursor);
+				} else {
+					String ns = sourceChunk.getString("ns").getValue();
+					RawBsonDocument sourceMax = (RawBsonDocument) sourceChunk.get("max");
+					RawBsonDocument destMax = (RawBsonDocument) destChunk.get("max");
+
+					if (chunkComparator.compareDocs(sourceMax, destMax) != 0) {
+						logger.warn(String.format("%s - chunk boundary mismatch, min: %s, source max: %s, dest max: %s",
+								ns, sourceChunk.get("min"), sourceMax, destMax));
+						boundaryMismatchCount++;
+					} else {
+						String sourceShard = sourceChunk.getString("shard").getValue();
+						String mappedShard = getAltMapping(sourceShard);
+						if (mappedShard == null) {
+							throw new IllegalArgumentException(
+									"No destination shard mapping found for source shard: " + sourceShard);
+						}
+						String destShard = destChunk.getString("shard").getValue();
+						if (!mappedShard.equals(destShard)) {
+							logger.warn(String.format("%s - chunk on wrong shard, min: %s, dest: %s, expected: %s",
+									ns, sourceChunk.get("min"), destShard, mappedShard));
+							wrongShardCount++;
+						} else {
+							matchedCount++;
+						}
+					}
+					sourceChunk = nextChunk(sourceCursor);
+					destChunk = nextChunk(destCursor);
+				}
+
+				long total = matchedCount + sourceOnlyCount + destOnlyCount + boundaryMismatchCount + wrongShardCount;
+				if (total % 100000 == 0) {
+					logger.debug(String.format("compareChunksStreaming - %s chunks compared", total));
+				}
+			}
+		} finally {
+			sourceCursor.close();
+			destCursor.close();
+		}
+
+		logger.debug(String.format(
+				"compareChunksStreaming complete, matchedCount: %s, sourceOnlyCount: %s, destOnlyCount: %s, boundaryMismatchCount: %s, wrongShardCount: %s",
+				matchedCount, sourceOnlyCount, destOnlyCount, boundaryMismatchCount, wrongShardCount));
+	}
+
+	private RawBsonDocument nextChunk(MongoCursor<RawBsonDocument> cursor) {
+		while (cursor.hasNext()) {
+			RawBsonDocument chunk = cursor.next();
+			if (!filterCheck(new Namespace(chunk.getString("ns").getValue()))) {
+				return chunk;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Compare 2 chunks by (ns, min), consistent with the server side sort used for the cursors.
+	 */
+	private int compareChunkPosition(RawBsonDocument c1, RawBsonDocument c2) {
+		// config.chunks is sorted by the UTF-8 bytes of ns, not by UTF-16 chars
+		int result = BsonValueComparator.compareUtf8(c1.getString("ns").getValue(), c2.getString("ns").getValue());
+		if (result != 0) {
+			return result;
+		}
+		return chunkComparator.compareDocs((RawBsonDocument) c1.get("min"), (RawBsonDocument) c2.get("min"));
+	}
+
 	private static String getHashIdFromChunk(RawBsonDocument sourceChunk) {
 		RawBsonDocument sourceMin = (RawBsonDocument) sourceChunk.get("min");
 		//ByteBuffer byteBuffer = sourceMin.getByteBuffer().asNIO();
@@ -799,7 +1124,10 @@ public class ShardConfigSync implements Callable<Integer> {
     			}
         		mappedShards.add(mappedShard);
         		
-        		FindIterable<RawBsonDocument> sourceChunks = sourceChunksColl.find(and(eq("ns", ns), eq("shard", shard)));
+        		Iterable<RawBsonDocument> sourceChunks = sourceChunksColl.find(and(eq("ns", ns), eq("shard", shard)));
+        		if (consolidatedChunks != null) {
+        			sourceChunks = getConsolidatedChunks(ns, shard);
+        		}
         		
         		boolean movedChunk = false;
         		for (RawBsonDocument sourceChunk : sourceChunks) {
@@ -885,8 +1213,13 @@ public class ShardConfigSync implements Callable<Integer> {
 		Map<String, String> destChunkMap = readDestinationChunks();
 
 		MongoCollection<RawBsonDocument> sourceChunksColl = sourceShardClient.getChunksCollectionRaw();
-		List<RawBsonDocument> sourceChunks = new ArrayList<>();
-		sourceChunksColl.find().sort(Sorts.ascending("ns", "min")).into(sourceChunks);
+		List<RawBsonDocument> sourceChunks;
+		if (consolidatedChunks != null) {
+			sourceChunks = getConsolidatedChunks(null);
+		} else {
+			sourceChunks = new ArrayList<>();
+			sourceChunksColl.find().sort(Sorts.ascending("ns", "min")).into(sourceChunks);
+		}
 
 		String lastNs = null;
 		int currentCount = 0;
@@ -974,10 +1307,26 @@ public class ShardConfigSync implements Callable<Integer> {
 
 	}
 
+	/**
+	 * Collection names from the source catalog when the catalog cache is enabled, otherwise
+	 * straight from listCollections.
+	 */
+	private Iterable<String> getSourceCollectionNames(String dbName) throws InterruptedException {
+		if (sourceShardClient.isCatalogCacheEnabled()) {
+			try {
+				return sourceShardClient.getCatalog().getCollectionNames(dbName);
+			} catch (IOException e) {
+				throw new RuntimeException("Error reading catalog cache", e);
+			}
+		}
+		return sourceShardClient.getMongoClient().getDatabase(dbName).listCollectionNames();
+	}
+	
 	@SuppressWarnings("unchecked")
-	public void compareShardCounts() {
+	public void compareShardCounts() throws InterruptedException {
 
-		logger.debug("Starting compareShardCounts mode");
+		logger.debug(String.format("Starting compareShardCounts mode, countMode: %s, countThreads: %s", countMode, countThreads));
+		long start = System.currentTimeMillis();
 
 		Document listDatabases = new Document("listDatabases", 1);
 		Document sourceDatabases = sourceShardClient.adminCommand(listDatabases);
@@ -988,11 +1337,27 @@ public class ShardConfigSync implements Callable<Integer> {
 
 		populateDbMap(sourceDatabaseInfo, sourceDbInfoMap);
 		populateDbMap(destDatabaseInfo, destDbInfoMap);
+		
+		if (countMode == CountMode.SHARDS) {
+			if (sourceShardClient.getShardMongoClients().isEmpty()) {
+				sourceShardClient.populateShardMongoClients();
+			}
+			if (destShardClient.getShardMongoClients().isEmpty()) {
+				destShardClient.populateShardMongoClients();
+			}
+		}
 
+		// source and dest counts for every collection are submitted up front, so that both
+		// clusters and many collections are counted concurrently, bounded by countThreads
+		ExecutorService executor = Executors.newFixedThreadPool(countThreads);
+		List<Namespace> namespaces = new ArrayList<Namespace>();
+		List<Future<Number>> sourceCounts = new ArrayList<Future<Number>>();
+		List<Future<Number>> destCounts = new ArrayList<Future<Number>>();
+		
 		for (Document sourceInfo : sourceDatabaseInfo) {
 			String dbName = sourceInfo.getString("name");
 
-			if (filtered && !includeDatabases.contains(dbName) || dbName.equals("config")) {
+			if (filtered && !namespaceFilter.mayMatchDatabase(dbName) || dbName.equals("config")) {
 				logger.debug("Ignore " + dbName + " for compare, filtered");
 				continue;
 			}
@@ -1001,40 +1366,94 @@ public class ShardConfigSync implements Callable<Integer> {
 			if (destInfo != null) {
 				logger.debug(String.format("Found matching database %s", dbName));
 
-				MongoDatabase sourceDb = sourceShardClient.getMongoClient().getDatabase(dbName);
-				MongoDatabase destDb = destShardClient.getMongoClient().getDatabase(dbName);
-				MongoIterable<String> sourceCollectionNames = sourceDb.listCollectionNames();
-				for (String collectionName : sourceCollectionNames) {
+				for (String collectionName : getSourceCollectionNames(dbName)) {
 					if (collectionName.startsWith("system.")) {
 						continue;
 					}
-
-					boolean firstTry = doCounts(sourceDb, destDb, collectionName);
-
-					if (!firstTry) {
-						doCounts(sourceDb, destDb, collectionName);
+					Namespace ns = new Namespace(dbName, collectionName);
+					if (filterCheck(ns)) {
+						continue;
 					}
+					namespaces.add(ns);
+					sourceCounts.add(executor.submit(new CountTask(sourceShardClient, ns)));
+					destCounts.add(executor.submit(new CountTask(destShardClient, ns)));
 				}
 			} else {
 				logger.warn(String.format("Destination db not found, name: %s", dbName));
 			}
 		}
+		executor.shutdown();
+		
+		int matched = 0;
+		int mismatched = 0;
+		for (int i = 0; i < namespaces.size(); i++) {
+			Namespace ns = namespaces.get(i);
+			Number sourceCount;
+			Number destCount;
+			try {
+				sourceCount = sourceCounts.get(i).get();
+				destCount = destCounts.get(i).get();
+			} catch (ExecutionException e) {
+				logger.error(String.format("%s count failed: %s", ns, e.getCause().getMessage()));
+				mismatched++;
+				continue;
+			}
+			boolean firstTry = compareCounts(ns, sourceCount, destCount);
+			if (!firstTry) {
+				// counts may still be settling, re-check this one before reporting a mismatch
+				firstTry = doCounts(ns);
+			}
+			if (firstTry) {
+				matched++;
+			} else {
+				mismatched++;
+			}
+		}
+		logger.debug(String.format("compareShardCounts complete, %s collections, matched: %s, mismatched: %s, %s seconds",
+				namespaces.size(), matched, mismatched, (System.currentTimeMillis() - start) / 1000));
 	}
+	
+	private class CountTask implements Callable<Number> {
+		private final ShardClient client;
+		private final Namespace ns;
+		
+		CountTask(ShardClient client, Namespace ns) {
+			this.client = client;
+			this.ns = ns;
+		}
 
-	private boolean doCounts(MongoDatabase sourceDb, MongoDatabase destDb, String collectionName) {
-
-		Number sourceCount = sourceShardClient.getCollectionCount(sourceDb, collectionName);
-		Number destCount = destShardClient.getCollectionCount(destDb, collectionName);
+		@Override
+		public Number call() throws Exception {
+			return getCount(client, ns);
+		}
+	}
+	
+	private Number getCount(ShardClient client, Namespace ns) {
+		switch (countMode) {
+		case ESTIMATED:
+			return client.getEstimatedCollectionCount(ns.getDatabaseName(), ns.getCollectionName());
+		case SHARDS:
+			return client.getShardsCollectionCount(ns.getDatabaseName(), ns.getCollectionName());
+		default:
+			return client.getCollectionCount(ns.getDatabaseName(), ns.getCollectionName());
+		}
+	}
 
-		if (sourceCount == null && destCount == null) {
-			logger.debug(String.format("%s.%s count matches: %s", sourceDb.getName(), collectionName, 0));
-			return true;
-		} else if (sourceCount != null && sourceCount.equals(destCount)) {
-			logger.debug(String.format("%s.%s count matches: %s", sourceDb.getName(), collectionName, sourceCount));
+	private boolean doCounts(Namespace ns) {
+		Number sourceCount = getCount(sourceShardClient, ns);
+		Number destCount = getCount(destShardClient, ns);
+		return compareCounts(ns, sourceCount, destCount);
+	}
+	
+	private boolean compareCounts(Namespace ns, Number sourceCount, Number destCount) {
+		// the count pipeline returns null for an empty collection
+		long source = sourceCount == null ? 0 : sourceCount.longValue();
+		long dest = destCount == null ? 0 : destCount.longValue();
+		if (source == dest) {
+			logger.debug(String.format("%s count matches: %s", ns, source));
 			return true;
 		} else {
-			logger.warn(String.format("%s.%s count MISMATCH - source: %s, dest: %s", sourceDb.getName(), collectionName,
-					sourceCount, destCount));
+			logger.warn(String.format("%s count MISMATCH - source: %s, dest: %s", ns, source, dest));
 			return false;
 		}
 	}
@@ -1050,7 +1469,7 @@ public class ShardConfigSync implements Callable<Integer> {
 
 	}
 
-	public void compareCollectionUuids() {
+	public void compareCollectionUuids() throws InterruptedException {
 		destShardClient.compareCollectionUuids();
 	}
 
@@ -1104,8 +1523,12 @@ public class ShardConfigSync implements Callable<Integer> {
 
 	private void shardDestinationCollectionsUsingShardCommand() {
 		logger.debug("shardDestinationCollectionsUsingShardCommand(), non-privileged mode");
-
-		for (Document sourceColl : sourceShardClient.getCollectionsMap().values()) {
+		shardDestinationCollections(sourceShardClient.getCollectionsMap().values());
+		logger.debug("shardDestinationCollectionsUsingShardCommand() complete");
+	}
+	
+	private void shardDestinationCollections(Collection<Document> sourceColls) {
+		for (Document sourceColl : sourceColls) {
 
 			String nsStr = (String) sourceColl.get("_id");
 			Namespace ns = new Namespace(nsStr);
@@ -1123,7 +1546,6 @@ public class ShardConfigSync implements Callable<Integer> {
 				logger.warn(String.format("Balancing is disabled for %s, this is not possible in Atlas", nsStr));
 			}
 		}
-		logger.debug("shardDestinationCollectionsUsingShardCommand() complete");
 	}
 
 	/**
@@ -1179,7 +1601,7 @@ public class ShardConfigSync implements Callable<Integer> {
 
 		Document result = null;
 		try {
-			result = destShardClient.adminCommand(shardCommand);
+			result = destAdminCommandWithRetry(shardCommand);
 		} catch (MongoCommandException mce) {
 			if (mce.getCode() == 20) {
 				logger.debug(String.format("Sharding already enabled for %s", sourceColl.get("_id")));
@@ -1236,6 +1658,13 @@ public class ShardConfigSync implements Callable<Integer> {
 		sourceShardClient.populateShardMongoClients();
 		
 		logger.debug("enableDestinationSharding()");
+		for (Document database : getSourceDatabases()) {
+			enableDestinationSharding(database);
+		}
+		logger.debug("enableDestinationSharding() complete");
+	}
+	
+	private List<Document> getSourceDatabases() {
 		MongoCollection<Document> databasesColl = sourceShardClient.getConfigDb().getCollection("databases");
 
 		// todo, what about unsharded collections, don't we need to movePrimary for
@@ -1246,74 +1675,142 @@ public class ShardConfigSync implements Callable<Integer> {
 
 		List<Document> databasesList = new ArrayList<Document>();
 		databases.into(databasesList);
-		for (Document database : databasesList) {
-			String databaseName = database.getString("_id");
-			if (databaseName.equals("admin") || databaseName.equals("system") || databaseName.equals("local") 
-					|| databaseName.contains("$")) {
-				continue;
+		return databasesList;
+	}
+	
+	private void enableDestinationSharding(Document database) {
+		String databaseName = database.getString("_id");
+		if (databaseName.equals("admin") || databaseName.equals("system") || databaseName.equals("local") 
+				|| databaseName.contains("$")) {
+			return;
+		}
+		String primary = database.getString("primary");
+		String mappedPrimary = getAltMapping(primary);
+		logger.debug("database: " + databaseName + ", primary: " + primary + ", mappedPrimary: " + mappedPrimary);
+        if (mappedPrimary == null) {
+            logger.warn("Shard mapping not found for shard " + primary);
+        }
+
+		if (filtered && !namespaceFilter.mayMatchDatabase(databaseName)) {
+			logger.trace("Database " + databaseName + " filtered, not sharding on destination");
+			return;
+		}
+
+		Document dest = null;
+		if (database.getBoolean("partitioned", true)) {
+			logger.debug(String.format("enableSharding: %s", databaseName));
+			try {
+				destAdminCommandWithRetry(new Document("enableSharding", databaseName));
+			} catch (MongoCommandException mce) {
+				if (mce.getCode() == 23 && mce.getErrorMessage().contains("sharding already enabled")) {
+					logger.debug("Sharding already enabled: " + databaseName);
+				} else {
+					throw mce;
+				}
 			}
-			String primary = database.getString("primary");
-			String xx = sourceToDestShardMap.get(primary);
-			String mappedPrimary = getAltMapping(primary);
-			logger.debug("database: " + databaseName + ", primary: " + primary + ", mappedPrimary: " + mappedPrimary);
-            if (mappedPrimary == null) {
-                logger.warn("Shard mapping not found for shard " + primary);
-            }
 
-			if (filtered && !includeDatabasesAll.contains(databaseName)) {
-				logger.trace("Database " + databaseName + " filtered, not sharding on destination");
+		}
+
+		// this needs to be the atlas-xxx id
+		String zz = destToSourceShardMap.get(mappedPrimary);
+		MongoClient primaryClient = sourceShardClient.getShardMongoClient(zz);
+		List<String> primaryDatabasesList = new ArrayList<String>();
+		primaryClient.listDatabaseNames().into(primaryDatabasesList);
+		if (!primaryDatabasesList.contains(databaseName)) {
+			logger.debug("Database: " + databaseName + " does not exist on source shard, skipping");
+			return;
+		}
+
+		//dest = destShardClient.getDatabasesCollection().find(new Document("_id", databaseName)).first();
+		
+		//if (dest == null) {
+			destShardClient.createDatabase(databaseName);
+			dest = destShardClient.getDatabasesCollection().find(new Document("_id", databaseName)).first();
+			logger.debug("dest db: " + dest);
+		//}
+		String destPrimary = dest.getString("primary");
+		if (mappedPrimary.equals(destPrimary)) {
+			logger.debug("Primary shard already matches for database: " + databaseName);
+		} else {
+			logger.debug(
+					"movePrimary for database: " + databaseName + " from " + destPrimary + " to " + mappedPrimary);
+			try {
+				destAdminCommandWithRetry(new Document("movePrimary", databaseName).append("to", mappedPrimary));
+			} catch (MongoCommandException mce) {
+				// TODO check if exists on source rather than this
+				logger.warn("movePrimary for database: " + databaseName + " failed. Maybe it doesn't exist?");
+			}
+		}
+	}
+	
+	/**
+	 * Parallel equivalent of enableDestinationSharding() followed by shardDestinationCollections().
+	 * Each database is one unit of work: enableSharding/movePrimary, then shardCollection for each of
+	 * its collections, in the same order as the serial code. Up to ddlThreads databases run at once.
+	 */
+	private void setupDestinationShardingParallel(boolean enableDestinationSharding) throws InterruptedException {
+		logger.debug(String.format("setupDestinationShardingParallel(), ddlThreads: %s", ddlThreads));
+		sourceShardClient.populateShardMongoClients();
+		sourceShardClient.populateCollectionsMap();
+		
+		final Map<String, List<Document>> collectionsByDb = new LinkedHashMap<String, List<Document>>();
+		for (Document sourceColl : sourceShardClient.getCollectionsMap().values()) {
+			Namespace ns = new Namespace((String) sourceColl.get("_id"));
+			if (filterCheck(ns)) {
 				continue;
 			}
-
-			Document dest = destShardClient.getConfigDb().getCollection("databases")
-					.find(new Document("_id", databaseName)).first();
-			if (database.getBoolean("partitioned", true)) {
-				logger.debug(String.format("enableSharding: %s", databaseName));
-				try {
-					destShardClient.adminCommand(new Document("enableSharding", databaseName));
-				} catch (MongoCommandException mce) {
-					if (mce.getCode() == 23 && mce.getErrorMessage().contains("sharding already enabled")) {
-						logger.debug("Sharding already enabled: " + databaseName);
-					} else {
-						throw mce;
+			List<Document> colls = collectionsByDb.get(ns.getDatabaseName());
+			if (colls == null) {
+				colls = new ArrayList<Document>();
+				collectionsByDb.put(ns.getDatabaseName(), colls);
+			}
+			colls.add(sourceColl);
+		}
+		
+		DdlExecutor executor = new DdlExecutor(ddlThreads);
+		ddlExecutor = executor;
+		Set<String> submitted = new HashSet<String>();
+		if (enableDestinationSharding) {
+			for (final Document database : getSourceDatabases()) {
+				final String databaseName = database.getString("_id");
+				submitted.add(databaseName);
+				final List<Document> colls = collectionsByDb.get(databaseName);
+				executor.submit(databaseName, new Runnable() {
+					@Override
+					public void run() {
+						enableDestinationSharding(database);
+						if (colls != null) {
+							shardDestinationCollections(colls);
+						}
 					}
-				}
-
+				});
 			}
-
-			// this needs to be the atlas-xxx id
-			String zz = destToSourceShardMap.get(mappedPrimary);
-			MongoClient primaryClient = sourceShardClient.getShardMongoClient(zz);
-			List<String> primaryDatabasesList = new ArrayList<String>();
-			primaryClient.listDatabaseNames().into(primaryDatabasesList);
-			if (!primaryDatabasesList.contains(databaseName)) {
-				logger.debug("Database: " + databaseName + " does not exist on source shard, skipping");
+		}
+		for (Map.Entry<String, List<Document>> entry : collectionsByDb.entrySet()) {
+			if (submitted.contains(entry.getKey())) {
 				continue;
 			}
-
-			//dest = destShardClient.getDatabasesCollection().find(new Document("_id", databaseName)).first();
-			
-			//if (dest == null) {
-				destShardClient.createDatabase(databaseName);
-				dest = destShardClient.getDatabasesCollection().find(new Document("_id", databaseName)).first();
-				logger.debug("dest db: " + dest);
-			//}
-			String destPrimary = dest.getString("primary");
-			if (mappedPrimary.equals(destPrimary)) {
-				logger.debug("Primary shard already matches for database: " + databaseName);
-			} else {
-				logger.debug(
-						"movePrimary for database: " + databaseName + " from " + destPrimary + " to " + mappedPrimary);
-				try {
-					destShardClient.adminCommand(new Document("movePrimary", databaseName).append("to", mappedPrimary));
-				} catch (MongoCommandException mce) {
-					// TODO check if exists on source rather than this
-					logger.warn("movePrimary for database: " + databaseName + " failed. Maybe it doesn't exist?");
+			final List<Document> colls = entry.getValue();
+			executor.submit(entry.getKey(), new Runnable() {
+				@Override
+				public void run() {
+					shardDestinationCollections(colls);
 				}
-			}
-
+			});
 		}
-		logger.debug("enableDestinationSharding() complete");
+		try {
+			executor.awaitCompletion();
+		} finally {
+			ddlExecutor = null;
+		}
+	}
+	
+	private Document destAdminCommandWithRetry(Document command) {
+		DdlExecutor executor = ddlExecutor;
+		if (executor != null) {
+			return executor.adminCommand(destShardClient, command);
+		}
+		return DdlExecutor.adminCommandWithRetry(destShardClient, command);
 	}
 
 	/**
@@ -1362,21 +1859,37 @@ public class ShardConfigSync implements Callable<Integer> {
 
 	}
 
-	public void cleanupOrphans() {
+	public void cleanupOrphans() throws InterruptedException {
 		logger.debug("cleanupOrphans()");
-		sourceShardClient.populateCollectionsMap();
-		sourceShardClient.populateShardMongoClients();
-		CleanupOrphaned cleaner = new CleanupOrphaned(sourceShardClient);
-		cleaner.cleanupOrphans(cleanupOrphansSleepMillis);
+		cleanupOrphans(sourceShardClient);
 	}
 
-	public void cleanupOrphansDest() {
+	public void cleanupOrphansDest() throws InterruptedException {
 		logger.debug("cleanupOrphansDest()");
-		destShardClient.populateCollectionsMap();
-		destShardClient.populateShardMongoClients();
-		CleanupOrphaned cleaner = new CleanupOrphaned(destShardClient);
+		cleanupOrphans(destShardClient);
+	}
+	
+	private void cleanupOrphans(ShardClient shardClient) throws InterruptedException {
+		shardClient.populateCollectionsMap();
+		// findOrphans populates the shard clients
+		Map<String, Map<Namespace, Long>> orphans = shardClient.findOrphans();
+		if (orphans.isEmpty()) {
+			logger.debug("No orphans found, nothing to clean up");
+			return;
+		}
+		CleanupOrphaned cleaner = new CleanupOrphaned(shardClient);
+		cleaner.setTargets(orphans);
+		cleaner.setThreads(cleanupOrphansThreads);
 		cleaner.cleanupOrphans(cleanupOrphansSleepMillis);
 	}
+	
+	public void findOrphans() throws InterruptedException {
+		sourceShardClient.findOrphans();
+	}
+
+	public void findOrphansDest() throws InterruptedException {
+		destShardClient.findOrphans();
+	}
 
 	public String getSourceClusterUri() {
 		return sourceClusterUri;
@@ -1411,14 +1924,16 @@ public class ShardConfigSync implements Callable<Integer> {
 			return;
 		}
 		filtered = true;
+		namespaceFilter = new NamespaceFilter(namespaceFilterList);
 		for (String nsStr : namespaceFilterList) {
-			if (nsStr.contains(".")) {
+			if (nsStr.contains("*") || nsStr.startsWith("!")) {
+				// patterns and excludes are applied by namespaceFilter, mongomirror only gets exact includes
+				logger.debug(String.format("Namespace filter pattern %s, not passed to mongomirror", nsStr));
+			} else if (nsStr.contains(".")) {
 				Namespace ns = new Namespace(nsStr);
 				includeNamespaces.add(ns);
-				includeDatabasesAll.add(ns.getDatabaseName());
 			} else {
 				includeDatabases.add(nsStr);
-				includeDatabasesAll.add(nsStr);
 			}
 		}
 	}
@@ -1430,6 +1945,7 @@ public class ShardConfigSync implements Callable<Integer> {
 	public void shardToRs() throws ExecuteException, IOException {
 
 		logger.debug("shardToRs() starting");
+		MongoMirrorLauncher launcher = createLauncher();
 
 		for (Shard source : sourceShardClient.getShardsMap().values()) {
 			logger.debug("sourceShard: " + source.getId());
@@ -1498,6 +2014,10 @@ public class ShardConfigSync implements Callable<Integer> {
 			mongomirror.setBookmarkFile(source.getId() + ".timestamp");
 
 			mongomirror.setNumParallelCollections(numParallelCollections);
+			if (launcher != null) {
+				launcher.add(mongomirror);
+				continue;
+			}
 			mongomirror.execute(dryRun);
 			try {
 				Thread.sleep(sleepMillis);
@@ -1506,6 +2026,7 @@ public class ShardConfigSync implements Callable<Integer> {
 				e.printStackTrace();
 			}
 		}
+		launchStaged(launcher);
 
 	}
 	
@@ -1564,6 +2085,7 @@ public class ShardConfigSync implements Callable<Integer> {
 	public void mongomirror() throws ExecuteException, IOException {
 
 		destShardClient.populateShardMongoClients();
+		MongoMirrorLauncher launcher = createLauncher();
 
 		List<MongoMirrorRunner> mongomirrors = new ArrayList<>(sourceShardClient.getShardsMap().size());
 		
@@ -1648,6 +2170,10 @@ public class ShardConfigSync implements Callable<Integer> {
 				mongomirror.setCollStatsThreshold(collStatsThreshold);
 			}
 			
+			if (launcher != null) {
+				launcher.add(mongomirror);
+				continue;
+			}
 			mongomirror.execute(dryRun);
 			
 			try {
@@ -1655,50 +2181,92 @@ public class ShardConfigSync implements Callable<Integer> {
 			} catch (InterruptedException e) {
 			}
 		}
+		launchStaged(launcher);
 		
 		if (dryRun) {
 			return;
 		}
 
+		MongoMirrorTelemetry telemetry = new MongoMirrorTelemetry(mongomirrors, MONGOMIRROR_POLL_MILLIS);
+		telemetry.start();
 		while (true) {
 			try {
-				Thread.sleep(5 * 1000);
+				Thread.sleep(MONGOMIRROR_REPORT_MILLIS);
 			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+				telemetry.stop();
+				Thread.currentThread().interrupt();
+				return;
 			}
+			telemetry.logReport();
+		}
 
-			for (MongoMirrorRunner mongomirror : mongomirrors) {
-				MongoMirrorStatus status = mongomirror.checkStatus();
-				if (status == null) {
-					continue;
-				}
-				if (status.getErrorMessage() != null) {
-					logger.error(
-							String.format("%s - mongomirror error %s", mongomirror.getId(), status.getErrorMessage()));
-				} else if (status.isInitialSync()) {
-					MongoMirrorStatusInitialSync st = (MongoMirrorStatusInitialSync) status;
-					if (st.isCopyingIndexes()) {
-						logger.debug(String.format("%-15s - %-18s %-22s", mongomirror.getId(), status.getStage(),
-								status.getPhase()));
-					} else {
-						double cs = st.getCompletionPercent();
-						logger.debug(String.format("%-15s - %-18s %-22s %6.2f%% complete", mongomirror.getId(),
-								status.getStage(), status.getPhase(), cs));
-					}
-
-				} else if (status.isOplogSync()) {
-					MongoMirrorStatusOplogSync st = (MongoMirrorStatusOplogSync) status;
-					logger.debug(String.format("%-15s - %-18s %-22s %s lag from source", mongomirror.getId(),
-							status.getStage(), status.getPhase(), st.getLagPretty()));
-				} else {
-					logger.debug(String.format("%-15s - %-18s %-22s", mongomirror.getId(), status.getStage(),
-							status.getPhase()));
-				}
+	}
 
-			}
+	private MongoMirrorLauncher createLauncher() {
+		if (mongomirrorWaveSize == null) {
+			return null;
+		}
+		sourceShardClient.populateShardMongoClients();
+		MongoMirrorLauncher launcher = new MongoMirrorLauncher(sourceShardClient.getShardMongoClients());
+		launcher.setWaveSize(mongomirrorWaveSize);
+		if (sleepMillis > 0) {
+			launcher.setSettleMillis(sleepMillis);
+		}
+		if (numParallelCollections != null) {
+			launcher.setMaxParallelCollections(Integer.parseInt(numParallelCollections));
+		}
+		if (mongomirrorMaxReadQueue != null) {
+			launcher.setMaxReadQueue(mongomirrorMaxReadQueue);
+		}
+		if (mongomirrorMaxDiskLatencyMillis != null) {
+			launcher.setMaxDiskLatencyMillis(mongomirrorMaxDiskLatencyMillis);
+		}
+		if (mongomirrorMaxCacheDirty != null) {
+			launcher.setMaxCacheDirty(mongomirrorMaxCacheDirty);
 		}
+		if (mongomirrorMaxCacheFill != null) {
+			launcher.setMaxCacheFill(mongomirrorMaxCacheFill);
+		}
+		if (mongomirrorMaxWaitMinutes != null) {
+			launcher.setMaxWaitMillis(mongomirrorMaxWaitMinutes * 60000L);
+		}
+		return launcher;
+	}
+	
+	private void launchStaged(MongoMirrorLauncher launcher) throws IOException {
+		if (launcher == null) {
+			return;
+		}
+		try {
+			launcher.launch(dryRun);
+		} catch (InterruptedException e) {
+			logger.warn("Staged mongomirror launch interrupted");
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	public void setMongomirrorWaveSize(Integer mongomirrorWaveSize) {
+		this.mongomirrorWaveSize = mongomirrorWaveSize;
+	}
+
+	public void setMongomirrorMaxReadQueue(Integer mongomirrorMaxReadQueue) {
+		this.mongomirrorMaxReadQueue = mongomirrorMaxReadQueue;
+	}
+
+	public void setMongomirrorMaxDiskLatencyMillis(Double mongomirrorMaxDiskLatencyMillis) {
+		this.mongomirrorMaxDiskLatencyMillis = mongomirrorMaxDiskLatencyMillis;
+	}
 
+	public void setMongomirrorMaxCacheDirty(Double mongomirrorMaxCacheDirty) {
+		this.mongomirrorMaxCacheDirty = mongomirrorMaxCacheDirty;
+	}
+
+	public void setMongomirrorMaxCacheFill(Double mongomirrorMaxCacheFill) {
+		this.mongomirrorMaxCacheFill = mongomirrorMaxCacheFill;
+	}
+
+	public void setMongomirrorMaxWaitMinutes(Integer mongomirrorMaxWaitMinutes) {
+		this.mongomirrorMaxWaitMinutes = mongomirrorMaxWaitMinutes;
 	}
 
 	public void setMongomirrorBinary(String binaryPath) {
@@ -1755,6 +2323,10 @@ public class ShardConfigSync implements Callable<Integer> {
 		}
 	}
 	
+	public void setCleanupOrphansThreads(int cleanupOrphansThreads) {
+		this.cleanupOrphansThreads = cleanupOrphansThreads;
+	}
+	
 	public void setMongoMirrorStartPort(int mongoMirrorStartPort) {
 		this.mongoMirrorStartPort = mongoMirrorStartPort;
 	}
@@ -1838,4 +2410,88 @@ public class ShardConfigSync implements Callable<Integer> {
 	public void setShardToRs(boolean shardToRs) {
 		this.shardToRs = shardToRs;
 	}
+
+	public void setIndexBuildsPerShard(int indexBuildsPerShard) {
+		this.indexBuildsPerShard = indexBuildsPerShard;
+	}
+
+	public void setCountThreads(int countThreads) {
+		this.countThreads = countThreads;
+	}
+
+	public void setCountMode(CountMode countMode) {
+		this.countMode = countMode;
+	}
+
+	public void setClientOptions(ShardClientOptions clientOptions) {
+		this.clientOptions = clientOptions;
+	}
+	
+	private void setCatalogOptions() {
+		for (ShardClient client : new ShardClient[] {sourceShardClient, destShardClient}) {
+			client.setCatalogDir(catalogDir);
+			client.setCatalogThreads(catalogThreads);
+		}
+	}
+	
+	public void setCatalogDir(File catalogDir) {
+		this.catalogDir = catalogDir;
+	}
+	
+	public void setCatalogThreads(int catalogThreads) {
+		this.catalogThreads = catalogThreads;
+	}
+	
+	private void enableRouterPools() {
+		if (routerPolicy == null) {
+			return;
+		}
+		sourceShardClient.enableRouterPool(routerPolicy);
+		destShardClient.enableRouterPool(routerPolicy);
+	}
+	
+	/**
+	 * Pre-flight check of the source oplog windows against the estimated initial sync duration.
+	 * 
+	 * @return the source shards where the oplog is expected to roll over during the copy
+	 */
+	public List<String> checkOplogWindows() throws InterruptedException {
+		OplogWindowAnalyzer analyzer = new OplogWindowAnalyzer(sourceShardClient);
+		analyzer.analyze();
+		analyzer.logReport();
+		return analyzer.getAtRiskShards();
+	}
+	
+	public void setRouterPolicy(MongosRouterPool.Policy routerPolicy) {
+		this.routerPolicy = routerPolicy;
+	}
+	
+	public void logRouterStatus() {
+		for (ShardClient client : new ShardClient[] {sourceShardClient, destShardClient}) {
+			if (client != null && client.getRouterPool() != null) {
+				client.getRouterPool().logStatus();
+			}
+		}
+	}
+	
+	public void logCompressionReport() {
+		if (sourceShardClient != null) {
+			sourceShardClient.logCompressionReport();
+		}
+		if (destShardClient != null) {
+			destShardClient.logCompressionReport();
+		}
+	}
+
+	public void setDdlThreads(int ddlThreads) {
+		this.ddlThreads = ddlThreads;
+	}
+
+	public void setConsolidateChunksBytes(long consolidateChunksBytes) {
+		this.consolidateChunksBytes = consolidateChunksBytes;
+	}
+
+	public void setConsolidateChunksCacheFile(String consolidateChunksCacheFile) {
+		this.consolidateChunksCacheFile = consolidateChunksCacheFile;
+	}
 }
@@ -41,18 +41,38 @@ public class ShardConfigSyncApp {
     private final static String PRESERVE_UUIDS = "preserveUUIDs";
     private final static String SKIP_BUILD_INDEXES = "skipBuildIndexes";
     private final static String COMPRESSORS = "compressors";
+    private final static String WIRE_COMPRESSORS = "wireCompressors";
+    private final static String MAX_POOL_SIZE = "maxPoolSize";
+    private final static String MIN_POOL_SIZE = "minPoolSize";
+    private final static String MAX_WAIT_QUEUE_SIZE = "maxWaitQueueSize";
+    private final static String MAX_WAIT_TIME_MS = "maxWaitTimeMS";
+    private final static String SOCKET_TIMEOUT_MS = "socketTimeoutMS";
+    private final static String CONNECT_TIMEOUT_MS = "connectTimeoutMS";
+    private final static String ROUTER_POLICY = "routerPolicy";
+    private final static String CATALOG_DIR = "catalogDir";
+    private final static String CATALOG_THREADS = "catalogThreads";
     private final static String COLL_STATS_THRESHOLD = "collStatsThreshold";
     
     private final static String COLL_COUNTS = "compareCounts";
     private final static String CHUNK_COUNTS = "chunkCounts";
+    private final static String COUNT_THREADS = "countThreads";
+    private final static String COUNT_MODE = "countMode";
     private final static String FLUSH_ROUTER = "flushRouter";
     private final static String SYNC_METADATA = "syncMetadata";
     private final static String COMPARE_CHUNKS = "compareChunks";
+    private final static String COMPARE_CHUNKS_STREAMING = "compareChunksStreaming";
     private final static String COMPARE_COLLECTION_UUIDS = "compareCollectionUuids";
     private final static String DISABLE_SOURCE_AUTOSPLIT = "disableSourceAutosplit";
     private final static String MONGOMIRROR_START_PORT = "mongoMirrorStartPort";
     private final static String OPLOG_BASE_PATH = "oplogBasePath";
     private final static String BOOKMARK_FILE_PREFIX = "bookmarkFilePrefix";
+    private final static String OPLOG_WINDOW_CHECK = "oplogWindowCheck";
+    private final static String MONGOMIRROR_WAVE_SIZE = "mongomirrorWaveSize";
+    private final static String MONGOMIRROR_MAX_CACHE_DIRTY_PCT = "mongomirrorMaxCacheDirtyPct";
+    private final static String MONGOMIRROR_MAX_CACHE_FILL_PCT = "mongomirrorMaxCacheFillPct";
+    private final static String MONGOMIRROR_MAX_READ_QUEUE = "mongomirrorMaxReadQueue";
+    private final static String MONGOMIRROR_MAX_DISK_LATENCY_MS = "mongomirrorMaxDiskLatencyMs";
+    private final static String MONGOMIRROR_MAX_WAIT_MINUTES = "mongomirrorMaxWaitMinutes";
     private final static String SKIP_FLUSH_ROUTER_CONFIG = "skipFlushRouterConfig";
     
     private final static String COMPARE_AND_MOVE_CHUNKS = "compareAndMoveChunks";
@@ -65,13 +85,30 @@ public class ShardConfigSyncApp {
     private final static String CLEANUP_ORPHANS = "cleanupOrphans";
     private final static String CLEANUP_ORPHANS_SLEEP = "cleanupOrphansSleep";
     private final static String CLEANUP_ORPHANS_DEST = "cleanupOrphansDest";
+    private final static String CLEANUP_ORPHANS_THREADS = "cleanupOrphansThreads";
+    private final static String FIND_ORPHANS = "findOrphans";
+    private final static String FIND_ORPHANS_DEST = "findOrphansDest";
     private final static String SYNC_INDEXES = "syncIndexes";
+    private final static String DDL_THREADS = "ddlThreads";
+    private final static String CONSOLIDATE_CHUNKS = "consolidateChunks";
+    private final static String CONSOLIDATE_CHUNKS_CACHE = "consolidateChunksCache";
+    private final static long DEFAULT_CONSOLIDATE_CHUNKS_MB = 32;
     private final static String EXTEND_TTL = "extendTtl";
+    private final static String INDEX_BUILDS_PER_SHARD = "indexBuildsPerShard";
     
     private final static String SSL_ALLOW_INVALID_HOSTNAMES = "sslAllowInvalidHostnames";
     private final static String SSL_ALLOW_INVALID_CERTS = "sslAllowInvalidCertificates";
 
-    private static final String SHARD_MAP = "shardMap";
+    static final String SHARD_MAP = "shardMap";
+    private final static String OPTIMIZE_SHARD_MAP = "optimizeShardMap";
+    
+    private final static String SIMULATE_CHUNKS_FILE = "simulateChunksFile";
+    private final static String SIMULATE_COLLECTIONS_FILE = "simulateCollectionsFile";
+    private final static String SIMULATE_BENCHMARK = "simulateBenchmark";
+    private final static String SIMULATE_SPLIT_MILLIS = "simulateSplitMillis";
+    private final static String SIMULATE_MOVE_CHUNK_MILLIS = "simulateMoveChunkMillis";
+    private final static String SIMULATE_UPSERT_MILLIS = "simulateUpsertMillis";
+    private final static String SIMULATE_SHARD_COLLECTION_MILLIS = "simulateShardCollectionMillis";
     
     @SuppressWarnings("static-access")
     private static CommandLine initializeAndParseCommandLineOptions(String[] args) {
@@ -94,10 +131,16 @@ public class ShardConfigSyncApp {
                 .withLongOpt(COLL_COUNTS).create(COLL_COUNTS));
         options.addOption(OptionBuilder.withArgName("Show chunk counts when collection counts differ")
                 .withLongOpt(CHUNK_COUNTS).create(CHUNK_COUNTS));
+        options.addOption(OptionBuilder.withArgName("Number of concurrent counts for compareCounts (default 8)").hasArg()
+                .withLongOpt(COUNT_THREADS).create(COUNT_THREADS));
+        options.addOption(OptionBuilder.withArgName("compareCounts mode: accurate (default), estimated or shards").hasArg()
+                .withLongOpt(COUNT_MODE).create(COUNT_MODE));
         options.addOption(OptionBuilder.withArgName("Flush router config on all mongos (do not sync/migrate)")
                 .withLongOpt(FLUSH_ROUTER).create(FLUSH_ROUTER));
         options.addOption(OptionBuilder.withArgName("Compare all shard chunks (do not sync/migrate)")
                 .withLongOpt(COMPARE_CHUNKS).create(COMPARE_CHUNKS));
+        options.addOption(OptionBuilder.withArgName("Compare all shard chunks using a streaming merge of both clusters (do not sync/migrate)")
+                .withLongOpt(COMPARE_CHUNKS_STREAMING).create(COMPARE_CHUNKS_STREAMING));
         options.addOption(OptionBuilder.withArgName("Compare all shard chunks, move any misplaced chunks")
                 .withLongOpt(COMPARE_AND_MOVE_CHUNKS).create(COMPARE_AND_MOVE_CHUNKS));
         options.addOption(OptionBuilder.withArgName("Compare all collection UUIDs")
@@ -107,12 +150,46 @@ public class ShardConfigSyncApp {
                 .withLongOpt(SYNC_METADATA).create(SYNC_METADATA));
         options.addOption(OptionBuilder.withArgName("Shard mapping").hasArgs().withLongOpt(SHARD_MAP)
                 .isRequired(false).create("m"));
+        options.addOption(OptionBuilder.withArgName("Propose a size-aware shardMap, optionally writing it to a properties file")
+                .hasOptionalArg().withLongOpt(OPTIMIZE_SHARD_MAP).create(OPTIMIZE_SHARD_MAP));
+        options.addOption(OptionBuilder.withArgName("Number of databases to set up (enableSharding/shardCollection) in parallel on dest").hasArg()
+                .withLongOpt(DDL_THREADS).create(DDL_THREADS));
+        options.addOption(OptionBuilder.withArgName("Merge adjacent small source chunks on the same shard, up to this size in MB (default 32)")
+                .hasOptionalArg().withLongOpt(CONSOLIDATE_CHUNKS).create(CONSOLIDATE_CHUNKS));
+        options.addOption(OptionBuilder.withArgName("File to read/write cached chunk size estimates for consolidateChunks").hasArg()
+                .withLongOpt(CONSOLIDATE_CHUNKS_CACHE).create(CONSOLIDATE_CHUNKS_CACHE));
+        options.addOption(OptionBuilder.withArgName("Wire compressors for all client connections, e.g. zstd,snappy,zlib").hasArg()
+                .withLongOpt(WIRE_COMPRESSORS).create(WIRE_COMPRESSORS));
+        options.addOption(OptionBuilder.withArgName("Connection pool max size, per host").hasArg()
+                .withLongOpt(MAX_POOL_SIZE).create(MAX_POOL_SIZE));
+        options.addOption(OptionBuilder.withArgName("Connection pool min size, per host").hasArg()
+                .withLongOpt(MIN_POOL_SIZE).create(MIN_POOL_SIZE));
+        options.addOption(OptionBuilder.withArgName("Connection pool max wait queue size").hasArg()
+                .withLongOpt(MAX_WAIT_QUEUE_SIZE).create(MAX_WAIT_QUEUE_SIZE));
+        options.addOption(OptionBuilder.withArgName("Max time (ms) to wait for a pooled connection").hasArg()
+                .withLongOpt(MAX_WAIT_TIME_MS).create(MAX_WAIT_TIME_MS));
+        options.addOption(OptionBuilder.withArgName("Socket read timeout (ms)").hasArg()
+                .withLongOpt(SOCKET_TIMEOUT_MS).create(SOCKET_TIMEOUT_MS));
+        options.addOption(OptionBuilder.withArgName("Socket connect timeout (ms)").hasArg()
+                .withLongOpt(CONNECT_TIMEOUT_MS).create(CONNECT_TIMEOUT_MS));
+        options.addOption(OptionBuilder.withArgName("Spread data operations over all mongos: none (default), latency or outstanding").hasArg()
+                .withLongOpt(ROUTER_POLICY).create(ROUTER_POLICY));
+        options.addOption(OptionBuilder.withArgName("Directory for catalog cache files, reused and refreshed incrementally on the next run").hasArg()
+                .withLongOpt(CATALOG_DIR).create(CATALOG_DIR));
+        options.addOption(OptionBuilder.withArgName("Threads used to load the catalog (default 8)").hasArg()
+                .withLongOpt(CATALOG_THREADS).create(CATALOG_THREADS));
         options.addOption(OptionBuilder.withArgName("Disable autosplit on source cluster")
                 .withLongOpt(DISABLE_SOURCE_AUTOSPLIT).create());
         options.addOption(OptionBuilder.withArgName("Cleanup source orphans")
                 .withLongOpt(CLEANUP_ORPHANS).create(CLEANUP_ORPHANS));
         options.addOption(OptionBuilder.withArgName("Cleanup destination orphans")
                 .withLongOpt(CLEANUP_ORPHANS_DEST).create(CLEANUP_ORPHANS_DEST));
+        options.addOption(OptionBuilder.withArgName("Number of shards to cleanup orphans on concurrently (default 4)").hasArg()
+                .withLongOpt(CLEANUP_ORPHANS_THREADS).create(CLEANUP_ORPHANS_THREADS));
+        options.addOption(OptionBuilder.withArgName("Report source orphans by shard and namespace")
+                .withLongOpt(FIND_ORPHANS).create(FIND_ORPHANS));
+        options.addOption(OptionBuilder.withArgName("Report destination orphans by shard and namespace")
+                .withLongOpt(FIND_ORPHANS_DEST).create(FIND_ORPHANS_DEST));
         options.addOption(OptionBuilder.withArgName("cleanup orphans sleep millis").hasArg()
                 .withLongOpt(CLEANUP_ORPHANS_SLEEP).create(CLEANUP_ORPHANS_SLEEP));
         
@@ -124,6 +201,8 @@ public class ShardConfigSyncApp {
                 .withLongOpt(SYNC_INDEXES).create(SYNC_INDEXES));
         options.addOption(OptionBuilder.withArgName("Extend TTL expiration (use with syncIndexes)")
                 .withLongOpt(EXTEND_TTL).create(EXTEND_TTL));
+        options.addOption(OptionBuilder.withArgName("Max concurrent index builds on each dest shard for syncIndexes (default 2)").hasArg()
+                .withLongOpt(INDEX_BUILDS_PER_SHARD).create(INDEX_BUILDS_PER_SHARD));
         options.addOption(OptionBuilder.withArgName("Skip the flushRouterConfig step")
                 .withLongOpt(SKIP_FLUSH_ROUTER_CONFIG).create(SKIP_FLUSH_ROUTER_CONFIG));
         
@@ -164,6 +243,20 @@ public class ShardConfigSyncApp {
                 .withLongOpt(OPLOG_BASE_PATH).create(OPLOG_BASE_PATH));
         options.addOption(OptionBuilder.withArgName("mongomirror bookmark filename prefix").hasArg()
                 .withLongOpt(BOOKMARK_FILE_PREFIX).create());
+        options.addOption(OptionBuilder.withArgName("Check that the source oplog windows outlast the initial sync (pre-flight when combined with --mongomirror)")
+                .withLongOpt(OPLOG_WINDOW_CHECK).create(OPLOG_WINDOW_CHECK));
+        options.addOption(OptionBuilder.withArgName("start mongomirror in waves of this many, gated on source shard load").hasArg()
+                .withLongOpt(MONGOMIRROR_WAVE_SIZE).create());
+        options.addOption(OptionBuilder.withArgName("staged launch max source WiredTiger dirty cache % (default 10)").hasArg()
+                .withLongOpt(MONGOMIRROR_MAX_CACHE_DIRTY_PCT).create());
+        options.addOption(OptionBuilder.withArgName("staged launch max source WiredTiger cache fill %, above the 80% eviction trigger (default 95)").hasArg()
+                .withLongOpt(MONGOMIRROR_MAX_CACHE_FILL_PCT).create());
+        options.addOption(OptionBuilder.withArgName("staged launch max source queued readers (default 10)").hasArg()
+                .withLongOpt(MONGOMIRROR_MAX_READ_QUEUE).create());
+        options.addOption(OptionBuilder.withArgName("staged launch max source disk latency ms (default 20)").hasArg()
+                .withLongOpt(MONGOMIRROR_MAX_DISK_LATENCY_MS).create());
+        options.addOption(OptionBuilder.withArgName("staged launch max minutes a wave waits for its source shards before starting anyway (default 30)").hasArg()
+                .withLongOpt(MONGOMIRROR_MAX_WAIT_MINUTES).create());
         
         
         options.addOption(OptionBuilder.withArgName("Sleep millis").hasArg().withLongOpt("sleepMillis")
@@ -174,6 +267,13 @@ public class ShardConfigSyncApp {
         options.addOption(OptionBuilder.withArgName("shardToRs").withLongOpt("shardToRs")
                 .isRequired(false).create("r"));
         
+        options.addOption(OptionBuilder.withArgName("Offline migration dry run from an exported config.chunks file (no cluster connection)")
+                .hasArg().withLongOpt(SIMULATE_CHUNKS_FILE).create(SIMULATE_CHUNKS_FILE));
+        options.addOption(OptionBuilder.withArgName("Exported config.collections file (use with simulateChunksFile)")
+                .hasArg().withLongOpt(SIMULATE_COLLECTIONS_FILE).create(SIMULATE_COLLECTIONS_FILE));
+        options.addOption(OptionBuilder.withArgName("Benchmark the migration planner with a synthetic chunk count")
+                .hasArg().withLongOpt(SIMULATE_BENCHMARK).create(SIMULATE_BENCHMARK));
+        
         options.addOption(OptionBuilder.withArgName("diffShardKeys [sync|diff]").withLongOpt("diffShardKeys")
                 .isRequired(false).hasArg().create("k"));
         
@@ -226,12 +326,60 @@ public class ShardConfigSyncApp {
         return defaultConfig;
     }
 
+    private static void simulate(CommandLine line, Configuration config) throws Exception {
+        String shardMaps = config.getString(SHARD_MAP);
+        String[] shardMap = shardMaps != null ? shardMaps.split(",") : line.getOptionValues("m");
+        
+        MetadataMigrationSimulator simulator = new MetadataMigrationSimulator(shardMap);
+        simulator.setNonPrivilegedMode(line.hasOption(NON_PRIVILEGED) || config.getBoolean(NON_PRIVILEGED, false));
+        simulator.setSplitMillis(config.getLong(SIMULATE_SPLIT_MILLIS, 50));
+        simulator.setMoveChunkMillis(config.getLong(SIMULATE_MOVE_CHUNK_MILLIS, 1500));
+        simulator.setUpsertMillis(config.getLong(SIMULATE_UPSERT_MILLIS, 2));
+        simulator.setShardCollectionMillis(config.getLong(SIMULATE_SHARD_COLLECTION_MILLIS, 500));
+        
+        if (line.hasOption(SIMULATE_BENCHMARK)) {
+            int numChunks = Integer.parseInt(line.getOptionValue(SIMULATE_BENCHMARK));
+            int numNamespaces = Math.max(1, numChunks / 1000);
+            simulator.benchmark(numChunks, numNamespaces, 4);
+            return;
+        }
+        
+        if (line.hasOption(SIMULATE_COLLECTIONS_FILE)) {
+            simulator.loadCollections(new File(line.getOptionValue(SIMULATE_COLLECTIONS_FILE)));
+        }
+        simulator.loadChunks(new File(line.getOptionValue(SIMULATE_CHUNKS_FILE)));
+        simulator.report();
+    }
+
+    private static Integer getInteger(CommandLine line, Configuration config, String key) {
+        String value = line.getOptionValue(key, config.getString(key));
+        return value == null ? null : Integer.valueOf(value);
+    }
+    
+    private static ShardClientOptions getClientOptions(CommandLine line, Configuration config) {
+        ShardClientOptions clientOptions = new ShardClientOptions();
+        clientOptions.setCompressors(line.getOptionValue(WIRE_COMPRESSORS, config.getString(WIRE_COMPRESSORS)));
+        clientOptions.setMaxPoolSize(getInteger(line, config, MAX_POOL_SIZE));
+        clientOptions.setMinPoolSize(getInteger(line, config, MIN_POOL_SIZE));
+        clientOptions.setMaxWaitQueueSize(getInteger(line, config, MAX_WAIT_QUEUE_SIZE));
+        Integer maxWaitTime = getInteger(line, config, MAX_WAIT_TIME_MS);
+        clientOptions.setMaxWaitTimeMillis(maxWaitTime == null ? null : maxWaitTime.longValue());
+        clientOptions.setSocketTimeoutMillis(getInteger(line, config, SOCKET_TIMEOUT_MS));
+        clientOptions.setConnectTimeoutMillis(getInteger(line, config, CONNECT_TIMEOUT_MS));
+        return clientOptions;
+    }
+    
     public static void main(String[] args) throws Exception {
         CommandLine line = initializeAndParseCommandLineOptions(args);
         
         
         Configuration config = readProperties();
         
+        if (line.hasOption(SIMULATE_CHUNKS_FILE) || line.hasOption(SIMULATE_BENCHMARK)) {
+            simulate(line, config);
+            return;
+        }
+        
         ShardConfigSync sync = new ShardConfigSync();
         sync.setSourceClusterUri(line.getOptionValue("s", config.getString(SOURCE_URI)));
         sync.setDestClusterUri(line.getOptionValue("d", config.getString(DEST_URI)));
@@ -259,6 +407,19 @@ public class ShardConfigSyncApp {
         }
         
         sync.setNamespaceFilters(line.getOptionValues("f"));
+        sync.setClientOptions(getClientOptions(line, config));
+        String catalogDir = line.getOptionValue(CATALOG_DIR, config.getString(CATALOG_DIR));
+        if (catalogDir != null) {
+            File dir = new File(catalogDir);
+            dir.mkdirs();
+            sync.setCatalogDir(dir);
+        }
+        Integer catalogThreads = getInteger(line, config, CATALOG_THREADS);
+        if (catalogThreads != null) {
+            sync.setCatalogThreads(catalogThreads);
+        }
+        sync.setRouterPolicy(MongosRouterPool.parsePolicy(line.getOptionValue(ROUTER_POLICY,
+                config.getString(ROUTER_POLICY, MongosRouterPool.DEFAULT_POLICY))));
         
         boolean nonPrivilegedMode = line.hasOption(NON_PRIVILEGED) || config.getBoolean(NON_PRIVILEGED, false);
         sync.setNonPrivilegedMode(nonPrivilegedMode);
@@ -267,6 +428,21 @@ public class ShardConfigSyncApp {
         sync.setDropDestDbsAndConfigMetadata(line.hasOption(DROP_DEST_DBS_AND_CONFIG_METADATA));
         sync.setSleepMillis(line.getOptionValue("x"));
         sync.setNumParallelCollections(line.getOptionValue("y"));
+        sync.setMongomirrorWaveSize(getInteger(line, config, MONGOMIRROR_WAVE_SIZE));
+        sync.setMongomirrorMaxReadQueue(getInteger(line, config, MONGOMIRROR_MAX_READ_QUEUE));
+        sync.setMongomirrorMaxWaitMinutes(getInteger(line, config, MONGOMIRROR_MAX_WAIT_MINUTES));
+        String maxDirtyPct = line.getOptionValue(MONGOMIRROR_MAX_CACHE_DIRTY_PCT, config.getString(MONGOMIRROR_MAX_CACHE_DIRTY_PCT));
+        if (maxDirtyPct != null) {
+            sync.setMongomirrorMaxCacheDirty(Double.parseDouble(maxDirtyPct) / 100.0);
+        }
+        String maxFillPct = line.getOptionValue(MONGOMIRROR_MAX_CACHE_FILL_PCT, config.getString(MONGOMIRROR_MAX_CACHE_FILL_PCT));
+        if (maxFillPct != null) {
+            sync.setMongomirrorMaxCacheFill(Double.parseDouble(maxFillPct) / 100.0);
+        }
+        String maxDiskLatency = line.getOptionValue(MONGOMIRROR_MAX_DISK_LATENCY_MS, config.getString(MONGOMIRROR_MAX_DISK_LATENCY_MS));
+        if (maxDiskLatency != null) {
+            sync.setMongomirrorMaxDiskLatencyMillis(Double.parseDouble(maxDiskLatency));
+        }
         sync.setWriteConcern(line.getOptionValue("w"));
         sync.setDryRun(line.hasOption(DRY_RUN));
         
@@ -281,11 +457,47 @@ public class ShardConfigSyncApp {
         	sync.setShardToRs(true);
         }
         
+        String cleanupOrphansThreads = line.getOptionValue(CLEANUP_ORPHANS_THREADS, config.getString(CLEANUP_ORPHANS_THREADS));
+        if (cleanupOrphansThreads != null) {
+        	sync.setCleanupOrphansThreads(Integer.parseInt(cleanupOrphansThreads));
+        }
+        
+        if (line.hasOption(DDL_THREADS)) {
+        	sync.setDdlThreads(Integer.parseInt(line.getOptionValue(DDL_THREADS)));
+        } else if (config.getProperty(DDL_THREADS) != null) {
+        	sync.setDdlThreads(config.getInt(DDL_THREADS));
+        }
+        
+        if (line.hasOption(CONSOLIDATE_CHUNKS)) {
+        	long mb = Long.parseLong(line.getOptionValue(CONSOLIDATE_CHUNKS, String.valueOf(DEFAULT_CONSOLIDATE_CHUNKS_MB)));
+        	sync.setConsolidateChunksBytes(mb * 1024 * 1024);
+        } else if (config.getProperty(CONSOLIDATE_CHUNKS) != null) {
+        	sync.setConsolidateChunksBytes(config.getLong(CONSOLIDATE_CHUNKS) * 1024 * 1024);
+        }
+        sync.setConsolidateChunksCacheFile(line.getOptionValue(CONSOLIDATE_CHUNKS_CACHE, config.getString(CONSOLIDATE_CHUNKS_CACHE)));
+        
+        if (line.hasOption(OPTIMIZE_SHARD_MAP)) {
+            sync.optimizeShardMap(line.getOptionValue(OPTIMIZE_SHARD_MAP));
+            return;
+        }
+        
         sync.initializeShardMappings();
         boolean actionFound = false;
+        if (line.hasOption(OPLOG_WINDOW_CHECK)) {
+            actionFound = true;
+            sync.checkOplogWindows();
+        }
         if (line.hasOption(COLL_COUNTS)) {
             actionFound = true;
             sync.setDoChunkCounts(line.hasOption(CHUNK_COUNTS));
+            String countThreads = line.getOptionValue(COUNT_THREADS, config.getString(COUNT_THREADS));
+            if (countThreads != null) {
+                sync.setCountThreads(Integer.parseInt(countThreads));
+            }
+            String countMode = line.getOptionValue(COUNT_MODE, config.getString(COUNT_MODE));
+            if (countMode != null) {
+                sync.setCountMode(CountMode.valueOf(countMode.toUpperCase()));
+            }
             sync.compareShardCounts();
         } else if (line.hasOption(FLUSH_ROUTER)) {
             actionFound = true;
@@ -296,6 +508,9 @@ public class ShardConfigSyncApp {
         } else if (line.hasOption(COMPARE_CHUNKS)) {
             actionFound = true;
             sync.compareChunks();
+        } else if (line.hasOption(COMPARE_CHUNKS_STREAMING)) {
+            actionFound = true;
+            sync.compareChunksStreaming();
         } else if (line.hasOption(COMPARE_AND_MOVE_CHUNKS)) {
             actionFound = true;
             if (nonPrivilegedMode) {
@@ -319,6 +534,10 @@ public class ShardConfigSyncApp {
         } else if (line.hasOption(SYNC_INDEXES)) {
             actionFound = true;
             boolean extendTtl = line.hasOption(EXTEND_TTL);
+            String indexBuildsPerShard = line.getOptionValue(INDEX_BUILDS_PER_SHARD, config.getString(INDEX_BUILDS_PER_SHARD));
+            if (indexBuildsPerShard != null) {
+                sync.setIndexBuildsPerShard(Integer.parseInt(indexBuildsPerShard));
+            }
             sync.syncIndexesShards(true, extendTtl);
         }  else if (line.hasOption("z")) {
             actionFound = true;
@@ -335,6 +554,12 @@ public class ShardConfigSyncApp {
         }  else if (line.hasOption(CLEANUP_ORPHANS_DEST)) {
             actionFound = true;
             sync.cleanupOrphansDest();
+        }  else if (line.hasOption(FIND_ORPHANS)) {
+            actionFound = true;
+            sync.findOrphans();
+        }  else if (line.hasOption(FIND_ORPHANS_DEST)) {
+            actionFound = true;
+            sync.findOrphansDest();
         } else if (line.hasOption(DROP_DEST_DBS)) {
             actionFound = true;
             sync.dropDestinationDatabases();
@@ -401,6 +626,9 @@ public class ShardConfigSyncApp {
             printHelpAndExit();
         }
         
+        sync.logCompressionReport();
+        sync.logRouterStatus();
+        
         // String[] fileNames = line.getOptionValues("f");
         // client.setEndpointUrl(line.getOptionValue("u"));
 
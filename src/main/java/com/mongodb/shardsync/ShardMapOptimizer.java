@@ -0,0 +1,198 @@
+package com.mongodb.shardsync;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Proposes a source to destination shard mapping (the shardMap option) based on the data
+ * size of each source shard. Each source shard is mapped to exactly one dest shard (mongomirror
+ * copies a whole shard), so when there are more source shards than dest shards several source
+ * shards are merged onto the same dest shard.
+ *
+ * Assignment is "largest first onto the least loaded dest shard", followed by pairwise swaps/moves
+ * while they reduce the spread between the most and least loaded dest shards. The data the
+ * balancer would still have to move afterwards is reported as the sum of the load above the mean.
+ */
+public class ShardMapOptimizer {
+
+	private static Logger logger = LoggerFactory.getLogger(ShardMapOptimizer.class);
+
+	private final Map<String, Long> sourceSizes;
+	private final Map<String, Long> destSizes;
+
+	private Map<String, String> mapping;
+	private Map<String, Long> destLoad;
+
+	/**
+	 * @param sourceSizes data size in bytes by source shard id
+	 * @param destSizes   data size already present, by dest shard id (usually 0)
+	 */
+	public ShardMapOptimizer(Map<String, Long> sourceSizes, Map<String, Long> destSizes) {
+		this.sourceSizes = sourceSizes;
+		this.destSizes = destSizes;
+	}
+
+	public Map<String, String> optimize() {
+		if (destSizes.isEmpty()) {
+			throw new IllegalArgumentException("No destination shards");
+		}
+		mapping = new TreeMap<String, String>();
+		destLoad = new LinkedHashMap<String, Long>(destSizes);
+
+		List<String> sources = new ArrayList<String>(sourceSizes.keySet());
+		Collections.sort(sources, new Comparator<String>() {
+			@Override
+			public int compare(String s1, String s2) {
+				return Long.compare(sourceSizes.get(s2), sourceSizes.get(s1));
+			}
+		});
+
+		for (String source : sources) {
+			String target = leastLoaded();
+			mapping.put(source, target);
+			destLoad.put(target, destLoad.get(target) + sourceSizes.get(source));
+		}
+
+		boolean improved = true;
+		while (improved) {
+			improved = improve();
+		}
+		return mapping;
+	}
+
+	private String leastLoaded() {
+		String result = null;
+		for (Map.Entry<String, Long> entry : destLoad.entrySet()) {
+			if (result == null || entry.getValue() < destLoad.get(result)) {
+				result = entry.getKey();
+			}
+		}
+		return result;
+	}
+
+	private String mostLoaded() {
+		String result = null;
+		for (Map.Entry<String, Long> entry : destLoad.entrySet()) {
+			if (result == null || entry.getValue() > destLoad.get(result)) {
+				result = entry.getKey();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Try moving one source shard off the most loaded dest shard, or swapping it with a smaller
+	 * source shard on the least loaded dest shard. Applies the first change that narrows the gap.
+	 */
+	private boolean improve() {
+		String max = mostLoaded();
+		String min = leastLoaded();
+		long gap = destLoad.get(max) - destLoad.get(min);
+		if (gap == 0) {
+			return false;
+		}
+		for (Map.Entry<String, String> a : mapping.entrySet()) {
+			if (!a.getValue().equals(max)) {
+				continue;
+			}
+			long sizeA = sourceSizes.get(a.getKey());
+			if (sizeA > 0 && sizeA < gap) {
+				mapping.put(a.getKey(), min);
+				destLoad.put(max, destLoad.get(max) - sizeA);
+				destLoad.put(min, destLoad.get(min) + sizeA);
+				return true;
+			}
+			for (Map.Entry<String, String> b : mapping.entrySet()) {
+				if (!b.getValue().equals(min)) {
+					continue;
+				}
+				long delta = sizeA - sourceSizes.get(b.getKey());
+				if (delta > 0 && delta < gap) {
+					mapping.put(a.getKey(), min);
+					mapping.put(b.getKey(), max);
+					destLoad.put(max, destLoad.get(max) - delta);
+					destLoad.put(min, destLoad.get(min) + delta);
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Bytes the balancer would need to move after the migration to level all dest shards.
+	 */
+	public long getRebalanceBytes() {
+		long total = 0;
+		for (Long load : destLoad.values()) {
+			total += load;
+		}
+		double mean = (double) total / destLoad.size();
+		long excess = 0;
+		for (Long load : destLoad.values()) {
+			if (load > mean) {
+				excess += load - mean;
+			}
+		}
+		return excess;
+	}
+
+	public Map<String, Long> getDestLoad() {
+		return destLoad;
+	}
+
+	/**
+	 * @return the mapping in the format of the shardMap property, e.g. sh_0|shard_A,sh_1|shard_A
+	 */
+	public String getShardMapProperty() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, String> entry : mapping.entrySet()) {
+			if (sb.length() > 0) {
+				sb.append(",");
+			}
+			sb.append(entry.getKey()).append("|").append(entry.getValue());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the mapping as command line arguments, e.g. -m sh_0|shard_A -m sh_1|shard_A
+	 */
+	public String getShardMapArgs() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, String> entry : mapping.entrySet()) {
+			if (sb.length() > 0) {
+				sb.append(" ");
+			}
+			sb.append("-m '").append(entry.getKey()).append("|").append(entry.getValue()).append("'");
+		}
+		return sb.toString();
+	}
+
+	public void logReport() {
+		for (Map.Entry<String, String> entry : mapping.entrySet()) {
+			logger.debug(String.format("%-20s ==> %-20s %,d bytes", entry.getKey(), entry.getValue(),
+					sourceSizes.get(entry.getKey())));
+		}
+		for (Map.Entry<String, Long> entry : destLoad.entrySet()) {
+			logger.debug(String.format("dest %-20s projected size: %,d bytes", entry.getKey(), entry.getValue()));
+		}
+		String max = mostLoaded();
+		String min = leastLoaded();
+		logger.debug(String.format("projected imbalance (max - min): %,d bytes, balancer data to move: %,d bytes",
+				destLoad.get(max) - destLoad.get(min), getRebalanceBytes()));
+		if (sourceSizes.size() < destSizes.size()) {
+			logger.warn(String.format("Fewer source shards (%s) than dest shards (%s), some dest shards will only be filled by the balancer",
+					sourceSizes.size(), destSizes.size()));
+		}
+	}
+
+}
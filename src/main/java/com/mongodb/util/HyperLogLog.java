@@ -0,0 +1,57 @@
+package com.mongodb.util;
+
+/**
+ * Cardinality estimate over 64 bit hashes in fixed memory (2^precision one byte registers),
+ * with linear counting for small cardinalities. The standard error is about
+ * 1.04 / sqrt(2^precision), 0.8% with the default precision of 14.
+ *
+ * The hashes must already be well distributed, e.g. {@link com.mongodb.util.bson.BsonHasher}.
+ */
+public class HyperLogLog {
+
+	public final static int DEFAULT_PRECISION = 14;
+
+	private final int precision;
+	private final byte[] registers;
+
+	public HyperLogLog() {
+		this(DEFAULT_PRECISION);
+	}
+
+	public HyperLogLog(int precision) {
+		if (precision < 4 || precision > 18) {
+			throw new IllegalArgumentException("precision must be between 4 and 18");
+		}
+		this.precision = precision;
+		this.registers = new byte[1 << precision];
+	}
+
+	public void add(long hash) {
+		int index = (int) (hash >>> (64 - precision));
+		// rank of the first 1 bit in the remaining bits, the sentinel bit bounds it
+		long rest = (hash << precision) | (1L << (precision - 1));
+		byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+		if (rank > registers[index]) {
+			registers[index] = rank;
+		}
+	}
+
+	public long estimate() {
+		int m = registers.length;
+		double sum = 0;
+		int zeros = 0;
+		for (byte r : registers) {
+			sum += 1.0 / (1L << r);
+			if (r == 0) {
+				zeros++;
+			}
+		}
+		double alpha = 0.7213 / (1 + 1.079 / m);
+		double estimate = alpha * m * m / sum;
+		if (estimate <= 2.5 * m && zeros > 0) {
+			estimate = m * Math.log((double) m / zeros);
+		}
+		return Math.round(estimate);
+	}
+
+}
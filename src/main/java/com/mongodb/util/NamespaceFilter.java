@@ -0,0 +1,333 @@
+package com.mongodb.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+
+/**
+ * Namespace include/exclude filter, compiled once and shared by the sync and oplog tools.
+ *
+ * Each entry is one of:
+ * <ul>
+ * <li><code>db</code> - every collection in the database</li>
+ * <li><code>db.coll</code> - a single namespace</li>
+ * <li>a pattern with <code>*</code> wildcards, e.g. <code>db.tenant_*</code> or <code>*.users</code></li>
+ * </ul>
+ * Entries starting with <code>!</code> are excludes. With no includes everything not excluded
+ * matches.
+ *
+ * Exact namespaces are a hash lookup. Databases and trailing-wildcard patterns become prefixes,
+ * reduced to a prefix-free sorted array so a single binary search decides a match, and leading
+ * wildcard patterns become suffixes. Only other wildcard patterns fall back to one combined
+ * regex. {@link #toQuery(String)} returns the same filter as a query on the namespace field, so
+ * it can be applied to config.chunks on the server. Oplog queries use {@link #toOplogQuery()},
+ * which also lets through the command entries (db.$cmd, including transactions as admin.$cmd
+ * applyOps) that {@link #matchesOplogEntry(BsonDocument)} then checks client side.
+ */
+public class NamespaceFilter {
+
+	private final static String COMMAND_SUFFIX = ".$cmd";
+	private final static String ADMIN_COMMAND_NS = "admin" + COMMAND_SUFFIX;
+	// commands logged as {command: <collection name>, ...}
+	private final static Set<String> COLLECTION_COMMANDS = new HashSet<String>(
+			Arrays.asList("create", "drop", "collMod", "createIndexes", "dropIndexes", "deleteIndexes", "emptycapped"));
+
+	private final Matcher includes;
+	private final Matcher excludes;
+
+	private static class Matcher {
+		private final Set<String> namespaces = new HashSet<String>();
+		private final String[] prefixes;
+		private final String[] suffixes;
+		private final Pattern pattern;
+		private final List<String> regexes = new ArrayList<String>();
+
+		Matcher(List<String> entries) {
+			TreeSet<String> prefixSet = new TreeSet<String>();
+			List<String> suffixList = new ArrayList<String>();
+			for (String entry : entries) {
+				int star = entry.indexOf('*');
+				if (star < 0) {
+					if (entry.indexOf('.') < 0) {
+						prefixSet.add(entry + ".");
+					} else {
+						namespaces.add(entry);
+					}
+				} else if (star == entry.length() - 1) {
+					prefixSet.add(entry.substring(0, star));
+				} else if (star == 0 && entry.indexOf('*', 1) < 0) {
+					suffixList.add(entry.substring(1));
+				} else {
+					regexes.add(globToRegex(entry));
+				}
+			}
+			// drop prefixes covered by a shorter one, see matchesPrefix()
+			List<String> reduced = new ArrayList<String>();
+			for (String prefix : prefixSet) {
+				if (reduced.isEmpty() || !prefix.startsWith(reduced.get(reduced.size() - 1))) {
+					reduced.add(prefix);
+				}
+			}
+			prefixes = reduced.toArray(new String[0]);
+			suffixes = suffixList.toArray(new String[0]);
+			if (regexes.isEmpty()) {
+				pattern = null;
+			} else {
+				StringBuilder sb = new StringBuilder();
+				for (String regex : regexes) {
+					if (sb.length() > 0) {
+						sb.append('|');
+					}
+					sb.append("(?:").append(regex).append(')');
+				}
+				pattern = Pattern.compile(sb.toString());
+			}
+		}
+
+		boolean isEmpty() {
+			return namespaces.isEmpty() && prefixes.length == 0 && suffixes.length == 0 && pattern == null;
+		}
+
+		boolean matches(String ns) {
+			return namespaces.contains(ns) || matchesPrefix(ns) || matchesSuffix(ns)
+					|| (pattern != null && pattern.matcher(ns).matches());
+		}
+
+		private boolean matchesSuffix(String ns) {
+			for (String suffix : suffixes) {
+				if (ns.endsWith(suffix)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		// prefixes are sorted and prefix-free, so if any prefix matches it is the greatest
+		// prefix <= ns
+		private boolean matchesPrefix(String ns) {
+			if (prefixes.length == 0) {
+				return false;
+			}
+			int i = Arrays.binarySearch(prefixes, ns);
+			if (i >= 0) {
+				return true;
+			}
+			int floor = -i - 2;
+			return floor >= 0 && ns.startsWith(prefixes[floor]);
+		}
+
+		boolean mayMatchDatabase(String dbName) {
+			String dbPrefix = dbName + ".";
+			for (String ns : namespaces) {
+				if (ns.startsWith(dbPrefix)) {
+					return true;
+				}
+			}
+			for (String prefix : prefixes) {
+				if (prefix.startsWith(dbPrefix) || dbPrefix.startsWith(prefix)) {
+					return true;
+				}
+			}
+			return suffixes.length > 0 || pattern != null;
+		}
+
+		boolean matchesDatabase(String dbName) {
+			return matchesPrefix(dbName + ".");
+		}
+
+		/**
+		 * @return the databases entries can match, null when a wildcard spans database names
+		 */
+		Set<String> getDatabaseNames() {
+			if (suffixes.length > 0 || pattern != null) {
+				return null;
+			}
+			Set<String> dbNames = new TreeSet<String>();
+			for (String ns : namespaces) {
+				dbNames.add(ns.substring(0, ns.indexOf('.')));
+			}
+			for (String prefix : prefixes) {
+				int dot = prefix.indexOf('.');
+				if (dot < 0) {
+					return null;
+				}
+				dbNames.add(prefix.substring(0, dot));
+			}
+			return dbNames;
+		}
+
+		List<Document> toClauses(String field) {
+			List<Document> clauses = new ArrayList<Document>();
+			if (!namespaces.isEmpty()) {
+				clauses.add(new Document(field, new Document("$in", new ArrayList<String>(namespaces))));
+			}
+			// anchored literal prefixes can use an index on the field
+			for (String prefix : prefixes) {
+				clauses.add(new Document(field, new Document("$regex", "^" + escape(prefix))));
+			}
+			for (String suffix : suffixes) {
+				clauses.add(new Document(field, new Document("$regex", escape(suffix) + "$")));
+			}
+			for (String regex : regexes) {
+				clauses.add(new Document(field, new Document("$regex", "^" + regex + "$")));
+			}
+			return clauses;
+		}
+	}
+
+	public NamespaceFilter(String... entries) {
+		this(entries == null ? new ArrayList<String>() : Arrays.asList(entries));
+	}
+
+	public NamespaceFilter(List<String> entries) {
+		List<String> includeEntries = new ArrayList<String>();
+		List<String> excludeEntries = new ArrayList<String>();
+		for (String entry : entries) {
+			entry = entry.trim();
+			if (entry.isEmpty()) {
+				continue;
+			}
+			if (entry.startsWith("!")) {
+				excludeEntries.add(entry.substring(1));
+			} else {
+				includeEntries.add(entry);
+			}
+		}
+		includes = new Matcher(includeEntries);
+		excludes = new Matcher(excludeEntries);
+	}
+
+	public boolean isEmpty() {
+		return includes.isEmpty() && excludes.isEmpty();
+	}
+
+	public boolean matches(String ns) {
+		if (!excludes.isEmpty() && excludes.matches(ns)) {
+			return false;
+		}
+		return includes.isEmpty() || includes.matches(ns);
+	}
+
+	/**
+	 * @return false only when no namespace in dbName can match
+	 */
+	public boolean mayMatchDatabase(String dbName) {
+		if (excludes.matchesDatabase(dbName)) {
+			return false;
+		}
+		return includes.isEmpty() || includes.mayMatchDatabase(dbName);
+	}
+
+	/**
+	 * The filter as a query on a namespace field, e.g. "ns" for config.chunks and the oplog or
+	 * "_id" for config.collections. Empty when nothing is filtered.
+	 */
+	public Document toQuery(String field) {
+		List<Document> and = new ArrayList<Document>();
+		List<Document> includeClauses = includes.toClauses(field);
+		if (includeClauses.size() == 1) {
+			and.add(includeClauses.get(0));
+		} else if (includeClauses.size() > 1) {
+			and.add(new Document("$or", includeClauses));
+		}
+		List<Document> excludeClauses = excludes.toClauses(field);
+		if (!excludeClauses.isEmpty()) {
+			and.add(new Document("$nor", excludeClauses));
+		}
+		if (and.isEmpty()) {
+			return new Document();
+		} else if (and.size() == 1) {
+			return and.get(0);
+		}
+		return new Document("$and", and);
+	}
+
+	/**
+	 * {@link #toQuery(String)} on the oplog ns field, widened to the command entries of the
+	 * databases the filter can match and admin.$cmd, where transactions (applyOps) are logged.
+	 * Those entries need the client side {@link #matchesOplogEntry(BsonDocument)} check.
+	 */
+	public Document toOplogQuery() {
+		if (isEmpty()) {
+			return new Document();
+		}
+		Document commands;
+		Set<String> dbNames = includes.isEmpty() ? null : includes.getDatabaseNames();
+		if (dbNames == null) {
+			commands = new Document("ns", new Document("$regex", escape(COMMAND_SUFFIX) + "$"));
+		} else {
+			List<String> commandNamespaces = new ArrayList<String>();
+			commandNamespaces.add(ADMIN_COMMAND_NS);
+			for (String dbName : dbNames) {
+				commandNamespaces.add(dbName + COMMAND_SUFFIX);
+			}
+			commands = new Document("ns", new Document("$in", commandNamespaces));
+		}
+		return new Document("$or", Arrays.asList(toQuery("ns"), commands));
+	}
+
+	/**
+	 * Whether an oplog entry touches a matching namespace. CRUD entries match on ns, commands on
+	 * the collection they act on (create, drop, collMod, index builds and renames, to or from),
+	 * dropDatabase and other commands on the database, and applyOps when any of its operations
+	 * match.
+	 */
+	public boolean matchesOplogEntry(BsonDocument entry) {
+		String ns = entry.getString("ns").getValue();
+		if (!ns.endsWith(COMMAND_SUFFIX)) {
+			return matches(ns);
+		}
+		BsonDocument o = entry.getDocument("o", null);
+		if (o == null || o.isEmpty()) {
+			return false;
+		}
+		String dbName = ns.substring(0, ns.length() - COMMAND_SUFFIX.length());
+		String command = o.getFirstKey();
+		BsonValue arg = o.get(command);
+		if (command.equals("applyOps")) {
+			for (BsonValue op : arg.asArray()) {
+				if (op.isDocument() && matchesOplogEntry(op.asDocument())) {
+					return true;
+				}
+			}
+			return false;
+		} else if (command.equals("renameCollection")) {
+			return matches(arg.asString().getValue()) || matches(o.getString("to").getValue());
+		} else if (arg.isString() && COLLECTION_COMMANDS.contains(command)) {
+			return matches(dbName + "." + arg.asString().getValue());
+		}
+		return mayMatchDatabase(dbName);
+	}
+
+	private static String globToRegex(String glob) {
+		StringBuilder sb = new StringBuilder();
+		String[] parts = glob.split("\\*", -1);
+		for (int i = 0; i < parts.length; i++) {
+			if (i > 0) {
+				sb.append(".*");
+			}
+			sb.append(escape(parts[i]));
+		}
+		return sb.toString();
+	}
+
+	private static String escape(String literal) {
+		StringBuilder sb = new StringBuilder();
+		for (char c : literal.toCharArray()) {
+			if ("\\.^$|?*+()[]{}".indexOf(c) >= 0) {
+				sb.append('\\');
+			}
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+
+}
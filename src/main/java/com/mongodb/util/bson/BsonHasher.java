@@ -0,0 +1,280 @@
+package com.mongodb.util.bson;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.bson.BsonBinary;
+import org.bson.BsonBinarySubType;
+import org.bson.BsonDbPointer;
+import org.bson.BsonDocument;
+import org.bson.BsonInt64;
+import org.bson.BsonJavaScriptWithScope;
+import org.bson.BsonRegularExpression;
+import org.bson.BsonValue;
+import org.bson.types.Decimal128;
+
+/**
+ * Client side implementation of the server's hashed index key function
+ * (BSONElementHasher::hash64), i.e. the value stored in a hashed index and used as the
+ * hashed shard key.
+ *
+ * The hash is the first 8 bytes (little endian) of the MD5 of the seed followed by, for the value:
+ * <ul>
+ * <li>its canonical type as a little endian int32, see {@link BsonValueComparator#canonicalType}</li>
+ * <li>for numbers, the value as a little endian int64 (safeNumberLongForHash): int32 and int64
+ * exactly, doubles and decimals in the double range converted to a double and truncated the way
+ * an x86 cast does (NaN and out of range values are Long.MIN_VALUE), so equal numbers of
+ * different types hash the same</li>
+ * <li>for decimals beyond the double range, the low and high 64 bits (little endian) of the
+ * decimal normalized to 34 digits, so all representations of the value hash the same</li>
+ * <li>for documents and arrays, each element as canonical type, field name (array index) with
+ * its terminating NUL, then its value, followed by the terminating EOO element (canonical type
+ * 0 only, it has no field name)</li>
+ * <li>for everything else, the raw BSON value bytes</li>
+ * </ul>
+ */
+public class BsonHasher {
+
+    public final static int DEFAULT_SEED = 0;
+
+    private final static int DECIMAL_DIGITS = 34;
+    // Double.MAX_VALUE rounded toward zero to 34 digits, the server's limit for hashing as a double
+    private final static BigDecimal DECIMAL_DOUBLE_MAX = new BigDecimal(Double.MAX_VALUE)
+            .round(new MathContext(DECIMAL_DIGITS, RoundingMode.DOWN));
+    private final static double LONG_MAX_PLUS_ONE = 0x1p63;
+
+    private final static ThreadLocal<BsonHasher> hashers = new ThreadLocal<BsonHasher>() {
+        @Override
+        protected BsonHasher initialValue() {
+            return new BsonHasher();
+        }
+    };
+
+    private final MessageDigest md5;
+    private byte[] buf = new byte[256];
+    private int pos;
+
+    private BsonHasher() {
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static long hash64(BsonValue value) {
+        return hash64(value, DEFAULT_SEED);
+    }
+
+    public static long hash64(BsonValue value, int seed) {
+        return hashers.get().hash(value, seed);
+    }
+
+    public static BsonInt64 hashedKey(BsonValue value) {
+        return new BsonInt64(hash64(value));
+    }
+
+    private long hash(BsonValue value, int seed) {
+        pos = 0;
+        writeInt(seed);
+        append(value);
+        md5.update(buf, 0, pos);
+        byte[] digest = md5.digest();
+        long hash = 0;
+        for (int i = 7; i >= 0; i--) {
+            hash = (hash << 8) | (digest[i] & 0xff);
+        }
+        return hash;
+    }
+
+    private void append(BsonValue value) {
+        writeInt(BsonValueComparator.canonicalType(value.getBsonType()));
+        appendValue(value);
+    }
+
+    private void appendValue(BsonValue value) {
+        switch (value.getBsonType()) {
+        case MIN_KEY:
+        case MAX_KEY:
+        case NULL:
+        case UNDEFINED:
+            break;
+        case INT32:
+            writeLong(value.asInt32().getValue());
+            break;
+        case INT64:
+            writeLong(value.asInt64().getValue());
+            break;
+        case DOUBLE:
+            writeLong(truncate(value.asDouble().getValue()));
+            break;
+        case DECIMAL128:
+            appendDecimal(value.asDecimal128().getValue());
+            break;
+        case STRING:
+            writeString(value.asString().getValue());
+            break;
+        case SYMBOL:
+            writeString(value.asSymbol().getSymbol());
+            break;
+        case JAVASCRIPT:
+            writeString(value.asJavaScript().getCode());
+            break;
+        case DOCUMENT:
+            appendElements(value.asDocument());
+            break;
+        case ARRAY:
+            int i = 0;
+            for (BsonValue element : value.asArray()) {
+                appendElement(String.valueOf(i++), element);
+            }
+            appendEoo();
+            break;
+        case BINARY:
+            writeBinary(value.asBinary());
+            break;
+        case OBJECT_ID:
+            write(value.asObjectId().getValue().toByteArray());
+            break;
+        case BOOLEAN:
+            write((byte) (value.asBoolean().getValue() ? 1 : 0));
+            break;
+        case DATE_TIME:
+            writeLong(value.asDateTime().getValue());
+            break;
+        case TIMESTAMP:
+            writeLong(value.asTimestamp().getValue());
+            break;
+        case REGULAR_EXPRESSION:
+            BsonRegularExpression regex = value.asRegularExpression();
+            writeCString(regex.getPattern());
+            writeCString(regex.getOptions());
+            break;
+        case DB_POINTER:
+            BsonDbPointer pointer = value.asDBPointer();
+            writeString(pointer.getNamespace());
+            write(pointer.getId().toByteArray());
+            break;
+        case JAVASCRIPT_WITH_SCOPE:
+            // the code as a C string, without its length, then the scope's elements
+            BsonJavaScriptWithScope code = value.asJavaScriptWithScope();
+            writeCString(code.getCode());
+            appendElements(code.getScope());
+            break;
+        default:
+            throw new IllegalArgumentException("Cannot hash type " + value.getBsonType());
+        }
+    }
+
+    private void appendElements(BsonDocument doc) {
+        for (Map.Entry<String, BsonValue> entry : doc.entrySet()) {
+            appendElement(entry.getKey(), entry.getValue());
+        }
+        appendEoo();
+    }
+
+    private void appendElement(String name, BsonValue value) {
+        writeInt(BsonValueComparator.canonicalType(value.getBsonType()));
+        writeCString(name);
+        appendValue(value);
+    }
+
+    // EOO: canonical type 0, its field name and value are empty
+    private void appendEoo() {
+        writeInt(0);
+    }
+
+    private void appendDecimal(Decimal128 decimal) {
+        // NaN, infinity and zeros (bigDecimalValue() rejects -0) are all within the double range
+        double d = decimal.doubleValue();
+        if (decimal.isNaN() || decimal.isInfinite() || d == 0.0) {
+            writeLong(truncate(d));
+            return;
+        }
+        BigDecimal value = decimal.bigDecimalValue();
+        if (value.abs().compareTo(DECIMAL_DOUBLE_MAX) <= 0) {
+            writeLong(truncate(d));
+            return;
+        }
+        // pad the coefficient with zeros to 34 digits, the server's normalize()
+        BigInteger unscaled = value.unscaledValue();
+        int padding = DECIMAL_DIGITS - unscaled.abs().toString().length();
+        Decimal128 normalized = new Decimal128(
+                new BigDecimal(unscaled.multiply(BigInteger.TEN.pow(padding)), value.scale() + padding));
+        writeLong(normalized.getLow());
+        writeLong(normalized.getHigh());
+    }
+
+    // a C cast from double on x86 (cvttsd2si): truncate, NaN and out of range are Long.MIN_VALUE
+    private static long truncate(double d) {
+        if (Double.isNaN(d) || d >= LONG_MAX_PLUS_ONE) {
+            return Long.MIN_VALUE;
+        }
+        return (long) d;
+    }
+
+    private void writeBinary(BsonBinary binary) {
+        byte[] data = binary.getData();
+        if (binary.getType() == BsonBinarySubType.OLD_BINARY.getValue()) {
+            writeInt(data.length + 4);
+            write(binary.getType());
+            writeInt(data.length);
+        } else {
+            writeInt(data.length);
+            write(binary.getType());
+        }
+        write(data);
+    }
+
+    private void writeString(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeInt(bytes.length + 1);
+        write(bytes);
+        write((byte) 0);
+    }
+
+    private void writeCString(String s) {
+        write(s.getBytes(StandardCharsets.UTF_8));
+        write((byte) 0);
+    }
+
+    private void writeInt(int v) {
+        ensure(4);
+        buf[pos++] = (byte) v;
+        buf[pos++] = (byte) (v >>> 8);
+        buf[pos++] = (byte) (v >>> 16);
+        buf[pos++] = (byte) (v >>> 24);
+    }
+
+    private void writeLong(long v) {
+        ensure(8);
+        for (int i = 0; i < 8; i++) {
+            buf[pos++] = (byte) (v >>> (8 * i));
+        }
+    }
+
+    private void write(byte b) {
+        ensure(1);
+        buf[pos++] = b;
+    }
+
+    private void write(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buf, pos, bytes.length);
+        pos += bytes.length;
+    }
+
+    private void ensure(int n) {
+        if (pos + n > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+        }
+    }
+
+}
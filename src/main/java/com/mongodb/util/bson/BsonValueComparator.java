@@ -1,56 +1,308 @@
 package com.mongodb.util.bson;
 
+import java.math.BigDecimal;
 import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
+import org.bson.BsonArray;
+import org.bson.BsonBinary;
 import org.bson.BsonDocument;
+import org.bson.BsonRegularExpression;
 import org.bson.BsonType;
 import org.bson.BsonValue;
+import org.bson.types.Decimal128;
 
 /**
  * Implements Comparator for BsonValue, for sorting/comparing BsonValues in the same
  * way as MongoDB server.
- * 
+ *
  * @author mh
  * @see <a href="https://docs.mongodb.com/manual/reference/bson-type-comparison-order/#objects">BSON Types Comparison Order</a>
  *
  */
 public class BsonValueComparator implements Comparator<BsonValue> {
-    
-    
 
     @SuppressWarnings({ "unchecked", "rawtypes" })
     @Override
     public int compare(BsonValue x, BsonValue y) {
         BsonType xType = x.getBsonType();
         BsonType yType = y.getBsonType();
-        
+
+        int typeCompare = Integer.compare(canonicalType(xType), canonicalType(yType));
+        if (typeCompare != 0) {
+            return typeCompare;
+        }
+
+        if (x.isNumber() || x.isDecimal128()) {
+            return compareNumbers(x, y);
+        }
+
+        if (xType == BsonType.STRING || xType == BsonType.SYMBOL) {
+            // String vs. Symbol, they sort together
+            return compareUtf8(stringValue(x), stringValue(y));
+        }
+
         boolean xIsComparable = x instanceof Comparable;
-        boolean yIsComparable = y instanceof Comparable;
-        
+
         if (xType.equals(yType)) {
-            
+
             if (xIsComparable) {
                 return ((Comparable)x).compareTo((Comparable)y);
             }
-            
+
             switch(xType) {
             case DOCUMENT:
-              compareDocs((BsonDocument)x, (BsonDocument)y);
-              break;
+              return compareDocs((BsonDocument)x, (BsonDocument)y);
+            case ARRAY:
+              return compareArrays(x.asArray(), y.asArray());
+            case BINARY:
+              return compareBinary(x.asBinary(), y.asBinary());
+            case BOOLEAN:
+              return Boolean.compare(x.asBoolean().getValue(), y.asBoolean().getValue());
+            case REGULAR_EXPRESSION:
+              return compareRegex(x.asRegularExpression(), y.asRegularExpression());
+            case JAVASCRIPT:
+              return x.asJavaScript().getCode().compareTo(y.asJavaScript().getCode());
+            case MIN_KEY:
+            case MAX_KEY:
+            case NULL:
+            case UNDEFINED:
+              return 0;
             default:
               throw new IllegalArgumentException("not implemented");
             }
-            
+
         }
-        
-        
-        return 0;
+
+        throw new IllegalArgumentException("not implemented");
     }
-    
+
+    /**
+     * Compares strings in the order of their UTF-8 bytes, the order the server uses for strings,
+     * field names and namespaces. String.compareTo() compares UTF-16 chars, which sorts
+     * supplementary characters (surrogate pairs) before U+E000..U+FFFF instead of after them.
+     */
+    public static int compareUtf8(String x, String y) {
+        int len = Math.min(x.length(), y.length());
+        for (int i = 0; i < len; i++) {
+            char xc = x.charAt(i);
+            char yc = y.charAt(i);
+            if (xc != yc) {
+                // UTF-8 byte order is code point order, a surrogate is part of a code point above any BMP char
+                boolean xs = Character.isSurrogate(xc);
+                if (xs != Character.isSurrogate(yc)) {
+                    return xs ? 1 : -1;
+                }
+                return Integer.compare(xc, yc);
+            }
+        }
+        return Integer.compare(x.length(), y.length());
+    }
+
+    /**
+     * Documents are compared field by field: first the canonical type of each value, then
+     * the field name, then the value itself. A document that is a prefix of the other sorts first.
+     */
     public int compareDocs(BsonDocument x, BsonDocument y) {
-        String s1 = x.toJson();
-        String s2 = y.toJson();
-        return s1.compareTo(s2);
+        Iterator<Map.Entry<String, BsonValue>> xi = x.entrySet().iterator();
+        Iterator<Map.Entry<String, BsonValue>> yi = y.entrySet().iterator();
+        while (xi.hasNext() && yi.hasNext()) {
+            Map.Entry<String, BsonValue> xe = xi.next();
+            Map.Entry<String, BsonValue> ye = yi.next();
+
+            int result = Integer.compare(canonicalType(xe.getValue().getBsonType()), canonicalType(ye.getValue().getBsonType()));
+            if (result != 0) {
+                return result;
+            }
+            result = compareUtf8(xe.getKey(), ye.getKey());
+            if (result != 0) {
+                return result;
+            }
+            result = compare(xe.getValue(), ye.getValue());
+            if (result != 0) {
+                return result;
+            }
+        }
+        return Boolean.compare(xi.hasNext(), yi.hasNext());
+    }
+
+    private int compareArrays(BsonArray x, BsonArray y) {
+        List<BsonValue> xValues = x.getValues();
+        List<BsonValue> yValues = y.getValues();
+        int len = Math.min(xValues.size(), yValues.size());
+        for (int i = 0; i < len; i++) {
+            int result = compare(xValues.get(i), yValues.get(i));
+            if (result != 0) {
+                return result;
+            }
+        }
+        return Integer.compare(xValues.size(), yValues.size());
+    }
+
+    private static int compareBinary(BsonBinary x, BsonBinary y) {
+        int result = Integer.compare(x.getData().length, y.getData().length);
+        if (result != 0) {
+            return result;
+        }
+        result = Integer.compare(x.getType() & 0xff, y.getType() & 0xff);
+        if (result != 0) {
+            return result;
+        }
+        byte[] xb = x.getData();
+        byte[] yb = y.getData();
+        for (int i = 0; i < xb.length; i++) {
+            result = Integer.compare(xb[i] & 0xff, yb[i] & 0xff);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    private static int compareRegex(BsonRegularExpression x, BsonRegularExpression y) {
+        int result = x.getPattern().compareTo(y.getPattern());
+        if (result != 0) {
+            return result;
+        }
+        return x.getOptions().compareTo(y.getOptions());
+    }
+
+    // order of the non finite numbers relative to the finite ones, the server sorts NaN first
+    private final static int NAN = 0;
+    private final static int NEGATIVE_INFINITY = 1;
+    private final static int FINITE = 2;
+    private final static int POSITIVE_INFINITY = 3;
+
+    private final static double TWO_POW_63 = 9.223372036854775808E18;
+
+    private static int compareNumbers(BsonValue x, BsonValue y) {
+        int xClass = numberClass(x);
+        int yClass = numberClass(y);
+        if (xClass != FINITE || yClass != FINITE) {
+            return Integer.compare(xClass, yClass);
+        }
+        if (x.isDecimal128() || y.isDecimal128()) {
+            return toBigDecimal(x).compareTo(toBigDecimal(y));
+        }
+        if (x.isDouble() && y.isDouble()) {
+            double xd = x.asDouble().getValue();
+            double yd = y.asDouble().getValue();
+            return xd < yd ? -1 : (xd > yd ? 1 : 0);
+        }
+        if (x.isDouble()) {
+            return -compareLongToDouble(y.asNumber().longValue(), x.asDouble().getValue());
+        }
+        if (y.isDouble()) {
+            return compareLongToDouble(x.asNumber().longValue(), y.asDouble().getValue());
+        }
+        return Long.compare(x.asNumber().longValue(), y.asNumber().longValue());
+    }
+
+    private static int numberClass(BsonValue v) {
+        if (v.isDouble()) {
+            double d = v.asDouble().getValue();
+            if (Double.isNaN(d)) {
+                return NAN;
+            } else if (Double.isInfinite(d)) {
+                return d > 0 ? POSITIVE_INFINITY : NEGATIVE_INFINITY;
+            }
+        } else if (v.isDecimal128()) {
+            Decimal128 d = v.asDecimal128().getValue();
+            if (d.isNaN()) {
+                return NAN;
+            } else if (d.isInfinite()) {
+                return d.isNegative() ? NEGATIVE_INFINITY : POSITIVE_INFINITY;
+            }
+        }
+        return FINITE;
+    }
+
+    /**
+     * Exact comparison of a long with a finite double, converting the long to a double would
+     * round values above 2^53.
+     */
+    static int compareLongToDouble(long l, double d) {
+        if (d >= TWO_POW_63) {
+            return -1;
+        } else if (d < -TWO_POW_63) {
+            return 1;
+        }
+        // |d| < 2^63, so the truncated value and the fraction are both exact
+        long truncated = (long) d;
+        if (l != truncated) {
+            return Long.compare(l, truncated);
+        }
+        double fraction = d - truncated;
+        return fraction > 0 ? -1 : (fraction < 0 ? 1 : 0);
+    }
+
+    // finite values only
+    private static BigDecimal toBigDecimal(BsonValue v) {
+        if (v.isDecimal128()) {
+            Decimal128 d = v.asDecimal128().getValue();
+            if (d.isNegative()) {
+                // bigDecimalValue() rejects negative zero, convert the magnitude and negate it
+                return Decimal128.fromIEEE754BIDEncoding(d.getHigh() & Long.MAX_VALUE, d.getLow()).bigDecimalValue().negate();
+            }
+            return d.bigDecimalValue();
+        } else if (v.isDouble()) {
+            return new BigDecimal(v.asDouble().getValue());
+        }
+        return BigDecimal.valueOf(v.asNumber().longValue());
+    }
+
+    private static String stringValue(BsonValue v) {
+        return v.isSymbol() ? v.asSymbol().getSymbol() : v.asString().getValue();
+    }
+
+    /**
+     * Order of the type "brackets" used by the server when comparing values of different types.
+     */
+    public static int canonicalType(BsonType type) {
+        switch (type) {
+        case MIN_KEY:
+            return -1;
+        case UNDEFINED:
+            return 0;
+        case NULL:
+            return 5;
+        case INT32:
+        case INT64:
+        case DOUBLE:
+        case DECIMAL128:
+            return 10;
+        case STRING:
+        case SYMBOL:
+            return 15;
+        case DOCUMENT:
+            return 20;
+        case ARRAY:
+            return 25;
+        case BINARY:
+            return 30;
+        case OBJECT_ID:
+            return 35;
+        case BOOLEAN:
+            return 40;
+        case DATE_TIME:
+            return 45;
+        case TIMESTAMP:
+            return 47;
+        case REGULAR_EXPRESSION:
+            return 50;
+        case DB_POINTER:
+            return 55;
+        case JAVASCRIPT:
+            return 60;
+        case JAVASCRIPT_WITH_SCOPE:
+            return 65;
+        case MAX_KEY:
+            return 127;
+        default:
+            throw new IllegalArgumentException("Unexpected type: " + type);
+        }
     }
 
 }
@@ -0,0 +1,56 @@
+package com.mongodb.mongosync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class BatchSizeControllerTest {
+
+    private final static long MB = 1024 * 1024;
+
+    // 5 ms per round trip plus 100 MB/s, throughput only improves with bigger batches
+    private static long writeNanos(long bytes) {
+        return TimeUnit.MILLISECONDS.toNanos(5) + bytes * 10;
+    }
+
+    @Test
+    public void testGrowsToMax() {
+        BatchSizeController controller = new BatchSizeController(MB, MB / 4, 40 * MB, 2000);
+        for (int i = 0; i < 50 * BatchSizeController.WINDOW; i++) {
+            long bytes = controller.getTargetBytes();
+            controller.onBatchWritten(bytes, writeNanos(bytes), false);
+        }
+        assertEquals(40 * MB, controller.getTargetBytes());
+    }
+
+    @Test
+    public void testLatencyTarget() {
+        // 40 MB takes 424 ms, the 100 ms target caps batches around 9.5 MB
+        BatchSizeController controller = new BatchSizeController(MB, MB / 4, 40 * MB, 100);
+        long max = 0;
+        for (int i = 0; i < 100 * BatchSizeController.WINDOW; i++) {
+            long bytes = controller.getTargetBytes();
+            controller.onBatchWritten(bytes, writeNanos(bytes), false);
+            if (i > 50 * BatchSizeController.WINDOW) {
+                max = Math.max(max, bytes);
+            }
+        }
+        assertTrue(max * 10 + TimeUnit.MILLISECONDS.toNanos(5) <= TimeUnit.MILLISECONDS.toNanos(100) * 1.25);
+        assertTrue(controller.getTargetBytes() > 4 * MB);
+    }
+
+    @Test
+    public void testFailureHalves() {
+        BatchSizeController controller = new BatchSizeController(8 * MB, MB / 4, 40 * MB, 2000);
+        controller.onBatchWritten(8 * MB, writeNanos(8 * MB), true);
+        assertEquals(4 * MB, controller.getTargetBytes());
+        for (int i = 0; i < 10; i++) {
+            controller.onBatchWritten(MB, writeNanos(MB), true);
+        }
+        assertEquals(MB / 4, controller.getTargetBytes());
+    }
+
+}
@@ -0,0 +1,162 @@
+package com.mongodb.mongosync;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.RandomStringUtils;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.model.Namespace;
+import com.mongodb.shardsync.MongosRouterPool;
+import com.mongodb.shardsync.ShardClient;
+
+/**
+ * Clone write throughput and thread count, writer threads vs the async writer, run manually
+ * against a test mongod or mongos (the benchmark collection is dropped before every run):
+ *
+ * mvn test-compile exec:java -Dexec.mainClass=com.mongodb.mongosync.CloneWriterBenchmark -Dexec.classpathScope=test
+ *     -Dexec.args="mongodb://localhost:27017 [docs] [writerThreads] [maxInFlight]"
+ *
+ * Both paths write the same generated batches from the same reader threads, by default with the
+ * same write concurrency (16 writer threads, 16 async writes in flight). Reported per run: docs/s,
+ * MB/s, and the JVM's live and peak thread count above the count before the run.
+ */
+public class CloneWriterBenchmark {
+
+    private final static Namespace NS = new Namespace("cloneWriterBenchmark", "docs");
+    private final static int BATCH_DOCS = 1000;
+    private final static int READERS = 8;
+    private final static int ROUNDS = 3;
+
+    private final static double MB = 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        String uri = args.length > 0 ? args[0] : "mongodb://localhost:27017";
+        int docs = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        int writerThreads = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        int maxInFlight = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+
+        List<CloneBatch> batches = generate(docs);
+        ShardClient dest = new ShardClient("dest", uri);
+        dest.init();
+
+        for (int round = 0; round < ROUNDS; round++) {
+            run(String.format("writer threads (%s)", writerThreads), round, dest, uri, batches, writerThreads, 0);
+            run(String.format("async writer (maxInFlight %s)", maxInFlight), round, dest, uri, batches, 0, maxInFlight);
+        }
+        System.exit(0);
+    }
+
+    private static List<CloneBatch> generate(int docs) {
+        Random random = new Random(42);
+        BsonDocumentCodec codec = new BsonDocumentCodec();
+        List<CloneBatch> batches = new ArrayList<CloneBatch>();
+        List<RawBsonDocument> batch = new ArrayList<RawBsonDocument>(BATCH_DOCS);
+        long bytes = 0;
+        for (int i = 0; i < docs; i++) {
+            BsonDocument doc = new BsonDocument("_id", new BsonInt32(i))
+                    .append("r", new BsonInt64(random.nextLong()))
+                    .append("s", new BsonString(RandomStringUtils.random(200, 0, 0, true, true, null, random)));
+            RawBsonDocument raw = new RawBsonDocument(doc, codec);
+            batch.add(raw);
+            bytes += raw.getByteBuffer().remaining();
+            if (batch.size() == BATCH_DOCS || i == docs - 1) {
+                batches.add(new CloneBatch(NS, batch, bytes));
+                batch = new ArrayList<RawBsonDocument>(BATCH_DOCS);
+                bytes = 0;
+            }
+        }
+        return batches;
+    }
+
+    private static void run(String label, int round, ShardClient dest, String uri, final List<CloneBatch> batches,
+            int writerThreads, int maxInFlight) throws Exception {
+        MongosRouterPool.Lease lease = dest.leaseDataMongoClient();
+        MongoCollection<RawBsonDocument> coll = lease.getClient().getDatabase(NS.getDatabaseName())
+                .getCollection(NS.getCollectionName(), RawBsonDocument.class);
+        coll.drop();
+        System.gc();
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int baseThreads = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+        long bytes = 0;
+        long docs = 0;
+        for (CloneBatch batch : batches) {
+            bytes += batch.getBytes();
+            docs += batch.size();
+        }
+
+        long start = System.nanoTime();
+        final BlockingQueue<CloneBatch> queue = writerThreads > 0 ? new ArrayBlockingQueue<CloneBatch>(2 * writerThreads) : null;
+        CloneMetrics metrics = new CloneMetrics(queue, READERS, writerThreads);
+        BatchSizeController batchSizeController = BatchSizeController.fromOptions(new MongoSyncOptions());
+        final AsyncCloneBatchWriter asyncWriter = maxInFlight > 0
+                ? new AsyncCloneBatchWriter(uri, dest, maxInFlight, metrics, batchSizeController) : null;
+        List<Thread> writers = new ArrayList<Thread>();
+        for (int i = 0; i < writerThreads; i++) {
+            Thread writer = new Thread(new CloneBatchWriter(queue, dest, metrics, batchSizeController));
+            writer.start();
+            writers.add(writer);
+        }
+
+        final AtomicInteger next = new AtomicInteger();
+        List<Thread> readers = new ArrayList<Thread>();
+        for (int i = 0; i < READERS; i++) {
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        int i;
+                        while ((i = next.getAndIncrement()) < batches.size()) {
+                            if (asyncWriter != null) {
+                                asyncWriter.write(batches.get(i));
+                            } else {
+                                queue.put(batches.get(i));
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        // writers and in flight writes are still running here, the peak covers the whole run
+        int liveThreads = threads.getThreadCount() - baseThreads;
+        for (int i = 0; i < writerThreads; i++) {
+            queue.put(CloneBatch.POISON);
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        if (asyncWriter != null) {
+            asyncWriter.close();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int peakThreads = threads.getPeakThreadCount() - baseThreads;
+
+        long count = coll.countDocuments();
+        lease.close();
+        System.out.println(String.format("round %s %-32s %,10.0f docs/s %8.1f MB/s, threads: +%s live, +%s peak%s", round,
+                label, docs / seconds, bytes / MB / seconds, liveThreads, peakThreads,
+                count == docs ? "" : String.format(" (%,d of %,d docs written)", count, docs)));
+    }
+
+}
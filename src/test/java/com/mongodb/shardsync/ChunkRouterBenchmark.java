@@ -0,0 +1,64 @@
+package com.mongodb.shardsync;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt64;
+import org.bson.BsonMaxKey;
+import org.bson.BsonMinKey;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.types.ObjectId;
+
+/**
+ * Lookup throughput of a hashed ChunkRouter, run manually:
+ *
+ * mvn test-compile exec:java -Dexec.mainClass=com.mongodb.shardsync.ChunkRouterBenchmark -Dexec.classpathScope=test
+ */
+public class ChunkRouterBenchmark {
+
+    private final static int DOCUMENTS = 2000000;
+    private final static int CHUNKS = 8192;
+    private final static int SHARDS = 16;
+    private final static int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        // evenly split hash space, as created by shardCollection with numInitialChunks
+        List<BsonDocument> chunks = new ArrayList<BsonDocument>();
+        long step = 2 * (Long.MAX_VALUE / CHUNKS);
+        for (int i = 0; i < CHUNKS; i++) {
+            BsonValue min = i == 0 ? new BsonMinKey() : new BsonInt64(Long.MIN_VALUE + i * step);
+            BsonValue max = i == CHUNKS - 1 ? new BsonMaxKey() : new BsonInt64(Long.MIN_VALUE + (i + 1) * step);
+            chunks.add(new BsonDocument("min", new BsonDocument("_id", min)).append("max", new BsonDocument("_id", max))
+                    .append("shard", new BsonString("shard" + (i % SHARDS))));
+        }
+        ChunkRouter router = new ChunkRouter("db1.c1", BsonDocument.parse("{_id: 'hashed'}"), chunks);
+
+        Random random = new Random(42);
+        List<BsonDocument> docs = new ArrayList<BsonDocument>(DOCUMENTS);
+        for (int i = 0; i < DOCUMENTS; i++) {
+            docs.add(new BsonDocument("_id", new BsonObjectId(new ObjectId())).append("x", new BsonInt64(random.nextLong())));
+        }
+
+        for (int round = 0; round < ROUNDS; round++) {
+            int[] counts = new int[SHARDS];
+            long start = System.nanoTime();
+            for (BsonDocument doc : docs) {
+                counts[Integer.parseInt(router.getShard(doc).substring(5))]++;
+            }
+            long nanos = System.nanoTime() - start;
+            int min = Integer.MAX_VALUE;
+            int max = 0;
+            for (int c : counts) {
+                min = Math.min(min, c);
+                max = Math.max(max, c);
+            }
+            System.out.println(String.format("round %s: %.2f million lookups/sec, docs per shard min %,d max %,d", round,
+                    DOCUMENTS / (nanos / 1e3), min, max));
+        }
+    }
+
+}
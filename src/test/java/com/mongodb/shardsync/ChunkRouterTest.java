@@ -0,0 +1,39 @@
+package com.mongodb.shardsync;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.bson.BsonDocument;
+import org.junit.Test;
+
+public class ChunkRouterTest {
+
+    @Test
+    public void testHashedKey() {
+        // hash(1) = 5902408780260971510, hash(null) = 2338878944348059895
+        ChunkRouter router = new ChunkRouter("db1.c1", BsonDocument.parse("{_id: 'hashed'}"), Arrays.asList(
+                BsonDocument.parse("{min: {_id: {$minKey: 1}}, max: {_id: NumberLong(0)}, shard: 'sh0'}"),
+                BsonDocument.parse("{min: {_id: NumberLong('4000000000000000000')}, max: {_id: {$maxKey: 1}}, shard: 'sh2'}"),
+                BsonDocument.parse("{min: {_id: NumberLong(0)}, max: {_id: NumberLong('4000000000000000000')}, shard: 'sh1'}")));
+        assertEquals("sh2", router.getShard(BsonDocument.parse("{_id: 1, x: 'a'}")));
+        assertEquals("sh1", router.getShard(BsonDocument.parse("{x: 'a'}")));
+        assertEquals(BsonDocument.parse("{_id: NumberLong('5902408780260971510')}"),
+                router.getShardKey(BsonDocument.parse("{_id: 1.0}")));
+        assertEquals("sh2", router.getShardForKey(router.getShardKey(BsonDocument.parse("{_id: 1}"))));
+    }
+
+    @Test
+    public void testRangeKey() {
+        ChunkRouter router = new ChunkRouter("db1.c1", BsonDocument.parse("{'a.b': 1, c: 1}"), Arrays.asList(
+                BsonDocument.parse("{min: {'a.b': {$minKey: 1}, c: {$minKey: 1}}, max: {'a.b': 10, c: {$minKey: 1}}, shard: 'sh0'}"),
+                BsonDocument.parse("{min: {'a.b': 10, c: {$minKey: 1}}, max: {'a.b': 10, c: 'm'}, shard: 'sh1'}"),
+                BsonDocument.parse("{min: {'a.b': 10, c: 'm'}, max: {'a.b': {$maxKey: 1}, c: {$maxKey: 1}}, shard: 'sh2'}")));
+        assertEquals("sh0", router.getShard(BsonDocument.parse("{a: {b: 5}, c: 'z'}")));
+        assertEquals("sh1", router.getShard(BsonDocument.parse("{a: {b: 10}, c: 'a'}")));
+        assertEquals("sh2", router.getShard(BsonDocument.parse("{a: {b: 10.0}, c: 'm'}")));
+        assertEquals("sh2", router.getShard(BsonDocument.parse("{a: {b: 'x'}}")));
+        assertEquals("sh0", router.getShard(BsonDocument.parse("{c: 'z'}")));
+    }
+
+}
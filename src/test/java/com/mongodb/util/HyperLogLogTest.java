@@ -0,0 +1,30 @@
+package com.mongodb.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.bson.BsonInt64;
+import org.junit.Test;
+
+import com.mongodb.util.bson.BsonHasher;
+
+public class HyperLogLogTest {
+
+    @Test
+    public void testEstimate() {
+        HyperLogLog hll = new HyperLogLog();
+        assertEquals(0, hll.estimate());
+        for (long i = 0; i < 100; i++) {
+            hll.add(BsonHasher.hash64(new BsonInt64(i)));
+            hll.add(BsonHasher.hash64(new BsonInt64(i)));
+        }
+        assertEquals(100, hll.estimate());
+
+        for (long i = 100; i < 1000000; i++) {
+            hll.add(BsonHasher.hash64(new BsonInt64(i)));
+        }
+        long estimate = hll.estimate();
+        assertTrue("estimate " + estimate, Math.abs(estimate - 1000000) < 1000000 * 0.03);
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.mongodb.util;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import com.mongodb.model.Namespace;
+
+/**
+ * Filter throughput with millions of namespaces, run manually:
+ *
+ * mvn test-compile exec:java -Dexec.mainClass=com.mongodb.util.NamespaceFilterBenchmark -Dexec.classpathScope=test
+ *
+ * Compares the compiled NamespaceFilter against the previous per-record check (parse into a
+ * Namespace, then set lookups on namespaces and database names).
+ */
+public class NamespaceFilterBenchmark {
+
+    private final static int NAMESPACES = 2000000;
+    private final static int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        List<String> namespaces = new ArrayList<String>(NAMESPACES);
+        for (int i = 0; i < NAMESPACES; i++) {
+            namespaces.add(String.format("tenant_%05d.coll_%03d", random.nextInt(50000), random.nextInt(500)));
+        }
+
+        // 1000 whole databases, 10000 single namespaces, a few patterns and excludes
+        List<String> entries = new ArrayList<String>();
+        Set<String> databases = new HashSet<String>();
+        Set<Namespace> includeNamespaces = new HashSet<Namespace>();
+        for (int i = 0; i < 1000; i++) {
+            String db = String.format("tenant_%05d", i * 50);
+            entries.add(db);
+            databases.add(db);
+        }
+        for (int i = 0; i < 10000; i++) {
+            String ns = String.format("tenant_%05d.coll_%03d", random.nextInt(50000), random.nextInt(500));
+            entries.add(ns);
+            includeNamespaces.add(new Namespace(ns));
+        }
+        NamespaceFilter exactFilter = new NamespaceFilter(entries);
+        entries.add("tenant_4999*");
+        entries.add("*.coll_499");
+        entries.add("tenant_1*.coll_1*");
+        entries.add("!tenant_00000.coll_000");
+
+        long start = System.nanoTime();
+        NamespaceFilter filter = new NamespaceFilter(entries);
+        System.out.println(String.format("compiled %s entries in %.1f ms", entries.size(), (System.nanoTime() - start) / 1e6));
+
+        for (int round = 0; round < ROUNDS; round++) {
+            run("NamespaceFilter (exact entries only)", round, exactFilter, namespaces);
+            run("NamespaceFilter (with patterns)", round, filter, namespaces);
+
+            start = System.nanoTime();
+            long matched = 0;
+            for (String ns : namespaces) {
+                Namespace n = new Namespace(ns);
+                if (includeNamespaces.contains(n) || databases.contains(n.getDatabaseName())) {
+                    matched++;
+                }
+            }
+            report("Namespace + sets (exact entries only)", round, matched, System.nanoTime() - start);
+        }
+    }
+
+    private static void run(String name, int round, NamespaceFilter filter, List<String> namespaces) {
+        long start = System.nanoTime();
+        long matched = 0;
+        for (String ns : namespaces) {
+            if (filter.matches(ns)) {
+                matched++;
+            }
+        }
+        report(name, round, matched, System.nanoTime() - start);
+    }
+
+    private static void report(String name, int round, long matched, long nanos) {
+        System.out.println(String.format("%-40s round %s: %,d matched, %,.0f namespaces/sec", name, round, matched,
+                NAMESPACES / (nanos / 1e9)));
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.mongodb.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.Test;
+
+public class NamespaceFilterTest {
+
+    @Test
+    public void testEmptyMatchesEverything() {
+        NamespaceFilter filter = new NamespaceFilter();
+        assertTrue(filter.isEmpty());
+        assertTrue(filter.matches("db1.c1"));
+        assertTrue(filter.mayMatchDatabase("db1"));
+        assertEquals(new Document(), filter.toQuery("ns"));
+    }
+
+    @Test
+    public void testDatabaseAndNamespace() {
+        NamespaceFilter filter = new NamespaceFilter("db1", "db2.c1");
+        assertTrue(filter.matches("db1.c1"));
+        assertTrue(filter.matches("db1.c2.sub"));
+        assertTrue(filter.matches("db2.c1"));
+        assertFalse(filter.matches("db2.c2"));
+        assertFalse(filter.matches("db10.c1"));
+        assertFalse(filter.matches("db3.c1"));
+        assertTrue(filter.mayMatchDatabase("db2"));
+        assertFalse(filter.mayMatchDatabase("db3"));
+    }
+
+    @Test
+    public void testOverlappingPrefixes() {
+        NamespaceFilter filter = new NamespaceFilter("db1.tenant_*", "db1", "db1.tenant_a*", "db0*");
+        assertTrue(filter.matches("db1.other"));
+        assertTrue(filter.matches("db1.tenant_b"));
+        assertTrue(filter.matches("db0x.c"));
+        assertFalse(filter.matches("db2.tenant_a"));
+    }
+
+    @Test
+    public void testWildcards() {
+        NamespaceFilter filter = new NamespaceFilter("db1.tenant_*", "*.users");
+        assertTrue(filter.matches("db1.tenant_42"));
+        assertFalse(filter.matches("db1.orders"));
+        assertTrue(filter.matches("db7.users"));
+        assertFalse(filter.matches("db7.users_old"));
+        assertTrue(filter.mayMatchDatabase("db7"));
+    }
+
+    @Test
+    public void testExcludes() {
+        NamespaceFilter filter = new NamespaceFilter("db1", "!db1.tmp_*", "!db1.audit");
+        assertTrue(filter.matches("db1.c1"));
+        assertFalse(filter.matches("db1.tmp_123"));
+        assertFalse(filter.matches("db1.audit"));
+        assertFalse(filter.matches("db2.c1"));
+
+        NamespaceFilter excludeOnly = new NamespaceFilter("!logs");
+        assertTrue(excludeOnly.matches("db1.c1"));
+        assertFalse(excludeOnly.matches("logs.c1"));
+        assertFalse(excludeOnly.mayMatchDatabase("logs"));
+    }
+
+    @Test
+    public void testRegexCharactersAreLiteral() {
+        NamespaceFilter filter = new NamespaceFilter("db1.a+b*");
+        assertTrue(filter.matches("db1.a+b1"));
+        assertFalse(filter.matches("db1.aab1"));
+    }
+
+    @Test
+    public void testToQuery() {
+        assertEquals(Document.parse("{ns: {$in: ['db2.c1']}}"), new NamespaceFilter("db2.c1").toQuery("ns"));
+        assertEquals(Document.parse("{_id: {$regex: '^db1\\\\.'}}"), new NamespaceFilter("db1").toQuery("_id"));
+        assertEquals(Document.parse("{$and: [{ns: {$regex: '^db1\\\\.'}}, {$nor: [{ns: {$regex: '^db1\\\\.tmp_'}}]}]}"),
+                new NamespaceFilter("db1", "!db1.tmp_*").toQuery("ns"));
+        assertEquals(Document.parse("{$or: [{ns: {$regex: '^db1\\\\.'}}, {ns: {$regex: '\\\\.users$'}}]}"),
+                new NamespaceFilter("db1", "*.users").toQuery("ns"));
+    }
+
+    @Test
+    public void testToOplogQuery() {
+        assertEquals(new Document(), new NamespaceFilter().toOplogQuery());
+        assertEquals(Document.parse("{$or: [{ns: {$in: ['db2.c1']}}, {ns: {$in: ['admin.$cmd', 'db2.$cmd']}}]}"),
+                new NamespaceFilter("db2.c1").toOplogQuery());
+        // wildcards can match any database
+        assertEquals(Document.parse("{$or: [{ns: {$regex: '\\\\.users$'}}, {ns: {$regex: '\\\\.\\\\$cmd$'}}]}"),
+                new NamespaceFilter("*.users").toOplogQuery());
+    }
+
+    @Test
+    public void testMatchesOplogEntry() {
+        NamespaceFilter filter = new NamespaceFilter("db1.c1", "db2");
+        assertTrue(filter.matchesOplogEntry(BsonDocument.parse("{op: 'i', ns: 'db1.c1', o: {_id: 1}}")));
+        assertFalse(filter.matchesOplogEntry(BsonDocument.parse("{op: 'i', ns: 'db1.c2', o: {_id: 1}}")));
+        assertTrue(filter.matchesOplogEntry(BsonDocument.parse("{op: 'c', ns: 'db1.$cmd', o: {create: 'c1'}}")));
+        assertFalse(filter.matchesOplogEntry(BsonDocument.parse("{op: 'c', ns: 'db1.$cmd', o: {drop: 'c2'}}")));
+        assertTrue(filter.matchesOplogEntry(BsonDocument.parse("{op: 'c', ns: 'db2.$cmd', o: {dropDatabase: 1}}")));
+        assertFalse(filter.matchesOplogEntry(BsonDocument.parse("{op: 'c', ns: 'db3.$cmd', o: {dropDatabase: 1}}")));
+        assertTrue(filter.matchesOplogEntry(BsonDocument.parse(
+                "{op: 'c', ns: 'db3.$cmd', o: {renameCollection: 'db3.tmp', to: 'db2.c9'}}")));
+        assertTrue(filter.matchesOplogEntry(BsonDocument.parse("{op: 'c', ns: 'admin.$cmd', o: {applyOps: ["
+                + "{op: 'i', ns: 'db3.c1', o: {_id: 1}}, {op: 'u', ns: 'db1.c1', o: {$set: {x: 1}}, o2: {_id: 2}}]}}")));
+        assertFalse(filter.matchesOplogEntry(BsonDocument.parse("{op: 'c', ns: 'admin.$cmd', o: {applyOps: ["
+                + "{op: 'i', ns: 'db3.c1', o: {_id: 1}}]}}")));
+    }
+
+}
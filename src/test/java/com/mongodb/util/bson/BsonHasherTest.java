@@ -0,0 +1,91 @@
+package com.mongodb.util.bson;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.bson.BsonArray;
+import org.bson.BsonDecimal128;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonNull;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.types.Decimal128;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+public class BsonHasherTest {
+
+    // expected values from the server's hasher unit tests (hasher_test.cpp)
+    @Test
+    public void testServerHashes() {
+        assertEquals(5902408780260971510L, BsonHasher.hash64(new BsonInt32(1)));
+        assertEquals(2338878944348059895L, BsonHasher.hash64(BsonNull.VALUE));
+        assertEquals(-944302157085130861L, BsonHasher.hash64(new BsonDouble(42.123)));
+        assertEquals(-944302157085130861L, BsonHasher.hash64(new BsonInt64(42)));
+        assertEquals(8478485326885698097L, BsonHasher.hash64(new BsonString("abc")));
+        assertEquals(-5588663249627035708L, BsonHasher.hash64(new BsonObjectId(new ObjectId("010203040506070809101112"))));
+        assertEquals(4771603801758380216L, BsonHasher.hash64(BsonDocument.parse("{a: 'abc', b: NumberLong(123)}")));
+        assertEquals(7980500913326740417L, BsonHasher.hash64(new BsonDocument()));
+        assertEquals(-2938911267422831539L, BsonHasher.hash64(BsonArray.parse("['bar', 'baz', 'qux']")));
+    }
+
+    @Test
+    public void testNumbersHashByTruncatedValue() {
+        long one = BsonHasher.hash64(new BsonInt32(1));
+        assertEquals(one, BsonHasher.hash64(new BsonInt64(1)));
+        assertEquals(one, BsonHasher.hash64(new BsonDouble(1.0)));
+        assertEquals(one, BsonHasher.hash64(new BsonDouble(1.9)));
+        assertEquals(BsonHasher.hash64(new BsonDouble(9007199254740992.0)),
+                BsonHasher.hash64(new BsonDecimal128(Decimal128.parse("9007199254740993"))));
+        // int64 is hashed exactly, not through a double
+        assertFalse(BsonHasher.hash64(new BsonDouble(9007199254740992.0)) == BsonHasher.hash64(new BsonInt64((1L << 53) + 1)));
+        assertFalse(BsonHasher.hash64(new BsonInt64(Long.MAX_VALUE)) == BsonHasher.hash64(new BsonInt64(Long.MAX_VALUE - 1)));
+        // like an x86 cast, NaN and out of range values become Long.MIN_VALUE
+        long min = BsonHasher.hash64(new BsonInt64(Long.MIN_VALUE));
+        assertEquals(min, BsonHasher.hash64(new BsonDouble(Double.NaN)));
+        assertEquals(min, BsonHasher.hash64(new BsonDouble(1e300)));
+        assertEquals(min, BsonHasher.hash64(new BsonDecimal128(Decimal128.POSITIVE_INFINITY)));
+        assertEquals(BsonHasher.hash64(new BsonInt32(0)), BsonHasher.hash64(new BsonDecimal128(Decimal128.NEGATIVE_ZERO)));
+        assertFalse(one == BsonHasher.hash64(new BsonString("1")));
+    }
+
+    @Test
+    public void testDecimalsTruncateAfterRoundingToDouble() {
+        // truncated toward zero, not rounded half to even
+        assertEquals(BsonHasher.hash64(new BsonInt32(1)), BsonHasher.hash64(new BsonDecimal128(Decimal128.parse("1.5"))));
+        assertEquals(BsonHasher.hash64(new BsonInt32(2)), BsonHasher.hash64(new BsonDecimal128(Decimal128.parse("2.5"))));
+        assertEquals(BsonHasher.hash64(new BsonInt32(-1)), BsonHasher.hash64(new BsonDecimal128(Decimal128.parse("-1.5"))));
+        // the nearest double is 1.0, so this hashes as 1 and not 0
+        assertEquals(BsonHasher.hash64(new BsonInt32(1)),
+                BsonHasher.hash64(new BsonDecimal128(Decimal128.parse("0.99999999999999999999"))));
+        assertEquals(BsonHasher.hash64(new BsonInt32(0)),
+                BsonHasher.hash64(new BsonDecimal128(Decimal128.parse("0.9999999999"))));
+    }
+
+    @Test
+    public void testLargeDecimalsHashNormalized() {
+        long large = BsonHasher.hash64(new BsonDecimal128(Decimal128.parse("1E+400")));
+        assertEquals(large, BsonHasher.hash64(new BsonDecimal128(Decimal128.parse("1.000E+400"))));
+        assertFalse(large == BsonHasher.hash64(new BsonDecimal128(Decimal128.parse("-1E+400"))));
+        assertFalse(large == BsonHasher.hash64(new BsonDecimal128(Decimal128.parse("2E+400"))));
+        assertFalse(large == BsonHasher.hash64(new BsonInt64(Long.MIN_VALUE)));
+    }
+
+    @Test
+    public void testDocumentsIncludeFieldNamesAndOrder() {
+        long ab = BsonHasher.hash64(BsonDocument.parse("{a: 1, b: 2}"));
+        assertEquals(ab, BsonHasher.hash64(BsonDocument.parse("{a: 1.0, b: NumberLong(2)}")));
+        assertFalse(ab == BsonHasher.hash64(BsonDocument.parse("{b: 2, a: 1}")));
+        assertFalse(ab == BsonHasher.hash64(BsonDocument.parse("{a: 1, c: 2}")));
+        assertFalse(BsonHasher.hash64(BsonDocument.parse("{a: 1}")) == BsonHasher.hash64(BsonDocument.parse("{a: [1]}")));
+    }
+
+    @Test
+    public void testSeed() {
+        assertFalse(BsonHasher.hash64(new BsonInt32(1)) == BsonHasher.hash64(new BsonInt32(1), 1));
+    }
+
+}
@@ -2,10 +2,19 @@ package com.mongodb.util.bson;
 
 import static org.junit.Assert.assertEquals;
 
+import static org.junit.Assert.assertTrue;
+
+import org.bson.BsonDecimal128;
 import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonMaxKey;
+import org.bson.BsonMinKey;
 import org.bson.BsonString;
 import org.bson.RawBsonDocument;
 import org.bson.codecs.BsonDocumentCodec;
+import org.bson.types.Decimal128;
 import org.junit.Test;
 
 public class BsonValueComparatorTest {
@@ -36,6 +45,16 @@ public class BsonValueComparatorTest {
         assertEquals(1, compareResult);
     }
     
+    @Test
+    public void testStringsCompareByUtf8Bytes() {
+        // U+FFFD sorts before U+1F600 in UTF-8, String.compareTo() puts the surrogate pair first
+        BsonString x = new BsonString("a�");
+        BsonString y = new BsonString("a😀");
+        assertEquals(-1, comparator.compare(x, y));
+        assertEquals(1, comparator.compare(y, x));
+        assertEquals(-1, BsonValueComparator.compareUtf8("db.�", "db.😀"));
+    }
+    
     @Test
     public void testCompareDocuments() {
         BsonDocument d1 = new BsonDocument()
@@ -54,4 +73,55 @@ public class BsonValueComparatorTest {
         assertEquals(0, compareResult);
     }
 
+    @Test
+    public void testMixedNumericTypes() {
+        assertEquals(0, comparator.compare(new BsonInt32(5), new BsonDouble(5.0)));
+        assertTrue(comparator.compare(new BsonInt64(4), new BsonDouble(4.5)) < 0);
+        assertTrue(comparator.compare(new BsonDouble(Double.NaN), new BsonInt32(-100)) < 0);
+    }
+    
+    @Test
+    public void testNonFiniteNumbers() {
+        BsonDecimal128 decimalNaN = new BsonDecimal128(Decimal128.NaN);
+        assertEquals(0, comparator.compare(decimalNaN, new BsonDouble(Double.NaN)));
+        assertTrue(comparator.compare(decimalNaN, new BsonInt32(-100)) < 0);
+        assertTrue(comparator.compare(new BsonDouble(Double.NaN), new BsonDecimal128(Decimal128.parse("-1E+6000"))) < 0);
+        assertTrue(comparator.compare(new BsonDecimal128(Decimal128.parse("1E+6000")), new BsonDouble(Double.POSITIVE_INFINITY)) < 0);
+        assertEquals(0, comparator.compare(new BsonDecimal128(Decimal128.NEGATIVE_INFINITY), new BsonDouble(Double.NEGATIVE_INFINITY)));
+        assertEquals(0, comparator.compare(new BsonDecimal128(Decimal128.NEGATIVE_ZERO), new BsonInt32(0)));
+        assertTrue(comparator.compare(new BsonDecimal128(Decimal128.parse("-0.5")), new BsonDouble(-0.25)) < 0);
+    }
+    
+    @Test
+    public void testLargeInt64VsDouble() {
+        long twoPow53 = 1L << 53;
+        // (double) (2^53 + 1) == 2^53
+        assertTrue(comparator.compare(new BsonInt64(twoPow53 + 1), new BsonDouble(twoPow53)) > 0);
+        assertTrue(comparator.compare(new BsonDouble(twoPow53), new BsonInt64(twoPow53 + 1)) < 0);
+        assertEquals(0, comparator.compare(new BsonInt64(twoPow53), new BsonDouble(twoPow53)));
+        assertTrue(comparator.compare(new BsonInt64(Long.MAX_VALUE), new BsonDouble(9.223372036854775807E18)) < 0);
+        assertTrue(comparator.compare(new BsonInt64(Long.MIN_VALUE), new BsonDouble(-9.223372036854775808E18)) == 0);
+        assertTrue(comparator.compare(new BsonInt64(-3), new BsonDouble(-2.5)) < 0);
+    }
+    
+    @Test
+    public void testTypeOrder() {
+        assertTrue(comparator.compare(new BsonMinKey(), new BsonInt32(Integer.MIN_VALUE)) < 0);
+        assertTrue(comparator.compare(new BsonInt64(Long.MAX_VALUE), new BsonString("")) < 0);
+        assertTrue(comparator.compare(new BsonString("zzz"), new BsonMaxKey()) < 0);
+    }
+    
+    @Test
+    public void testCompareChunkBoundaries() {
+        BsonDocument min = new BsonDocument("x", new BsonMinKey()).append("y", new BsonMinKey());
+        BsonDocument mid = new BsonDocument("x", new BsonDouble(1.0)).append("y", new BsonDouble(142.0));
+        BsonDocument mid2 = new BsonDocument("x", new BsonInt32(1)).append("y", new BsonInt32(242));
+        BsonDocument max = new BsonDocument("x", new BsonMaxKey()).append("y", new BsonMaxKey());
+        
+        assertTrue(comparator.compare(min, mid) < 0);
+        assertTrue(comparator.compare(mid, mid2) < 0);
+        assertTrue(comparator.compare(mid2, max) < 0);
+        assertTrue(comparator.compare(max, min) > 0);
+    }
+
 }